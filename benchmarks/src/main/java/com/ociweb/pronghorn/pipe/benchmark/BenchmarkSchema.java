@@ -0,0 +1,179 @@
+package com.ociweb.pronghorn.pipe.benchmark;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.PipeWriter;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+/**
+ * Message shapes shared by the benchmarks, each written and read with both the low-level and high-level APIs so
+ * the two can be compared on the same bytes.
+ *
+ * ints  - four int fields and no blob
+ * small - long, int and a 16 byte payload
+ * large - long, int and a 512 byte payload
+ *
+ * The blobBits in the matrix are always at least 8 bits above the slabBits, anything smaller fails
+ * Pipe.validateVarLength for the 512 byte payload when the slab is full of Mixed fragments.
+ */
+final class BenchmarkSchema {
+
+    static final FieldReferenceOffsetManager FROM = load();
+    static final MessageSchemaDynamic SCHEMA = new MessageSchemaDynamic(FROM);
+
+    static final int MSG_INTS = FieldReferenceOffsetManager.lookupTemplateLocator("Ints", FROM);
+    static final int INTS_A = FieldReferenceOffsetManager.lookupFieldLocator("A", MSG_INTS, FROM);
+    static final int INTS_B = FieldReferenceOffsetManager.lookupFieldLocator("B", MSG_INTS, FROM);
+    static final int INTS_C = FieldReferenceOffsetManager.lookupFieldLocator("C", MSG_INTS, FROM);
+    static final int INTS_D = FieldReferenceOffsetManager.lookupFieldLocator("D", MSG_INTS, FROM);
+
+    static final int MSG_MIXED = FieldReferenceOffsetManager.lookupTemplateLocator("Mixed", FROM);
+    static final int MIXED_ID = FieldReferenceOffsetManager.lookupFieldLocator("Id", MSG_MIXED, FROM);
+    static final int MIXED_KIND = FieldReferenceOffsetManager.lookupFieldLocator("Kind", MSG_MIXED, FROM);
+    static final int MIXED_PAYLOAD = FieldReferenceOffsetManager.lookupFieldLocator("Payload", MSG_MIXED, FROM);
+
+    static final int SIZE_INTS = Pipe.sizeOf(SCHEMA, MSG_INTS);
+    static final int SIZE_MIXED = Pipe.sizeOf(SCHEMA, MSG_MIXED);
+
+    static final int READ_MASK = 1023;
+
+    //returned by the reads when there was nothing to read, no sum of the values read can reach it
+    static final long NOTHING_READ = Long.MIN_VALUE;
+
+    private BenchmarkSchema() {
+    }
+
+    private static FieldReferenceOffsetManager load() {
+        try {
+            return TemplateHandler.loadFrom("/benchmarkSchema.xml");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static int payloadLength(String shape) {
+        if ("ints".equals(shape)) {
+            return 0;
+        } else if ("small".equals(shape)) {
+            return 16;
+        } else if ("large".equals(shape)) {
+            return 512;
+        }
+        throw new UnsupportedOperationException("Unknown shape "+shape);
+    }
+
+    static Pipe<MessageSchemaDynamic> buildPipe(int slabBits, int blobBits, int batch) {
+        return init(new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>((byte)slabBits, (byte)blobBits, null, SCHEMA)), batch);
+    }
+
+    /**
+     * Pipe for the low-level API only, with the rings on the heap or in direct memory.
+     */
+    static Pipe<MessageSchemaDynamic> buildLowLevelPipe(int slabBits, int blobBits, int batch, String rings) {
+        PipeConfig<MessageSchemaDynamic> config = new PipeConfig<MessageSchemaDynamic>((byte)slabBits, (byte)blobBits, null, SCHEMA);
+        if ("offHeap".equals(rings)) {
+            config = config.offHeap();
+        } else if (!"heap".equals(rings)) {
+            throw new UnsupportedOperationException("Unknown rings "+rings);
+        }
+        return init(new Pipe<MessageSchemaDynamic>(config, false), batch);
+    }
+
+    private static Pipe<MessageSchemaDynamic> init(Pipe<MessageSchemaDynamic> pipe, int batch) {
+        pipe.initBuffers();
+        int size = Math.min(batch, Pipe.computeMaxBatchSize(pipe));
+        Pipe.setPublishBatchSize(pipe, size);
+        Pipe.setReleaseBatchSize(pipe, size);
+        return pipe;
+    }
+
+    static boolean writeLowLevel(Pipe<MessageSchemaDynamic> pipe, byte[] payload, int payloadLength, int value) {
+        if (0==payloadLength) {
+            if (!Pipe.hasRoomForWrite(pipe, SIZE_INTS)) {
+                return false;
+            }
+            Pipe.addMsgIdx(pipe, MSG_INTS);
+            Pipe.addIntValue(value, pipe);
+            Pipe.addIntValue(value+1, pipe);
+            Pipe.addIntValue(value+2, pipe);
+            Pipe.addIntValue(value+3, pipe);
+            Pipe.confirmLowLevelWrite(pipe, SIZE_INTS);
+        } else {
+            if (!Pipe.hasRoomForWrite(pipe, SIZE_MIXED)) {
+                return false;
+            }
+            Pipe.addMsgIdx(pipe, MSG_MIXED);
+            Pipe.addLongValue(value, pipe);
+            Pipe.addIntValue(value, pipe);
+            Pipe.addByteArray(payload, 0, payloadLength, pipe);
+            Pipe.confirmLowLevelWrite(pipe, SIZE_MIXED);
+        }
+        Pipe.publishWrites(pipe);
+        return true;
+    }
+
+    /**
+     * @return sum of the values read so nothing can be optimized away, NOTHING_READ if there was nothing to read
+     */
+    static long readLowLevel(Pipe<MessageSchemaDynamic> pipe, byte[] target) {
+        if (!Pipe.hasContentToRead(pipe)) {
+            return NOTHING_READ;
+        }
+        int msgIdx = Pipe.takeMsgIdx(pipe);
+        long result;
+        if (MSG_INTS==msgIdx) {
+            result = Pipe.takeInt(pipe)+Pipe.takeInt(pipe)+Pipe.takeInt(pipe)+Pipe.takeInt(pipe);
+            Pipe.confirmLowLevelRead(pipe, SIZE_INTS);
+        } else {
+            result = Pipe.takeLong(pipe)+Pipe.takeInt(pipe);
+            int meta = Pipe.takeRingByteMetaData(pipe);
+            int len = Pipe.takeRingByteLen(pipe);
+            Pipe.readBytes(pipe, target, 0, READ_MASK, meta, len);
+            result += len;
+            Pipe.confirmLowLevelRead(pipe, SIZE_MIXED);
+        }
+        Pipe.releaseReadLock(pipe);
+        return result;
+    }
+
+    static boolean writeHighLevel(Pipe<MessageSchemaDynamic> pipe, byte[] payload, int payloadLength, int value) {
+        if (0==payloadLength) {
+            if (!PipeWriter.tryWriteFragment(pipe, MSG_INTS)) {
+                return false;
+            }
+            PipeWriter.writeInt(pipe, INTS_A, value);
+            PipeWriter.writeInt(pipe, INTS_B, value+1);
+            PipeWriter.writeInt(pipe, INTS_C, value+2);
+            PipeWriter.writeInt(pipe, INTS_D, value+3);
+        } else {
+            if (!PipeWriter.tryWriteFragment(pipe, MSG_MIXED)) {
+                return false;
+            }
+            PipeWriter.writeLong(pipe, MIXED_ID, value);
+            PipeWriter.writeInt(pipe, MIXED_KIND, value);
+            PipeWriter.writeBytes(pipe, MIXED_PAYLOAD, payload, 0, payloadLength);
+        }
+        PipeWriter.publishWrites(pipe);
+        return true;
+    }
+
+    static long readHighLevel(Pipe<MessageSchemaDynamic> pipe, byte[] target) {
+        if (!PipeReader.tryReadFragment(pipe)) {
+            return NOTHING_READ;
+        }
+        long result;
+        if (MSG_INTS==PipeReader.getMsgIdx(pipe)) {
+            result = PipeReader.readInt(pipe, INTS_A)+PipeReader.readInt(pipe, INTS_B)
+                    +PipeReader.readInt(pipe, INTS_C)+PipeReader.readInt(pipe, INTS_D);
+        } else {
+            result = PipeReader.readLong(pipe, MIXED_ID)+PipeReader.readInt(pipe, MIXED_KIND)
+                    +PipeReader.readBytes(pipe, MIXED_PAYLOAD, target, 0, READ_MASK);
+        }
+        PipeReader.releaseReadLock(pipe);
+        return result;
+    }
+
+}
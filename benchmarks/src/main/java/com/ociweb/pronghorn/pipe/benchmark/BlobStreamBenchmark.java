@@ -0,0 +1,141 @@
+package com.ociweb.pronghorn.pipe.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * DataOutputBlobWriter against DataInputBlobReader, each message is one blob field holding eight longs, eight packed
+ * longs or a short UTF string.  Run with -prof gc, the readers and writers must show no bytes allocated per op.
+ * Messages are counted by {@link MessageCounters} as in {@link LowLevelBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class BlobStreamBenchmark {
+
+    private static final int SIZE = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final int VALUES = 8;
+    private static final String TEXT = "Pronghorn pipes pass data not objects";
+
+    @Param({"10", "13"})
+    public int slabBits;
+
+    @Param({"21", "23"})
+    public int blobBits;
+
+    @Param({"1", "32"})
+    public int batch;
+
+    @Param({"longs", "packed", "utf"})
+    public String shape;
+
+    private Pipe<RawDataSchema> pipe;
+    private DataOutputBlobWriter<RawDataSchema> writer;
+    private DataInputBlobReader<RawDataSchema> reader;
+    private StringBuilder text;
+    private long value;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)slabBits, (byte)blobBits, null, RawDataSchema.instance));
+        pipe.initBuffers();
+        int size = Math.min(batch, Pipe.computeMaxBatchSize(pipe));
+        Pipe.setPublishBatchSize(pipe, size);
+        Pipe.setReleaseBatchSize(pipe, size);
+        writer = new DataOutputBlobWriter<RawDataSchema>(pipe);
+        reader = new DataInputBlobReader<RawDataSchema>(pipe);
+        text = new StringBuilder(64);
+    }
+
+    @Benchmark
+    @Group("singleThread")
+    @GroupThreads(1)
+    public long writeThenRead(MessageCounters counters) {
+        write(counters);
+        return read(counters);
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    public boolean write(MessageCounters counters) {
+        if (!Pipe.hasRoomForWrite(pipe, SIZE)) {
+            return false;
+        }
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        DataOutputBlobWriter.openField(writer);
+        long v = value++;
+        if ("longs".equals(shape)) {
+            int i = VALUES;
+            while (--i>=0) {
+                writer.writeLong(v+i);
+            }
+        } else if ("packed".equals(shape)) {
+            int i = VALUES;
+            while (--i>=0) {
+                DataOutputBlobWriter.writePackedLong(writer, v+i);
+            }
+        } else {
+            writer.writeUTF(TEXT);
+        }
+        DataOutputBlobWriter.closeLowLevelField(writer);
+        Pipe.confirmLowLevelWrite(pipe, SIZE);
+        Pipe.publishWrites(pipe);
+        counters.messagesWritten++;
+        return true;
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    public long read(MessageCounters counters) {
+        if (!Pipe.hasContentToRead(pipe)) {
+            return BenchmarkSchema.NOTHING_READ;
+        }
+        Pipe.takeMsgIdx(pipe);
+        DataInputBlobReader.openLowLevelAPIField(reader);
+        long result = 0;
+        if ("longs".equals(shape)) {
+            int i = VALUES;
+            while (--i>=0) {
+                result += reader.readLong();
+            }
+        } else if ("packed".equals(shape)) {
+            int i = VALUES;
+            while (--i>=0) {
+                result += DataInputBlobReader.readPackedLong(reader);
+            }
+        } else {
+            text.setLength(0);
+            result = reader.readUTF(text).length();
+        }
+        Pipe.confirmLowLevelRead(pipe, SIZE);
+        Pipe.releaseReadLock(pipe);
+        counters.messagesRead++;
+        return result;
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.ociweb.pronghorn.pipe.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * PipeWriter.tryWriteFragment against PipeReader.tryReadFragment with the same shapes and matrix as
+ * {@link LowLevelBenchmark} so the cost of the field locators shows as the difference between the two.  Messages are
+ * counted by {@link MessageCounters} in the same way.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class HighLevelBenchmark {
+
+    @Param({"10", "13"})
+    public int slabBits;
+
+    @Param({"21", "23"})
+    public int blobBits;
+
+    @Param({"1", "32"})
+    public int batch;
+
+    @Param({"ints", "small", "large"})
+    public String shape;
+
+    private Pipe<MessageSchemaDynamic> pipe;
+    private byte[] payload;
+    private int payloadLength;
+    private byte[] target;
+    private int value;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        pipe = BenchmarkSchema.buildPipe(slabBits, blobBits, batch);
+        payloadLength = BenchmarkSchema.payloadLength(shape);
+        payload = new byte[payloadLength+1];
+        target = new byte[BenchmarkSchema.READ_MASK+1];
+    }
+
+    @Benchmark
+    @Group("singleThread")
+    @GroupThreads(1)
+    public long writeThenRead(MessageCounters counters) {
+        write(counters);
+        return read(counters);
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    public boolean write(MessageCounters counters) {
+        if (BenchmarkSchema.writeHighLevel(pipe, payload, payloadLength, value)) {
+            value++;
+            counters.messagesWritten++;
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    public long read(MessageCounters counters) {
+        long result = BenchmarkSchema.readHighLevel(pipe, target);
+        if (BenchmarkSchema.NOTHING_READ!=result) {
+            counters.messagesRead++;
+        }
+        return result;
+    }
+
+}
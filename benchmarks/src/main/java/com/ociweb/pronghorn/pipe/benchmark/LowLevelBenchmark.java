@@ -0,0 +1,101 @@
+package com.ociweb.pronghorn.pipe.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Pipe.addMsgIdx/addIntValue/addByteArray/publishWrites against Pipe.takeMsgIdx/takeInt/releaseReadLock.
+ *
+ * singleThread writes and reads on the same thread so the ring stays in one cache, crossThread has one producer and
+ * one consumer thread and shows the cost of the head and tail moving between cores.  A call which finds the pipe full
+ * or empty does nothing, so compare the messagesWritten and messagesRead results from {@link MessageCounters} rather
+ * than the primary score which counts calls.
+ *
+ * rings compares slab and blob rings on the heap against rings held in direct memory, see PipeConfig.offHeap().
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class LowLevelBenchmark {
+
+    @Param({"10", "13"})
+    public int slabBits;
+
+    @Param({"21", "23"})
+    public int blobBits;
+
+    @Param({"1", "32"})
+    public int batch;
+
+    @Param({"ints", "small", "large"})
+    public String shape;
+
+    @Param({"heap", "offHeap"})
+    public String rings;
+
+    private Pipe<MessageSchemaDynamic> pipe;
+    private byte[] payload;
+    private int payloadLength;
+    private byte[] target;
+    private int value;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        pipe = BenchmarkSchema.buildLowLevelPipe(slabBits, blobBits, batch, rings);
+        payloadLength = BenchmarkSchema.payloadLength(shape);
+        payload = new byte[payloadLength+1];
+        target = new byte[BenchmarkSchema.READ_MASK+1];
+    }
+
+    @Benchmark
+    @Group("singleThread")
+    @GroupThreads(1)
+    public long writeThenRead(MessageCounters counters) {
+        write(counters);
+        return read(counters);
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    public boolean write(MessageCounters counters) {
+        if (BenchmarkSchema.writeLowLevel(pipe, payload, payloadLength, value)) {
+            value++;
+            counters.messagesWritten++;
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    public long read(MessageCounters counters) {
+        long result = BenchmarkSchema.readLowLevel(pipe, target);
+        if (BenchmarkSchema.NOTHING_READ!=result) {
+            counters.messagesRead++;
+        }
+        return result;
+    }
+
+}
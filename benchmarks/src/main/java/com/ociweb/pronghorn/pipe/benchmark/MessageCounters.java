@@ -0,0 +1,27 @@
+package com.ociweb.pronghorn.pipe.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Messages each benchmark thread actually wrote and read.  A call which finds the pipe full or empty does nothing and
+ * is not counted, so unlike the primary score these are reported as messages per time unit and are the numbers to
+ * compare across the matrix.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class MessageCounters {
+
+    public long messagesWritten;
+    public long messagesRead;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        messagesWritten = 0;
+        messagesRead = 0;
+    }
+
+}
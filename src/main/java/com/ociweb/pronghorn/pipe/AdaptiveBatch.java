@@ -0,0 +1,74 @@
+package com.ociweb.pronghorn.pipe;
+
+/**
+ * Batch size for one side of a pipe, chosen again each time a batch is published or released.
+ * See {@link Pipe#setAdaptivePublishBatch(Pipe, long)} and {@link Pipe#setAdaptiveReleaseBatch(Pipe, long)}.
+ *
+ * The measure passed in is the slab space the other side still has to work with, for the producer this is what the
+ * consumer has left to read and for the consumer this is the room the producer has left to write.  While the measure
+ * holds or grows the other side is busy and a wider batch saves cache line traffic, while it shrinks the batch is
+ * halved and once it is near zero the other side is waiting on us so every fragment is sent on its own.
+ *
+ * Only used by the one thread which owns that side of the pipe.
+ */
+class AdaptiveBatch {
+
+    final long latencyBudgetNS;
+    final int maxSize;
+    final int nearLimit;
+
+    int size = 1;
+    private long lastMeasure;
+    private long batchStart;
+    private boolean late;
+
+    AdaptiveBatch(long latencyBudgetNS, int maxSize, int nearLimit) {
+        this.latencyBudgetNS = latencyBudgetNS;
+        this.maxSize = Math.max(1, maxSize);
+        this.nearLimit = nearLimit;
+    }
+
+    /**
+     * Called for each fragment held back, true when the other side is waiting on us or the first fragment held
+     * has waited longer than the budget.
+     */
+    static boolean flush(AdaptiveBatch batch, long measure) {
+        return measure<=batch.nearLimit || expired(batch);
+    }
+
+    /**
+     * Called while the owning side polls without sending anything new, true once the first fragment held has
+     * waited longer than the budget.  Callers only ask when something is held.
+     */
+    static boolean overdue(AdaptiveBatch batch) {
+        return 0!=batch.batchStart && (batch.late = (System.nanoTime()-batch.batchStart) > batch.latencyBudgetNS);
+    }
+
+    private static boolean expired(AdaptiveBatch batch) {
+        long now = System.nanoTime();
+        if (0==batch.batchStart) {
+            batch.batchStart = now;
+            return false;
+        }
+        return batch.late = (now-batch.batchStart) > batch.latencyBudgetNS;
+    }
+
+    /**
+     * @return size of the next batch
+     */
+    static int next(AdaptiveBatch batch, long measure) {
+        int size = batch.size;
+        if (measure<=batch.nearLimit) {
+            size = 1;
+        } else if (batch.late || measure<batch.lastMeasure) {
+            size = Math.max(1, size>>1);
+        } else {
+            size = Math.min(batch.maxSize, size<<1);
+        }
+        batch.lastMeasure = measure;
+        batch.batchStart = 0;
+        batch.late = false;
+        return batch.size = size;
+    }
+
+}
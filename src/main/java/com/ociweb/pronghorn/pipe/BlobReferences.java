@@ -0,0 +1,193 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lets the var-length fields of other pipes point at bytes still held in the blob ring of a source pipe, so a large
+ * payload can flow through a chain of stages while only being written once.
+ *
+ * The consumer of the source writes each field into its output with {@link #addReference(Pipe, BlobReferences, int, int)}
+ * instead of copying the bytes and then calls {@link #hold(BlobReferences)} in place of Pipe.releaseReadLock.  The
+ * fragment is kept as a pending release of the source until every reference to it has been released.  The hold must
+ * happen before the output is published.  Every fragment read from the source must be held, even those without
+ * references, so the releases stay in order.
+ *
+ * Readers downstream use the usual calls, every blob read of Pipe and PipeReader finds the bytes through
+ * Pipe.byteBackingArray and Pipe.convertToPosition which resolve the reference, as does DataInputBlobReader.  A stage which only forwards the field writes it again with
+ * {@link #forwardReference(Pipe, int, int)}.  The stage which finally consumes it calls {@link #release(BlobReferences, int)},
+ * from any thread.  A stage sending one reference to many outputs calls {@link #retain(BlobReferences, int)} for each extra copy.
+ *
+ * The consumer of the source publishes the tail for everything no longer referenced with
+ * {@link #releaseUnreferenced(BlobReferences)}, this should be called on every run.
+ *
+ * Every pipe carrying the references must be registered with {@link #share(BlobReferences, Pipe)} and must have a blob
+ * ring of the same size as the source.  A pipe can only carry references into one source.
+ */
+public class BlobReferences<T extends MessageSchema> {
+
+    private final Pipe<T> pipe;
+    private final int mask;
+
+    //for each held fragment, written before head is published
+    private final int[] position;  //blob position where the fragment starts
+    private final long[] start;    //running total of bytes held before the fragment
+    private final int[] length;
+    private final AtomicIntegerArray counts;
+
+    private volatile long head;
+    private volatile long tail;
+    private long total;
+    private int pending; //references added for the fragment being read
+
+    public BlobReferences(Pipe<T> pipe) {
+        this.pipe = pipe;
+        //never more held than the fragments which fit in the pipe
+        int size = 1 << (int)Math.ceil(Math.log(pipe.sizeOfSlabRing/FieldReferenceOffsetManager.minFragmentSize(Pipe.from(pipe)))/Math.log(2));
+        this.mask = size-1;
+        this.position = new int[size];
+        this.start = new long[size];
+        this.length = new int[size];
+        this.counts = new AtomicIntegerArray(size);
+    }
+
+    /**
+     * Allows the target to carry references into the blob of the source, both pipes must be initialized.
+     */
+    public static <S extends MessageSchema> void share(BlobReferences<?> refs, Pipe<S> target) {
+        assert(Pipe.isInit(refs.pipe) && Pipe.isInit(target)) : "Pipes must be init before sharing";
+        if (target.sizeOfBlobRing != refs.pipe.sizeOfBlobRing) {
+            throw new UnsupportedOperationException("Blob ring of "+target+" must be the same size as the source "+refs.pipe);
+        }
+        if (refs.pipe.sizeOfBlobRing > Pipe.REFERENCE_POS_MASK+1) {
+            throw new UnsupportedOperationException("Blob ring is too large to be referenced");
+        }
+        Pipe.referenceBlob(target, Pipe.blob(refs.pipe));
+    }
+
+    /**
+     * Writes a var-length field into the target which refers to the field just read from the source.
+     * Constants and empty fields are written as normal fields since there is nothing to hold.
+     */
+    public static <S extends MessageSchema, R extends MessageSchema> void addReference(Pipe<S> target, BlobReferences<R> refs, int meta, int len) {
+        assert(!Pipe.isBlobReference(meta)) : "Use forwardReference for fields which are already references";
+        if (meta<0) {
+            Pipe.addBytePosAndLen(target, meta, len);
+        } else if (len<=0) {
+            Pipe.addBytePosAndLen(target, Pipe.getWorkingBlobHeadPosition(target), len);
+        } else {
+            Pipe.addIntValue(Pipe.REFERENCE_POS_FLAG | (refs.pipe.blobMask & Pipe.convertToPosition(meta, refs.pipe)), target);
+            Pipe.addIntValue(len, target);
+            refs.pending++;
+        }
+    }
+
+    /**
+     * Writes a field read from one pipe carrying references into the next one without touching the count.
+     */
+    public static <S extends MessageSchema> void forwardReference(Pipe<S> target, int meta, int len) {
+        assert(meta<0 || len<=0 || Pipe.isBlobReference(meta)) : "Only references, constants and empty fields can be forwarded";
+        if (meta<0 || Pipe.isBlobReference(meta)) {
+            Pipe.addIntValue(meta, target);
+            Pipe.addIntValue(len, target);
+        } else {
+            Pipe.addBytePosAndLen(target, Pipe.getWorkingBlobHeadPosition(target), len);
+        }
+    }
+
+    /**
+     * Finishes reading the current fragment of the source without releasing it.
+     * Must only be called by the one thread consuming the source.
+     */
+    public static <S extends MessageSchema> void hold(BlobReferences<S> refs) {
+        final int begin = Pipe.bytesReadBase(refs.pipe);
+        final int bytes = Pipe.readNextWithoutReleasingReadLock(refs.pipe);
+        final long h = refs.head;
+        assert(h-refs.tail <= refs.mask) : "More held than fit in the pipe";
+        final int idx = refs.mask & (int)h;
+        refs.position[idx] = refs.pipe.blobMask & begin;
+        refs.start[idx] = refs.total;
+        refs.length[idx] = bytes;
+        refs.counts.set(idx, refs.pending);
+        refs.total += bytes;
+        refs.pending = 0;
+        refs.head = h+1;
+    }
+
+    /**
+     * Adds one more holder of the fragment this field refers to, the field must not have been released yet.
+     */
+    public static <S extends MessageSchema> void retain(BlobReferences<S> refs, int meta) {
+        if (Pipe.isBlobReference(meta)) {
+            int c = refs.counts.incrementAndGet(find(refs, meta));
+            assert(c>1) : "Reference was already released";
+        }
+    }
+
+    /**
+     * Drops one holder of the fragment this field refers to, may be called from any thread.
+     */
+    public static <S extends MessageSchema> void release(BlobReferences<S> refs, int meta) {
+        if (Pipe.isBlobReference(meta)) {
+            int c = refs.counts.decrementAndGet(find(refs, meta));
+            assert(c>=0) : "Reference was released too many times";
+        }
+    }
+
+    /**
+     * Releases in order every held fragment of the source which is no longer referenced.
+     * Must only be called by the one thread consuming the source.
+     *
+     * @return count of fragments released
+     */
+    public static <S extends MessageSchema> int releaseUnreferenced(BlobReferences<S> refs) {
+        final long h = refs.head;
+        long t = refs.tail;
+        int count = 0;
+        while (t<h && 0==refs.counts.get(refs.mask & (int)t)) {
+            Pipe.releasePendingReadLock(refs.pipe);
+            t++;
+            count++;
+        }
+        refs.tail = t;
+        return count;
+    }
+
+    /**
+     * Count of fragments of the source still held.
+     */
+    public static <S extends MessageSchema> int held(BlobReferences<S> refs) {
+        return (int)(refs.head-refs.tail);
+    }
+
+    private static <S extends MessageSchema> int find(BlobReferences<S> refs, int meta) {
+        final int pos = Pipe.REFERENCE_POS_MASK & meta;
+        int idx;
+        long t;
+        do {
+            //the referenced fragment can not be released while we hold it, but those before it can so retry
+            //if the tail moved since the slots we looked at may have been reused
+            t = refs.tail;
+            idx = find(refs, t, refs.head, pos);
+        } while (t!=refs.tail);
+        return idx;
+    }
+
+    private static <S extends MessageSchema> int find(BlobReferences<S> refs, long low, long high, int pos) {
+        assert(low<high) : "Nothing is held";
+        final int first = refs.mask & (int)low;
+        //running total for this position, exact because everything held fits in the blob ring
+        final long target = refs.start[first] + (refs.pipe.blobMask & (pos-refs.position[first]));
+        high--;
+        while (low<high) {
+            long mid = (low+high)>>>1;
+            int m = refs.mask & (int)mid;
+            if (refs.start[m]+refs.length[m] <= target) {
+                low = mid+1;
+            } else {
+                high = mid;
+            }
+        }
+        return refs.mask & (int)low;
+    }
+
+}
@@ -54,7 +54,7 @@ public class DataInputBlobReader<S extends MessageSchema>  extends InputStream i
         that.backing   = Pipe.byteBackingArray(meta, that.pipe);               
         that.bytesLimit = that.pipe.blobMask & (that.position + that.length);
         
-        assert(Pipe.validatePipeBlobHasDataToRead(that.pipe, that.position, that.length));
+        assert(Pipe.isBlobReference(meta) || Pipe.validatePipeBlobHasDataToRead(that.pipe, that.position, that.length));
         
         return that.length;
     }
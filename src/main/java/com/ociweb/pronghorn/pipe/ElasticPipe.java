@@ -0,0 +1,178 @@
+package com.ociweb.pronghorn.pipe;
+
+/**
+ * A pipe which grows under sustained back pressure and shrinks again when the load drops.
+ *
+ * The sizes and masks of a {@link Pipe} are final and are cached by every reader and writer so a ring can not be
+ * resized in place.  Instead this holds a chain of pipes.  When the producer has been unable to write for longer than
+ * the grow period it builds a pipe twice the size and writes all new fragments there.  The consumer finishes the old
+ * pipe first and only moves to the new one once the old one is empty, so the switch is always on a fragment
+ * boundary and blob references in the old pipe remain valid until they are released.
+ *
+ * The pipe is shrunk by half in the same way when the fill has stayed below a quarter of the ring for the whole
+ * shrink period. The highest fill of the period is tracked by the consumer on every read, from the head position it
+ * already holds, and by the producer each time it checks the period, so a short burst between checks still counts.
+ * A grow starts a new period. It never grows beyond the ceiling or shrinks below the initial size.
+ *
+ * Only the low level API is supported. Before each fragment the producer calls {@link #roomForWrite(ElasticPipe, int)}
+ * and the consumer calls {@link #contentToRead(ElasticPipe)}, each fragment is written to or read from the pipe returned.
+ * Pipes are never held across fragments.
+ */
+public class ElasticPipe<T extends MessageSchema> {
+
+    private static final class Segment<T extends MessageSchema> {
+        final Pipe<T> pipe;
+        volatile Segment<T> next;
+
+        Segment(Pipe<T> pipe) {
+            this.pipe = pipe;
+        }
+    }
+
+    private final int maxGrowth;
+    private final long growAfterNS;
+    private final long shrinkAfterNS;
+
+    //producer state
+    private Segment<T> writeSegment;
+    private PipeConfig<T> writeConfig;
+    private int growth;
+    private long stallStart;
+    private long windowStart;
+    private int windowMaxFill;
+    private int writes;
+
+    //consumer state
+    private Segment<T> readSegment;
+
+    //highest fill seen by the consumer, only written when it rises and reset by the producer for each period.
+    //A rise racing with the reset can only carry a fill into the next period which never causes a shrink.
+    private volatile int readMaxFill;
+
+    /**
+     * @param config initial and smallest size of the pipe
+     * @param maxGrowth ceiling, the maximum number of times the pipe may double in size
+     * @param growAfterNS time the producer must be blocked before the pipe grows
+     * @param shrinkAfterNS time the pipe must stay below a quarter full before it shrinks
+     */
+    public ElasticPipe(PipeConfig<T> config, int maxGrowth, long growAfterNS, long shrinkAfterNS) {
+        this.maxGrowth = maxGrowth;
+        this.growAfterNS = growAfterNS;
+        this.shrinkAfterNS = shrinkAfterNS;
+
+        this.writeConfig = config;
+        this.writeSegment = new Segment<T>(new Pipe<T>(config, false));
+        this.readSegment = writeSegment;
+    }
+
+    /**
+     * Must be called once before use.
+     */
+    public ElasticPipe<T> initBuffers() {
+        writeSegment.pipe.initBuffers();
+        windowStart = System.nanoTime();
+        return this;
+    }
+
+    /**
+     * Returns the pipe to write the next fragment into or null if there is no room yet.
+     */
+    public static <S extends MessageSchema> Pipe<S> roomForWrite(ElasticPipe<S> ep, int size) {
+        Pipe<S> pipe = ep.writeSegment.pipe;
+        if (Pipe.hasRoomForWrite(pipe, size)) {
+            ep.stallStart = 0;
+            if (0 == (0x3FF & ++ep.writes)) {
+                return sampleForShrink(ep, pipe);
+            }
+            return pipe;
+        } else {
+            long now = System.nanoTime();
+            if (0 == ep.stallStart) {
+                ep.stallStart = now;
+            } else if (now - ep.stallStart > ep.growAfterNS && ep.growth < ep.maxGrowth) {
+                ep.growth++;
+                ep.stallStart = 0;
+                beginWindow(ep, now);
+                return switchTo(ep, ep.writeConfig.grow2x());
+            }
+            return null;
+        }
+    }
+
+    //the period is checked every 1024 writes to keep the clock off the hot path, the consumer tracks the fill between
+    private static <S extends MessageSchema> Pipe<S> sampleForShrink(ElasticPipe<S> ep, Pipe<S> pipe) {
+        ep.windowMaxFill = Math.max(ep.windowMaxFill, Pipe.contentRemaining(pipe));
+        long now = System.nanoTime();
+        if (now - ep.windowStart > ep.shrinkAfterNS) {
+            int maxFill = Math.max(ep.windowMaxFill, ep.readMaxFill);
+            boolean shrink = ep.growth > 0 && maxFill < (pipe.sizeOfSlabRing>>2);
+            beginWindow(ep, now);
+            if (shrink) {
+                ep.growth--;
+                return switchTo(ep, ep.writeConfig.shrink2x());
+            }
+        }
+        return pipe;
+    }
+
+    private static <S extends MessageSchema> void beginWindow(ElasticPipe<S> ep, long now) {
+        ep.windowStart = now;
+        ep.windowMaxFill = 0;
+        ep.readMaxFill = 0;
+    }
+
+    private static <S extends MessageSchema> Pipe<S> switchTo(ElasticPipe<S> ep, PipeConfig<S> config) {
+        Segment<S> segment = new Segment<S>(new Pipe<S>(config, false));
+        segment.pipe.initBuffers();
+        //all writes to the old pipe are published before the consumer can see the new one
+        Pipe.publishAllBatchedWrites(ep.writeSegment.pipe);
+        ep.writeSegment.next = segment;
+        ep.writeSegment = segment;
+        ep.writeConfig = config;
+        return segment.pipe;
+    }
+
+    /**
+     * Returns the pipe to read the next fragment from or null if there is no content yet.
+     */
+    public static <S extends MessageSchema> Pipe<S> contentToRead(ElasticPipe<S> ep) {
+        Pipe<S> pipe = ep.readSegment.pipe;
+        if (Pipe.hasContentToRead(pipe)) {
+            recordReadFill(ep, pipe);
+            return pipe;
+        }
+        Segment<S> next = ep.readSegment.next;
+        if (null == next) {
+            return null;
+        }
+        //check once more, anything written before the switch is visible now that next has been read
+        if (Pipe.hasContentToRead(pipe)) {
+            recordReadFill(ep, pipe);
+            return pipe;
+        }
+        Pipe.releaseAllBatchedReads(pipe);
+        Pipe.releaseBuffers(pipe);
+        ep.readSegment = next;
+        if (Pipe.hasContentToRead(next.pipe)) {
+            recordReadFill(ep, next.pipe);
+            return next.pipe;
+        }
+        return null;
+    }
+
+    //the head cached by the content check is exact each time it is refreshed, no further volatile read is needed
+    private static <S extends MessageSchema> void recordReadFill(ElasticPipe<S> ep, Pipe<S> pipe) {
+        int fill = (int)(pipe.llWrite.llwHeadPosCache - Pipe.getWorkingTailPosition(pipe));
+        if (fill > ep.readMaxFill) {
+            ep.readMaxFill = fill;
+        }
+    }
+
+    /**
+     * Number of times the pipe is currently doubled from its initial size.
+     */
+    public static <S extends MessageSchema> int growth(ElasticPipe<S> ep) {
+        return ep.growth;
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.util.hash.MurmurHash;
+
+/**
+ * Read only index built once by {@link FieldReferenceOffsetManager} so the name and id lookups do not scan the script.
+ *
+ * Each entry maps a scope and a key to the script cursor the linear search would have found. The scope is the
+ * fragment start where the search begins or TEMPLATES for the message lookups. Field names ignore case, template
+ * names do not, just like the scans they replace.
+ *
+ * Open addressing with linear probing, the tables are at most half full so every probe ends on an empty slot.
+ * Lookups never allocate and are safe from any thread.
+ */
+final class FieldReferenceIndex {
+
+	static final int TEMPLATES = -1;
+	static final int NOT_FOUND = -1;
+
+	private final boolean[] scopes; //fragment starts which have entries
+
+	private final int idMask;
+	private final int[] idScopes;
+	private final long[] ids;
+	private final int[] idCursors;
+
+	private final int nameMask;
+	private final int[] nameScopes;
+	private final String[] names;
+	private final int[] nameCursors;
+
+	/**
+	 * Returns null when the script can not be indexed, callers must then use the linear search.
+	 */
+	static FieldReferenceIndex build(FieldReferenceOffsetManager from) {
+		if (null==from.fragScriptSize || null==from.fieldNameScript || null==from.fieldIdScript ||
+			from.fieldNameScript.length!=from.fieldIdScript.length || from.tokens.length<from.fieldNameScript.length) {
+			return null;
+		}
+		return new FieldReferenceIndex(from);
+	}
+
+	private FieldReferenceIndex(FieldReferenceOffsetManager from) {
+		int limit = from.fieldNameScript.length;
+		scopes = new boolean[limit];
+
+		int count = from.messageStarts.length;
+		for (int start = 0; start<limit; start++) {
+			if (from.fragScriptSize[start]>0) {
+				scopes[start] = true;
+				count += searchEnd(from, start)-start;
+			}
+		}
+		int bits = 32-Integer.numberOfLeadingZeros(Math.max(1, count<<1));
+
+		idMask = (1<<bits)-1;
+		idScopes = new int[idMask+1];
+		ids = new long[idMask+1];
+		idCursors = new int[idMask+1];
+		Arrays.fill(idCursors, NOT_FOUND);
+
+		nameMask = idMask;
+		nameScopes = new int[nameMask+1];
+		names = new String[nameMask+1];
+		nameCursors = new int[nameMask+1];
+		Arrays.fill(nameCursors, NOT_FOUND);
+
+		//walk backwards so the last message wins as it did for the scan
+		int i = from.messageStarts.length;
+		while (--i>=0) {
+			add(TEMPLATES, from.messageStarts[i], from);
+		}
+		//walk forward so the first field after the fragment start wins
+		for (int start = 0; start<limit; start++) {
+			if (scopes[start]) {
+				int end = searchEnd(from, start);
+				for (int x = start; x<end; x++) {
+					add(start, x, from);
+				}
+			}
+		}
+	}
+
+	private static int searchEnd(FieldReferenceOffsetManager from, int start) {
+		int x = start;
+		while (x<from.fieldNameScript.length && !FieldReferenceOffsetManager.exitSearch(from, x)) {
+			x++;
+		}
+		return Math.min(x+1, from.fieldNameScript.length);
+	}
+
+	private void add(int scope, int cursor, FieldReferenceOffsetManager from) {
+		long id = from.fieldIdScript[cursor];
+		int hash = idHash(scope, id);
+		while (idCursors[hash&idMask]>=0) {
+			if (id==ids[hash&idMask] && scope==idScopes[hash&idMask]) {
+				break; //keep the first one
+			}
+			hash++;
+		}
+		if (idCursors[hash&idMask]<0) {
+			idScopes[hash&idMask] = scope;
+			ids[hash&idMask] = id;
+			idCursors[hash&idMask] = cursor;
+		}
+
+		String name = from.fieldNameScript[cursor];
+		if (null!=name) {
+			hash = nameHash(scope, name);
+			while (nameCursors[hash&nameMask]>=0) {
+				if (scope==nameScopes[hash&nameMask] && isSameName(scope, name, names[hash&nameMask])) {
+					return; //keep the first one
+				}
+				hash++;
+			}
+			nameScopes[hash&nameMask] = scope;
+			names[hash&nameMask] = name;
+			nameCursors[hash&nameMask] = cursor;
+		}
+	}
+
+	static boolean isIndexed(FieldReferenceIndex index, int fragmentStart) {
+		return null!=index && fragmentStart>=0 && fragmentStart<index.scopes.length && index.scopes[fragmentStart];
+	}
+
+	static int lookup(FieldReferenceIndex index, int scope, long id) {
+		int mask = index.idMask;
+		int hash = idHash(scope, id);
+		int cursor;
+		while ((cursor = index.idCursors[hash&mask])>=0) {
+			if (id==index.ids[hash&mask] && scope==index.idScopes[hash&mask]) {
+				return cursor;
+			}
+			hash++;
+		}
+		return NOT_FOUND;
+	}
+
+	static int lookup(FieldReferenceIndex index, int scope, String name) {
+		int mask = index.nameMask;
+		int hash = nameHash(scope, name);
+		int cursor;
+		while ((cursor = index.nameCursors[hash&mask])>=0) {
+			if (scope==index.nameScopes[hash&mask] && isSameName(scope, name, index.names[hash&mask])) {
+				return cursor;
+			}
+			hash++;
+		}
+		return NOT_FOUND;
+	}
+
+	private static boolean isSameName(int scope, String name, String found) {
+		return TEMPLATES==scope ? name.equals(found) : name.equalsIgnoreCase(found);
+	}
+
+	private static int idHash(int scope, long id) {
+		return MurmurHash.hash32finalizer((31*scope) ^ (int)id ^ (int)(id>>>32));
+	}
+
+	private static int nameHash(int scope, String name) {
+		int h = scope;
+		int i = name.length();
+		while (--i>=0) {
+			//same folding as String.CASE_INSENSITIVE_ORDER so names equal ignoring case have equal hashes
+			h = 31*h + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+		}
+		return MurmurHash.hash32finalizer(h);
+	}
+
+}
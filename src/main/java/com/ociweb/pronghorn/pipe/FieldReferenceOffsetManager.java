@@ -31,6 +31,7 @@ public class FieldReferenceOffsetManager {
     
     //NOTE: these two arrays could be combined with a mask to simplify this in the future.
     public int[] fragDepth; //derived from tokens, do not put in hash or equals
+    private final FieldReferenceIndex lookupIndex; //derived from the scripts, do not put in hash or equals
     
     public final String[] fieldNameScript;
     public final long[] fieldIdScript;
@@ -156,6 +157,7 @@ public class FieldReferenceOffsetManager {
             //consumer of this need not check for null because it is always created.
         }
         tokensLen = null==tokens?0:tokens.length;
+        lookupIndex = FieldReferenceIndex.build(this);
         populateGUID();  
 	}
 
@@ -460,6 +462,13 @@ public class FieldReferenceOffsetManager {
 	}
 
 	public static int lookupTemplateLocator(String name, FieldReferenceOffsetManager from) {
+		if (null!=from.lookupIndex) {
+			int x = FieldReferenceIndex.lookup(from.lookupIndex, FieldReferenceIndex.TEMPLATES, name);
+			if (x>=0) {
+				return x;
+			}
+			throw new UnsupportedOperationException("Unable to find template name: "+name);
+		}
     	int i = from.messageStarts.length;
     	while(--i>=0) {
     		if (name.equals(from.fieldNameScript[from.messageStarts[i]])) {
@@ -471,6 +480,13 @@ public class FieldReferenceOffsetManager {
     }
     
 	public static int lookupTemplateLocator(final long id, FieldReferenceOffsetManager from) {
+		if (null!=from.lookupIndex) {
+			int x = FieldReferenceIndex.lookup(from.lookupIndex, FieldReferenceIndex.TEMPLATES, id);
+			if (x>=0) {
+				return x;
+			}
+			throw new UnsupportedOperationException("Unable to find template id: "+id);
+		}
     	int i = from.messageStarts.length;
     	while(--i>=0) {
     		if (id == from.fieldIdScript[from.messageStarts[i]]) {
@@ -498,13 +514,24 @@ public class FieldReferenceOffsetManager {
      * @param from
      */
     public static int lookupFieldLocator(String name, int framentStart, FieldReferenceOffsetManager from) {
+        int x = FieldReferenceIndex.isIndexed(from.lookupIndex, framentStart) ?
+                FieldReferenceIndex.lookup(from.lookupIndex, framentStart, name) :
+                scanForName(name, framentStart, from);
+        if (x>=0) {
+            return buildFieldLoc(from, framentStart, x);
+        }
+        throw new UnsupportedOperationException("Unable to find field name: "+name+" in "+Arrays.toString(from.fieldNameScript));
+	}
+
+    /**
+     * Linear search used when the script could not be indexed or the search does not begin on a fragment start.
+     */
+    static int scanForName(String name, int framentStart, FieldReferenceOffsetManager from) {
 		int x = framentStart;
         		
-		//upper bits is 4 bits of information
-
         while (x < from.fieldNameScript.length) {
             if (name.equalsIgnoreCase(from.fieldNameScript[x])) {            	
-            	return buildFieldLoc(from, framentStart, x);                
+            	return x;                
             }
             
             if (exitSearch(from, x)) {
@@ -513,10 +540,27 @@ public class FieldReferenceOffsetManager {
             
             x++;
         }
-        throw new UnsupportedOperationException("Unable to find field name: "+name+" in "+Arrays.toString(from.fieldNameScript));
+        return -1;
 	}
 
-    private static boolean exitSearch(FieldReferenceOffsetManager from, int x) {
+    static int scanForId(long id, int framentStart, FieldReferenceOffsetManager from) {
+        int x = framentStart;
+                
+        while (x < from.fieldNameScript.length) {
+            if (id == from.fieldIdScript[x]) {              
+                return x;                
+            }
+            
+            if (exitSearch(from, x)) {
+                break;
+            }
+            
+            x++;
+        }
+        return -1;
+    }
+
+    static boolean exitSearch(FieldReferenceOffsetManager from, int x) {
         int token = from.tokens[x];
         int type = TokenBuilder.extractType(token);
         boolean isGroupClosed = TypeMask.Group == type &&
@@ -545,20 +589,11 @@ public class FieldReferenceOffsetManager {
 	}
     
     public static int lookupFieldLocator(long id, int framentStart, FieldReferenceOffsetManager from) {
-        int x = framentStart;
-                
-        //upper bits is 4 bits of information
-
-        while (x < from.fieldNameScript.length) {
-            if (id == from.fieldIdScript[x]) {              
-                return buildFieldLoc(from, framentStart, x);                
-            }
-            
-            if (exitSearch(from, x)) {
-                break;
-            }
-            
-            x++;
+        int x = FieldReferenceIndex.isIndexed(from.lookupIndex, framentStart) ?
+                FieldReferenceIndex.lookup(from.lookupIndex, framentStart, id) :
+                scanForId(id, framentStart, from);
+        if (x>=0) {
+            return buildFieldLoc(from, framentStart, x);
         }
         throw new UnsupportedOperationException("Unable to find field id: "+id+" in "+Arrays.toString(from.fieldNameScript));
     }
@@ -591,39 +626,21 @@ public class FieldReferenceOffsetManager {
 	
 	
     public static int lookupFragmentLocator(String target, int framentStart, FieldReferenceOffsetManager from) {
-		int x = framentStart;
-        		
-        while (x < from.fieldNameScript.length) {
-            if (target.equalsIgnoreCase(from.fieldNameScript[x])) {
-            	return x;
-            }
-            
-            boolean isGroupClosed = exitSearch(from, x);
-           
-            if (isGroupClosed) {
-            	break;
-            }
-            
-            x++;
+        int x = FieldReferenceIndex.isIndexed(from.lookupIndex, framentStart) ?
+                FieldReferenceIndex.lookup(from.lookupIndex, framentStart, target) :
+                scanForName(target, framentStart, from);
+        if (x>=0) {
+            return x;
         }
         throw new UnsupportedOperationException("Unable to find fragment name: "+target+" in "+Arrays.toString(from.fieldNameScript));
 	}
     
     public static int lookupFragmentLocator(final long id, int framentStart, FieldReferenceOffsetManager from) {
-		int x = framentStart;
-        		
-        while (x < from.fieldNameScript.length) {
-            if (id == from.fieldIdScript[x]) {
-            	return x;
-            }
-            
-            boolean isGroupClosed = exitSearch(from, x);
-           
-            if (isGroupClosed) {
-            	break;
-            }
-            
-            x++;
+        int x = FieldReferenceIndex.isIndexed(from.lookupIndex, framentStart) ?
+                FieldReferenceIndex.lookup(from.lookupIndex, framentStart, id) :
+                scanForId(id, framentStart, from);
+        if (x>=0) {
+            return x;
         }
         throw new UnsupportedOperationException("Unable to find fragment id: "+id+" in "+Arrays.toString(from.fieldNameScript));
 	}
@@ -682,6 +699,18 @@ public class FieldReferenceOffsetManager {
 	public static int minFragmentSize(FieldReferenceOffsetManager from) {
 		return from.minFragmentDataSize;
 	}
+
+	/**
+	 * Throws UnsupportedOperationException unless every message of this schema is a single fragment, required by
+	 * anything which moves, stores or routes fragments as whole messages.
+	 *
+	 * @param feature named at the start of the exception message
+	 */
+	public static void requireSimpleMessagesOnly(FieldReferenceOffsetManager from, String feature) {
+		if (!from.hasSimpleMessagesOnly) {
+			throw new UnsupportedOperationException(feature+" is only supported for schemas where every message is a single fragment.");
+		}
+	}
 		
 	public static boolean isTemplateStart(FieldReferenceOffsetManager from, int cursorPosition) {
 		//checks the shortcut hasSimpleMessagesOnly first before any complex logic
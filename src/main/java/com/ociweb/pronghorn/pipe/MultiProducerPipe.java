@@ -0,0 +1,152 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allows many producer threads to write into a single {@link Pipe} which is read by one consumer using the
+ * normal low or high level API.  This removes the need for one pipe per producer plus a merge stage at
+ * aggregation points.
+ *
+ * Each producer thread holds its own {@link MultiProducerWriter}.  A writer claims the slab and blob space for
+ * an entire fragment with a single CAS on the shared claim position.  Both positions are packed into one long,
+ * the low 32 bits of the slab position in the high word and the blob position in the low word.  The full slab
+ * position is rebuilt from the published tail since the claim is never more than one ring ahead of it.
+ *
+ * Once written each fragment sets a sequence marker in the slot where it started.  The head is only moved over
+ * contiguous marked fragments so the consumer always sees complete fragments in claim order even when the
+ * producers finish out of order.
+ *
+ * Each claim covers one fragment so it must be a whole message.
+ * The pipe must be initialized before the writers are created and nothing else may write to it.
+ *
+ * The producer side of {@link PipeMetrics} is recorded by whichever thread moves the head, fragments and bytes
+ * written are counted but full on write is not since many producers may find the pipe full at once.  Producer
+ * regulation is not supported, there is no single producer to delay, so regulate the producing stages instead.
+ */
+public class MultiProducerPipe<T extends MessageSchema> {
+
+    final Pipe<T> pipe;
+    final int[] slab;
+    final byte[] blob;
+    final int slabMask;
+    final int blobMask;
+    final int slabSize;
+    final int blobSize;
+    final int[] fragDataSize;
+
+    //low 32 bits of the next slab position to be claimed in the high word, next blob position in the low word
+    private final AtomicLong claim;
+
+    //indexed by the slot where each fragment starts, holds the slab position just after that fragment once written
+    private final AtomicLongArray published;
+    //indexed by the slot where each fragment starts, holds the blob position just after that fragment
+    private final int[] publishedBlob;
+    private final AtomicBoolean publishing = new AtomicBoolean(false);
+
+    public MultiProducerPipe(Pipe<T> pipe) {
+        if (!Pipe.isInit(pipe)) {
+            throw new UnsupportedOperationException("The pipe must be initialized first");
+        }
+        if (Pipe.isRateLimitedProducer(pipe)) {
+            throw new UnsupportedOperationException("Producer regulation is not supported with multiple producers");
+        }
+        FieldReferenceOffsetManager from = Pipe.from(pipe);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Writing from multiple producers");
+        this.pipe = pipe;
+        this.slab = Pipe.slab(pipe);
+        this.blob = Pipe.blob(pipe);
+        this.slabMask = Pipe.slabMask(pipe);
+        this.blobMask = Pipe.blobMask(pipe);
+        this.slabSize = pipe.sizeOfSlabRing;
+        this.blobSize = pipe.sizeOfBlobRing;
+        this.fragDataSize = from.fragDataSize;
+
+        this.claim = new AtomicLong(pack(Pipe.headPosition(pipe), Pipe.getBlobHeadPosition(pipe)));
+        this.published = new AtomicLongArray(slabSize);
+        this.publishedBlob = new int[slabSize];
+    }
+
+    public Pipe<T> pipe() {
+        return pipe;
+    }
+
+    /**
+     * New writer for use by a single producer thread.
+     */
+    public MultiProducerWriter<T> newWriter() {
+        return new MultiProducerWriter<T>(this);
+    }
+
+    private static long pack(long slabPos, int blobPos) {
+        return (((long)(int)slabPos)<<32) | (0xFFFFFFFFL & blobPos);
+    }
+
+    /**
+     * Claim room for a fragment of slabLength ints and blobLength bytes. The claimed slab position is
+     * returned and the claimed blob position is stored on the writer.  Returns -1 if there is no room.
+     */
+    long tryClaim(int slabLength, int blobLength, MultiProducerWriter<T> writer) {
+        //read the slab tail first so the blob tail is at least as current
+        long tail = Pipe.tailPosition(pipe);
+        int blobTail = Pipe.getBlobTailPosition(pipe);
+
+        long claimed;
+        long slabPos;
+        int blobPos;
+        do {
+            claimed = claim.get();
+            slabPos = tail + (int)((int)(claimed>>>32) - (int)tail);
+            blobPos = (int)claimed;
+            if (slabPos + slabLength - tail > slabSize ||
+                (Pipe.BYTES_WRAP_MASK & (blobPos + blobLength - blobTail)) > blobSize) {
+                return -1;
+            }
+        } while (!claim.compareAndSet(claimed, pack(slabPos+slabLength, Pipe.BYTES_WRAP_MASK & (blobPos+blobLength))));
+
+        writer.blobStart = blobPos;
+        return slabPos;
+    }
+
+    /**
+     * Mark the fragment written at slabPos as complete and move the head over every complete fragment.
+     */
+    void publish(long slabPos, int slabLength, int blobEnd) {
+        int idx = slabMask & (int)slabPos;
+        publishedBlob[idx] = blobEnd;
+        published.set(idx, slabPos+slabLength); //full fence, must be seen by the publishing thread when it checks again
+
+        do {
+            if (!publishing.compareAndSet(false, true)) {
+                return; //the thread publishing now will find our marker when it checks again
+            }
+            long head = Pipe.headPosition(pipe);
+            long start = head;
+            int blobStart = Pipe.getBlobHeadPosition(pipe);
+            int blobHead = 0;
+            int fragments = 0;
+            long end;
+            //markers left from the previous lap are always behind the head
+            while ((end = published.get(slabMask & (int)head)) > head) {
+                blobHead = publishedBlob[slabMask & (int)head];
+                head = end;
+                fragments++;
+            }
+            if (head>start) {
+                Pipe.setBytesWorkingHead(pipe, blobHead);
+                Pipe.setBytesHead(pipe, blobHead);
+                Pipe.publishWorkingHeadPosition(pipe, head);
+                //only this thread holds the publishing flag so the single writer counters are safe here
+                Pipe.recordFragmentsPublished(pipe, fragments, Pipe.BYTES_WRAP_MASK & (blobHead-blobStart));
+            }
+            publishing.set(false);
+        } while (isReadyToPublish());
+    }
+
+    private boolean isReadyToPublish() {
+        long head = Pipe.headPosition(pipe);
+        return published.get(slabMask & (int)head) > head;
+    }
+
+}
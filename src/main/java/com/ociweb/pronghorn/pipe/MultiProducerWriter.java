@@ -0,0 +1,111 @@
+package com.ociweb.pronghorn.pipe;
+
+/**
+ * Writes whole fragments into a {@link MultiProducerPipe}. Each producer thread must have its own instance.
+ *
+ * Fields are added in the same order as the low level API, begin with {@link #tryWriteFragment(int, int)}
+ * and end with {@link #publishWrites()}.  The number of blob bytes for the fragment must be known when it is claimed.
+ */
+public class MultiProducerWriter<T extends MessageSchema> {
+
+    private final MultiProducerPipe<T> mpp;
+    private final int[] slab;
+    private final byte[] blob;
+    private final int slabMask;
+    private final int blobMask;
+
+    private long slabStart = -1;
+    private int slabLength;
+    private long slabCursor;
+
+    int blobStart;
+    private int blobLength;
+    private int blobCursor;
+
+    MultiProducerWriter(MultiProducerPipe<T> mpp) {
+        this.mpp = mpp;
+        this.slab = mpp.slab;
+        this.blob = mpp.blob;
+        this.slabMask = mpp.slabMask;
+        this.blobMask = mpp.blobMask;
+    }
+
+    /**
+     * Claim room for this message and write its msgIdx, returns false if the pipe does not have room.
+     */
+    public boolean tryWriteFragment(int msgIdx, int blobLength) {
+        assert(slabStart<0) : "publishWrites must be called before claiming the next fragment";
+        assert(msgIdx>=0) : "Call tryWriteEOF() instead of this method";
+        return tryClaim(msgIdx, mpp.fragDataSize[msgIdx], blobLength);
+    }
+
+    /**
+     * Claim room for and publish the end of file marker, returns false if the pipe does not have room.
+     * Only one producer may write this and it must be the last fragment written by any of them.
+     */
+    public boolean tryWriteEOF() {
+        assert(slabStart<0) : "publishWrites must be called before claiming the next fragment";
+        if (tryClaim(-1, Pipe.EOF_SIZE, 0)) {
+            slab[slabMask & (int)slabCursor] = 0;
+            mpp.publish(slabStart, slabLength, blobStart);
+            slabStart = -1;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean tryClaim(int msgIdx, int size, int blobLength) {
+        long pos = mpp.tryClaim(size, blobLength, this);
+        if (pos<0) {
+            return false;
+        }
+        this.slabStart = pos;
+        this.slabLength = size;
+        this.blobLength = blobLength;
+        this.blobCursor = blobStart;
+        slab[slabMask & (int)pos] = msgIdx;
+        this.slabCursor = pos+1;
+        return true;
+    }
+
+    public void addIntValue(int value) {
+        slab[slabMask & (int)slabCursor++] = value;
+    }
+
+    public void addLongValue(long value) {
+        slab[slabMask & (int)slabCursor++] = (int)(value >>> 32);
+        slab[slabMask & (int)slabCursor++] = (int)value;
+    }
+
+    public void addByteArray(byte[] source, int sourceIdx, int sourceLen) {
+        assert(sourceLen>=0);
+        assert((Pipe.BYTES_WRAP_MASK & (blobCursor + sourceLen - blobStart)) <= blobLength) : "More bytes written than were claimed";
+        Pipe.copyBytesFromToRing(source, sourceIdx, Integer.MAX_VALUE, blob, blobCursor, blobMask, sourceLen);
+        addBytePosAndLen(sourceLen);
+        blobCursor = Pipe.BYTES_WRAP_MASK & (blobCursor + sourceLen);
+    }
+
+    public void addNullByteArray() {
+        addBytePosAndLen(-1);
+    }
+
+    private void addBytePosAndLen(int length) {
+        //positions are relative to the start of this fragment, the same base the consumer will read from
+        slab[slabMask & (int)slabCursor++] = Pipe.BYTES_WRAP_MASK & (blobCursor - blobStart);
+        slab[slabMask & (int)slabCursor++] = length;
+    }
+
+    /**
+     * Write the trailing byte count and publish this fragment. It becomes visible to the consumer once
+     * every fragment claimed before it has also been published.
+     */
+    public void publishWrites() {
+        assert(slabCursor == slabStart+slabLength-1) : "Fields written do not match the size of the fragment";
+        //the full claim is consumed even if fewer bytes were written
+        slab[slabMask & (int)slabCursor] = blobLength;
+        Pipe.tracePublish(mpp.pipe, slabCursor);
+        mpp.publish(slabStart, slabLength, Pipe.BYTES_WRAP_MASK & (blobStart + blobLength));
+        slabStart = -1;
+    }
+
+}
@@ -85,7 +85,7 @@ public class PendingReleaseData {
 			that.pendingReleaseTail+=c;	    		
 			int idx = that.pendingReleaseMask & (that.pendingReleaseTail-1);	    		 
 			Pipe.setBytesTail(pipe, that.pendingBlobReleaseRing[idx]);
-			pipe.slabRingTail.tailPos.lazySet(that.pendingSlabReleaseRing[idx]);
+			Pipe.publishSlabTail(pipe, that.pendingSlabReleaseRing[idx]);
 			that.pendingReleaseCount = 0;
 		}
 	}
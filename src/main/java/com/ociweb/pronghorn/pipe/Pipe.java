@@ -4,12 +4,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
+import org.HdrHistogram.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -329,6 +333,12 @@ public class Pipe<T extends MessageSchema> {
     //NOTE: when the high bit is set we will not pull the value from the ring buffer but instead use the constants array (these are pronouns)
     public static final int RELATIVE_POS_MASK = 0x7FFFFFFF; //removes high bit which indicates this is a constant
 
+    //When the second highest bit is set the var-length data is not in this pipe, the low bits are the position within
+    //the blob ring of another pipe which is holding the bytes, see BlobReferences.  Relative positions never reach this bit
+    //because they are always smaller than the blob ring.
+    public static final int REFERENCE_POS_FLAG = 0x40000000;
+    public static final int REFERENCE_POS_MASK = 0x3FFFFFFF;
+
     //This mask is here to support the fact that variable-length fields will run out of space because the head/tail are 32 bit ints instead of
     //longs that are used for the structured layout data.  This mask enables the int to wrap back down to zero instead of going negative.
     //this will only happen once for every 2GB written.
@@ -364,8 +374,8 @@ public class Pipe<T extends MessageSchema> {
     //            the time slices of the graph will need to be kept for all rings to reconstruct history later.
 
 
-    private final SlabRingHead slabRingHead = new SlabRingHead();
-    private final BlobRingHead blobRingHead = new BlobRingHead();
+    private final SlabRingHead slabRingHead;
+    private final BlobRingHead blobRingHead;
 
     LowLevelAPIWritePositionCache llWrite; //low level write head pos cache and target
     LowLevelAPIReadPositionCache llRead; //low level read tail pos cache and target
@@ -380,6 +390,13 @@ public class Pipe<T extends MessageSchema> {
     final SlabRingTail slabRingTail = new SlabRingTail(); //primary working and public
     private final BlobRingTail blobRingTail = new BlobRingTail(); //primary working and public
 
+    //broadcast consumers share the head and rings of the source, the source tail is the slowest consumer tail.
+    private final Pipe<T> broadcastSource;
+    private Pipe<T>[] broadcastConsumers;
+    //on the source, only the consumer holding the guard moves the source tails, dirty asks it to look again
+    private AtomicBoolean broadcastTailGuard;
+    private AtomicBoolean broadcastTailDirty;
+
     //these values are only modified and used when replay is NOT in use
     //hold the publish position when batching so the batch can be flushed upon shutdown and thread context switches
     private int lastReleasedBlobTail;
@@ -405,6 +422,10 @@ public class Pipe<T extends MessageSchema> {
     //defined externally and never changes
     protected final byte[] blobConstBuffer;
     private byte[][] blobRingLookup;
+    //only set for rings held off heap, see PipeConfig#offHeap(), the slab is then only held by wrappedSlabRing
+    private final boolean offHeap;
+    private ByteBuffer blobWriteView; //positioned only by the producer
+    private ByteBuffer blobReadView; //positioned only by the consumer
     
     
     //NOTE:
@@ -416,6 +437,10 @@ public class Pipe<T extends MessageSchema> {
     private IntBuffer wrappedSlabRing;
     private ByteBuffer wrappedBlobReadingRingA;
     private ByteBuffer wrappedBlobReadingRingB;
+    //reading views of the blob ring referenced by this pipe, see BlobReferences
+    private ByteBuffer wrappedReferenceRingA;
+    private ByteBuffer wrappedReferenceRingB;
+    private ByteBuffer[] wrappedReferenceBuffers;
     
     private ByteBuffer wrappedBlobWritingRingA;
     private ByteBuffer wrappedBlobWritingRingB;
@@ -449,6 +474,9 @@ public class Pipe<T extends MessageSchema> {
 	int batchReleaseCountDownInit = 0;
 	private int batchPublishCountDown = 0;
 	private int batchPublishCountDownInit = 0;
+	//when set the batch sizes above are chosen again at the end of each batch
+	private AdaptiveBatch adaptivePublish;
+	private AdaptiveBatch adaptiveRelease;
 	//cas: jdoc -- This is the first mention of batch(ing).  It would really help the maintainer's comprehension of what
 	// you mean if you would explain this hugely overloaded word somewhere prior to use -- probably in the class's javadoc.
 	    //hold the publish position when batching so the batch can be flushed upon shutdown and thread context switches
@@ -456,6 +484,18 @@ public class Pipe<T extends MessageSchema> {
     private long lastPublishedSlabRingHead;
 
 	private final int debugFlags;
+	private final WaitStrategy waitStrategy;
+	private final boolean wakeWaiting;
+	private final PipeMetrics metrics; //null unless enabled in the config
+	
+	//only used when latency tracing is enabled, publish time of each fragment indexed by the position of its trailer
+	private final boolean traceLatency;
+	private long[] publishTimes;
+	private Histogram latency;
+	
+	//only used by blocking wait strategies, holds the thread waiting for content or room so it can be woken
+	final AtomicReference<Thread> waitingReader = new AtomicReference<Thread>();
+	final AtomicReference<Thread> waitingWriter = new AtomicReference<Thread>();
 
 	private long holdingSlabWorkingTail;
 	private int  holdingBlobWorkingTail;
@@ -485,14 +525,28 @@ public class Pipe<T extends MessageSchema> {
 	}
     	
     public Pipe(PipeConfig<T> config, boolean usingHighLevelAPI) {
+        this(config, usingHighLevelAPI, null);
+    }
+
+    private Pipe(PipeConfig<T> config, boolean usingHighLevelAPI, Pipe<T> broadcastSource) {
 
     	this.usingHighLevelAPI = usingHighLevelAPI;
+    	this.broadcastSource = broadcastSource;
+    	if (null==broadcastSource) {
+    	    this.slabRingHead = new SlabRingHead();
+    	    this.blobRingHead = new BlobRingHead();
+    	} else {
+    	    this.slabRingHead = broadcastSource.slabRingHead;
+    	    this.blobRingHead = broadcastSource.blobRingHead;
+    	}
         byte primaryBits = config.slabBits;
         byte byteBits = config.blobBits;
         byte[] byteConstants = config.byteConst;
         this.schema = config.schema;
 
         debugFlags = config.debugFlags;
+        waitStrategy = config.waitStrategy;
+        wakeWaiting = config.waitStrategy.isWakeRequired();
                 
 
         //Assign the immutable universal id value for this specific instance
@@ -517,6 +571,12 @@ public class Pipe<T extends MessageSchema> {
         FieldReferenceOffsetManager from = MessageSchema.from(config.schema); 
 
         this.blobConstBuffer = byteConstants;
+        this.offHeap = config.offHeap;
+        if (offHeap && usingHighLevelAPI) {
+            throw new UnsupportedOperationException("Off heap rings only support the low level API, build the pipe with usingHighLevelAPI false.");
+        }
+        this.metrics = config.metrics ? PipeMetrics.register(id, sizeOfSlabRing, sizeOfBlobRing) : null;
+        this.traceLatency = config.traceLatency;
 
 
         if (0 == from.maxVarFieldPerUnit || 0==primaryBits) { //zero bits is for the dummy mock case
@@ -530,6 +590,112 @@ public class Pipe<T extends MessageSchema> {
         }
         maxVarLen = maxAvgVarLen;
     }
+
+    /**
+     * Build consumer views which all read every fragment written to the source pipe without copying.
+     * The views share the single head and rings of the source but each has its own tail, position caches and
+     * StackStateWalker so each may be read with the low or high level API from its own thread.
+     * The producer continues to write to the source which will only see room for writing once the slowest
+     * consumer has released the space.
+     *
+     * Must be called once before the source is initialized. The source is not read directly, it is initialized
+     * by the first of its consumers to be initialized.
+     */
+    @SuppressWarnings("unchecked")
+    public static <S extends MessageSchema> Pipe<S>[] broadcast(Pipe<S> source, int consumers) {
+        if (null!=source.broadcastSource || null!=source.broadcastConsumers) {
+            throw new UnsupportedOperationException("broadcast may only be built once from an ordinary pipe.");
+        }
+        assert(!isInit(source)) : "broadcast must be built before the source is initialized";
+        PipeConfig<S> config = source.config();
+        Pipe<S>[] result = new Pipe[consumers];
+        int i = consumers;
+        while (--i>=0) {
+            result[i] = new Pipe<S>(config, source.usingHighLevelAPI, source);
+        }
+        source.broadcastTailGuard = new AtomicBoolean();
+        source.broadcastTailDirty = new AtomicBoolean();
+        source.broadcastConsumers = result;
+        return result;
+    }
+
+    public static <S extends MessageSchema> boolean isBroadcastConsumer(Pipe<S> pipe) {
+        return null!=pipe.broadcastSource;
+    }
+
+    //called after every publish of the tail
+    private static <S extends MessageSchema> void tailPublished(Pipe<S> pipe) {
+        publishBroadcastTail(pipe);
+        if (pipe.wakeWaiting) {
+            wakeWaiting((null==pipe.broadcastSource ? pipe : pipe.broadcastSource).waitingWriter);
+        }
+    }
+
+    //called after every publish of the head
+    private static <S extends MessageSchema> void headPublished(Pipe<S> pipe) {
+        if (pipe.wakeWaiting) {
+            if (null==pipe.broadcastConsumers) {
+                wakeWaiting(pipe.waitingReader);
+            } else {
+                int i = pipe.broadcastConsumers.length;
+                while (--i>=0) {
+                    wakeWaiting(pipe.broadcastConsumers[i].waitingReader);
+                }
+            }
+        }
+    }
+
+    private static void wakeWaiting(AtomicReference<Thread> waiting) {
+        Thread thread = waiting.get();
+        if (null!=thread && waiting.compareAndSet(thread, null)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    //called after any consumer publishes its tail so the source tail follows the slowest consumer.
+    //The blob and slab tails of the source must move together, so only the consumer holding the guard moves them.
+    //A consumer which finds the guard taken leaves the dirty flag set and the holder looks again before it leaves,
+    //so no release is lost and no consumer waits on another.
+    private static <S extends MessageSchema> void publishBroadcastTail(Pipe<S> pipe) {
+        if (null!=pipe.broadcastSource) {
+            Pipe<S> source = pipe.broadcastSource;
+            source.broadcastTailDirty.set(true);
+            while (source.broadcastTailDirty.get() && source.broadcastTailGuard.compareAndSet(false, true)) {
+                try {
+                    source.broadcastTailDirty.set(false);
+                    moveBroadcastTail(source);
+                } finally {
+                    source.broadcastTailGuard.set(false);
+                }
+            }
+        }
+    }
+
+    //only called by the holder of the broadcast tail guard
+    private static <S extends MessageSchema> void moveBroadcastTail(Pipe<S> source) {
+        Pipe<S>[] consumers = source.broadcastConsumers;
+        long minTail = Long.MAX_VALUE;
+        int minBlobTail = 0;
+        int i = consumers.length;
+        while (--i>=0) {
+            Pipe<S> c = consumers[i];
+            //consumers write the blob tail before the slab tail, reading in this order the blob tail is never ahead
+            int blobTail = c.blobRingTail.bytesTailPos.value;
+            long tail = c.slabRingTail.tailPos.get();
+            if (tail<minTail) {
+                minTail = tail;
+                minBlobTail = blobTail;
+            }
+        }
+        if (minTail > source.slabRingTail.tailPos.get()) {
+            //only ever move the blob tail forward, it is written before the slab tail which publishes it
+            int advance = BYTES_WRAP_MASK&(minBlobTail-source.blobRingTail.bytesTailPos.value);
+            if (advance>0 && advance<=source.sizeOfBlobRing) {
+                PaddedInt.set(source.blobRingTail.bytesTailPos, minBlobTail);
+            }
+            source.slabRingTail.tailPos.lazySet(minTail);
+        }
+    }
  
     private AtomicBoolean isInBlobFieldWrite = new AtomicBoolean(false);
     
@@ -565,7 +731,7 @@ public class Pipe<T extends MessageSchema> {
      * from this pipe.  This is based on the rate configuration.  
      */
     public static <S extends MessageSchema> long computeRateLimitConsumerDelay(Pipe<S> pipe) {        
-        return PipeRegulator.computeRateLimitDelay(pipe, Pipe.getWorkingTailPosition(pipe), pipe.regulatorConsumer);
+        return PipeRegulator.computeRateLimitDelay(pipe, Pipe.getWorkingTailPosition(pipe), Pipe.getWorkingBlobRingTailPosition(pipe), pipe.regulatorConsumer);
     }
 
     /**
@@ -573,7 +739,7 @@ public class Pipe<T extends MessageSchema> {
      * into this pipe.  This is based on the rate configuration.  
      */
     public static <S extends MessageSchema> long computeRateLimitProducerDelay(Pipe<S> pipe) {        
-        return PipeRegulator.computeRateLimitDelay(pipe, Pipe.workingHeadPosition(pipe), pipe.regulatorProducer);
+        return PipeRegulator.computeRateLimitDelay(pipe, Pipe.workingHeadPosition(pipe), Pipe.getWorkingBlobHeadPosition(pipe), pipe.regulatorProducer);
     }
     
     public static <S extends MessageSchema> boolean isForSchema(Pipe<S> pipe, MessageSchema schema) {
@@ -689,6 +855,82 @@ public class Pipe<T extends MessageSchema> {
 
     }
 
+    /**
+     * Let the producer choose its own publish batch size.  The batch widens while the consumer is busy and the pipe
+     * keeps filling, shrinks as it drains and collapses to a publish for every fragment once the consumer is near
+     * empty or a held fragment has waited longer than the latency budget.  Everything held is published at once when
+     * the pipe is found full.  The chosen size is available from {@link #getPublishBatchSize(Pipe)} and
+     * {@link PipeMetrics#publishBatchSize()}.
+     *
+     * A producer which goes quiet has what it holds published by its next {@link #hasRoomForWrite(Pipe)}, {@link PipeWriter#hasRoomForWrite(Pipe)}
+     * or {@link PipeWriter#tryWriteFragment(Pipe, int)} check once the latency budget has passed, or it may call {@link #publishAllBatchedWrites(Pipe)} directly.
+     */
+    public static <S extends MessageSchema> void setAdaptivePublishBatch(Pipe<S> pipe, long latencyBudgetNS) {
+    	pipe.adaptivePublish = new AdaptiveBatch(latencyBudgetNS, computeMaxBatchSize(pipe, 3), adaptiveNearLimit(pipe));
+    	pipe.batchPublishCountDownInit = 1;
+    	pipe.batchPublishCountDown = 1;
+    }
+
+    /**
+     * Let the consumer choose its own release batch size.  The batch widens while the producer has plenty of room,
+     * shrinks as the room runs out and collapses to a release for every fragment once the pipe is near full or a held
+     * release has waited longer than the latency budget.  Everything held is released at once when the pipe is
+     * found empty, or by the next {@link #hasContentToRead(Pipe)}, {@link PipeReader#hasContentToRead(Pipe)} or
+     * {@link PipeReader#tryReadFragment(Pipe)} check once the budget has passed.  The chosen size is available from {@link #getReleaseBatchSize(Pipe)} and
+     * {@link PipeMetrics#releaseBatchSize()}.
+     */
+    public static <S extends MessageSchema> void setAdaptiveReleaseBatch(Pipe<S> pipe, long latencyBudgetNS) {
+    	pipe.adaptiveRelease = new AdaptiveBatch(latencyBudgetNS, computeMaxBatchSize(pipe, 3), adaptiveNearLimit(pipe));
+    	pipe.batchReleaseCountDownInit = 1;
+    	pipe.batchReleaseCountDown = 1;
+    }
+
+    private static <S extends MessageSchema> int adaptiveNearLimit(Pipe<S> pipe) {
+    	return Math.max(FieldReferenceOffsetManager.maxFragmentSize(from(pipe)), pipe.sizeOfSlabRing>>3);
+    }
+
+    //what the consumer has left to read, measured before the publish
+    private static <S extends MessageSchema> long adaptivePublishMeasure(Pipe<S> pipe) {
+    	return pipe.slabRingHead.headPos.get()-pipe.slabRingTail.tailPos.get();
+    }
+
+    //room the producer has left to write, measured before the release
+    private static <S extends MessageSchema> long adaptiveReleaseMeasure(Pipe<S> pipe) {
+    	return pipe.sizeOfSlabRing-(pipe.slabRingHead.headPos.get()-pipe.slabRingTail.tailPos.get());
+    }
+
+    //polled by the producer, publishes what it holds once the oldest held fragment is past the budget
+    private static <S extends MessageSchema> void publishOverdueWrites(Pipe<S> pipe) {
+    	if (pipe.lastPublishedSlabRingHead>pipe.slabRingHead.headPos.get() && AdaptiveBatch.overdue(pipe.adaptivePublish)) {
+    		adaptPublishBatch(pipe);
+    		publishAllBatchedWrites(pipe);
+    	}
+    }
+
+    //polled by the consumer, releases what it holds once the oldest held release is past the budget
+    private static <S extends MessageSchema> void releaseOverdueReads(Pipe<S> pipe) {
+    	if (pipe.lastReleasedSlabTail>pipe.slabRingTail.tailPos.get() && AdaptiveBatch.overdue(pipe.adaptiveRelease)) {
+    		adaptReleaseBatch(pipe);
+    		releaseAllBatchedReads(pipe);
+    	}
+    }
+
+    private static <S extends MessageSchema> void adaptPublishBatch(Pipe<S> pipe) {
+    	int size = AdaptiveBatch.next(pipe.adaptivePublish, adaptivePublishMeasure(pipe));
+    	pipe.batchPublishCountDownInit = size;
+    	if (null!=pipe.metrics) {
+    		PipeMetrics.recordPublishBatch(pipe.metrics, size);
+    	}
+    }
+
+    private static <S extends MessageSchema> void adaptReleaseBatch(Pipe<S> pipe) {
+    	int size = AdaptiveBatch.next(pipe.adaptiveRelease, adaptiveReleaseMeasure(pipe));
+    	pipe.batchReleaseCountDownInit = size;
+    	if (null!=pipe.metrics) {
+    		PipeMetrics.recordReleaseBatch(pipe.metrics, size);
+    	}
+    }
+
 
 //cas: naming -- a couple of things, neither new.  Obviously the name of the buffer, bytes.  Also the use of base in
 // the variable buffer, but not in the fixed.  Otoh, by now, maybe the interested reader would already understand.
@@ -773,7 +1015,12 @@ public class Pipe<T extends MessageSchema> {
      */
     public PipeConfig<T> config() {
         //TODO:M, this creates garbage and we should just hold the config object instead of copying the values out.  Then return the same instance here.
-        return new PipeConfig<T>(bitsOfSlabRing, bitsOfBlogRing, blobConstBuffer, schema);
+        PipeConfig<T> result = new PipeConfig<T>(bitsOfSlabRing, bitsOfBlogRing, blobConstBuffer, schema);
+        result.debugFlags = debugFlags;
+        result.waitStrategy = waitStrategy;
+        result.metrics = null!=metrics;
+        result.traceLatency = traceLatency;
+        return result;
     }
 
 
@@ -798,19 +1045,42 @@ public class Pipe<T extends MessageSchema> {
     }
     
     public static <S extends MessageSchema> void setConsumerRegulation(Pipe<S> pipe, int msgPerMs, int msgSize) {
-        assert(null==pipe.regulatorConsumer) : "regulator must only be set once";
-        assert(!isInit(pipe)) : "regular may only be set before scheduler has intitailized the pipe";
-        pipe.regulatorConsumer = new PipeRegulator(msgPerMs, msgSize);
+        setConsumerRegulation(pipe, new PipeRegulator(msgPerMs, msgSize));
     }
   
     public static <S extends MessageSchema> void setProducerRegulation(Pipe<S> pipe, int msgPerMs, int msgSize) {
+        setProducerRegulation(pipe, new PipeRegulator(msgPerMs, msgSize));
+    } 
+
+    /**
+     * Regulate the consumer with token buckets for messages and bytes, the buckets may be shared with other pipes.
+     */
+    public static <S extends MessageSchema> void setConsumerRegulation(Pipe<S> pipe, PipeRegulator regulator) {
+        assert(null==pipe.regulatorConsumer) : "regulator must only be set once";
+        assert(!isInit(pipe)) : "regular may only be set before scheduler has intitailized the pipe";
+        pipe.regulatorConsumer = regulator;
+    }
+
+    /**
+     * Regulate the producer with token buckets for messages and bytes, the buckets may be shared with other pipes.
+     */
+    public static <S extends MessageSchema> void setProducerRegulation(Pipe<S> pipe, PipeRegulator regulator) {
         assert(null==pipe.regulatorProducer) : "regulator must only be set once";
         assert(!isInit(pipe)) : "regular may only be set before scheduler has intitailized the pipe";
-        pipe.regulatorProducer = new PipeRegulator(msgPerMs, msgSize);
-    } 
+        pipe.regulatorProducer = regulator;
+    }
     
 	private void buildBuffers() {
 
+	    if (null!=broadcastSource) {
+	        //views share the rings so the source must be built first
+	        synchronized (broadcastSource) {
+	            if (!isInit(broadcastSource)) {
+	                broadcastSource.buildBuffers();
+	            }
+	        }
+	    }
+
 	    this.pendingReleases = new PendingReleaseData(sizeOfSlabRing/FieldReferenceOffsetManager.minFragmentSize(MessageSchema.from(schema)));
 	    
 	    
@@ -836,24 +1106,44 @@ public class Pipe<T extends MessageSchema> {
         llRead.llwConfirmedPosition = toPos - sizeOfSlabRing;// TODO: hack test,  mask;//must be mask to ensure zero case works.
         llWrite.llrConfirmedPosition = toPos;
 
+        IntBuffer slabStore = null;
         try {
-        this.blobRing = new byte[sizeOfBlobRing];
-        this.slabRing = new int[sizeOfSlabRing];
-        this.blobRingLookup = new byte[][] {blobRing,blobConstBuffer};
+        if (null!=broadcastSource) {
+            this.blobRing = broadcastSource.blobRing;
+            this.slabRing = broadcastSource.slabRing;
+            if (offHeap) {
+                slabStore = broadcastSource.wrappedSlabRing; //only used at absolute positions so it can be shared
+                this.blobWriteView = broadcastSource.blobWriteView;
+            }
+        } else if (offHeap) {
+            slabStore = ByteBuffer.allocateDirect(sizeOfSlabRing<<2).order(ByteOrder.nativeOrder()).asIntBuffer();
+            this.blobWriteView = ByteBuffer.allocateDirect(sizeOfBlobRing);
+        } else {
+            this.blobRing = new byte[sizeOfBlobRing];
+            this.slabRing = new int[sizeOfSlabRing];
+        }
+        if (offHeap) {
+            this.blobReadView = blobWriteView.duplicate();
+        }
+        this.blobRingLookup = new byte[][] {blobRing,blobRing,blobConstBuffer,blobConstBuffer}; //indexed by the top two bits of meta
+        if (traceLatency) {
+            this.publishTimes = null==broadcastSource ? new long[sizeOfSlabRing] : broadcastSource.publishTimes;
+            this.latency = new Histogram(3);
+        }
         } catch (OutOfMemoryError oome) {
         	log.warn("attempted to allocate Slab:{} Blob:{}", sizeOfSlabRing, sizeOfBlobRing, oome);
         	shutdown(this);
         	System.exit(-1);
         }
         //This assignment is critical to knowing that init was called
-        this.wrappedSlabRing = IntBuffer.wrap(this.slabRing);        
+        this.wrappedSlabRing = offHeap ? slabStore : IntBuffer.wrap(this.slabRing);
 
         //only create if there is a possiblity that they may be used.
         if (sizeOfBlobRing>0) {
-	        this.wrappedBlobReadingRingA = ByteBuffer.wrap(this.blobRing);
-	        this.wrappedBlobReadingRingB = ByteBuffer.wrap(this.blobRing);
-	        this.wrappedBlobWritingRingA = ByteBuffer.wrap(this.blobRing);
-	        this.wrappedBlobWritingRingB = ByteBuffer.wrap(this.blobRing);	        
+	        this.wrappedBlobReadingRingA = wrapBlob();
+	        this.wrappedBlobReadingRingB = wrapBlob();
+	        this.wrappedBlobWritingRingA = wrapBlob();
+	        this.wrappedBlobWritingRingB = wrapBlob();
 	        this.wrappedBlobConstBuffer = null==this.blobConstBuffer?null:ByteBuffer.wrap(this.blobConstBuffer);
 	        
 	        this.wrappedReadingBuffers = new ByteBuffer[]{wrappedBlobReadingRingA,wrappedBlobReadingRingB}; 
@@ -863,10 +1153,43 @@ public class Pipe<T extends MessageSchema> {
 	        assert(0==wrappedBlobReadingRingA.position() && wrappedBlobReadingRingA.capacity()==wrappedBlobReadingRingA.limit()) : "The ByteBuffer is not clear.";
 	
 	        //blobReader and writer must be last since they will be checking isInit in construction.
-	        this.blobReader = createNewBlobReader();
-	        this.blobWriter = createNewBlobWriter();
+	        //the streams index the blob array directly so they are not available off heap
+	        if (!offHeap) {
+	            this.blobReader = createNewBlobReader();
+	            this.blobWriter = createNewBlobWriter();
+	        }
         }
 	}
+
+	private ByteBuffer wrapBlob() {
+	    return offHeap ? blobWriteView.duplicate() : ByteBuffer.wrap(this.blobRing);
+	}
+	
+	/**
+	 * Call once both the producer and consumer are finished with the pipe.  It is removed from {@link PipeMetrics}
+	 * and every reference this pipe holds to the rings is dropped, so their memory, including rings held off heap,
+	 * is returned by the next collection even while the pipe object is still reachable.  Broadcast views share the
+	 * rings of their source so each of them must be released.  The pipe must not be used again.
+	 */
+	public static <S extends MessageSchema> void releaseBuffers(Pipe<S> pipe) {
+	    if (null!=pipe.metrics) {
+	        PipeMetrics.unregister(pipe.id);
+	    }
+	    pipe.wrappedSlabRing = null; //the pipe is no longer init
+	    pipe.slabRing = null;
+	    pipe.blobRing = null;
+	    pipe.blobRingLookup = null;
+	    pipe.blobWriteView = null;
+	    pipe.blobReadView = null;
+	    pipe.wrappedBlobReadingRingA = null;
+	    pipe.wrappedBlobReadingRingB = null;
+	    pipe.wrappedBlobWritingRingA = null;
+	    pipe.wrappedBlobWritingRingB = null;
+	    pipe.wrappedReadingBuffers = null;
+	    pipe.wrappedWritingBuffers = null;
+	    pipe.blobReader = null;
+	    pipe.blobWriter = null;
+	}
 	
 	//Can be overridden to support specific classes which extend DataInputBlobReader
 	protected DataInputBlobReader<T> createNewBlobReader() {
@@ -883,8 +1206,7 @@ public class Pipe<T extends MessageSchema> {
 	    //Due to the fact that no locks are used it becomes necessary to check
 	    //every single field to ensure the full initialization of the object
 	    //this is done as part of graph set up and as such is called rarely.
-		return null!=ring.blobRing &&
-			   null!=ring.slabRing &&
+		return (ring.offHeap || (null!=ring.blobRing && null!=ring.slabRing)) &&
 			   null!=ring.blobRingLookup &&
 			   null!=ring.wrappedSlabRing &&
 			   null!=ring.llRead &&
@@ -1291,8 +1613,8 @@ public class Pipe<T extends MessageSchema> {
         	buffer.position(position);
         	buffer.limit(position+len);        	
         } else {
-        	buffer = wrappedBlobRingA(pipe);
-        	int position = pipe.blobMask & restorePosition(pipe,meta);
+        	buffer = isBlobReference(meta) ? pipe.wrappedReferenceRingA : wrappedBlobRingA(pipe);
+        	int position = pipe.blobMask & convertToPosition(meta, pipe);
         	buffer.clear();
         	buffer.position(position);
         	//use the end of the buffer if the length runs past it.
@@ -1314,8 +1636,8 @@ public class Pipe<T extends MessageSchema> {
         	buffer.position(0);
         	buffer.limit(0);
         } else {
-        	buffer = wrappedBlobRingB(pipe);
-        	int position = pipe.blobMask & restorePosition(pipe,meta);
+        	buffer = isBlobReference(meta) ? pipe.wrappedReferenceRingB : wrappedBlobRingB(pipe);
+        	int position = pipe.blobMask & convertToPosition(meta, pipe);
         	buffer.clear();
             //position is zero
         	int endPos = position+len;
@@ -1331,10 +1653,11 @@ public class Pipe<T extends MessageSchema> {
     public static <S extends MessageSchema> ByteBuffer[] wrappedReadingBuffers(Pipe<S> pipe, int meta, int len) {
     	if (meta >= 0) {
     		wrappedReadingBuffersRing(pipe, meta, len);
+    		return isBlobReference(meta) ? pipe.wrappedReferenceBuffers : pipe.wrappedReadingBuffers;
 		} else {
 			wrappedReadingBufffersConst(pipe, meta, len);
+			return pipe.wrappedReadingBuffers;
 		}
-		return pipe.wrappedReadingBuffers;
     }
 
 	private static <S extends MessageSchema> void wrappedReadingBuffersRing(Pipe<S> pipe, int meta, int len) {
@@ -1342,15 +1665,15 @@ public class Pipe<T extends MessageSchema> {
 		final int position = pipe.blobMask&bytePosition(meta,pipe,len);//MUST call this one which creates side effect of assuming this data is consumed
 		final int endPos = position+len;
 		
-	    assert(Pipe.validatePipeBlobHasDataToRead(pipe, position, len));
+	    assert(isBlobReference(meta) || Pipe.validatePipeBlobHasDataToRead(pipe, position, len));
 		
-		ByteBuffer aBuf = wrappedBlobRingA(pipe);
+		ByteBuffer aBuf = isBlobReference(meta) ? pipe.wrappedReferenceRingA : wrappedBlobRingA(pipe);
 		aBuf.clear();
 		aBuf.position(position);
 		//use the end of the buffer if the length runs past it.
 		aBuf.limit(Math.min(pipe.sizeOfBlobRing, endPos));
 		
-		ByteBuffer bBuf = wrappedBlobRingB(pipe);
+		ByteBuffer bBuf = isBlobReference(meta) ? pipe.wrappedReferenceRingB : wrappedBlobRingB(pipe);
 		bBuf.clear();
 		bBuf.limit(endPos > pipe.sizeOfBlobRing ? pipe.blobMask & endPos : 0 ); 
 				
@@ -1532,7 +1855,11 @@ public class Pipe<T extends MessageSchema> {
 
     public static <S extends MessageSchema> ByteBuffer readBytes(Pipe<S> pipe, ByteBuffer target, int meta, int len) {
 		if (meta >= 0) {
-			return readBytesRing(pipe,len,target,restorePosition(pipe,meta));
+			byte[] backing = byteBackingArray(meta, pipe);
+			if (null==backing) {
+				return readBytesOffHeap(pipe.blobReadView,pipe.blobMask,len,target,convertToPosition(meta, pipe));
+			}
+			return readBytesRing(backing,pipe.blobMask,len,target,convertToPosition(meta, pipe));
 	    } else {
 	    	return readBytesConst(pipe,len,target,PipeReader.POS_CONST_MASK & meta);
 	    }
@@ -1540,7 +1867,8 @@ public class Pipe<T extends MessageSchema> {
     
     public static <S extends MessageSchema> DataOutputBlobWriter<?> readBytes(Pipe<S> pipe, DataOutputBlobWriter<?> target, int meta, int len) {
 		if (meta >= 0) {
-			return readBytesRing(pipe,len,target,restorePosition(pipe,meta));
+			DataOutputBlobWriter.write(target, byteBackingArray(meta, pipe), convertToPosition(meta, pipe), len, pipe.blobMask);
+			return target;
 	    } else {
 	    	return readBytesConst(pipe,len,target,PipeReader.POS_CONST_MASK & meta);
 	    }
@@ -1548,17 +1876,19 @@ public class Pipe<T extends MessageSchema> {
 
     public static <S extends MessageSchema> void readBytes(Pipe<S> pipe, byte[] target, int targetIdx, int targetMask, int meta, int len) {
 		if (meta >= 0) {
-			copyBytesFromToRing(pipe.blobRing,restorePosition(pipe,meta),pipe.blobMask,target,targetIdx,targetMask,len);
+			byte[] backing = byteBackingArray(meta, pipe);
+			if (null==backing) {
+				copyBytesFromOffHeap(pipe.blobReadView,convertToPosition(meta, pipe),pipe.blobMask,target,targetIdx,targetMask,len);
+			} else {
+				copyBytesFromToRing(backing,convertToPosition(meta, pipe),pipe.blobMask,target,targetIdx,targetMask,len);
+			}
 	    } else {
 	    	//NOTE: constByteBuffer does not wrap so we do not need the mask
 	    	copyBytesFromToRing(pipe.blobConstBuffer, PipeReader.POS_CONST_MASK & meta, 0xFFFFFFFF, target, targetIdx, targetMask, len);
 	    }
 	}
 
-	private static <S extends MessageSchema> ByteBuffer readBytesRing(Pipe<S> pipe, int len, ByteBuffer target, int pos) {
-		int mask = pipe.blobMask;
-		byte[] buffer = pipe.blobRing;
-
+	private static ByteBuffer readBytesRing(byte[] buffer, int mask, int len, ByteBuffer target, int pos) {
         int tStart = pos & mask;
         int len1 = 1+mask - tStart;
 
@@ -1572,23 +1902,23 @@ public class Pipe<T extends MessageSchema> {
 	    return target;
 	}
 	
-	private static <S extends MessageSchema> DataOutputBlobWriter<?> readBytesRing(Pipe<S> pipe, int len, DataOutputBlobWriter<?> target, int pos) {
-				
-		DataOutputBlobWriter.write(target, pipe.blobRing, pos, len, pipe.blobMask);
-		
-		//could use this code to make something similar for writing to  DataOutput or output stream?
-//		int mask = pipe.blobMask;
-//		byte[] buffer = pipe.blobRing;
-//        int len1 = 1+mask - (pos & mask);
-//
-//		if (len1>=len) {
-//			target.write(buffer, mask&pos, len);
-//		} else {
-//			target.write(buffer, mask&pos, len1);
-//			target.write(buffer, 0, len-len1);
-//		}
+	private static ByteBuffer readBytesOffHeap(ByteBuffer blob, int mask, int len, ByteBuffer target, int pos) {
+		int start = pos & mask;
+		int len1 = 1+mask - start;
 
-	    return target;
+		blob.clear();
+		if (len1>=len) {
+			blob.position(start);
+			blob.limit(start+len);
+			target.put(blob);
+		} else {
+			blob.position(start);
+			target.put(blob);
+			blob.position(0);
+			blob.limit(len-len1);
+			target.put(blob);
+		}
+		return target;
 	}
 
 	private static <S extends MessageSchema> ByteBuffer readBytesConst(Pipe<S> pipe, int len, ByteBuffer target, int pos) {
@@ -1605,7 +1935,7 @@ public class Pipe<T extends MessageSchema> {
 		if (meta < 0) {//NOTE: only useses const for const or default, may be able to optimize away this conditional.
 	        return readASCIIConst(pipe,len,target,PipeReader.POS_CONST_MASK & meta);
 	    } else {
-	        return readASCIIRing(pipe,len,target,restorePosition(pipe, meta));
+	        return readASCIIRing(pipe,len,target,meta);
 	    }
 	}
 	
@@ -1616,7 +1946,7 @@ public class Pipe<T extends MessageSchema> {
         if (meta < 0) {//NOTE: only useses const for const or default, may be able to optimize away this conditional.
             return readASCIIConst(pipe,len,target,PipeReader.POS_CONST_MASK & meta);
         } else {
-            return readASCIIRing(pipe,len,target,restorePosition(pipe, meta));
+            return readASCIIRing(pipe,len,target,meta);
         }
     }
 
@@ -1660,9 +1990,9 @@ public class Pipe<T extends MessageSchema> {
 
 		} else {
 
-			byte[] buffer = pipe.blobRing;
+			byte[] buffer = byteBackingArray(meta, pipe);
 			int mask = pipe.byteMask;
-			int pos = restorePosition(pipe, meta);
+			int pos = convertToPosition(meta, pipe);
 
 	        while (--len >= 0) {
 	    		if (charSeq.charAt(len)!=buffer[mask&(pos+len)]) {
@@ -1694,9 +2024,9 @@ public class Pipe<T extends MessageSchema> {
 
 	        } else {
 
-	            byte[] buffer = pipe.blobRing;
+	            byte[] buffer = byteBackingArray(meta, pipe);
 	            int mask = pipe.blobMask;
-	            int pos = restorePosition(pipe, meta);
+	            int pos = convertToPosition(meta, pipe);
 
 	            while (--len >= 0) {
 	                if (expected[expectedPos+len]!=buffer[mask&(pos+len)]) {
@@ -1724,9 +2054,10 @@ public class Pipe<T extends MessageSchema> {
 	   }
 
 	   
-	private static <S extends MessageSchema,  A extends Appendable> A readASCIIRing(Pipe<S> pipe, int len, A target, int pos) {
-		byte[] buffer = pipe.blobRing;
+	private static <S extends MessageSchema,  A extends Appendable> A readASCIIRing(Pipe<S> pipe, int len, A target, int meta) {
+		byte[] buffer = byteBackingArray(meta, pipe);
 		int mask = pipe.byteMask;
+		int pos = convertToPosition(meta, pipe);
 
 	    try {
 	        while (--len >= 0) {
@@ -1757,7 +2088,7 @@ public class Pipe<T extends MessageSchema> {
     		if (meta < 0) {//NOTE: only useses const for const or default, may be able to optimize away this conditional.
     	        return (A) readUTF8Const(pipe,len,target,PipeReader.POS_CONST_MASK & meta);
     	    } else {
-    	        return (A) readUTF8Ring(pipe,len,target,restorePosition(pipe,meta));
+    	        return (A) readUTF8Ring(pipe,len,target,meta);
     	    }
 	}
 	
@@ -1769,7 +2100,7 @@ public class Pipe<T extends MessageSchema> {
 	        if (meta < 0) {//NOTE: only useses const for const or default, may be able to optimize away this conditional.
 	            return readUTF8Const(pipe,len,target,PipeReader.POS_CONST_MASK & meta);
 	        } else {
-	            return readUTF8Ring(pipe,len,target,restorePosition(pipe,meta));
+	            return readUTF8Ring(pipe,len,target,meta);
 	        }
 	        
 	    }
@@ -1789,13 +2120,15 @@ public class Pipe<T extends MessageSchema> {
 		  return target;
 	}
 
-	private static <S extends MessageSchema> Appendable readUTF8Ring(Pipe<S> pipe, int bytesLen, Appendable target, int ringPos) {
+	private static <S extends MessageSchema> Appendable readUTF8Ring(Pipe<S> pipe, int bytesLen, Appendable target, int meta) {
 		  try{
+			  byte[] buffer = byteBackingArray(meta, pipe);
+			  int ringPos = convertToPosition(meta, pipe);
 			  long charAndPos = ((long)ringPos)<<32;
 			  long limit = ((long)ringPos+bytesLen)<<32;
 
 			  while (charAndPos<limit) {
-			      charAndPos = decodeUTF8Fast(pipe.blobRing, charAndPos, pipe.byteMask);
+			      charAndPos = decodeUTF8Fast(buffer, charAndPos, pipe.byteMask);
 			      target.append((char)charAndPos);
 			  }
 		  } catch (IOException e) {
@@ -1870,11 +2203,161 @@ public class Pipe<T extends MessageSchema> {
 
 		PaddedInt.set(pipe.blobRingHead.bytesHeadPos,pipe.blobRingHead.byteWorkingHeadPos.value);
 		pipe.knownPositionOfEOF = (int)pipe.slabRingHead.workingHeadPos.value +  from(pipe).templateOffset;
-		pipe.slabRing[pipe.mask & (int)pipe.knownPositionOfEOF]    = -1;
-		pipe.slabRing[pipe.mask & ((int)pipe.knownPositionOfEOF+1)] = 0;
+		setSlab(pipe, pipe.knownPositionOfEOF, -1);
+		setSlab(pipe, pipe.knownPositionOfEOF+1, 0);
 
 		pipe.slabRingHead.headPos.lazySet(pipe.slabRingHead.workingHeadPos.value = pipe.slabRingHead.workingHeadPos.value + Pipe.EOF_SIZE);
+		headPublished(pipe);
+
+	}
+
+	/**
+	 * Moves as many complete messages as fit from the source to the target in one call.  Unlike
+	 * {@link PipeReader#tryMoveSingleMessage(Pipe, Pipe)} the room is checked once, the slab and blob are each copied
+	 * as a single run and both the head of the target and the tail of the source are published once, see
+	 * {@link #publishRun(Pipe, int, int)} and {@link #releaseRun(Pipe, long, int)}.
+	 *
+	 * Blob positions are stored relative to the base of each fragment so the slab can be copied as is, the run of
+	 * bytes only needs to land at the working blob head of the target.
+	 *
+	 * The source must be consumed with the low-level API and be positioned at the start of a message.
+	 * Must only be called by the one thread consuming the source which is also the one producing the target.
+	 *
+	 * Only schemas where every message is a single fragment are supported, so a run of fragments is always a run of
+	 * whole messages and can be cut after any one of them.
+	 *
+	 * @return count of messages moved
+	 */
+	public static <S extends MessageSchema> int moveMessages(Pipe<S> source, Pipe<S> target) {
+		return moveMessages(source, target, Integer.MAX_VALUE);
+	}
 
+	/**
+	 * Moves as many complete messages as fit from the source to the target, up to the limit.
+	 *
+	 * @param limit most messages to move
+	 * @return count of messages moved
+	 */
+	public static <S extends MessageSchema> int moveMessages(Pipe<S> source, Pipe<S> target, int limit) {
+		assert(isForSameSchema(source, target)) : "Schemas must match";
+		final FieldReferenceOffsetManager from = from(source);
+		FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Bulk move");
+
+		final long tail = getWorkingTailPosition(source);
+		final long head = headPosition(source);
+		if (head<=tail) {
+			return 0;
+		}
+		final long slabRoom = target.sizeOfSlabRing - (workingHeadPosition(target)-tailPosition(target));
+		final int blobRoom = target.sizeOfBlobRing - (BYTES_WRAP_MASK&(getWorkingBlobHeadPosition(target)-getBlobTailPosition(target)));
+
+		final int[] slab = source.slabRing;
+		final int mask = source.mask;
+		final int[] fragDataSize = from.fragDataSize;
+
+		//walk the fragment sizes only, nothing is copied until the full run is known
+		long pos = tail;
+		int blobLength = 0;
+		int count = 0;
+		while (pos<head && count<limit) {
+			int idx = slab[mask&(int)pos];
+			int size = idx<0 ? EOF_SIZE : fragDataSize[idx];
+			int bytes = slab[mask&(int)(pos+size-1)];
+			if ((pos+size-tail)>slabRoom || (blobLength+bytes)>blobRoom) {
+				break;
+			}
+			pos += size;
+			blobLength += bytes;
+			count++;
+		}
+		if (0==count) {
+			return 0;
+		}
+
+		final int slabLength = (int)(pos-tail);
+		final int blobTail = getWorkingBlobRingTailPosition(source);
+		copyIntsFromToRing(slab, (int)tail, mask, target.slabRing, (int)workingHeadPosition(target), target.mask, slabLength);
+		if (blobLength>0) {
+			copyBytesFromToRing(source.blobRing, blobTail, source.byteMask, target.blobRing, getWorkingBlobHeadPosition(target), target.byteMask, blobLength);
+		}
+
+		publishRun(target, slabLength, blobLength);
+		releaseRun(source, pos, blobLength);
+
+		return count;
+	}
+
+	/**
+	 * Publishes a run of complete fragments which has already been copied in just past the working heads of the
+	 * target, trailers included.  Like {@link #publishWrites(Pipe)} the publish times and metrics are recorded for
+	 * each fragment and the head is only made visible once the publish batch is full.
+	 * Must only be called by the one thread producing the target.
+	 *
+	 * @param slabLength ints of the run in the slab
+	 * @param blobLength bytes of the run in the blob
+	 */
+	public static <S extends MessageSchema> void publishRun(Pipe<S> target, int slabLength, int blobLength) {
+		final long start = workingHeadPosition(target);
+		if (null!=target.publishTimes || null!=target.metrics || null!=target.regulatorProducer) {
+			int count = 0;
+			final int[] fragDataSize = from(target).fragDataSize;
+			final long end = start+slabLength;
+			long pos = start;
+			while (pos<end) {
+				int idx = target.slabRing[target.slabMask&(int)pos];
+				pos += idx<0 ? EOF_SIZE : fragDataSize[idx];
+				if (idx>=0) {
+					tracePublish(target, pos-1);
+					count++;
+				}
+			}
+			if (null!=target.metrics) {
+				PipeMetrics.recordWrites(target.metrics, count);
+			}
+		}
+		addAndGetBytesWorkingHeadPosition(target, blobLength);
+		updateBytesWriteLastConsumedPos(target);
+		confirmLowLevelWriteUnchecked(target, slabLength);
+		target.slabRingHead.workingHeadPos.value = start+slabLength;
+		if (null!=target.metrics) {
+			recordPublish(target, blobLength);
+		}
+		publishHeadPositions(target);
+	}
+
+	/**
+	 * Releases every fragment from the working tail of the source up to pos, which must be the start of a fragment.
+	 * Like {@link #releaseReadLock(Pipe)} the latency and metrics are recorded for each fragment and the tail is only
+	 * made visible once the release batch is full.
+	 * Must only be called by the one thread consuming the source.
+	 *
+	 * @param pos slab position just after the last fragment released
+	 * @param blobLength bytes used by the released fragments in the blob
+	 */
+	public static <S extends MessageSchema> void releaseRun(Pipe<S> source, long pos, int blobLength) {
+		final long tail = getWorkingTailPosition(source);
+		if (null!=source.publishTimes || null!=source.metrics || null!=source.regulatorConsumer) {
+			int count = 0;
+			final int[] fragDataSize = from(source).fragDataSize;
+			long p = tail;
+			while (p<pos) {
+				int idx = source.slabRing[source.slabMask&(int)p];
+				p += idx<0 ? EOF_SIZE : fragDataSize[idx];
+				if (idx>=0) {
+					traceRelease(source, p-1);
+					count++;
+				}
+			}
+			if (null!=source.metrics) {
+				PipeMetrics.recordReads(source.metrics, count);
+				PipeMetrics.recordReadBytes(source.metrics, blobLength);
+			}
+		}
+		setWorkingTailPosition(source, pos);
+		setBytesWorkingTail(source, BYTES_WRAP_MASK&(getWorkingBlobRingTailPosition(source)+blobLength));
+		markBytesReadBase(source);
+		setWorkingHeadTarget(source);
+		releaseBatchedReads(source, getWorkingBlobRingTailPosition(source), pos);
 	}
 
 	public static void copyBytesFromToRing(byte[] source, int sourceloc, int sourceMask, byte[] target, int targetloc, int targetMask, int length) {
@@ -1889,6 +2372,35 @@ public class Pipe<T extends MessageSchema> {
 		copyBytesFromToRingMasked(source, sourceloc, (sourceloc + length), target, targetloc & targetMask, (targetloc + length) & targetMask,	length);
 	}
 
+	//a mask of Integer.MAX_VALUE on the array side copies to or from a plain array rather than a ring
+	private static void copyBytesToOffHeap(byte[] source, int sourceLoc, int sourceMask, ByteBuffer target, int targetLoc, int targetMask, int length) {
+		while (length>0) {
+			int s = sourceMask&sourceLoc;
+			int t = targetMask&targetLoc;
+			int chunk = (int)Math.min(length, Math.min(1L+sourceMask-s, 1L+targetMask-t));
+			target.clear();
+			target.position(t);
+			target.put(source, s, chunk);
+			sourceLoc += chunk;
+			targetLoc += chunk;
+			length -= chunk;
+		}
+	}
+
+	private static void copyBytesFromOffHeap(ByteBuffer source, int sourceLoc, int sourceMask, byte[] target, int targetLoc, int targetMask, int length) {
+		while (length>0) {
+			int s = sourceMask&sourceLoc;
+			int t = targetMask&targetLoc;
+			int chunk = (int)Math.min(length, Math.min(1L+sourceMask-s, 1L+targetMask-t));
+			source.clear();
+			source.position(s);
+			source.get(target, t, chunk);
+			sourceLoc += chunk;
+			targetLoc += chunk;
+			length -= chunk;
+		}
+	}
+
 	private static void copyBytesFromToRingMasked(byte[] source,
 			final int rStart, final int rStop, byte[] target, final int tStart,
 			final int tStop, int length) {
@@ -2473,7 +2985,11 @@ public class Pipe<T extends MessageSchema> {
     	assert(sourceLen>=0);
     	validateVarLength(rbRingBuffer, sourceLen);
 
-    	copyBytesFromToRing(source, sourceIdx, Integer.MAX_VALUE, rbRingBuffer.blobRing, rbRingBuffer.blobRingHead.byteWorkingHeadPos.value, rbRingBuffer.blobMask, sourceLen);
+    	if (null!=rbRingBuffer.blobRing) {
+    		copyBytesFromToRing(source, sourceIdx, Integer.MAX_VALUE, rbRingBuffer.blobRing, rbRingBuffer.blobRingHead.byteWorkingHeadPos.value, rbRingBuffer.blobMask, sourceLen);
+    	} else {
+    		copyBytesToOffHeap(source, sourceIdx, Integer.MAX_VALUE, rbRingBuffer.blobWriteView, rbRingBuffer.blobRingHead.byteWorkingHeadPos.value, rbRingBuffer.blobMask, sourceLen);
+    	}
 
     	addBytePosAndLen(rbRingBuffer, rbRingBuffer.blobRingHead.byteWorkingHeadPos.value, sourceLen);
         rbRingBuffer.blobRingHead.byteWorkingHeadPos.value = BYTES_WRAP_MASK&(rbRingBuffer.blobRingHead.byteWorkingHeadPos.value + sourceLen);
@@ -2488,7 +3004,7 @@ public class Pipe<T extends MessageSchema> {
     public static <S extends MessageSchema> void addIntValue(int value, Pipe<S> rb) {
          assert(rb.slabRingHead.workingHeadPos.value <= Pipe.tailPosition(rb)+rb.sizeOfSlabRing);
          //TODO: not always working in deep structures, check offsets:  assert(isValidFieldTypePosition(rb, TypeMask.IntegerSigned, TypeMask.IntegerSignedOptional, TypeMask.IntegerUnsigned, TypeMask.IntegerUnsignedOptional, TypeMask.Decimal));
-		 setValue(rb.slabRing,rb.mask,rb.slabRingHead.workingHeadPos.value++,value);
+		 setSlab(rb, rb.slabRingHead.workingHeadPos.value++, value);
 	}
 
 	private static <S extends MessageSchema> boolean isValidFieldTypePosition(Pipe<S> rb, int ... expected) {
@@ -2528,7 +3044,7 @@ public class Pipe<T extends MessageSchema> {
     
     public static <S extends MessageSchema> void setIntValue(int value, Pipe<S> pipe, long position) {
         assert(pipe.slabRingHead.workingHeadPos.value <= Pipe.tailPosition(pipe)+pipe.sizeOfSlabRing);
-        setValue(pipe.slabRing,pipe.mask,position,value);
+        setSlab(pipe, position, value);
    }
 
     //
@@ -2554,9 +3070,9 @@ public class Pipe<T extends MessageSchema> {
 
    // 	 assert(rb.llwNextHeadTarget<=rb.headPos.get() || rb.workingHeadPos.value<=rb.llwNextHeadTarget) : "Unsupported mix of high and low level API.";
             	 
-     	 assert(null != pipe.slabRing) : "Pipe must be init before use";
+     	 assert(null != pipe.wrappedSlabRing) : "Pipe must be init before use";
      	 
-		 pipe.slabRing[pipe.slabMask & (int)pipe.slabRingHead.workingHeadPos.value++] = msgIdx;
+		 setSlab(pipe, pipe.slabRingHead.workingHeadPos.value++, msgIdx);
 		 return Pipe.from(pipe).fragDataSize[msgIdx];
 		 
 	}
@@ -2565,6 +3081,27 @@ public class Pipe<T extends MessageSchema> {
         buffer[rbMask & (int)offset] = value;
     }
 
+	//the low level API reads and writes the slab through these so it may be held off heap, see PipeConfig#offHeap()
+	private static <S extends MessageSchema> void setSlab(Pipe<S> pipe, long pos, int value) {
+	    if (null!=pipe.slabRing) {
+	        pipe.slabRing[pipe.slabMask & (int)pos] = value;
+	    } else {
+	        pipe.wrappedSlabRing.put(pipe.slabMask & (int)pos, value);
+	    }
+	}
+
+	private static <S extends MessageSchema> int getSlab(Pipe<S> pipe, long pos) {
+	    if (null!=pipe.slabRing) {
+	        return pipe.slabRing[pipe.slabMask & (int)pos];
+	    } else {
+	        return pipe.wrappedSlabRing.get(pipe.slabMask & (int)pos);
+	    }
+	}
+
+	private static <S extends MessageSchema> long getSlabLong(Pipe<S> pipe, long pos) {
+	    return (((long) getSlab(pipe, pos)) << 32) | (((long) getSlab(pipe, pos+1)) & 0xFFFFFFFFl);
+	}
+
 
 	
     public static <S extends MessageSchema> void addBytePosAndLen(Pipe<S> pipe, int position, int length) {
@@ -2573,20 +3110,25 @@ public class Pipe<T extends MessageSchema> {
 
     public static <S extends MessageSchema> void addBytePosAndLenSpecial(Pipe<S> targetOutput, final int startBytePos, int bytesLength) {
         PaddedLong workingHeadPos = getWorkingHeadPositionObject(targetOutput);
-        setBytePosAndLen(slab(targetOutput), targetOutput.slabMask, workingHeadPos.value, startBytePos, bytesLength, bytesWriteBase(targetOutput));
+        setSlab(targetOutput, workingHeadPos.value, bytePosition(startBytePos, bytesWriteBase(targetOutput)));
+        setSlab(targetOutput, workingHeadPos.value+1, bytesLength);
         PaddedLong.add(workingHeadPos, 2);
     }
 
 	public static <S extends MessageSchema> void setBytePosAndLen(int[] buffer, int rbMask, long ringPos,	int positionDat, int lengthDat, int baseBytePos) {
+		buffer[rbMask & (int)ringPos] = bytePosition(positionDat, baseBytePos);
+        buffer[rbMask & (int)(ringPos+1)] = lengthDat;
+	}
+
+	private static int bytePosition(int positionDat, int baseBytePos) {
 	   	//negative position is written as is because the internal array does not have any offset (but it could some day)
     	//positive position is written after subtracting the rbRingBuffer.bytesHeadPos.longValue()
     	if (positionDat>=0) {
     		assert((positionDat-baseBytePos)>=0);
-    		buffer[rbMask & (int)ringPos] = (int)(positionDat-baseBytePos) & Pipe.BYTES_WRAP_MASK; //mask is needed for the negative case, does no harm in positive case
+    		return (int)(positionDat-baseBytePos) & Pipe.BYTES_WRAP_MASK; //mask is needed for the negative case, does no harm in positive case
     	} else {
-    		buffer[rbMask & (int)ringPos] = positionDat;
+    		return positionDat;
     	}
-        buffer[rbMask & (int)(ringPos+1)] = lengthDat;
 	}
 	
 
@@ -2600,6 +3142,9 @@ public class Pipe<T extends MessageSchema> {
 	 * WARNING: this method has side effect of moving byte pointer.
 	 */
     public static <S extends MessageSchema> int bytePosition(int meta, Pipe<S> pipe, int len) {
+        if (isBlobReference(meta)) {
+            return REFERENCE_POS_MASK & meta; //bytes are held by another pipe so nothing is consumed here
+        }
     	int pos =  restorePosition(pipe, meta & RELATIVE_POS_MASK);
         if (len>=0) {
         	Pipe.addAndGetBytesWorkingTailPosition(pipe, len);
@@ -2609,9 +3154,27 @@ public class Pipe<T extends MessageSchema> {
     
     //WARNING: this has no side effect
     public static <S extends MessageSchema> int convertToPosition(int meta, Pipe<S> pipe) {
+        if (isBlobReference(meta)) {
+            return REFERENCE_POS_MASK & meta;
+        }
     	return restorePosition(pipe, meta & RELATIVE_POS_MASK);
     }
 
+    /**
+     * True when the meta of this var-length field points into the blob ring of another pipe, see {@link BlobReferences}.
+     */
+    public static boolean isBlobReference(int meta) {
+        return REFERENCE_POS_FLAG == (~REFERENCE_POS_MASK & meta);
+    }
+
+    //only called by BlobReferences once both pipes are initialized
+    static <S extends MessageSchema> void referenceBlob(Pipe<S> pipe, byte[] blob) {
+        pipe.blobRingLookup[1] = blob;
+        pipe.wrappedReferenceRingA = ByteBuffer.wrap(blob);
+        pipe.wrappedReferenceRingB = ByteBuffer.wrap(blob);
+        pipe.wrappedReferenceBuffers = new ByteBuffer[]{pipe.wrappedReferenceRingA, pipe.wrappedReferenceRingB};
+    }
+
 
     public static <S extends MessageSchema> void addValue(int[] buffer, int rbMask, PaddedLong headCache, int value1, int value2, int value3) {
 
@@ -2648,7 +3211,10 @@ public class Pipe<T extends MessageSchema> {
 	}
 
 	public static <S extends MessageSchema> void addLongValue(long value, Pipe<S> rb) {
-		 addLongValue(rb.slabRing, rb.slabMask, rb.slabRingHead.workingHeadPos, value);
+		 long p = rb.slabRingHead.workingHeadPos.value;
+		 setSlab(rb, p, (int)(value >>> 32));
+		 setSlab(rb, p+1, (int)value);
+		 rb.slabRingHead.workingHeadPos.value = p+2;
 	}
 
     public static <S extends MessageSchema> void addLongValue(int[] buffer, int rbMask, PaddedLong headCache, long value) {
@@ -2665,28 +3231,28 @@ public class Pipe<T extends MessageSchema> {
     }
 
 	public static <S extends MessageSchema> int readRingByteLen(int idx, Pipe<S> pipe) {
-		return readRingByteLen(idx,pipe.slabRing, pipe.mask, pipe.slabRingTail.workingTailPos.value);
+		return getSlab(pipe, pipe.slabRingTail.workingTailPos.value + idx + 1);// second int is always the length
 	}
 
 	public static <S extends MessageSchema> int takeRingByteLen(Pipe<S> pipe) {
 	//    assert(ring.structuredLayoutRingTail.workingTailPos.value<RingBuffer.workingHeadPosition(pipe));
-		return pipe.slabRing[(int)(pipe.slabMask & (pipe.slabRingTail.workingTailPos.value++))];// second int is always the length
+		return getSlab(pipe, pipe.slabRingTail.workingTailPos.value++);// second int is always the length
 	}
 
 
 
     public static <S extends MessageSchema> byte[] byteBackingArray(int meta, Pipe<S> pipe) {
-        return pipe.blobRingLookup[meta>>>31];
+        return pipe.blobRingLookup[meta>>>30];
     }
 
 	public static <S extends MessageSchema> int readRingByteMetaData(int pos, Pipe<S> pipe) {
-		return readValue(pos,pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+		return getSlab(pipe, pipe.slabRingTail.workingTailPos.value + pos);
 	}
 
 	//TODO: must always read metadata before length, easy mistake to make, need assert to ensure this is caught if happens.
 	public static <S extends MessageSchema> int takeRingByteMetaData(Pipe<S> pipe) {
 	//    assert(ring.structuredLayoutRingTail.workingTailPos.value<RingBuffer.workingHeadPosition(ring));
-		return readValue(0,pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value++);
+		return getSlab(pipe, pipe.slabRingTail.workingTailPos.value++);
 	}
 
     static <S extends MessageSchema> int readValue(int fieldPos, int[] rbB, int rbMask, long rbPos) {
@@ -2695,11 +3261,11 @@ public class Pipe<T extends MessageSchema> {
 
     //TODO: may want to deprecate this interface
     public static <S extends MessageSchema> int readValue(int idx, Pipe<S> pipe) {
-    	return readValue(idx, pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+    	return getSlab(pipe, pipe.slabRingTail.workingTailPos.value + idx);
     }
 
     public static <S extends MessageSchema> int takeInt(Pipe<S> pipe) {
-    	return readValue(pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value++);
+    	return getSlab(pipe, pipe.slabRingTail.workingTailPos.value++);
     }
     
     @Deprecated //use takeInt
@@ -2717,7 +3283,7 @@ public class Pipe<T extends MessageSchema> {
     }
 
     public static <S extends MessageSchema> Integer takeOptionalValue(Pipe<S> pipe, int absent32Value) {
-        int temp = readValue(0, pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value++);
+        int temp = getSlab(pipe, pipe.slabRingTail.workingTailPos.value++);
         return absent32Value!=temp ? new Integer(temp) : null;
     }
 
@@ -2726,7 +3292,7 @@ public class Pipe<T extends MessageSchema> {
         //this assert does not always work because the head position is volatile, Not sure what should be done to resolve it.  
         //assert(ring.slabRingTail.workingTailPos.value<Pipe.workingHeadPosition(ring)) : "working tail "+ring.slabRingTail.workingTailPos.value+" but head is "+Pipe.workingHeadPosition(ring);
     	
-        long result = readLong(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+        long result = getSlabLong(pipe, pipe.slabRingTail.workingTailPos.value);
     	pipe.slabRingTail.workingTailPos.value+=2;
     	return result;
     }
@@ -2738,14 +3304,14 @@ public class Pipe<T extends MessageSchema> {
 
     public static <S extends MessageSchema> Long takeOptionalLong(Pipe<S> pipe, long absent64Value) {
         assert(pipe.slabRingTail.workingTailPos.value<Pipe.workingHeadPosition(pipe)) : "working tail "+pipe.slabRingTail.workingTailPos.value+" but head is "+Pipe.workingHeadPosition(pipe);
-        long result = readLong(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+        long result = getSlabLong(pipe, pipe.slabRingTail.workingTailPos.value);
         pipe.slabRingTail.workingTailPos.value+=2;
         return absent64Value!=result ? new Long(result) : null;
     }
     
 
     public static <S extends MessageSchema> long readLong(int idx, Pipe<S> pipe) {
-    	return readLong(pipe.slabRing,pipe.mask,idx+pipe.slabRingTail.workingTailPos.value);
+    	return getSlabLong(pipe, idx+pipe.slabRingTail.workingTailPos.value);
 
     }
 
@@ -2763,7 +3329,7 @@ public class Pipe<T extends MessageSchema> {
         
         
        // assert(pipe.slabRingTail.workingTailPos.value<Pipe.workingHeadPosition(pipe)) : " tail is "+pipe.slabRingTail.workingTailPos.value+" but head is "+Pipe.workingHeadPosition(pipe);
-    	return pipe.lastMsgIdx = readValue(pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value++);
+    	return pipe.lastMsgIdx = getSlab(pipe, pipe.slabRingTail.workingTailPos.value++);
     }
     
     public static <S extends MessageSchema> boolean peekMsg(Pipe<S> pipe, int expected) {
@@ -2780,17 +3346,17 @@ public class Pipe<T extends MessageSchema> {
     
     public static <S extends MessageSchema> int peekInt(Pipe<S> pipe) {
     	assert(Pipe.hasContentToRead(pipe)) : "results would not be repeatable";
-        return readValue(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+        return getSlab(pipe, pipe.slabRingTail.workingTailPos.value);
     }
     
     public static <S extends MessageSchema> int peekInt(Pipe<S> pipe, int offset) {
     	assert(Pipe.hasContentToRead(pipe)) : "results would not be repeatable";
-        return readValue(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value+offset);
+        return getSlab(pipe, pipe.slabRingTail.workingTailPos.value+offset);
     }
    
     public static <S extends MessageSchema> long peekLong(Pipe<S> pipe, int offset) {
     	assert(Pipe.hasContentToRead(pipe)) : "results would not be repeatable";
-        return readLong(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value+offset);
+        return getSlabLong(pipe, pipe.slabRingTail.workingTailPos.value+offset);
     }
     
     
@@ -2801,7 +3367,11 @@ public class Pipe<T extends MessageSchema> {
     }
 
     public static <S extends MessageSchema> int releaseReadLock(Pipe<S> pipe) {
+        traceRelease(pipe, pipe.slabRingTail.workingTailPos.value);
         int bytesConsumedByFragment = takeInt(pipe);
+        if (null!=pipe.metrics) {
+            PipeMetrics.recordReadBytes(pipe.metrics, bytesConsumedByFragment);
+        }
         assert(bytesConsumedByFragment>=0) : "Bytes consumed by fragment must never be negative, was fragment written correctly?, is read positioned correctly?";
         Pipe.markBytesReadBase(pipe, bytesConsumedByFragment);  //the base has been moved so we can also use it below.
         assert(Pipe.contentRemaining(pipe)>=0); 
@@ -2812,8 +3382,44 @@ public class Pipe<T extends MessageSchema> {
         return bytesConsumedByFragment;        
     }
     
+    //records when the fragment ending at this trailer position was published and counts it for the producer
+    //regulator, every publish path must call this
+    static <S extends MessageSchema> void tracePublish(Pipe<S> pipe, long trailerPos) {
+        if (null!=pipe.publishTimes) {
+            pipe.publishTimes[pipe.slabMask & (int)trailerPos] = System.nanoTime();
+        }
+        if (null!=pipe.regulatorProducer) {
+            pipe.regulatorProducer.fragments++;
+        }
+    }
+
+    //records how long the fragment ending at this trailer position waited in the pipe and counts it for the
+    //consumer regulator, every release path must call this
+    static <S extends MessageSchema> void traceRelease(Pipe<S> pipe, long trailerPos) {
+        if (null!=pipe.publishTimes) {
+            pipe.latency.recordValue(Math.max(0, System.nanoTime() - pipe.publishTimes[pipe.slabMask & (int)trailerPos]));
+        }
+        if (null!=pipe.regulatorConsumer) {
+            pipe.regulatorConsumer.fragments++;
+        }
+    }
+
+    /**
+     * Histogram of the nanoseconds each fragment waited between publish and release, only available when the
+     * pipe was built with {@link PipeConfig#traceLatency()}.  Each pipe only records its own hop so the latency
+     * contributed by each pipe of a graph can be compared directly.  The histogram is written by the consuming
+     * thread and should be copied or read once that thread has finished.
+     */
+    public static <S extends MessageSchema> Histogram latencyHistogram(Pipe<S> pipe) {
+        return pipe.latency;
+    }
+
     public static <S extends MessageSchema> int readNextWithoutReleasingReadLock(Pipe<S> pipe) {
-        int bytesConsumedByFragment = takeInt(pipe); 
+        traceRelease(pipe, pipe.slabRingTail.workingTailPos.value);
+        int bytesConsumedByFragment = takeInt(pipe);
+        if (null!=pipe.metrics) {
+            PipeMetrics.recordReadBytes(pipe.metrics, bytesConsumedByFragment);
+        }
         Pipe.markBytesReadBase(pipe, bytesConsumedByFragment); //the base has been moved so we can also use it below.
         assert(Pipe.contentRemaining(pipe)>=0);
         PendingReleaseData.appendPendingReadRelease(pipe.pendingReleases,
@@ -2837,12 +3443,16 @@ public class Pipe<T extends MessageSchema> {
     
     static <S extends MessageSchema> void releaseBatchedReads(Pipe<S> pipe, int workingBlobRingTailPosition, long nextWorkingTail) {
  
-        if (decBatchRelease(pipe)<=0) { 
+        if (decBatchRelease(pipe)<=0 || (null!=pipe.adaptiveRelease && AdaptiveBatch.flush(pipe.adaptiveRelease, adaptiveReleaseMeasure(pipe)))) { 
+           if (null!=pipe.adaptiveRelease) {
+               adaptReleaseBatch(pipe);
+           }
            setBytesTail(pipe, workingBlobRingTailPosition);
            
            //NOTE: the working tail is in use as part of the read and should not be modified
            //      this method only modifies the externally visible tail to let writers see it.
            pipe.slabRingTail.tailPos.lazySet(nextWorkingTail);
+           tailPublished(pipe);
            beginNewReleaseBatch(pipe); 
            
            assert(validateInsideData(pipe, pipe.blobReadBase));
@@ -2868,6 +3478,7 @@ public class Pipe<T extends MessageSchema> {
         if (pipe.lastReleasedSlabTail > pipe.slabRingTail.tailPos.get()) {
             PaddedInt.set(pipe.blobRingTail.bytesTailPos,pipe.lastReleasedBlobTail);
             pipe.slabRingTail.tailPos.lazySet(pipe.lastReleasedSlabTail);
+            tailPublished(pipe);
             pipe.batchReleaseCountDown = pipe.batchReleaseCountDownInit;
         }
 
@@ -2898,6 +3509,7 @@ public class Pipe<T extends MessageSchema> {
         
         PaddedInt.set(pipe.blobRingTail.bytesTailPos, newTailBytesToPublish);
         pipe.slabRingTail.tailPos.lazySet(newTailToPublish);
+        tailPublished(pipe);
         pipe.batchReleaseCountDown = pipe.batchReleaseCountDownInit;
     }
 
@@ -2907,6 +3519,7 @@ public class Pipe<T extends MessageSchema> {
 			int i = pipe.blobRingTail.byteWorkingTailPos.value= pipe.blobRingHead.byteWorkingHeadPos.value;
             PaddedInt.set(pipe.blobRingTail.bytesTailPos,i);
 			pipe.slabRingTail.tailPos.lazySet(pipe.slabRingTail.workingTailPos.value= pipe.slabRingHead.workingHeadPos.value);
+			tailPublished(pipe);
 
     }
 
@@ -2918,6 +3531,9 @@ public class Pipe<T extends MessageSchema> {
     
     	//happens at the end of every fragment
         int consumed = writeTrailingCountOfBytesConsumed(pipe, pipe.slabRingHead.workingHeadPos.value++); //increment because this is the low-level API calling
+        if (null!=pipe.metrics) {
+            recordPublish(pipe, consumed);
+        }
 
 		publishWritesBatched(pipe);
 		return consumed;
@@ -2932,6 +3548,9 @@ public class Pipe<T extends MessageSchema> {
     	//happens at the end of every fragment
         int consumed = writeTrailingCountOfBytesConsumed(pipe, pipe.slabRingHead.workingHeadPos.value++); //increment because this is the low-level API calling
         assert(consumed<pipe.maxAvgVarLen) : "When hiding data it must stay below the max var length threshold when added to the rest of the fields.";        
+        if (null!=pipe.metrics) {
+            recordPublish(pipe, consumed);
+        }
         
 		publishWritesBatched(pipe);
 		return consumed;
@@ -2977,6 +3596,7 @@ public class Pipe<T extends MessageSchema> {
     	if (pipe.lastPublishedSlabRingHead>pipe.slabRingHead.headPos.get()) {
     		PaddedInt.set(pipe.blobRingHead.bytesHeadPos,pipe.lastPublishedBlobRingHead);
     		pipe.slabRingHead.headPos.lazySet(pipe.lastPublishedSlabRingHead);
+    		headPublished(pipe);
     	}
 
 		assert(debugHeadAssignment(pipe));
@@ -2996,9 +3616,10 @@ public class Pipe<T extends MessageSchema> {
 	public static <S extends MessageSchema> void publishHeadPositions(Pipe<S> pipe) {
 
 	    //TODO: need way to test if publish was called on an input ? may be much easer to detect missing publish. or extra release.
-	    if ((--pipe.batchPublishCountDown<=0)) {
+	    if (publishBatchEnds(pipe)) {
 	        PaddedInt.set(pipe.blobRingHead.bytesHeadPos,pipe.blobRingHead.byteWorkingHeadPos.value);
 	        pipe.slabRingHead.headPos.lazySet(pipe.slabRingHead.workingHeadPos.value);
+	        headPublished(pipe);
 	        assert(debugHeadAssignment(pipe));
 	        pipe.batchPublishCountDown = pipe.batchPublishCountDownInit;
 	    } else {
@@ -3006,6 +3627,17 @@ public class Pipe<T extends MessageSchema> {
 	    }
 	}
 
+	//shared with PipeWriter.publishWrites so both APIs make the same fixed or adaptive batch decision
+	static <S extends MessageSchema> boolean publishBatchEnds(Pipe<S> pipe) {
+	    if ((--pipe.batchPublishCountDown<=0) || (null!=pipe.adaptivePublish && AdaptiveBatch.flush(pipe.adaptivePublish, adaptivePublishMeasure(pipe)))) {
+	        if (null!=pipe.adaptivePublish) {
+	            adaptPublishBatch(pipe);
+	        }
+	        return true;
+	    }
+	    return false;
+	}
+
 	static <S extends MessageSchema> void storeUnpublishedHead(Pipe<S> pipe) {
 		pipe.lastPublishedBlobRingHead = pipe.blobRingHead.byteWorkingHeadPos.value;
 		pipe.lastPublishedSlabRingHead = pipe.slabRingHead.workingHeadPos.value;
@@ -3035,37 +3667,41 @@ public class Pipe<T extends MessageSchema> {
     //where these spin locks are commonly used.
 
     public static <S extends MessageSchema> void spinBlockForRoom(Pipe<S> pipe, int size) {
+        int i = 0;
         while (!hasRoomForWrite(pipe, size)) {
-            spinWork(pipe);
+            spinWork(pipe, true, i++);
         }
     }
 
     @Deprecated //use spinBlockForRoom then confirm the write afterwords
     public static <S extends MessageSchema> long spinBlockOnTail(long lastCheckedValue, long targetValue, Pipe<S> pipe) {
-    	while (null==pipe.slabRing || lastCheckedValue < targetValue) {
-    		spinWork(pipe);
+    	int i = 0;
+    	while (null==pipe.wrappedSlabRing || lastCheckedValue < targetValue) {
+    		spinWork(pipe, true, i++);
 		    lastCheckedValue = pipe.slabRingTail.tailPos.longValue();
 		}
 		return lastCheckedValue;
     }
 
     public static <S extends MessageSchema> void spinBlockForContent(Pipe<S> pipe) {
+        int i = 0;
         while (!hasContentToRead(pipe)) {
-            spinWork(pipe);
+            spinWork(pipe, false, i++);
         }
     }
 
     //Used by RingInputStream to duplicate contract behavior,  TODO: AA rename to waitForAvailableContent or blockUntilContentReady?
     public static <S extends MessageSchema> long spinBlockOnHead(long lastCheckedValue, long targetValue, Pipe<S> pipe) {
+    	int i = 0;
     	while ( lastCheckedValue < targetValue) {
-    		spinWork(pipe);
+    		spinWork(pipe, false, i++);
 		    lastCheckedValue = pipe.slabRingHead.headPos.get();
 		}
 		return lastCheckedValue;
     }
 
-	private static <S extends MessageSchema> void spinWork(Pipe<S> pipe) {
-		Thread.yield();//needed for now but re-evaluate performance impact
+	private static <S extends MessageSchema> void spinWork(Pipe<S> pipe, boolean forRoom, int iteration) {
+		pipe.waitStrategy.idle(pipe, forRoom, iteration);
 		if (isShutdown(pipe) || Thread.currentThread().isInterrupted()) {
 			throw null!=pipe.firstShutdownCaller ? pipe.firstShutdownCaller : new PipeException("Unexpected shutdown");
 		}
@@ -3117,6 +3753,7 @@ public class Pipe<T extends MessageSchema> {
 	 */
 	public static <S extends MessageSchema> void publishWorkingHeadPosition(Pipe<S> pipe, long workingHeadPos) {
 		pipe.slabRingHead.headPos.lazySet(pipe.slabRingHead.workingHeadPos.value = workingHeadPos);
+		headPublished(pipe);
 				
 	}
 
@@ -3134,6 +3771,12 @@ public class Pipe<T extends MessageSchema> {
 	 */
 	public static <S extends MessageSchema> void publishWorkingTailPosition(Pipe<S> pipe, long workingTailPos) {
 		pipe.slabRingTail.tailPos.lazySet(pipe.slabRingTail.workingTailPos.value = workingTailPos);
+		tailPublished(pipe);
+	}
+
+	static <S extends MessageSchema> void publishSlabTail(Pipe<S> pipe, long tailPos) {
+	    pipe.slabRingTail.tailPos.lazySet(tailPos);
+	    tailPublished(pipe);
 	}
     
 	public static <S extends MessageSchema> void publishBlobWorkingTailPosition(Pipe<S> pipe, int blobWorkingTailPos) {
@@ -3163,7 +3806,8 @@ public class Pipe<T extends MessageSchema> {
 		assert(consumed>=0) : "consumed was "+consumed;
 		//log.trace("wrote {} bytes consumed to position {}",consumed,pos);
 		
-		pipe.slabRing[pipe.slabMask & (int)pos] = consumed;
+		setSlab(pipe, pos, consumed);
+		tracePublish(pipe, pos);
 		pipe.blobWriteLastConsumedPos = pipe.blobRingHead.byteWorkingHeadPos.value;
 		return consumed;
 	}
@@ -3212,17 +3856,89 @@ public class Pipe<T extends MessageSchema> {
     }
     
     public static <S extends MessageSchema> boolean hasRoomForWrite(Pipe<S> pipe) {
-        assert(null != pipe.slabRing) : "Pipe must be init before use";
+        assert(null != pipe.wrappedSlabRing) : "Pipe must be init before use";
         return roomToLowLevelWrite(pipe, pipe.llRead.llwConfirmedPosition+FieldReferenceOffsetManager.maxFragmentSize(Pipe.from(pipe)));
     }    
     
 	private static <S extends MessageSchema> boolean roomToLowLevelWrite(Pipe<S> pipe, long target) {
+		if (null!=pipe.adaptivePublish) {
+			publishOverdueWrites(pipe);
+		}
 		//only does second part if the first does not pass
 		return (pipe.llRead.llrTailPosCache > target) || roomToLowLevelWriteSlow(pipe, target);
 	}
 
 	private static <S extends MessageSchema> boolean roomToLowLevelWriteSlow(Pipe<S> pipe, long target) {
-        return (pipe.llRead.llrTailPosCache = pipe.slabRingTail.tailPos.get()  ) >= target;
+        boolean result = (pipe.llRead.llrTailPosCache = pipe.slabRingTail.tailPos.get()  ) >= target;
+        if (!result) {
+            if (null!=pipe.metrics) {
+                PipeMetrics.recordFull(pipe.metrics);
+            }
+            if (null!=pipe.adaptivePublish) {
+                publishAllBatchedWrites(pipe); //consumer must see everything we have before room can open up
+            }
+        }
+        return result;
+	}
+	
+	private static <S extends MessageSchema> void recordPublish(Pipe<S> pipe, int consumed) {
+	    PipeMetrics.recordPublish(pipe.metrics, consumed,
+	                            pipe.slabRingHead.workingHeadPos.value - pipe.slabRingTail.tailPos.get(),
+	                            BYTES_WRAP_MASK & (pipe.blobRingHead.byteWorkingHeadPos.value - pipe.blobRingTail.bytesTailPos.value));
+	}
+
+	//the high level API has no confirm calls so PipeWriter and PipeReader record each fragment with these
+	static <S extends MessageSchema> void recordFragmentPublished(Pipe<S> pipe, int consumed) {
+	    if (null!=pipe.metrics) {
+	        PipeMetrics.recordWrite(pipe.metrics);
+	        recordPublish(pipe, consumed);
+	    }
+	}
+
+	//MultiProducerPipe moves the head over many fragments at once and only from the thread holding its publishing flag
+	static <S extends MessageSchema> void recordFragmentsPublished(Pipe<S> pipe, int fragments, int consumed) {
+	    if (null!=pipe.metrics) {
+	        PipeMetrics.recordWrites(pipe.metrics, fragments);
+	        recordPublish(pipe, consumed);
+	    }
+	}
+
+	static <S extends MessageSchema> void recordFragmentReleased(Pipe<S> pipe, int consumed) {
+	    if (null!=pipe.metrics) {
+	        PipeMetrics.recordRead(pipe.metrics);
+	        PipeMetrics.recordReadBytes(pipe.metrics, consumed);
+	    }
+	}
+
+	//the high level API checks room and content in StackStateWalker, these match roomToLowLevelWrite and contentToLowLevelRead2
+	static <S extends MessageSchema> void pollAdaptivePublish(Pipe<S> pipe) {
+	    if (null!=pipe.adaptivePublish) {
+	        publishOverdueWrites(pipe);
+	    }
+	}
+
+	static <S extends MessageSchema> void pollAdaptiveRelease(Pipe<S> pipe) {
+	    if (null!=pipe.adaptiveRelease) {
+	        releaseOverdueReads(pipe);
+	    }
+	}
+
+	static <S extends MessageSchema> void writeStalled(Pipe<S> pipe) {
+	    if (null!=pipe.metrics) {
+	        PipeMetrics.recordFull(pipe.metrics);
+	    }
+	    if (null!=pipe.adaptivePublish) {
+	        publishAllBatchedWrites(pipe);
+	    }
+	}
+
+	static <S extends MessageSchema> void readStalled(Pipe<S> pipe) {
+	    if (null!=pipe.metrics) {
+	        PipeMetrics.recordEmpty(pipe.metrics);
+	    }
+	    if (null!=pipe.adaptiveRelease) {
+	        releaseAllBatchedReads(pipe);
+	    }
 	}
 
 	public static <S extends MessageSchema> long confirmLowLevelWrite(Pipe<S> output, int size) { 
@@ -3234,6 +3950,9 @@ public class Pipe<T extends MessageSchema> {
 	                                                " \n CHECK that Pipe is written same fields as message defines and skips none!";
 	   
 	    assert(verifySize(output, size));
+	    if (null!=output.metrics) {
+	        PipeMetrics.recordWrite(output.metrics);
+	    }
 	   	    
 	    return  output.llRead.llwConfirmedPosition += size;
 
@@ -3256,8 +3975,8 @@ public class Pipe<T extends MessageSchema> {
 	
 	private static <S extends MessageSchema> boolean verifySize(Pipe<S> output, int size) {
 		try {
-			assert(Pipe.sizeOf(output, output.slabRing[output.slabMask&(int)output.llRead.llwConfirmedPosition]) == size) : 
-				"Did not write the same size fragment as expected, double check message. expected:"+Pipe.sizeOf(output, output.slabRing[output.slabMask&(int)output.llRead.llwConfirmedPosition])+" but got "+size;
+			assert(Pipe.sizeOf(output, getSlab(output, output.llRead.llwConfirmedPosition)) == size) : 
+				"Did not write the same size fragment as expected, double check message. expected:"+Pipe.sizeOf(output, getSlab(output, output.llRead.llwConfirmedPosition))+" but got "+size;
 		} catch (ArrayIndexOutOfBoundsException aiex) {
 			//ignore, caused by some poor unit tests which need to be re-written.
 		}
@@ -3271,8 +3990,12 @@ public class Pipe<T extends MessageSchema> {
 	    assert((output.llRead.llwConfirmedPosition+output.slabMask) <= Pipe.workingHeadPosition(output)) : " confirmed writes must be less than working head position writes:"
 	                                                +(output.llRead.llwConfirmedPosition+output.slabMask)+" workingHead:"+Pipe.workingHeadPosition(output)+
 	                                                " \n CHECK that Pipe is written same fields as message defines and skips none!";
+	    int size = Pipe.sizeOf(output, getSlab(output, output.llRead.llwConfirmedPosition));
+	    if (null!=output.metrics) {
+	        PipeMetrics.recordWrite(output.metrics);
+	    }
 	   
-	    return  output.llRead.llwConfirmedPosition += Pipe.sizeOf(output, output.slabRing[output.slabMask&(int)output.llRead.llwConfirmedPosition]);
+	    return  output.llRead.llwConfirmedPosition += size;
 
 	}
 	
@@ -3285,7 +4008,7 @@ public class Pipe<T extends MessageSchema> {
     
 	//this method can only be used with low level api navigation loop
     public static <S extends MessageSchema> boolean hasContentToRead(Pipe<S> pipe) {
-        assert(null != pipe.slabRing) : "Pipe must be init before use";
+        assert(null != pipe.wrappedSlabRing) : "Pipe must be init before use";
         final boolean result = contentToLowLevelRead2(pipe, pipe.llWrite.llrConfirmedPosition, pipe.llWrite);
         
 //        //there are times when result can be false but we have data which relate to our holding the position for some other reason. only when we hold back releases.
@@ -3296,12 +4019,24 @@ public class Pipe<T extends MessageSchema> {
     }
 
 	private static <S extends MessageSchema> boolean contentToLowLevelRead2(Pipe<S> pipe, long target, LowLevelAPIWritePositionCache llWrite) {
+		if (null!=pipe.adaptiveRelease) {
+			releaseOverdueReads(pipe);
+		}
 		//only does second part if the first does not pass
 		return (llWrite.llwHeadPosCache > target) || contentToLowLevelReadSlow(pipe, target, llWrite);
 	}
 
 	private static <S extends MessageSchema> boolean contentToLowLevelReadSlow(Pipe<S> pipe, long target, LowLevelAPIWritePositionCache llWrite) {
-		return (llWrite.llwHeadPosCache = pipe.slabRingHead.headPos.get()) > target;  
+		boolean result = (llWrite.llwHeadPosCache = pipe.slabRingHead.headPos.get()) > target;
+		if (!result) {
+		    if (null!=pipe.metrics) {
+		        PipeMetrics.recordEmpty(pipe.metrics);
+		    }
+		    if (null!=pipe.adaptiveRelease) {
+		        releaseAllBatchedReads(pipe); //idle so nothing is gained by holding the releases
+		    }
+		}
+		return result;
 	}
 
 	public static <S extends MessageSchema> long confirmLowLevelRead(Pipe<S> pipe, long size) {
@@ -3309,6 +4044,9 @@ public class Pipe<T extends MessageSchema> {
 	     //not sure if this assert is true in all cases
 	  //  assert(input.llWrite.llwConfirmedWrittenPosition + size <= input.slabRingHead.workingHeadPos.value+Pipe.EOF_SIZE) : "size was far too large, past known data";
 	  //  assert(input.llWrite.llwConfirmedWrittenPosition + size >= input.slabRingTail.tailPos.get()) : "size was too small, under known data";   
+	    if (null!=pipe.metrics) {
+	        PipeMetrics.recordRead(pipe.metrics);
+	    }
 		return (pipe.llWrite.llrConfirmedPosition += size);
 	}
 
@@ -3393,10 +4131,12 @@ public class Pipe<T extends MessageSchema> {
     }
 
     public static <S extends MessageSchema> byte[] blob(Pipe<S> pipe) {        
+        assert(!pipe.offHeap) : "Off heap rings are only reachable through the low level API";
         return pipe.blobRing;
     }
     
     public static <S extends MessageSchema> int[] slab(Pipe<S> pipe) {
+        assert(!pipe.offHeap) : "Off heap rings are only reachable through the low level API";
         return pipe.slabRing;
     }
     
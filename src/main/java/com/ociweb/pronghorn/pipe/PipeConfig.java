@@ -11,6 +11,10 @@ public class PipeConfig<T extends MessageSchema> {
 	final byte[] byteConst;
 	final T schema; 
 	int debugFlags = 0;
+	WaitStrategy waitStrategy = WaitStrategy.YIELD;
+	boolean metrics = false;
+	boolean traceLatency = false;
+	boolean offHeap = false;
 	
    /**
      * This is NOT the constructor you are looking for.
@@ -40,6 +44,10 @@ public class PipeConfig<T extends MessageSchema> {
     	 return slabBits;
      }
      
+     public byte blobBits() {
+    	 return blobBits;
+     }
+     
     public static <S extends MessageSchema> Pipe<S> pipe(PipeConfig<S> config) {
         return new Pipe<S>(config);
     }
@@ -108,17 +116,92 @@ public class PipeConfig<T extends MessageSchema> {
      }
 	
 	public PipeConfig<T> grow2x(){
-		return new PipeConfig<T>((byte)(1+slabBits), (byte)(1+blobBits), byteConst, schema);
+		return copyOptions(new PipeConfig<T>((byte)(1+slabBits), (byte)(1+blobBits), byteConst, schema));
+	}
+	
+	public PipeConfig<T> shrink2x(){
+		return copyOptions(new PipeConfig<T>((byte)(slabBits-1), (byte)(blobBits-1), byteConst, schema));
 	}
 	
 	public PipeConfig<T> blobGrow2x(){
-		return new PipeConfig<T>((byte)(slabBits), (byte)(1+blobBits), byteConst, schema);
+		return copyOptions(new PipeConfig<T>((byte)(slabBits), (byte)(1+blobBits), byteConst, schema));
 	}
 	
 	
 	public PipeConfig<T> debug(int debugFlags){
-		PipeConfig<T> result = new PipeConfig<T>((byte)(slabBits), (byte)(blobBits), byteConst, schema);
+		PipeConfig<T> result = copyOptions(new PipeConfig<T>((byte)(slabBits), (byte)(blobBits), byteConst, schema));
+		result.debugFlags = debugFlags;
+		return result;
+	}
+	
+	/**
+	 * Pipes built from the returned config use this strategy while blocked waiting for room or content.
+	 * The default is {@link WaitStrategy#YIELD}.
+	 */
+	public PipeConfig<T> waitStrategy(WaitStrategy waitStrategy){
+		PipeConfig<T> result = copyOptions(new PipeConfig<T>((byte)(slabBits), (byte)(blobBits), byteConst, schema));
+		result.waitStrategy = waitStrategy;
+		return result;
+	}
+	
+	public WaitStrategy waitStrategy() {
+		return waitStrategy;
+	}
+	
+	/**
+	 * Pipes built from the returned config keep live {@link PipeMetrics} which are registered by pipe id.
+	 * This is decided at construction so pipes without metrics pay nothing for them.
+	 */
+	public PipeConfig<T> metrics(){
+		PipeConfig<T> result = copyOptions(new PipeConfig<T>((byte)(slabBits), (byte)(blobBits), byteConst, schema));
+		result.metrics = true;
+		return result;
+	}
+	
+	public boolean isCollectingMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Pipes built from the returned config stamp the publish time of each fragment and record how long it
+	 * waited when it is released, see {@link Pipe#latencyHistogram(Pipe)}.
+	 */
+	public PipeConfig<T> traceLatency(){
+		PipeConfig<T> result = copyOptions(new PipeConfig<T>((byte)(slabBits), (byte)(blobBits), byteConst, schema));
+		result.traceLatency = true;
+		return result;
+	}
+	
+	public boolean isTracingLatency() {
+		return traceLatency;
+	}
+	
+	/**
+	 * Pipes built from the returned config hold the slab and blob rings in direct memory so large rings do not
+	 * grow the old generation.  Only the low level API is supported, so the pipe must be built with
+	 * usingHighLevelAPI false.  Fields are written with addMsgIdx, addIntValue, addLongValue, addByteArray and
+	 * addNullByteArray and read back with takeMsgIdx, takeInt, takeLong, the peek methods, takeRingByteMetaData,
+	 * takeRingByteLen and readBytes into an array or ByteBuffer.  The ByteBuffer views of the blob also work.
+	 * Anything which needs {@link Pipe#slab(Pipe)} or {@link Pipe#blob(Pipe)}, such as the blob streams, the text
+	 * helpers or moveMessages, does not.  The memory is returned once {@link Pipe#releaseBuffers(Pipe)} has been
+	 * called and the buffers are collected.
+	 */
+	public PipeConfig<T> offHeap(){
+		PipeConfig<T> result = copyOptions(new PipeConfig<T>((byte)(slabBits), (byte)(blobBits), byteConst, schema));
+		result.offHeap = true;
+		return result;
+	}
+	
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+	
+	private PipeConfig<T> copyOptions(PipeConfig<T> result) {
 		result.debugFlags = debugFlags;
+		result.waitStrategy = waitStrategy;
+		result.metrics = metrics;
+		result.traceLatency = traceLatency;
+		result.offHeap = offHeap;
 		return result;
 	}
 	
@@ -0,0 +1,236 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Live counters for a single pipe, enabled with {@link PipeConfig#metrics()}.
+ *
+ * The producer fields are only written by the producing thread and the consumer fields are only written by the
+ * consuming thread so no locks or read-modify-write operations are needed on the hot path.  The counters and batch
+ * sizes are volatile and published with lazySet, an ordered store with no fence, so a monitor thread may read any
+ * value at any time and gets a value that was written, even on 32 bit JVMs where plain longs may tear.  The values may be slightly
+ * stale.  Each group is padded onto its own cache lines so the two threads do not contend.
+ *
+ * Every instance is held in a registry indexed by {@link Pipe#id} so a monitor can walk all the pipes of a graph
+ * without locks, see {@link #registered()}.
+ *
+ * When metrics are not enabled the pipe holds no instance and only pays for a null check.
+ */
+public class PipeMetrics {
+
+    private static final Object lock = new Object();
+    private static volatile PipeMetrics[] registry = new PipeMetrics[64];
+
+    public final int pipeId;
+    final int slabSize;
+    final int blobSize;
+
+    private static final AtomicLongFieldUpdater<PipeMetrics> FRAGMENTS_WRITTEN = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "fragmentsWritten");
+    private static final AtomicLongFieldUpdater<PipeMetrics> BYTES_WRITTEN = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "bytesWritten");
+    private static final AtomicLongFieldUpdater<PipeMetrics> FULL_ON_WRITE = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "fullOnWrite");
+    private static final AtomicLongFieldUpdater<PipeMetrics> SLAB_HIGH_WATER = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "slabHighWater");
+    private static final AtomicLongFieldUpdater<PipeMetrics> BLOB_HIGH_WATER = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "blobHighWater");
+    private static final AtomicLongFieldUpdater<PipeMetrics> FRAGMENTS_READ = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "fragmentsRead");
+    private static final AtomicLongFieldUpdater<PipeMetrics> BYTES_READ = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "bytesRead");
+    private static final AtomicLongFieldUpdater<PipeMetrics> EMPTY_ON_READ = AtomicLongFieldUpdater.newUpdater(PipeMetrics.class, "emptyOnRead");
+    private static final AtomicIntegerFieldUpdater<PipeMetrics> PUBLISH_BATCH_SIZE = AtomicIntegerFieldUpdater.newUpdater(PipeMetrics.class, "publishBatchSize");
+    private static final AtomicIntegerFieldUpdater<PipeMetrics> RELEASE_BATCH_SIZE = AtomicIntegerFieldUpdater.newUpdater(PipeMetrics.class, "releaseBatchSize");
+
+    long padA1, padA2, padA3, padA4, padA5, padA6, padA7;
+
+    //written by the producer
+    volatile long fragmentsWritten;
+    volatile long bytesWritten;
+    volatile long fullOnWrite;
+    volatile long slabHighWater;
+    volatile long blobHighWater;
+    volatile int publishBatchSize = 1;
+    boolean writeFull;
+
+    long padB1, padB2, padB3, padB4, padB5, padB6, padB7;
+
+    //written by the consumer
+    volatile long fragmentsRead;
+    volatile long bytesRead;
+    volatile long emptyOnRead;
+    volatile int releaseBatchSize = 1;
+    boolean readEmpty;
+
+    long padC1, padC2, padC3, padC4, padC5, padC6, padC7;
+
+    PipeMetrics(int pipeId, int slabSize, int blobSize) {
+        this.pipeId = pipeId;
+        this.slabSize = slabSize;
+        this.blobSize = blobSize;
+    }
+
+    static PipeMetrics register(int pipeId, int slabSize, int blobSize) {
+        PipeMetrics result = new PipeMetrics(pipeId, slabSize, blobSize);
+        synchronized(lock) {
+            PipeMetrics[] local = registry;
+            if (pipeId >= local.length) {
+                PipeMetrics[] grown = new PipeMetrics[Math.max(pipeId+1, local.length*2)];
+                System.arraycopy(local, 0, grown, 0, local.length);
+                local = grown;
+            } else {
+                local = local.clone();
+            }
+            local[pipeId] = result;
+            registry = local; //volatile write publishes the new instance to the monitors
+        }
+        return result;
+    }
+
+    /**
+     * All the registered metrics indexed by pipe id, the array will contain nulls for pipes without metrics.
+     * This is a snapshot of the registry, it must not be modified.
+     */
+    public static PipeMetrics[] registered() {
+        return registry;
+    }
+
+    /**
+     * Metrics for the given pipe id or null if it has none.
+     */
+    public static PipeMetrics get(int pipeId) {
+        PipeMetrics[] local = registry;
+        return pipeId < local.length ? local[pipeId] : null;
+    }
+
+    /**
+     * Remove this pipe from the registry, used when graphs are torn down.
+     */
+    public static void unregister(int pipeId) {
+        synchronized(lock) {
+            PipeMetrics[] local = registry;
+            if (pipeId < local.length && null != local[pipeId]) {
+                local = local.clone();
+                local[pipeId] = null;
+                registry = local;
+            }
+        }
+    }
+
+    static void recordWrite(PipeMetrics m) {
+        recordWrites(m, 1);
+    }
+
+    static void recordWrites(PipeMetrics m, int fragments) {
+        FRAGMENTS_WRITTEN.lazySet(m, m.fragmentsWritten+fragments);
+        m.writeFull = false;
+    }
+
+    static void recordPublish(PipeMetrics m, int bytes, long slabFill, int blobFill) {
+        BYTES_WRITTEN.lazySet(m, m.bytesWritten+bytes);
+        if (slabFill > m.slabHighWater) {
+            SLAB_HIGH_WATER.lazySet(m, slabFill);
+        }
+        if (blobFill > m.blobHighWater) {
+            BLOB_HIGH_WATER.lazySet(m, blobFill);
+        }
+    }
+
+    static void recordPublishBatch(PipeMetrics m, int size) {
+        PUBLISH_BATCH_SIZE.lazySet(m, size);
+    }
+
+    static void recordReleaseBatch(PipeMetrics m, int size) {
+        RELEASE_BATCH_SIZE.lazySet(m, size);
+    }
+
+    static void recordRead(PipeMetrics m) {
+        recordReads(m, 1);
+    }
+
+    static void recordReads(PipeMetrics m, int fragments) {
+        FRAGMENTS_READ.lazySet(m, m.fragmentsRead+fragments);
+        m.readEmpty = false;
+    }
+
+    static void recordReadBytes(PipeMetrics m, int bytes) {
+        BYTES_READ.lazySet(m, m.bytesRead+bytes);
+    }
+
+    //only counted once for each time the pipe is found full, not for each check while waiting
+    static void recordFull(PipeMetrics m) {
+        if (!m.writeFull) {
+            m.writeFull = true;
+            FULL_ON_WRITE.lazySet(m, m.fullOnWrite+1);
+        }
+    }
+
+    static void recordEmpty(PipeMetrics m) {
+        if (!m.readEmpty) {
+            m.readEmpty = true;
+            EMPTY_ON_READ.lazySet(m, m.emptyOnRead+1);
+        }
+    }
+
+    public long fragmentsWritten() {
+        return fragmentsWritten;
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public long fragmentsRead() {
+        return fragmentsRead;
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    public long fullOnWrite() {
+        return fullOnWrite;
+    }
+
+    public long emptyOnRead() {
+        return emptyOnRead;
+    }
+
+    public long slabHighWater() {
+        return slabHighWater;
+    }
+
+    public long blobHighWater() {
+        return blobHighWater;
+    }
+
+    /**
+     * Fragments published at once, only changes when adaptive batching is enabled on the pipe.
+     */
+    public int publishBatchSize() {
+        return publishBatchSize;
+    }
+
+    /**
+     * Fragments released at once, only changes when adaptive batching is enabled on the pipe.
+     */
+    public int releaseBatchSize() {
+        return releaseBatchSize;
+    }
+
+    /**
+     * Percent of the slab ring used at its fullest.
+     */
+    public int slabHighWaterPct() {
+        return (int)((100*slabHighWater)/slabSize);
+    }
+
+    /**
+     * Percent of the blob ring used at its fullest.
+     */
+    public int blobHighWaterPct() {
+        return 0==blobSize ? 0 : (int)((100*blobHighWater)/blobSize);
+    }
+
+    public String toString() {
+        return "Pipe:"+pipeId+" written:"+fragmentsWritten+"/"+bytesWritten+"B read:"+fragmentsRead+"/"+bytesRead+"B"+
+               " full:"+fullOnWrite+" empty:"+emptyOnRead+" slabHigh:"+slabHighWaterPct()+"% blobHigh:"+blobHighWaterPct()+"%"+
+               " batch:"+publishBatchSize+"/"+releaseBatchSize;
+    }
+
+}
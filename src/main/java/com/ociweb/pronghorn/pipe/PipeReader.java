@@ -145,7 +145,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         if (pos < 0) {
             return readUTF8Const(pipe,bytesLength,target, targetOffset, POS_CONST_MASK & pos);
         } else {
-            return readUTF8Ring(pipe,bytesLength,target, targetOffset,Pipe.restorePosition(pipe, pos));
+            return readUTF8Ring(pipe,bytesLength,target, targetOffset,pos);
         }
     }
     
@@ -162,14 +162,16 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
 	  return i - targetloc;    
 	}
     
-	private static int readUTF8Ring(Pipe pipe, int bytesLen, char[] target, int targetloc, int ringPos) {
+	private static int readUTF8Ring(Pipe pipe, int bytesLen, char[] target, int targetloc, int meta) {
 		  
+		  byte[] buffer = Pipe.byteBackingArray(meta, pipe);
+		  int ringPos = Pipe.convertToPosition(meta, pipe);
 		  long charAndPos = ((long)ringPos)<<32;
 		  long limit = ((long)(ringPos+bytesLen))<<32;
 						  
 		  int i = targetloc;
 		  while (charAndPos<limit) {		      
-		      charAndPos = Pipe.decodeUTF8Fast(Pipe.byteBuffer(pipe), charAndPos, pipe.byteMask);    
+		      charAndPos = Pipe.decodeUTF8Fast(buffer, charAndPos, pipe.byteMask);    
 		      target[i++] = (char)charAndPos;		
 		  }
 		  return i - targetloc;
@@ -197,7 +199,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
                 
             }
         } else {
-            readASCIIRing(pipe,len,target, targetOffset,Pipe.restorePosition(pipe, pos));
+            readASCIIRing(pipe,len,target, targetOffset,pos);
         }
         return len;
     }
@@ -213,10 +215,11 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
     }
     
     
-    private static void readASCIIRing(Pipe pipe, int len, char[] target, int targetloc, int pos) {
+    private static void readASCIIRing(Pipe pipe, int len, char[] target, int targetloc, int meta) {
     	
-        byte[] buffer = Pipe.blob(pipe);
+        byte[] buffer = Pipe.byteBackingArray(meta, pipe);
         int mask = pipe.byteMask;
+        int pos = Pipe.convertToPosition(meta, pipe);
         while (--len >= 0) {
             target[targetloc++]=(char)buffer[mask & pos++];
         }
@@ -237,7 +240,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         if (pos < 0) {
             return eqUTF8Const(pipe,len,seq,POS_CONST_MASK & pos);
         } else {
-            return eqUTF8Ring(pipe,len,seq,Pipe.restorePosition(pipe,pos));
+            return eqUTF8Ring(pipe,len,seq,pos);
         }
     }
     
@@ -254,7 +257,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         if (pos < 0) {
             return eqASCIIConst(pipe,len,seq,POS_CONST_MASK & pos);
         } else {
-            return eqASCIIRing(pipe,len,seq,Pipe.restorePosition(pipe,pos));
+            return eqASCIIRing(pipe,len,seq,pos);
         }
     }
 
@@ -299,9 +302,10 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
     }
     
     
-    private static boolean eqASCIIRing(Pipe pipe, int len, CharSequence seq, int pos) {
+    private static boolean eqASCIIRing(Pipe pipe, int len, CharSequence seq, int meta) {
     	
-        byte[] buffer = Pipe.blob(pipe);
+        byte[] buffer = Pipe.byteBackingArray(meta, pipe);
+        int pos = Pipe.convertToPosition(meta, pipe);
         
         int mask = pipe.byteMask;
         int i = 0;
@@ -314,9 +318,10 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         return true;
     }
     
-    private static boolean eqUTF8Ring(Pipe pipe, int lenInBytes, CharSequence seq, int ringPos) {
-        
+    private static boolean eqUTF8Ring(Pipe pipe, int lenInBytes, CharSequence seq, int meta) {
         
+        byte[] buffer = Pipe.byteBackingArray(meta, pipe);
+        int ringPos = Pipe.convertToPosition(meta, pipe);
         long charAndPos = ((long)ringPos)<<32;
         long limit = ((long)ringPos+lenInBytes)<<32;
         
@@ -326,7 +331,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         int chars = seq.length();
         while (--chars>=0 && charAndPos<limit) {
             
-            charAndPos = Pipe.decodeUTF8Fast(Pipe.blob(pipe), charAndPos, mask);
+            charAndPos = Pipe.decodeUTF8Fast(buffer, charAndPos, mask);
             
             if (seq.charAt(i++) != (char)charAndPos) {
                 return false;
@@ -367,14 +372,14 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         assert(LOCUtil.isLocOfAnyType(loc, TypeMask.TextASCII, TypeMask.TextASCIIOptional, TypeMask.TextUTF8, TypeMask.TextUTF8Optional, TypeMask.ByteVector, TypeMask.ByteVectorOptional)): "Value found "+LOCUtil.typeAsString(loc);
 
         int tmp = Pipe.slab(pipe)[pipe.mask & (int)(pipe.ringWalker.activeReadFragmentStack[STACK_OFF_MASK&(loc>>STACK_OFF_SHIFT)]  + (OFF_MASK&loc) )];
-		return tmp<0 ? POS_CONST_MASK & tmp : Pipe.restorePosition(pipe,tmp);// first int is always the length
+		return tmp<0 ? POS_CONST_MASK & tmp : Pipe.convertToPosition(tmp, pipe);// first int is always the length
     }
 
     public static byte[] readBytesBackingArray(Pipe pipe, int loc) {
         assert(LOCUtil.isLocOfAnyType(loc, TypeMask.TextASCII, TypeMask.TextASCIIOptional, TypeMask.TextUTF8, TypeMask.TextUTF8Optional, TypeMask.ByteVector, TypeMask.ByteVectorOptional)): "Value found "+LOCUtil.typeAsString(loc);
 
     	 int pos = Pipe.slab(pipe)[pipe.mask & (int)(pipe.ringWalker.activeReadFragmentStack[STACK_OFF_MASK&(loc>>STACK_OFF_SHIFT)]  + (OFF_MASK&loc))];
-    	 return pos<0 ? pipe.blobConstBuffer :  Pipe.byteBuffer(pipe);
+    	 return Pipe.byteBackingArray(pos, pipe);
     }
     
     public static ByteBuffer readBytes(Pipe pipe, int loc, ByteBuffer target) {
@@ -435,7 +440,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         if (pos < 0) {
             readBytesConst(pipe,len,target,targetOffset,POS_CONST_MASK & pos);
         } else {
-            readBytesRing(pipe,len,target,targetOffset,Pipe.restorePosition(pipe, pos));
+            readBytesRing(pipe,len,target,targetOffset,pos);
         }
         return len;
     }
@@ -447,9 +452,10 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
             }
     }
 
-    private static void readBytesRing(Pipe pipe, int len, byte[] target, int targetloc, int pos) {
-            byte[] buffer = Pipe.blob(pipe);
+    private static void readBytesRing(Pipe pipe, int len, byte[] target, int targetloc, int meta) {
+            byte[] buffer = Pipe.byteBackingArray(meta, pipe);
             int mask = pipe.byteMask;
+            int pos = Pipe.convertToPosition(meta, pipe);
             while (--len >= 0) {
                 target[targetloc++]=buffer[mask & pos++]; //TODO:M replace with dual arrayCopy as seen elsewhere
             }
@@ -465,7 +471,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
         if (pos < 0) {
             readBytesConst(pipe,len,target, targetOffset,targetMask, POS_CONST_MASK & pos);
         } else {
-            Pipe.copyBytesFromToRing(Pipe.byteBuffer(pipe), Pipe.restorePosition(pipe, pos), pipe.byteMask, target, targetOffset, targetMask,	len);
+            Pipe.copyBytesFromToRing(Pipe.byteBackingArray(pos, pipe), Pipe.convertToPosition(pos, pipe), pipe.byteMask, target, targetOffset, targetMask,	len);
         }
         return len;
     }
@@ -634,7 +640,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
     public static int peekDataPosition(Pipe pipe, int loc) {
     	assert(PipeReader.hasContentToRead(pipe)) : "results would not be repeatable, before peek hasContentToRead must be called.";
         assert(LOCUtil.isLocOfAnyType(loc, TypeMask.TextASCII, TypeMask.TextASCIIOptional, TypeMask.TextUTF8, TypeMask.TextUTF8Optional, TypeMask.ByteVector, TypeMask.ByteVectorOptional)): "Value found "+LOCUtil.typeAsString(loc);
-        return Pipe.restorePosition(pipe,Pipe.slab(pipe)[pipe.slabMask & (int)(pipe.ringWalker.nextWorkingTail+(OFF_MASK&loc))]);
+        return Pipe.convertToPosition(Pipe.slab(pipe)[pipe.slabMask & (int)(pipe.ringWalker.nextWorkingTail+(OFF_MASK&loc))], pipe);
     }
 	
 	//this impl only works for simple case where every message is one fragment. 
@@ -665,7 +671,8 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
 
 	public static void releaseReadLock(Pipe pipe) {
 	    
-        collectConsumedCountOfBytes(pipe); 
+        Pipe.traceRelease(pipe, pipe.ringWalker.nextWorkingTail-1);
+        Pipe.recordFragmentReleased(pipe, collectConsumedCountOfBytes(pipe));
 	    
 	    //ensure we only call for new templates.
 	    if (FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) {
@@ -684,7 +691,9 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
 	
 	public static boolean readNextWithoutReleasingReadLock(Pipe pipe) {
 	    
+        Pipe.traceRelease(pipe, pipe.ringWalker.nextWorkingTail-1);
         int bytesConsumed = collectConsumedCountOfBytes(pipe); 
+        Pipe.recordFragmentReleased(pipe, bytesConsumed);
         
         if (FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) {
             assert(Pipe.isReplaying(pipe) || pipe.ringWalker.nextWorkingTail!=Pipe.getWorkingTailPosition(pipe)) : "Only call release once per message";
@@ -1,26 +1,71 @@
 package com.ociweb.pronghorn.pipe;
 
+/**
+ * Computes how long a stage should wait before it produces into or consumes from a pipe so the traffic stays within
+ * its contract.  Set with {@link Pipe#setConsumerRegulation(Pipe, PipeRegulator)} or
+ * {@link Pipe#setProducerRegulation(Pipe, PipeRegulator)}, each pipe needs its own regulator but the buckets may be
+ * shared.
+ *
+ * Messages and bytes are limited separately, either may be null when that dimension is not limited.  The bytes are
+ * the blob bytes moved.  Messages are counted as the fragments published or released on that side of the pipe, so a
+ * message of several fragments is charged once for each.
+ */
 public class PipeRegulator {
-    
-    private long regulatorTimeBaseNS = System.currentTimeMillis()*MS_TO_NS;
-    private long regulatorPositionBase = 0;
-    private long divisorSizeNS;
-    private static final long MS_TO_NS = 1_000_000L;
-    
+
+    private static final long MS_PER_SECOND = 1_000L;
+
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+    long fragments; //counted by the pipe as each fragment is published or released
+    private long lastFragments;
+    private int lastBlobPosition;
+
     /**
      * Helper method so the scheduler can get the number of nanos that this stage should wait before reschedule.
-     * 
+     *
      * This supports both regulating the consumer/producer of data based on contract requirements of the connected software.
-     * 
-     * @param maxMsgPerMs
+     *
+     * @param maxMsgPerMs messages allowed each ms, one ms worth may be sent in a burst
+     * @param avgMsgSize bytes allowed for each message on average
      */
     public PipeRegulator(int maxMsgPerMs, int avgMsgSize) {
-        this.divisorSizeNS = MS_TO_NS*(long)avgMsgSize*(long)maxMsgPerMs;
-    }    
-    
+        this(new TokenBucket(MS_PER_SECOND*maxMsgPerMs, maxMsgPerMs),
+             avgMsgSize<=0 ? null : new TokenBucket(MS_PER_SECOND*maxMsgPerMs*avgMsgSize, (long)maxMsgPerMs*avgMsgSize));
+    }
+
+    /**
+     * @param messages limit on the messages or null
+     * @param bytes limit on the blob bytes or null
+     */
+    public PipeRegulator(TokenBucket messages, TokenBucket bytes) {
+        this.messages = messages;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Charges everything moved since the last call and returns the nanoseconds to wait before moving more.
+     * The slab position is not needed, the fragments are counted as they move.
+     */
+    public static <S extends MessageSchema> long computeRateLimitDelay(Pipe<S> pipe, long slabPosition, int blobPosition, PipeRegulator regulator) {
+        final long now = System.nanoTime();
+        long wait = 0;
+        if (null!=regulator.messages) {
+            wait = TokenBucket.charge(regulator.messages, regulator.fragments-regulator.lastFragments, now);
+        }
+        regulator.lastFragments = regulator.fragments;
+        if (null!=regulator.bytes) {
+            wait = Math.max(wait, TokenBucket.charge(regulator.bytes, Pipe.BYTES_WRAP_MASK&(blobPosition-regulator.lastBlobPosition), now));
+        }
+        regulator.lastBlobPosition = blobPosition;
+        return wait;
+    }
+
+    /**
+     * Only charges the messages, use {@link #computeRateLimitDelay(Pipe, long, int, PipeRegulator)}.
+     */
+    @Deprecated
     public static <S extends MessageSchema> long computeRateLimitDelay(Pipe<S> pipe, long position, PipeRegulator regulator) {
-        long expectedNow = regulator.regulatorTimeBaseNS + ((position-regulator.regulatorPositionBase)/regulator.divisorSizeNS);
-        return expectedNow-(System.currentTimeMillis()*MS_TO_NS);
+        return computeRateLimitDelay(pipe, position, regulator.lastBlobPosition, regulator);
     }
-    
+
 }
@@ -170,6 +170,15 @@ public class PipeWriter {
 		Pipe.setBytePosAndLen(Pipe.slab(pipe), pipe.slabMask, pipe.ringWalker.activeWriteFragmentStack[STACK_OFF_MASK&(loc>>STACK_OFF_SHIFT)] + (OFF_MASK&loc), bytePos, length, Pipe.bytesWriteBase(pipe));
     }
 
+	/**
+	 * Writes the absent (null) value for any optional text or byte vector field, nothing is added to the blob.
+	 */
+	public static void writeNull(Pipe pipe, int loc) {
+	    assert(LOCUtil.isLocOfAnyType(loc, TypeMask.TextASCIIOptional, TypeMask.TextUTF8Optional, TypeMask.ByteVectorOptional)): "Value found "+LOCUtil.typeAsString(loc);
+
+		Pipe.setBytePosAndLen(Pipe.slab(pipe), pipe.slabMask, pipe.ringWalker.activeWriteFragmentStack[STACK_OFF_MASK&(loc>>STACK_OFF_SHIFT)] + (OFF_MASK&loc), Pipe.getWorkingBlobHeadPosition( pipe), -1, Pipe.bytesWriteBase(pipe));
+	}
+
 	public static void writeSpecialBytesPosAndLen(Pipe pipe, int loc, int length, int bytePos) {
 	    assert(LOCUtil.isLocOfAnyType(loc, TypeMask.TextASCII, TypeMask.TextASCIIOptional, TypeMask.TextUTF8, TypeMask.TextUTF8Optional, TypeMask.ByteVector, TypeMask.ByteVectorOptional)): "Value found "+LOCUtil.typeAsString(loc);
 
@@ -277,12 +286,13 @@ public class PipeWriter {
 	  
         assert(Pipe.workingHeadPosition(pipe)!=Pipe.headPosition(pipe)) : "Fragment was already published, check the workflow logic and remove call to publishWrites(pipe)";
         
-	    Pipe.writeTrailingCountOfBytesConsumed(pipe, pipe.ringWalker.nextWorkingHead -1 ); 
+	    int consumed = Pipe.writeTrailingCountOfBytesConsumed(pipe, pipe.ringWalker.nextWorkingHead -1 ); 
+	    Pipe.recordFragmentPublished(pipe, consumed);
 
 		//single length field still needs to move this value up, so this is always done
 	    Pipe.updateBytesWriteLastConsumedPos(pipe);
 		
-		if ((Pipe.decBatchPublish(pipe)>0)) {		
+		if (!Pipe.publishBatchEnds(pipe)) {		
 			Pipe.storeUnpublishedHead(pipe);
 			return;
 		}
@@ -107,6 +107,7 @@ class StackStateWalker {
 		assert(isValidFragmentStart(ringBuffer, ringBufferConsumer.nextWorkingTail)) : "last assigned fragment start is invalid, should have been detected far before this point.";
 				
 		final long target = ringBufferConsumer.from.fragDataSize[ringBufferConsumer.cursor] + ringBufferConsumer.nextWorkingTail; //One for the template ID NOTE: Caution, this simple implementation does NOT support preamble
+		Pipe.pollAdaptiveRelease(ringBuffer);
 						
 		if (ringBuffer.llWrite.llwHeadPosCache >= target) {
 			prepReadFragment(ringBuffer, ringBufferConsumer, ringBufferConsumer.from.fragScriptSize[ringBufferConsumer.cursor], ringBufferConsumer.nextWorkingTail, target);
@@ -116,6 +117,7 @@ class StackStateWalker {
 				prepReadFragment(ringBuffer, ringBufferConsumer, ringBufferConsumer.from.fragScriptSize[ringBufferConsumer.cursor], ringBufferConsumer.nextWorkingTail, target);
 			} else {
 				ringBufferConsumer.isNewMessage = false; 
+				Pipe.readStalled(ringBuffer);
 								
 				assert (ringBuffer.llWrite.llwHeadPosCache<=ringBufferConsumer.nextWorkingTail) : 
 					  "Partial fragment published!  expected "+(target-ringBufferConsumer.nextWorkingTail)+" but found "+(ringBuffer.llWrite.llwHeadPosCache-ringBufferConsumer.nextWorkingTail);
@@ -139,6 +141,7 @@ class StackStateWalker {
 		///
 		//check the ring buffer looking for new message	
 		//return false if we don't have enough data to read the first id and therefore the message
+		Pipe.pollAdaptiveRelease(ringBuffer);
 		if (ringBuffer.llWrite.llwHeadPosCache > 1+ringBufferConsumer.nextWorkingTail) { 
 			prepReadMessage(ringBuffer, ringBufferConsumer, ringBufferConsumer.nextWorkingTail);
 		} else {
@@ -148,6 +151,7 @@ class StackStateWalker {
 			} else {
 				//rare slow case where we dont find any data
 				ringBufferConsumer.isNewMessage = false; 
+				Pipe.readStalled(ringBuffer);
 				return false;					
 			}
 		}
@@ -503,19 +507,29 @@ class StackStateWalker {
 	}
 	
     static boolean hasContentToRead(Pipe pipe) {
+        Pipe.pollAdaptiveRelease(pipe);
         return (pipe.llWrite.llwHeadPosCache > 1+pipe.ringWalker.nextWorkingTail) || hasContentToReadSlow(pipe);
     }
 
 	private static boolean hasContentToReadSlow(Pipe pipe) {
-		return (pipe.llWrite.llwHeadPosCache =  Pipe.headPosition(pipe)) > 1+pipe.ringWalker.nextWorkingTail;
+		boolean result = (pipe.llWrite.llwHeadPosCache =  Pipe.headPosition(pipe)) > 1+pipe.ringWalker.nextWorkingTail;
+		if (!result) {
+		    Pipe.readStalled(pipe);
+		}
+		return result;
 	}
 	
     static boolean hasRoomForFragmentOfSizeX(Pipe pipe, long limit) {
+        Pipe.pollAdaptivePublish(pipe);
         return (pipe.llRead.llrTailPosCache >= limit) || hasRoomForFragmentOfSizeXSlow(pipe, limit);
     }
 
 	private static boolean hasRoomForFragmentOfSizeXSlow(Pipe pipe, long limit) {
-		return (pipe.llRead.llrTailPosCache =  Pipe.tailPosition(pipe)) >= limit;
+		boolean result = (pipe.llRead.llrTailPosCache =  Pipe.tailPosition(pipe)) >= limit;
+		if (!result) {
+		    Pipe.writeStalled(pipe);
+		}
+		return result;
 	}
 
     static boolean tryWriteFragment0(Pipe pipe, int cursorPosition, int fragSize, long target) {
@@ -526,6 +540,7 @@ class StackStateWalker {
     static boolean tryWriteFragment1(Pipe pipe, int cursorPosition, FieldReferenceOffsetManager from, int fragSize, long target, boolean hasRoom) {
                 
         assert(Pipe.getPublishBatchSize(pipe)>0 || Pipe.headPosition(pipe)==Pipe.workingHeadPosition(pipe)) : "Confirm that tryWrite is only called once per fragment written. OR setBatch publish to zero in startup.";
+        Pipe.pollAdaptivePublish(pipe);
         //try again and update the cache with the newest value
         if (hasRoom) {
             prepWriteFragment(pipe, cursorPosition, from, fragSize);
@@ -534,6 +549,8 @@ class StackStateWalker {
             hasRoom = (pipe.llRead.llrTailPosCache = Pipe.tailPosition(pipe)) >=  target;       
             if (hasRoom) {      
                 prepWriteFragment(pipe, cursorPosition, from, fragSize);
+            } else {
+                Pipe.writeStalled(pipe);
             }
         }
     
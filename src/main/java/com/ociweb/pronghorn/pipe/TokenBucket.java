@@ -0,0 +1,97 @@
+package com.ociweb.pronghorn.pipe;
+
+/**
+ * Rate limit with burst capacity for one dimension, messages or bytes, used by {@link PipeRegulator}.
+ *
+ * A bucket may have a parent which is charged for everything charged here, so a limit can be shared by a group of
+ * pipes such as all the pipes of one tenant while each pipe also has its own.  The wait returned is the longest
+ * of the bucket and all its parents.
+ *
+ * The state is kept as the time the bucket will next be empty, this moves forward by the exact nanoseconds each
+ * unit costs with the remainder carried so no rate is lost to rounding.  Nothing is allocated.  A bucket charged by
+ * stages on more than one thread, such as a parent shared by a tenant, must be built as shared so each charge is
+ * taken under its monitor, all other buckets take no lock.
+ */
+public class TokenBucket {
+
+    private static final long NS_PER_SECOND = 1_000_000_000L;
+
+    private final TokenBucket parent;
+    private final long unitsPerSecond;
+    private final long burstNS;
+    private final boolean shared;
+
+    private long emptyTime;
+    private long remainder;
+    private boolean started;
+
+    /**
+     * @param unitsPerSecond sustained rate of messages or bytes
+     * @param burst units which may be taken at once after the bucket has been idle
+     * @param parent bucket shared with other pipes or null
+     * @param shared true when this bucket is charged from more than one thread
+     */
+    public TokenBucket(long unitsPerSecond, long burst, TokenBucket parent, boolean shared) {
+        if (unitsPerSecond<=0 || burst<0) {
+            throw new UnsupportedOperationException("Rate must be positive and burst must not be negative");
+        }
+        this.parent = parent;
+        this.unitsPerSecond = unitsPerSecond;
+        this.burstNS = (burst*NS_PER_SECOND)/unitsPerSecond;
+        this.shared = shared;
+    }
+
+    public TokenBucket(long unitsPerSecond, long burst, TokenBucket parent) {
+        this(unitsPerSecond, burst, parent, false);
+    }
+
+    public TokenBucket(long unitsPerSecond, long burst) {
+        this(unitsPerSecond, burst, null);
+    }
+
+    /**
+     * Takes the units from this bucket and every parent.
+     *
+     * @return nanoseconds to wait before more may be taken, zero when there is no need to wait
+     */
+    public static long charge(TokenBucket bucket, long units, long now) {
+        long wait = 0;
+        while (null!=bucket) {
+            if (bucket.shared) {
+                synchronized (bucket) {
+                    wait = Math.max(wait, take(bucket, units, now));
+                }
+            } else {
+                wait = Math.max(wait, take(bucket, units, now));
+            }
+            bucket = bucket.parent;
+        }
+        return wait;
+    }
+
+    private static long take(TokenBucket bucket, long units, long now) {
+        //an idle bucket fills up to its burst and no further
+        if (!bucket.started || (now-bucket.burstNS)-bucket.emptyTime > 0) {
+            bucket.emptyTime = now-bucket.burstNS;
+            bucket.remainder = 0;
+            bucket.started = true;
+        }
+        long scaled = units*NS_PER_SECOND + bucket.remainder;
+        bucket.emptyTime += scaled/bucket.unitsPerSecond;
+        bucket.remainder = scaled%bucket.unitsPerSecond;
+        return Math.max(0, bucket.emptyTime-now);
+    }
+
+    public static boolean isShared(TokenBucket bucket) {
+        return bucket.shared;
+    }
+
+    public static long unitsPerSecond(TokenBucket bucket) {
+        return bucket.unitsPerSecond;
+    }
+
+    public static TokenBucket parent(TokenBucket bucket) {
+        return bucket.parent;
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Determines what a thread does while blocked in {@link Pipe#spinBlockForRoom(Pipe, int)},
+ * {@link Pipe#spinBlockForContent(Pipe)}, {@link Pipe#spinBlockOnHead(long, long, Pipe)} or
+ * {@link Pipe#spinBlockOnTail(long, long, Pipe)}.  Selected per pipe with {@link PipeConfig#waitStrategy(WaitStrategy)}.
+ *
+ * The strategies trade CPU for latency:
+ *   BUSY_SPIN   lowest latency, burns the whole core while waiting.
+ *   YIELD       the original behavior, gives the core to other threads but still spins when the machine is idle.
+ *   backoff     spins, then yields, then parks for a growing period up to the given limit.
+ *   timedPark   always parks for the given period, little CPU and latency up to that period.
+ *   BLOCKING    parks until the other side publishes or releases, near zero CPU when idle.
+ *
+ * Strategies hold no state and may be shared by many pipes.
+ */
+public abstract class WaitStrategy {
+
+    /**
+     * Called repeatedly while the condition is not met, the condition is checked again after each call.
+     * @param pipe the pipe being waited on
+     * @param forRoom true if the producer is waiting for room, false if the consumer is waiting for content
+     * @param iteration count of previous calls for this wait
+     */
+    public abstract <S extends MessageSchema> void idle(Pipe<S> pipe, boolean forRoom, int iteration);
+
+    /**
+     * When true the pipe will wake the waiting thread each time it publishes a head or tail.
+     */
+    public boolean isWakeRequired() {
+        return false;
+    }
+
+    public static final WaitStrategy BUSY_SPIN = new WaitStrategy() {
+        @Override
+        public <S extends MessageSchema> void idle(Pipe<S> pipe, boolean forRoom, int iteration) {
+            //Thread.onSpinWait() is not available before Java 9, the loop itself is the spin
+        }
+        public String toString() {
+            return "BusySpin";
+        }
+    };
+
+    public static final WaitStrategy YIELD = new WaitStrategy() {
+        @Override
+        public <S extends MessageSchema> void idle(Pipe<S> pipe, boolean forRoom, int iteration) {
+            Thread.yield();
+        }
+        public String toString() {
+            return "Yield";
+        }
+    };
+
+    public static final WaitStrategy BLOCKING = new WaitStrategy() {
+
+        //upper bound on each park in case a wake is lost between the lazy publish and the check of the waiting thread
+        private final long maxParkNS = 1_000_000;
+
+        @Override
+        public <S extends MessageSchema> void idle(Pipe<S> pipe, boolean forRoom, int iteration) {
+            AtomicReference<Thread> waiting = forRoom ? pipe.waitingWriter : pipe.waitingReader;
+            Thread current = Thread.currentThread();
+            if (current != waiting.get()) {
+                //register and return so the condition is checked once more before parking
+                waiting.set(current);
+            } else {
+                LockSupport.parkNanos(this, maxParkNS);
+            }
+        }
+
+        @Override
+        public boolean isWakeRequired() {
+            return true;
+        }
+
+        public String toString() {
+            return "Blocking";
+        }
+    };
+
+    /**
+     * Spin for spinLimit calls, then yield for yieldLimit calls, then park for a period which doubles each call
+     * up to maxParkNS.
+     */
+    public static WaitStrategy backoff(final int spinLimit, final int yieldLimit, final long maxParkNS) {
+        return new WaitStrategy() {
+            @Override
+            public <S extends MessageSchema> void idle(Pipe<S> pipe, boolean forRoom, int iteration) {
+                if (iteration >= spinLimit) {
+                    int parks = iteration - spinLimit - yieldLimit;
+                    if (parks < 0) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(Math.min(maxParkNS, 1L<<Math.min(parks, 40)));
+                    }
+                }
+            }
+            public String toString() {
+                return "Backoff "+spinLimit+"/"+yieldLimit+"/"+maxParkNS;
+            }
+        };
+    }
+
+    /**
+     * Park for parkNS on every call.
+     */
+    public static WaitStrategy timedPark(final long parkNS) {
+        return new WaitStrategy() {
+            @Override
+            public <S extends MessageSchema> void idle(Pipe<S> pipe, boolean forRoom, int iteration) {
+                LockSupport.parkNanos(parkNS);
+            }
+            public String toString() {
+                return "TimedPark "+parkNS;
+            }
+        };
+    }
+
+}
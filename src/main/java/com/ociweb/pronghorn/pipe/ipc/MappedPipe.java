@@ -0,0 +1,521 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+
+/**
+ * Single producer single consumer ring held in a memory mapped file so two processes on the same machine can
+ * pass fragments without serialization, sockets or system calls on the hot path.
+ *
+ * The file holds the slab ring, the blob ring and the head and tail positions of each.  The slab and blob use
+ * exactly the same layout as a {@link Pipe} built from the same {@link FieldReferenceOffsetManager} so fragments
+ * are moved in and out with bulk copies and the relative blob positions written by the producer remain valid for
+ * the consumer.  The FROM GUID is written into the header by the creator and validated by every process that
+ * opens the file.
+ *
+ * Fragments may be written and read in place with the low level methods here, {@link #addMsgIdx(MappedPipe, int)}
+ * through {@link #publishWrites(MappedPipe)} on the producer and {@link #takeMsgIdx(MappedPipe)} through
+ * {@link #releaseReadLock(MappedPipe)} on the consumer, so the only copy made is of the caller's own values.
+ * Alternatively the producing process builds fragments in a local pipe with the normal API then calls
+ * {@link #publish(Pipe, MappedPipe)} and the consuming process calls {@link #consume(MappedPipe, Pipe)} and reads
+ * a local pipe, at the cost of a bulk copy on each side.  The two may be mixed between fragments.
+ *
+ * Each published fragment must be a whole message since the other process can not wait on the rest of one.
+ *
+ *  File layout:
+ *  0   magic, version
+ *  8   GUID (8 ints)
+ *  40  slab bits, blob bits
+ *  128 slab head   (each position on its own cache line)
+ *  192 slab tail
+ *  256 blob head
+ *  320 blob tail
+ *  384 slab ring followed by the blob ring
+ *
+ */
+public class MappedPipe<T extends MessageSchema> {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedPipe.class);
+
+    private static final int MAGIC = 0x50524E47; //PRNG
+    private static final int VERSION = 1;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int GUID_OFFSET = 8;
+    private static final int SLAB_BITS_OFFSET = 40;
+    private static final int BLOB_BITS_OFFSET = 44;
+    private static final int SLAB_HEAD_OFFSET = 128;
+    private static final int SLAB_TAIL_OFFSET = 192;
+    private static final int BLOB_HEAD_OFFSET = 256;
+    private static final int BLOB_TAIL_OFFSET = 320;
+    private static final int HEADER_SIZE = 384;
+
+    public final File file;
+    private final T schema;
+    private final FieldReferenceOffsetManager from;
+
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer mapped;
+    private final long address;
+
+    private final int sizeOfSlabRing;
+    private final int slabMask;
+    private final int sizeOfBlobRing;
+    private final int blobMask;
+
+    private final IntBuffer slabView;
+    private final ByteBuffer blobView;
+
+    //local copies of the values we own, the other side is only read from the file
+    private long slabHeadCache;
+    private long slabTailCache;
+    private long blobHeadCache;
+    private long blobTailCache;
+
+    //producer state while a fragment is written in place
+    private long slabWorkingHead;
+    private long blobWorkingHead;
+    private long knownSlabTail;
+    private long knownBlobTail;
+
+    //consumer state while a fragment is read in place
+    private long slabWorkingTail;
+    private long knownSlabHead;
+
+    private MappedPipe(File file, T schema, RandomAccessFile raf, MappedByteBuffer mapped, byte slabBits, byte blobBits) {
+        this.file = file;
+        this.schema = schema;
+        this.from = MessageSchema.from(schema);
+        this.raf = raf;
+        this.mapped = mapped;
+        this.address = SharedMemory.address(mapped);
+
+        this.sizeOfSlabRing = 1<<slabBits;
+        this.slabMask = sizeOfSlabRing-1;
+        this.sizeOfBlobRing = 1<<blobBits;
+        this.blobMask = sizeOfBlobRing-1;
+
+        ByteBuffer temp = mapped.duplicate().order(ByteOrder.nativeOrder());
+        temp.position(HEADER_SIZE);
+        temp.limit(HEADER_SIZE+(sizeOfSlabRing<<2));
+        this.slabView = temp.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+
+        temp = mapped.duplicate();
+        temp.limit(HEADER_SIZE+(sizeOfSlabRing<<2)+sizeOfBlobRing);
+        temp.position(HEADER_SIZE+(sizeOfSlabRing<<2));
+        this.blobView = temp.slice();
+
+        this.slabHeadCache = SharedMemory.getLongVolatile(address+SLAB_HEAD_OFFSET);
+        this.slabTailCache = SharedMemory.getLongVolatile(address+SLAB_TAIL_OFFSET);
+        this.blobHeadCache = SharedMemory.getLongVolatile(address+BLOB_HEAD_OFFSET);
+        this.blobTailCache = SharedMemory.getLongVolatile(address+BLOB_TAIL_OFFSET);
+        this.knownSlabTail = slabTailCache;
+        this.knownBlobTail = blobTailCache;
+        this.knownSlabHead = slabHeadCache;
+    }
+
+    /**
+     * Create a new shared file sized to hold the slab and blob defined by the config.  Any existing file is replaced.
+     */
+    public static <S extends MessageSchema> MappedPipe<S> create(File file, PipeConfig<S> config, S schema) throws IOException {
+        FieldReferenceOffsetManager from = MessageSchema.from(schema);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Sharing memory");
+
+        byte slabBits = config.slabBits();
+        byte blobBits = config.blobBits();
+        long fileSize = HEADER_SIZE + (4L<<slabBits) + (1L<<blobBits);
+        if (fileSize>Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("Unable to map more than 2GB, reduce the slab or blob bits "+config);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.setLength(fileSize);
+        MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        mapped.order(ByteOrder.nativeOrder());
+
+        int[] guid = from.cloneGUID();
+        int i = guid.length;
+        while (--i>=0) {
+            mapped.putInt(GUID_OFFSET+(i<<2), guid[i]);
+        }
+        mapped.putInt(SLAB_BITS_OFFSET, slabBits);
+        mapped.putInt(BLOB_BITS_OFFSET, blobBits);
+        mapped.putInt(VERSION_OFFSET, VERSION);
+        //magic is written last so an opening process never sees a partial header
+        MappedPipe<S> result = new MappedPipe<S>(file, schema, raf, mapped, slabBits, blobBits);
+        SharedMemory.putOrderedInt(result.address+MAGIC_OFFSET, MAGIC);
+        return result;
+    }
+
+    /**
+     * Open a shared file created by another process.  The schema must match the one used by the creator.
+     */
+    public static <S extends MessageSchema> MappedPipe<S> open(File file, S schema) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long fileSize = raf.length();
+        if (fileSize<HEADER_SIZE) {
+            raf.close();
+            throw new IOException("File "+file+" is not a shared pipe, too short");
+        }
+        MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        mapped.order(ByteOrder.nativeOrder());
+
+        if (MAGIC!=mapped.getInt(MAGIC_OFFSET) || VERSION!=mapped.getInt(VERSION_OFFSET)) {
+            raf.close();
+            throw new IOException("File "+file+" is not a shared pipe or has not finished creation");
+        }
+
+        int[] guid = new int[8];
+        int i = guid.length;
+        while (--i>=0) {
+            guid[i] = mapped.getInt(GUID_OFFSET+(i<<2));
+        }
+        try {
+            MessageSchema.from(schema).validateGUID(guid);
+        } catch (UnsupportedOperationException uoe) {
+            raf.close();
+            throw uoe;
+        }
+
+        byte slabBits = (byte)mapped.getInt(SLAB_BITS_OFFSET);
+        byte blobBits = (byte)mapped.getInt(BLOB_BITS_OFFSET);
+        if (fileSize != HEADER_SIZE + (4L<<slabBits) + (1L<<blobBits)) {
+            raf.close();
+            throw new IOException("File "+file+" size does not match the ring sizes in its header");
+        }
+
+        return new MappedPipe<S>(file, schema, raf, mapped, slabBits, blobBits);
+    }
+
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            log.warn("unable to close {}", file, e);
+        }
+    }
+
+    public static <S extends MessageSchema> int slabSize(MappedPipe<S> pipe) {
+        return pipe.sizeOfSlabRing;
+    }
+
+    public static <S extends MessageSchema> int blobSize(MappedPipe<S> pipe) {
+        return pipe.sizeOfBlobRing;
+    }
+
+    /**
+     * Slab positions published by the producer but not yet released by the consumer.
+     */
+    public static <S extends MessageSchema> long contentRemaining(MappedPipe<S> pipe) {
+        return SharedMemory.getLongVolatile(pipe.address+SLAB_HEAD_OFFSET) - SharedMemory.getLongVolatile(pipe.address+SLAB_TAIL_OFFSET);
+    }
+
+    /**
+     * True when a fragment of this many slab ints and blob bytes can be written in place.  The tails written by the
+     * consumer are only read again once the last values seen are not enough.
+     */
+    public static <S extends MessageSchema> boolean hasRoomForWrite(MappedPipe<S> pipe, int slabSize, int blobSize) {
+        return (pipe.slabHeadCache+slabSize-pipe.knownSlabTail<=pipe.sizeOfSlabRing && pipe.blobHeadCache+blobSize-pipe.knownBlobTail<=pipe.sizeOfBlobRing)
+               || roomForWriteSlow(pipe, slabSize, blobSize);
+    }
+
+    private static <S extends MessageSchema> boolean roomForWriteSlow(MappedPipe<S> pipe, int slabSize, int blobSize) {
+        pipe.knownSlabTail = SharedMemory.getLongVolatile(pipe.address+SLAB_TAIL_OFFSET);
+        pipe.knownBlobTail = SharedMemory.getLongVolatile(pipe.address+BLOB_TAIL_OFFSET);
+        return pipe.slabHeadCache+slabSize-pipe.knownSlabTail<=pipe.sizeOfSlabRing && pipe.blobHeadCache+blobSize-pipe.knownBlobTail<=pipe.sizeOfBlobRing;
+    }
+
+    /**
+     * Begins a fragment written in place, room must have been checked with {@link #hasRoomForWrite(MappedPipe, int, int)}.
+     */
+    public static <S extends MessageSchema> void addMsgIdx(MappedPipe<S> pipe, int msgIdx) {
+        pipe.slabWorkingHead = pipe.slabHeadCache;
+        pipe.blobWorkingHead = pipe.blobHeadCache;
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, msgIdx);
+    }
+
+    public static <S extends MessageSchema> void addIntValue(int value, MappedPipe<S> pipe) {
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, value);
+    }
+
+    public static <S extends MessageSchema> void addLongValue(long value, MappedPipe<S> pipe) {
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, (int)(value >>> 32));
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, (int)value);
+    }
+
+    /**
+     * Copies the bytes straight into the shared blob ring, the position is written relative to the start of the
+     * fragment just like {@link Pipe#addByteArray(byte[], int, int, Pipe)}.
+     */
+    public static <S extends MessageSchema> void addByteArray(byte[] source, int sourceIdx, int sourceLen, MappedPipe<S> pipe) {
+        assert(sourceLen>=0);
+        copyBytesToShared(source, sourceIdx, Integer.MAX_VALUE, pipe.blobView, (int)pipe.blobWorkingHead, pipe.blobMask, sourceLen);
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, (int)(pipe.blobWorkingHead-pipe.blobHeadCache));
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, sourceLen);
+        pipe.blobWorkingHead += sourceLen;
+    }
+
+    public static <S extends MessageSchema> void addNullByteArray(MappedPipe<S> pipe) {
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, (int)(pipe.blobWorkingHead-pipe.blobHeadCache));
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, -1);
+    }
+
+    /**
+     * Writes the trailing count of blob bytes and makes the fragment visible to the consumer.
+     */
+    public static <S extends MessageSchema> void publishWrites(MappedPipe<S> pipe) {
+        final int blobLength = (int)(pipe.blobWorkingHead-pipe.blobHeadCache);
+        pipe.slabView.put(pipe.slabMask&(int)pipe.slabWorkingHead++, blobLength);
+        assert(pipe.slabWorkingHead-pipe.slabHeadCache == pipe.from.fragDataSize[pipe.slabView.get(pipe.slabMask&(int)pipe.slabHeadCache)]) : "Fragment must be written with every field of its message";
+
+        //the ordered writes ensure the ring content is visible before the new head
+        SharedMemory.putOrderedLong(pipe.address+BLOB_HEAD_OFFSET, pipe.blobHeadCache = pipe.blobWorkingHead);
+        SharedMemory.putOrderedLong(pipe.address+SLAB_HEAD_OFFSET, pipe.slabHeadCache = pipe.slabWorkingHead);
+    }
+
+    /**
+     * True when a fragment is ready to be read in place.  The head written by the producer is only read again once
+     * everything already seen has been read.
+     */
+    public static <S extends MessageSchema> boolean hasContentToRead(MappedPipe<S> pipe) {
+        return pipe.knownSlabHead>pipe.slabTailCache
+               || (pipe.knownSlabHead = SharedMemory.getLongVolatile(pipe.address+SLAB_HEAD_OFFSET))>pipe.slabTailCache;
+    }
+
+    /**
+     * Begins reading the next fragment in place, content must have been checked with {@link #hasContentToRead(MappedPipe)}.
+     */
+    public static <S extends MessageSchema> int takeMsgIdx(MappedPipe<S> pipe) {
+        pipe.slabWorkingTail = pipe.slabTailCache;
+        return pipe.slabView.get(pipe.slabMask&(int)pipe.slabWorkingTail++);
+    }
+
+    public static <S extends MessageSchema> int takeInt(MappedPipe<S> pipe) {
+        return pipe.slabView.get(pipe.slabMask&(int)pipe.slabWorkingTail++);
+    }
+
+    public static <S extends MessageSchema> long takeLong(MappedPipe<S> pipe) {
+        long high = pipe.slabView.get(pipe.slabMask&(int)pipe.slabWorkingTail++);
+        return (high<<32) | (0xFFFFFFFFL & pipe.slabView.get(pipe.slabMask&(int)pipe.slabWorkingTail++));
+    }
+
+    /**
+     * Copies the next var-length field straight out of the shared blob ring.
+     *
+     * @return length copied or -1 for a null field
+     */
+    public static <S extends MessageSchema> int readBytes(MappedPipe<S> pipe, byte[] target, int targetIdx) {
+        int meta = takeInt(pipe);
+        int len = takeInt(pipe);
+        if (len<0) {
+            return -1;
+        }
+        if (meta<0) {
+            throw new UnsupportedOperationException("Constant values are only available from the pipe filled by consume");
+        }
+        copyBytesFromShared(pipe.blobView, (int)(pipe.blobTailCache+(Pipe.RELATIVE_POS_MASK&meta)), pipe.blobMask, target, targetIdx, Integer.MAX_VALUE, len);
+        return len;
+    }
+
+    /**
+     * Releases the fragment begun by {@link #takeMsgIdx(MappedPipe)} so the producer may write over it, any fields
+     * not taken are skipped.
+     */
+    public static <S extends MessageSchema> void releaseReadLock(MappedPipe<S> pipe) {
+        final long end = pipe.slabTailCache + pipe.from.fragDataSize[pipe.slabView.get(pipe.slabMask&(int)pipe.slabTailCache)];
+        final int blobLength = pipe.slabView.get(pipe.slabMask&(int)(end-1));
+
+        //the ordered writes ensure we are done reading before the producer may overwrite
+        SharedMemory.putOrderedLong(pipe.address+BLOB_TAIL_OFFSET, pipe.blobTailCache += blobLength);
+        SharedMemory.putOrderedLong(pipe.address+SLAB_TAIL_OFFSET, pipe.slabTailCache = end);
+    }
+
+    /**
+     * Moves every complete fragment published on the source pipe which will fit into the shared ring.
+     * Must only be called by the one thread consuming the source pipe.
+     *
+     * @return count of fragments moved
+     */
+    public static <S extends MessageSchema> int publish(Pipe<S> source, MappedPipe<S> target) {
+        assert(Pipe.from(source) == target.from) : "Schemas must match";
+
+        final long tail = Pipe.getWorkingTailPosition(source);
+        final long head = Pipe.headPosition(source);
+        if (head<=tail) {
+            return 0;
+        }
+
+        final long sharedTail = target.knownSlabTail = SharedMemory.getLongVolatile(target.address+SLAB_TAIL_OFFSET);
+        final long sharedBlobTail = target.knownBlobTail = SharedMemory.getLongVolatile(target.address+BLOB_TAIL_OFFSET);
+        final long slabRoom = target.sizeOfSlabRing - (target.slabHeadCache - sharedTail);
+        final long blobRoom = target.sizeOfBlobRing - (target.blobHeadCache - sharedBlobTail);
+
+        final int[] slab = Pipe.slab(source);
+        final int mask = Pipe.slabMask(source);
+        final int[] fragDataSize = target.from.fragDataSize;
+
+        long pos = tail;
+        int blobLength = 0;
+        int count = 0;
+        while (pos<head) {
+            int idx = slab[mask&(int)pos];
+            int size = idx<0 ? Pipe.EOF_SIZE : fragDataSize[idx];
+            int bytes = slab[mask&(int)(pos+size-1)];
+            if ((pos+size-tail)>slabRoom || (blobLength+bytes)>blobRoom) {
+                break;
+            }
+            pos += size;
+            blobLength += bytes;
+            count++;
+        }
+        if (0==count) {
+            return 0;
+        }
+
+        final int slabLength = (int)(pos-tail);
+        final int blobTail = Pipe.getWorkingBlobRingTailPosition(source);
+
+        copyIntsToShared(slab, (int)tail, mask, target.slabView, (int)target.slabHeadCache, target.slabMask, slabLength);
+        copyBytesToShared(Pipe.blob(source), blobTail, Pipe.blobMask(source), target.blobView, (int)target.blobHeadCache, target.blobMask, blobLength);
+
+        //the ordered writes ensure the ring content is visible before the new head
+        SharedMemory.putOrderedLong(target.address+BLOB_HEAD_OFFSET, target.blobHeadCache += blobLength);
+        SharedMemory.putOrderedLong(target.address+SLAB_HEAD_OFFSET, target.slabHeadCache += slabLength);
+
+        //release everything we copied from the source
+        Pipe.releaseRun(source, pos, blobLength);
+
+        return count;
+    }
+
+    /**
+     * Moves every complete fragment found in the shared ring which will fit into the target pipe.
+     * Must only be called by the one thread producing into the target pipe.
+     *
+     * @return count of fragments moved
+     */
+    public static <S extends MessageSchema> int consume(MappedPipe<S> source, Pipe<S> target) {
+        assert(Pipe.from(target) == source.from) : "Schemas must match";
+
+        final long tail = source.slabTailCache;
+        final long head = source.knownSlabHead = SharedMemory.getLongVolatile(source.address+SLAB_HEAD_OFFSET);
+        if (head<=tail) {
+            return 0;
+        }
+
+        final int targetBlobHead = Pipe.getWorkingBlobHeadPosition(target);
+        final int blobRoom = target.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(targetBlobHead-Pipe.getBlobTailPosition(target)));
+        final int[] fragDataSize = source.from.fragDataSize;
+        final IntBuffer slab = source.slabView;
+
+        long pos = tail;
+        int blobLength = 0;
+        int count = 0;
+        while (pos<head) {
+            int idx = slab.get(source.slabMask&(int)pos);
+            int size = idx<0 ? Pipe.EOF_SIZE : fragDataSize[idx];
+            int bytes = slab.get(source.slabMask&(int)(pos+size-1));
+            if (!Pipe.hasRoomForWrite(target, (int)(pos+size-tail)) || (blobLength+bytes)>blobRoom) {
+                break;
+            }
+            pos += size;
+            blobLength += bytes;
+            count++;
+        }
+        if (0==count) {
+            return 0;
+        }
+
+        final int slabLength = (int)(pos-tail);
+        copyIntsFromShared(slab, (int)tail, source.slabMask, Pipe.slab(target), (int)Pipe.workingHeadPosition(target), Pipe.slabMask(target), slabLength);
+        copyBytesFromShared(source.blobView, (int)source.blobTailCache, source.blobMask, Pipe.blob(target), targetBlobHead, Pipe.blobMask(target), blobLength);
+
+        Pipe.publishRun(target, slabLength, blobLength);
+
+        //the ordered writes ensure we are done reading before the producer may overwrite
+        SharedMemory.putOrderedLong(source.address+BLOB_TAIL_OFFSET, source.blobTailCache += blobLength);
+        SharedMemory.putOrderedLong(source.address+SLAB_TAIL_OFFSET, source.slabTailCache = pos);
+
+        return count;
+    }
+
+    private static void copyIntsToShared(int[] source, int sourceLoc, int sourceMask, IntBuffer target, int targetLoc, int targetMask, int length) {
+        while (length>0) {
+            int s = sourceMask&sourceLoc;
+            int t = targetMask&targetLoc;
+            int chunk = Math.min(length, Math.min(sourceMask+1-s, targetMask+1-t));
+            target.position(t);
+            target.put(source, s, chunk);
+            sourceLoc += chunk;
+            targetLoc += chunk;
+            length -= chunk;
+        }
+    }
+
+    private static void copyIntsFromShared(IntBuffer source, int sourceLoc, int sourceMask, int[] target, int targetLoc, int targetMask, int length) {
+        while (length>0) {
+            int s = sourceMask&sourceLoc;
+            int t = targetMask&targetLoc;
+            int chunk = Math.min(length, Math.min(sourceMask+1-s, targetMask+1-t));
+            source.position(s);
+            source.get(target, t, chunk);
+            sourceLoc += chunk;
+            targetLoc += chunk;
+            length -= chunk;
+        }
+    }
+
+    //a mask of Integer.MAX_VALUE on either side copies to or from a plain array rather than a ring
+    private static void copyBytesToShared(byte[] source, int sourceLoc, int sourceMask, ByteBuffer target, int targetLoc, int targetMask, int length) {
+        while (length>0) {
+            int s = sourceMask&sourceLoc;
+            int t = targetMask&targetLoc;
+            int chunk = (int)Math.min(length, Math.min(1L+sourceMask-s, 1L+targetMask-t));
+            target.position(t);
+            target.put(source, s, chunk);
+            sourceLoc += chunk;
+            targetLoc += chunk;
+            length -= chunk;
+        }
+    }
+
+    private static void copyBytesFromShared(ByteBuffer source, int sourceLoc, int sourceMask, byte[] target, int targetLoc, int targetMask, int length) {
+        while (length>0) {
+            int s = sourceMask&sourceLoc;
+            int t = targetMask&targetLoc;
+            int chunk = (int)Math.min(length, Math.min(1L+sourceMask-s, 1L+targetMask-t));
+            source.position(s);
+            source.get(target, t, chunk);
+            sourceLoc += chunk;
+            targetLoc += chunk;
+            length -= chunk;
+        }
+    }
+
+    public String toString() {
+        return "MappedPipe<"+schema.getClass().getSimpleName()+"> "+file+
+               " slabTail "+SharedMemory.getLongVolatile(address+SLAB_TAIL_OFFSET)+
+               " slabHead "+SharedMemory.getLongVolatile(address+SLAB_HEAD_OFFSET)+
+               " "+sizeOfSlabRing+
+               " blobTail "+SharedMemory.getLongVolatile(address+BLOB_TAIL_OFFSET)+
+               " blobHead "+SharedMemory.getLongVolatile(address+BLOB_HEAD_OFFSET)+
+               " "+sizeOfBlobRing;
+    }
+
+}
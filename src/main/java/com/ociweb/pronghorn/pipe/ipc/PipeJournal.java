@@ -0,0 +1,418 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Durable journal of every fragment published on a pipe, held in memory mapped log files so the stream survives a
+ * restart and can be re-processed from any point with {@link PipeJournalReader}.
+ *
+ * The journaling thread consumes the source pipe with {@link #append(Pipe, PipeJournal, Pipe)}.  Each call appends
+ * all the ready fragments as a single record and may also forward them to a target pipe, only fragments which
+ * fit in the target are taken so nothing reaches the target before it is journaled.
+ *
+ * Writes are made durable with group commit.  Each call forces the log at most once, covering every record appended
+ * since the last force, and skips the force entirely while it is within the commit period of the previous one.
+ * {@link #commit(PipeJournal)} forces any pending records immediately.
+ *
+ * Positions in the journal are slab positions counted from the first fragment ever journaled in the directory, they
+ * continue across restarts.  Each log file is named by the position of its first record and has an index file
+ * alongside with one entry of position, timestamp and file offset about every index interval bytes.
+ *
+ * When reopened the last log file is scanned from its last index entry and the journal resumes after the last
+ * complete record, anything torn by a crash is discarded.
+ *
+ *  Record layout:
+ *  0  slab length (-1 marks the end of the file)
+ *  4  blob length
+ *  8  position of the first fragment
+ *  16 timestamp in milliseconds
+ *  24 checksum of the position and content
+ *  28 fragment count
+ *  32 slab ints followed by blob bytes
+ */
+public class PipeJournal<T extends MessageSchema> {
+
+    private static final Logger log = LoggerFactory.getLogger(PipeJournal.class);
+
+    static final int END_OF_FILE = -1;
+    static final int RECORD_HEADER_SIZE = 32;
+    static final int INDEX_ENTRY_SIZE = 24;
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private final File directory;
+    private final FieldReferenceOffsetManager from;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final long groupCommitNS;
+
+    private RandomAccessFile logFile;
+    private MappedByteBuffer logBuffer;
+    private RandomAccessFile indexFile;
+    private MappedByteBuffer indexBuffer;
+    private int writeOffset;
+    private int indexCount;
+    private int lastIndexedOffset;
+
+    private long position;
+    private long lastCommit;
+    private boolean uncommitted;
+
+    //results of the last walk over the source
+    private int walkBlobLength;
+    private int walkCount;
+
+    /**
+     * Opens the journal held in the directory, creating it if needed.
+     *
+     * @param segmentSize size of each log file, must hold the largest batch of fragments
+     * @param indexInterval bytes of log between index entries
+     * @param groupCommitNS minimum time between forces, zero forces on every append
+     */
+    public PipeJournal(File directory, T schema, int segmentSize, int indexInterval, long groupCommitNS) throws IOException {
+        this.from = MessageSchema.from(schema);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Journaling");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.groupCommitNS = groupCommitNS;
+
+        File[] logs = logFiles(directory);
+        if (0==logs.length) {
+            openSegment(0);
+        } else {
+            recover(logs[logs.length-1]);
+        }
+        this.lastCommit = System.nanoTime();
+    }
+
+    /**
+     * Journals every complete fragment published on the source pipe and forwards it to the target.
+     * Must only be called by the one thread consuming the source pipe.
+     *
+     * @param target optional pipe to forward to, may be null
+     * @return count of fragments journaled
+     */
+    public static <S extends MessageSchema> int append(Pipe<S> source, PipeJournal<S> journal, Pipe<S> target) {
+        assert(Pipe.from(source) == journal.from) : "Schemas must match";
+
+        final long tail = Pipe.getWorkingTailPosition(source);
+        long slabRoom = Long.MAX_VALUE;
+        int blobRoom = Integer.MAX_VALUE;
+        if (null!=target) {
+            slabRoom = target.sizeOfSlabRing - (Pipe.workingHeadPosition(target)-Pipe.tailPosition(target));
+            blobRoom = target.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(target)-Pipe.getBlobTailPosition(target)));
+        }
+
+        long pos = walk(source, tail, slabRoom, blobRoom, journal.segmentSize-journal.writeOffset-RECORD_HEADER_SIZE-4, journal);
+        if (0==journal.walkCount && journal.writeOffset>0) {
+            //nothing fits in the rest of this file, continue in a new one if that helps
+            pos = walk(source, tail, slabRoom, blobRoom, journal.segmentSize-RECORD_HEADER_SIZE-4, journal);
+            if (journal.walkCount>0) {
+                journal.logBuffer.putInt(journal.writeOffset, END_OF_FILE);
+                journal.commitSegment();
+                journal.closeSegment();
+                journal.openSegment(journal.position);
+            }
+        }
+        final int count = journal.walkCount;
+        if (0==count) {
+            commitIfDue(journal);
+            return 0;
+        }
+
+        final int slabLength = (int)(pos-tail);
+        final int blobLength = journal.walkBlobLength;
+        final int blobTail = Pipe.getWorkingBlobRingTailPosition(source);
+        final int[] slab = Pipe.slab(source);
+        final int mask = Pipe.slabMask(source);
+        final byte[] blob = Pipe.blob(source);
+        final int blobMask = Pipe.blobMask(source);
+
+        final MappedByteBuffer buffer = journal.logBuffer;
+        final int start = journal.writeOffset;
+        int p = start+RECORD_HEADER_SIZE;
+        int i = 0;
+        while (i<slabLength) {
+            buffer.putInt(p, slab[mask&(int)(tail+i++)]);
+            p += 4;
+        }
+        int remaining = blobLength;
+        int loc = blobTail;
+        while (remaining>0) {
+            int s = blobMask&loc;
+            int chunk = Math.min(remaining, blobMask+1-s);
+            buffer.position(p);
+            buffer.put(blob, s, chunk);
+            p += chunk;
+            loc += chunk;
+            remaining -= chunk;
+        }
+
+        long now = System.currentTimeMillis();
+        buffer.putInt(start+4, blobLength);
+        buffer.putLong(start+8, journal.position);
+        buffer.putLong(start+16, now);
+        buffer.putInt(start+24, checksum(buffer, start, slabLength, blobLength, journal.position));
+        buffer.putInt(start+28, count);
+        buffer.putInt(start, slabLength);
+
+        if (0==start || start-journal.lastIndexedOffset >= journal.indexInterval) {
+            journal.addIndexEntry(journal.position, now, start);
+        }
+        journal.writeOffset = p;
+        journal.position += slabLength;
+        journal.uncommitted = true;
+
+        if (null!=target) {
+            Pipe.copyIntsFromToRing(slab, (int)tail, mask, Pipe.slab(target), (int)Pipe.workingHeadPosition(target), Pipe.slabMask(target), slabLength);
+            Pipe.copyBytesFromToRing(blob, blobTail, blobMask, Pipe.blob(target), Pipe.getWorkingBlobHeadPosition(target), Pipe.blobMask(target), blobLength);
+        }
+
+        //one force covers this record and all those appended since the last one
+        commitIfDue(journal);
+
+        if (null!=target) {
+            Pipe.publishRun(target, slabLength, blobLength);
+        }
+        Pipe.releaseRun(source, pos, blobLength);
+
+        return count;
+    }
+
+    /**
+     * Forces every record appended so far to disk.
+     */
+    public static <S extends MessageSchema> void commit(PipeJournal<S> journal) {
+        if (journal.uncommitted) {
+            journal.commitSegment();
+        }
+    }
+
+    /**
+     * Position the next journaled fragment will be given.
+     */
+    public static <S extends MessageSchema> long position(PipeJournal<S> journal) {
+        return journal.position;
+    }
+
+    /**
+     * Commits and closes the current log file.
+     */
+    public void close() {
+        commit(this);
+        closeSegment();
+    }
+
+    private static <S extends MessageSchema> void commitIfDue(PipeJournal<S> journal) {
+        if (journal.uncommitted && System.nanoTime()-journal.lastCommit >= journal.groupCommitNS) {
+            journal.commitSegment();
+        }
+    }
+
+    private void commitSegment() {
+        logBuffer.force();
+        indexBuffer.force();
+        lastCommit = System.nanoTime();
+        uncommitted = false;
+    }
+
+    /**
+     * Walks the complete fragments starting at tail which fit in the target room and in the given bytes of log.
+     * @return position after the last fragment which fits, the blob length and count are left in the walk fields
+     */
+    private static <S extends MessageSchema> long walk(Pipe<S> source, long tail, long slabRoom, int blobRoom, int logRoom, PipeJournal<S> journal) {
+        final long head = Pipe.headPosition(source);
+        final int[] slab = Pipe.slab(source);
+        final int mask = Pipe.slabMask(source);
+        final int[] fragDataSize = journal.from.fragDataSize;
+
+        long pos = tail;
+        int blobLength = 0;
+        int count = 0;
+        while (pos<head) {
+            int idx = slab[mask&(int)pos];
+            int size = idx<0 ? Pipe.EOF_SIZE : fragDataSize[idx];
+            int bytes = slab[mask&(int)(pos+size-1)];
+            long slabLength = pos+size-tail;
+            if (slabLength>slabRoom || (blobLength+bytes)>blobRoom || (slabLength<<2)+blobLength+bytes > logRoom) {
+                if (0==count && (size<<2)+bytes > journal.segmentSize-RECORD_HEADER_SIZE-4) {
+                    throw new UnsupportedOperationException("Fragment is larger than the journal segment size "+journal.segmentSize);
+                }
+                break;
+            }
+            pos += size;
+            blobLength += bytes;
+            count++;
+        }
+        journal.walkBlobLength = blobLength;
+        journal.walkCount = count;
+        return pos;
+    }
+
+    private void addIndexEntry(long position, long time, int offset) {
+        if ((indexCount+1)*INDEX_ENTRY_SIZE <= indexBuffer.capacity()) {
+            int p = indexCount*INDEX_ENTRY_SIZE;
+            indexBuffer.putLong(p+8, time);
+            indexBuffer.putLong(p+16, offset);
+            indexBuffer.putLong(p, position);
+            indexCount++;
+            lastIndexedOffset = offset;
+        }
+    }
+
+    private void openSegment(long startPosition) {
+        try {
+            File file = logFile(directory, startPosition);
+            logFile = new RandomAccessFile(file, "rw");
+            logFile.setLength(segmentSize);
+            logBuffer = logFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            logBuffer.order(ByteOrder.nativeOrder());
+
+            long indexSize = (long)INDEX_ENTRY_SIZE*(2+(segmentSize/Math.max(1, indexInterval)));
+            indexFile = new RandomAccessFile(indexFile(file), "rw");
+            indexFile.setLength(indexSize);
+            indexBuffer = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+            indexBuffer.order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        writeOffset = 0;
+        indexCount = 0;
+        lastIndexedOffset = 0;
+        position = startPosition;
+    }
+
+    private void closeSegment() {
+        try {
+            logFile.close();
+            indexFile.close();
+        } catch (IOException e) {
+            log.warn("unable to close journal file in {}", directory, e);
+        }
+    }
+
+    private void recover(File last) throws IOException {
+        long start = startPosition(last);
+        openSegment(start);
+
+        //resume from the last index entry
+        int count = 0;
+        while ((count+1)*INDEX_ENTRY_SIZE <= indexBuffer.capacity() && 0!=indexBuffer.getLong(count*INDEX_ENTRY_SIZE+8)) {
+            count++;
+        }
+        int offset = 0;
+        long pos = start;
+        if (count>0) {
+            int p = (count-1)*INDEX_ENTRY_SIZE;
+            pos = indexBuffer.getLong(p);
+            offset = (int)indexBuffer.getLong(p+16);
+        }
+        int size;
+        while ((size = recordSize(logBuffer, offset, pos, segmentSize))>0) {
+            pos += logBuffer.getInt(offset);
+            offset += size;
+        }
+
+        //drop any index entries for records which did not survive
+        while (count>0 && indexBuffer.getLong((count-1)*INDEX_ENTRY_SIZE+16) >= offset) {
+            indexBuffer.putLong(--count*INDEX_ENTRY_SIZE+8, 0);
+        }
+        indexCount = count;
+        lastIndexedOffset = count>0 ? (int)indexBuffer.getLong((count-1)*INDEX_ENTRY_SIZE+16) : 0;
+        writeOffset = offset;
+        position = pos;
+
+        if (END_OF_FILE==size) {
+            //the file was closed but the next one was never started
+            closeSegment();
+            openSegment(pos);
+        }
+    }
+
+    /**
+     * Size of the complete record at the offset, zero if it is torn or not yet written, or END_OF_FILE.
+     */
+    static int recordSize(ByteBuffer buffer, int offset, long expectedPosition, int limit) {
+        if (offset+RECORD_HEADER_SIZE > limit) {
+            return 0;
+        }
+        int slabLength = buffer.getInt(offset);
+        if (END_OF_FILE==slabLength) {
+            return END_OF_FILE;
+        }
+        int blobLength = buffer.getInt(offset+4);
+        if (slabLength<=0 || blobLength<0 || expectedPosition!=buffer.getLong(offset+8)) {
+            return 0;
+        }
+        long size = RECORD_HEADER_SIZE + (4L*slabLength) + blobLength;
+        if (offset+size > limit || buffer.getInt(offset+24)!=checksum(buffer, offset, slabLength, blobLength, expectedPosition)) {
+            return 0;
+        }
+        return (int)size;
+    }
+
+    static int checksum(ByteBuffer buffer, int offset, int slabLength, int blobLength, long position) {
+        int h = (int)(position ^ (position>>>32));
+        int p = offset+RECORD_HEADER_SIZE;
+        int i = slabLength;
+        while (--i>=0) {
+            h = 31*h + buffer.getInt(p);
+            p += 4;
+        }
+        i = blobLength;
+        while (--i>=0) {
+            h = 31*h + buffer.get(p++);
+        }
+        return h;
+    }
+
+    static File[] logFiles(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("journal-") && name.endsWith(LOG_SUFFIX);
+            }
+        });
+        if (null==files) {
+            return new File[0];
+        }
+        //fixed width hex names sort in position order
+        Arrays.sort(files);
+        return files;
+    }
+
+    static File logFile(File directory, long startPosition) {
+        return new File(directory, String.format("journal-%016x", startPosition)+LOG_SUFFIX);
+    }
+
+    static File indexFile(File logFile) {
+        String name = logFile.getName();
+        return new File(logFile.getParentFile(), name.substring(0, name.length()-LOG_SUFFIX.length())+INDEX_SUFFIX);
+    }
+
+    static long startPosition(File logFile) {
+        String name = logFile.getName();
+        return Long.parseLong(name.substring("journal-".length(), name.length()-LOG_SUFFIX.length()), 16);
+    }
+
+    public String toString() {
+        return "PipeJournal "+directory+" position "+position+" offset "+writeOffset+" of "+segmentSize;
+    }
+
+}
@@ -0,0 +1,352 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Rebuilds the stream of fragments held in a {@link PipeJournal} directory.
+ *
+ * The sparse index of every log file is loaded when the reader is opened so it can start at any journal position
+ * with {@link #seekPosition(PipeJournalReader, long)} or at any time with {@link #seekTime(PipeJournalReader, long)}
+ * after reading at most one index interval of records.  {@link #replay(PipeJournalReader, Pipe)} then copies whole
+ * fragments straight from the mapped files into the target pipe.
+ *
+ * The reader follows a journal which is still being written, each record is only replayed once it is complete so
+ * replay simply returns zero until more has been appended.
+ */
+public class PipeJournalReader<T extends MessageSchema> {
+
+    private static final Logger log = LoggerFactory.getLogger(PipeJournalReader.class);
+
+    private final File directory;
+    private final FieldReferenceOffsetManager from;
+
+    //sparse index over all the files, in position order
+    private long[] indexFile = new long[16];
+    private long[] indexPosition = new long[16];
+    private long[] indexTime = new long[16];
+    private int[] indexOffset = new int[16];
+    private int indexCount;
+
+    private RandomAccessFile logFile;
+    private MappedByteBuffer buffer;
+    private int offset;
+    private long position;
+
+    //the record being replayed
+    private boolean loaded;
+    private int recordSize;
+    private int recordSlabLength;
+    private int slabDone;
+    private int blobDone;
+
+    /**
+     * Opens the journal in the directory positioned at its oldest fragment.
+     */
+    public PipeJournalReader(File directory, T schema) throws IOException {
+        this.from = MessageSchema.from(schema);
+        this.directory = directory;
+
+        File[] logs = PipeJournal.logFiles(directory);
+        for (File file : logs) {
+            loadIndex(file);
+        }
+        if (logs.length>0) {
+            openFile(PipeJournal.startPosition(logs[0]));
+        }
+    }
+
+    private void loadIndex(File log) throws IOException {
+        long start = PipeJournal.startPosition(log);
+        File idx = PipeJournal.indexFile(log);
+        if (!idx.exists()) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(idx, "r");
+        try {
+            ByteBuffer entries = ByteBuffer.allocate((int)raf.length()).order(ByteOrder.nativeOrder());
+            raf.getChannel().read(entries, 0);
+            int p = 0;
+            while (p+PipeJournal.INDEX_ENTRY_SIZE <= entries.capacity() && 0!=entries.getLong(p+8)) {
+                addEntry(start, entries.getLong(p), entries.getLong(p+8), (int)entries.getLong(p+16));
+                p += PipeJournal.INDEX_ENTRY_SIZE;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void addEntry(long file, long position, long time, int offset) {
+        if (indexCount==indexFile.length) {
+            int size = indexCount*2;
+            long[] f = new long[size];
+            long[] p = new long[size];
+            long[] t = new long[size];
+            int[] o = new int[size];
+            System.arraycopy(indexFile, 0, f, 0, indexCount);
+            System.arraycopy(indexPosition, 0, p, 0, indexCount);
+            System.arraycopy(indexTime, 0, t, 0, indexCount);
+            System.arraycopy(indexOffset, 0, o, 0, indexCount);
+            indexFile = f;
+            indexPosition = p;
+            indexTime = t;
+            indexOffset = o;
+        }
+        indexFile[indexCount] = file;
+        indexPosition[indexCount] = position;
+        indexTime[indexCount] = time;
+        indexOffset[indexCount] = offset;
+        indexCount++;
+    }
+
+    /**
+     * Moves to the first fragment at or after the journal position.
+     *
+     * @return position of the next fragment to be replayed
+     */
+    public static <S extends MessageSchema> long seekPosition(PipeJournalReader<S> reader, long position) {
+        //last index entry at or before the position
+        int i = reader.indexCount;
+        while (--i>=0 && reader.indexPosition[i]>position) {
+        }
+        if (!startAtEntry(reader, i)) {
+            return reader.position;
+        }
+        while (loadRecord(reader)) {
+            if (reader.position+reader.recordSlabLength > position) {
+                //skip the fragments in this record before the position
+                final int[] fragDataSize = reader.from.fragDataSize;
+                int base = reader.offset+PipeJournal.RECORD_HEADER_SIZE;
+                while (reader.position<position) {
+                    int idx = reader.buffer.getInt(base+(reader.slabDone<<2));
+                    int size = idx<0 ? Pipe.EOF_SIZE : fragDataSize[idx];
+                    reader.blobDone += reader.buffer.getInt(base+((reader.slabDone+size-1)<<2));
+                    reader.slabDone += size;
+                    reader.position += size;
+                }
+                if (reader.slabDone==reader.recordSlabLength) {
+                    nextRecord(reader);
+                }
+                break;
+            }
+            nextRecord(reader);
+        }
+        return reader.position;
+    }
+
+    /**
+     * Moves to the first record written at or after the time in milliseconds.
+     *
+     * @return position of the next fragment to be replayed
+     */
+    public static <S extends MessageSchema> long seekTime(PipeJournalReader<S> reader, long time) {
+        //last index entry before the time
+        int i = reader.indexCount;
+        while (--i>=0 && reader.indexTime[i]>=time) {
+        }
+        if (!startAtEntry(reader, i)) {
+            return reader.position;
+        }
+        while (loadRecord(reader) && reader.buffer.getLong(reader.offset+16)<time) {
+            nextRecord(reader);
+        }
+        return reader.position;
+    }
+
+    /**
+     * Journal position of the next fragment to be replayed.
+     */
+    public static <S extends MessageSchema> long position(PipeJournalReader<S> reader) {
+        return reader.position;
+    }
+
+    /**
+     * Copies every complete journaled fragment which will fit into the target pipe.
+     * Must only be called by the one thread producing into the target pipe.
+     *
+     * @return count of fragments replayed
+     */
+    public static <S extends MessageSchema> int replay(PipeJournalReader<S> reader, Pipe<S> target) {
+        assert(Pipe.from(target) == reader.from) : "Schemas must match";
+
+        final int[] fragDataSize = reader.from.fragDataSize;
+        final int[] slab = Pipe.slab(target);
+        final int mask = Pipe.slabMask(target);
+        final byte[] blob = Pipe.blob(target);
+        final int blobMask = Pipe.blobMask(target);
+
+        long slabRoom = target.sizeOfSlabRing - (Pipe.workingHeadPosition(target)-Pipe.tailPosition(target));
+        int blobRoom = target.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(target)-Pipe.getBlobTailPosition(target)));
+        long head = Pipe.workingHeadPosition(target);
+        int blobHead = Pipe.getWorkingBlobHeadPosition(target);
+
+        int count = 0;
+        while (loadRecord(reader)) {
+            final MappedByteBuffer buffer = reader.buffer;
+            final int base = reader.offset+PipeJournal.RECORD_HEADER_SIZE;
+            final int blobBase = base+(reader.recordSlabLength<<2);
+
+            //find the fragments of this record which fit
+            int slabEnd = reader.slabDone;
+            int blobEnd = reader.blobDone;
+            while (slabEnd<reader.recordSlabLength) {
+                int idx = buffer.getInt(base+(slabEnd<<2));
+                int size = idx<0 ? Pipe.EOF_SIZE : fragDataSize[idx];
+                int bytes = buffer.getInt(base+((slabEnd+size-1)<<2));
+                if (slabEnd+size-reader.slabDone > slabRoom || blobEnd+bytes-reader.blobDone > blobRoom) {
+                    break;
+                }
+                slabEnd += size;
+                blobEnd += bytes;
+                count++;
+            }
+            int slabLength = slabEnd-reader.slabDone;
+            int blobLength = blobEnd-reader.blobDone;
+            if (0==slabLength) {
+                break;
+            }
+
+            int p = base+(reader.slabDone<<2);
+            int i = 0;
+            while (i<slabLength) {
+                slab[mask&(int)(head+i++)] = buffer.getInt(p);
+                p += 4;
+            }
+            p = blobBase+reader.blobDone;
+            int remaining = blobLength;
+            int loc = blobHead;
+            while (remaining>0) {
+                int t = blobMask&loc;
+                int chunk = Math.min(remaining, blobMask+1-t);
+                buffer.position(p);
+                buffer.get(blob, t, chunk);
+                p += chunk;
+                loc += chunk;
+                remaining -= chunk;
+            }
+
+            head += slabLength;
+            blobHead = Pipe.BYTES_WRAP_MASK&(blobHead+blobLength);
+            slabRoom -= slabLength;
+            blobRoom -= blobLength;
+            reader.position += slabLength;
+            reader.slabDone = slabEnd;
+            reader.blobDone = blobEnd;
+            if (slabEnd<reader.recordSlabLength) {
+                break; //target is full
+            }
+            nextRecord(reader);
+        }
+
+        if (count>0) {
+            //one publish for everything replayed
+            int blobLength = Pipe.BYTES_WRAP_MASK&(blobHead-Pipe.getWorkingBlobHeadPosition(target));
+            int slabLength = (int)(head-Pipe.workingHeadPosition(target));
+            Pipe.publishRun(target, slabLength, blobLength);
+        }
+        return count;
+    }
+
+    public void close() {
+        closeFile();
+    }
+
+    private static <S extends MessageSchema> boolean startAtEntry(PipeJournalReader<S> reader, int i) {
+        if (i>=0) {
+            reader.openFile(reader.indexFile[i]);
+            reader.offset = reader.indexOffset[i];
+            reader.position = reader.indexPosition[i];
+            return null!=reader.buffer;
+        }
+        //before the first index entry, start at the oldest file
+        File[] logs = PipeJournal.logFiles(reader.directory);
+        if (0==logs.length) {
+            return false;
+        }
+        reader.openFile(PipeJournal.startPosition(logs[0]));
+        return null!=reader.buffer;
+    }
+
+    /**
+     * Loads the record at the current offset, moving to the next file as needed.
+     * @return false if the next record has not been completely written yet
+     */
+    private static <S extends MessageSchema> boolean loadRecord(PipeJournalReader<S> reader) {
+        if (reader.loaded) {
+            return true;
+        }
+        if (null==reader.buffer) {
+            File[] logs = PipeJournal.logFiles(reader.directory);
+            if (0==logs.length) {
+                return false;
+            }
+            reader.openFile(PipeJournal.startPosition(logs[0]));
+        }
+        int size = PipeJournal.recordSize(reader.buffer, reader.offset, reader.position, reader.buffer.capacity());
+        if (PipeJournal.END_OF_FILE==size) {
+            if (!PipeJournal.logFile(reader.directory, reader.position).exists()) {
+                return false;
+            }
+            reader.openFile(reader.position);
+            size = PipeJournal.recordSize(reader.buffer, reader.offset, reader.position, reader.buffer.capacity());
+        }
+        if (size<=0) {
+            return false;
+        }
+        reader.loaded = true;
+        reader.recordSize = size;
+        reader.recordSlabLength = reader.buffer.getInt(reader.offset);
+        reader.slabDone = 0;
+        reader.blobDone = 0;
+        return true;
+    }
+
+    private static <S extends MessageSchema> void nextRecord(PipeJournalReader<S> reader) {
+        reader.position += reader.recordSlabLength-reader.slabDone;
+        reader.offset += reader.recordSize;
+        reader.loaded = false;
+    }
+
+    private void openFile(long startPosition) {
+        closeFile();
+        File file = PipeJournal.logFile(directory, startPosition);
+        try {
+            logFile = new RandomAccessFile(file, "r");
+            buffer = logFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, logFile.length());
+            buffer.order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        offset = 0;
+        position = startPosition;
+        loaded = false;
+    }
+
+    private void closeFile() {
+        if (null!=logFile) {
+            try {
+                logFile.close();
+            } catch (IOException e) {
+                log.warn("unable to close journal file in {}", directory, e);
+            }
+            logFile = null;
+        }
+    }
+
+    public String toString() {
+        return "PipeJournalReader "+directory+" position "+position+" offset "+offset;
+    }
+
+}
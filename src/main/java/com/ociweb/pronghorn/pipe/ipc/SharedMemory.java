@@ -0,0 +1,96 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * The only use of sun.misc.Unsafe in this project, kept to the few operations {@link MappedPipe} needs on the
+ * positions it shares with another process.
+ *
+ * The producer must store the ring content before the new head and the consumer must finish reading before the new
+ * tail.  ByteBuffer makes no ordering promise for its reads and writes and VarHandles are not available on the Java 7
+ * target, so the positions are read with volatile loads and written with ordered stores at the mapped address.  The
+ * ring content itself is only accessed through the buffer.
+ *
+ * Unsafe is found by name and its methods are bound to static final method handles, so nothing here is compiled
+ * against the internal API and the JIT still inlines each call.
+ */
+final class SharedMemory {
+
+    private static final MethodHandle getLong;
+    private static final MethodHandle getLongVolatile;
+    private static final MethodHandle putOrderedLong;
+    private static final MethodHandle putOrderedInt;
+    private static final long addressOffset;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType getType = MethodType.methodType(long.class, Object.class, long.class);
+            getLong = lookup.findVirtual(unsafeClass, "getLong", getType).bindTo(unsafe);
+            getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile", getType).bindTo(unsafe);
+            putOrderedLong = lookup.findVirtual(unsafeClass, "putOrderedLong", MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            putOrderedInt = lookup.findVirtual(unsafeClass, "putOrderedInt", MethodType.methodType(void.class, Object.class, long.class, int.class)).bindTo(unsafe);
+            addressOffset = (Long)lookup.findVirtual(unsafeClass, "objectFieldOffset", MethodType.methodType(long.class, Field.class))
+                                        .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+        } catch (Throwable t) {
+            throw new RuntimeException("Shared memory pipes require sun.misc.Unsafe", t);
+        }
+    }
+
+    private SharedMemory() {
+    }
+
+    /**
+     * Native address of the first byte mapped, valid for as long as the buffer is reachable.
+     */
+    static long address(MappedByteBuffer mapped) {
+        try {
+            return (long)getLong.invokeExact((Object)mapped, addressOffset);
+        } catch (Throwable t) {
+            throw failure(t);
+        }
+    }
+
+    static long getLongVolatile(long address) {
+        try {
+            return (long)getLongVolatile.invokeExact((Object)null, address);
+        } catch (Throwable t) {
+            throw failure(t);
+        }
+    }
+
+    static void putOrderedLong(long address, long value) {
+        try {
+            putOrderedLong.invokeExact((Object)null, address, value);
+        } catch (Throwable t) {
+            throw failure(t);
+        }
+    }
+
+    static void putOrderedInt(long address, int value) {
+        try {
+            putOrderedInt.invokeExact((Object)null, address, value);
+        } catch (Throwable t) {
+            throw failure(t);
+        }
+    }
+
+    //the bound methods throw nothing checked, anything caught here is an error or runtime exception
+    private static RuntimeException failure(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error)t;
+        }
+        return t instanceof RuntimeException ? (RuntimeException)t : new RuntimeException(t);
+    }
+
+}
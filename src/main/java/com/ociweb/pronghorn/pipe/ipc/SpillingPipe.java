@@ -0,0 +1,347 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Unbounded pipe for consumers which may go away for a long time, e.g. while a dependency restarts.
+ *
+ * The producer builds fragments in a local pipe with the normal low or high level API then calls
+ * {@link #publish(Pipe, SpillingPipe)}.  While the consumer keeps up fragments are copied straight into
+ * {@link #pipe}.  Once that ring is full the remaining fragments are appended to memory mapped segment files
+ * instead, so the producer never blocks.  Every later call to publish replays the oldest spilled fragments into
+ * the ring as room becomes available and new fragments keep going to disk until the spill is empty, so ordering
+ * is always preserved.
+ *
+ * The consumer is not aware of any of this, it reads {@link #pipe} with the normal PipeReader or low level API.
+ * The producer must keep calling publish, even when it has nothing new to send, until {@link #spilled(SpillingPipe)}
+ * returns zero.
+ *
+ * Each segment file is deleted as soon as its last fragment has been replayed.  The last segment is kept and
+ * rewound once the spill is empty so short bursts do not create new files. Java offers no way to unmap a file
+ * so the memory of a deleted segment is returned when its buffer is collected.
+ *
+ * Segments hold records of whole fragments:
+ *  slab length, blob length, fragment count, slab ints, blob bytes
+ * A slab length of -1 marks the end of a segment.
+ */
+public class SpillingPipe<T extends MessageSchema> {
+
+    private static final Logger log = LoggerFactory.getLogger(SpillingPipe.class);
+
+    private static final int END_OF_SEGMENT = -1;
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private static final class Segment {
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        int readPos;
+        int writePos;
+
+        Segment(File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.file = file;
+            this.raf = raf;
+            this.buffer = buffer;
+        }
+    }
+
+    public final Pipe<T> pipe;
+    private final File directory;
+    private final int segmentSize;
+    private final int[] fragDataSize;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+
+    private long spilledFragments;
+    private long totalSpilled;
+
+    //results of the last walk over the source
+    private int walkBlobLength;
+    private int walkCount;
+
+    /**
+     * @param pipe the ring read by the consumer, must be initialized
+     * @param directory where the segment files are written
+     * @param segmentSize size of each segment file, raised if needed to hold a full ring of fragments
+     */
+    public SpillingPipe(Pipe<T> pipe, File directory, int segmentSize) {
+        FieldReferenceOffsetManager from = Pipe.from(pipe);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Spilling");
+        this.pipe = pipe;
+        this.directory = directory;
+        this.fragDataSize = from.fragDataSize;
+        //every record must fit into an empty ring and into an empty segment along with the end marker
+        long minSize = RECORD_HEADER_SIZE + (4L*pipe.sizeOfSlabRing) + pipe.sizeOfBlobRing + 4;
+        if (minSize>Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("Unable to map more than 2GB, reduce the slab or blob bits of "+pipe);
+        }
+        this.segmentSize = Math.max(segmentSize, (int)minSize);
+    }
+
+    /**
+     * Moves every complete fragment published on the source pipe, into the ring when possible and to disk otherwise.
+     * Also replays spilled fragments into the ring. Must only be called by the one thread consuming the source pipe.
+     *
+     * The source ring must not be larger than the target ring.
+     *
+     * @return count of fragments moved into the ring or onto disk
+     */
+    public static <S extends MessageSchema> int publish(Pipe<S> source, SpillingPipe<S> sp) {
+        assert(Pipe.from(source) == Pipe.from(sp.pipe)) : "Schemas must match";
+
+        int count = replay(sp);
+        if (0==sp.spilledFragments) {
+            count += transfer(source, sp);
+        }
+        return count + spill(source, sp);
+    }
+
+    /**
+     * Fragments written to disk and not yet replayed into the ring.
+     */
+    public static <S extends MessageSchema> long spilled(SpillingPipe<S> sp) {
+        return sp.spilledFragments;
+    }
+
+    /**
+     * Total fragments which have been written to disk since this pipe was created.
+     */
+    public static <S extends MessageSchema> long totalSpilled(SpillingPipe<S> sp) {
+        return sp.totalSpilled;
+    }
+
+    /**
+     * Count of segment files currently on disk.
+     */
+    public static <S extends MessageSchema> int segments(SpillingPipe<S> sp) {
+        return sp.segments.size();
+    }
+
+    /**
+     * Closes and deletes all the segment files, any spilled fragments not yet replayed are lost.
+     */
+    public void close() {
+        Segment s;
+        while (null!=(s = segments.pollFirst())) {
+            reclaim(s);
+        }
+        spilledFragments = 0;
+    }
+
+    private static <S extends MessageSchema> int transfer(Pipe<S> source, SpillingPipe<S> sp) {
+        final Pipe<S> target = sp.pipe;
+        final long tail = Pipe.getWorkingTailPosition(source);
+        final long slabRoom = target.sizeOfSlabRing - (Pipe.workingHeadPosition(target)-Pipe.tailPosition(target));
+        final long pos = walk(source, tail, slabRoom, blobRoom(target), sp);
+        final int count = sp.walkCount;
+        if (0==count) {
+            return 0;
+        }
+        final int slabLength = (int)(pos-tail);
+        final int blobLength = sp.walkBlobLength;
+        final int blobTail = Pipe.getWorkingBlobRingTailPosition(source);
+
+        Pipe.copyIntsFromToRing(Pipe.slab(source), (int)tail, Pipe.slabMask(source), Pipe.slab(target), (int)Pipe.workingHeadPosition(target), Pipe.slabMask(target), slabLength);
+        Pipe.copyBytesFromToRing(Pipe.blob(source), blobTail, Pipe.blobMask(source), Pipe.blob(target), Pipe.getWorkingBlobHeadPosition(target), Pipe.blobMask(target), blobLength);
+
+        Pipe.publishRun(target, slabLength, blobLength);
+        Pipe.releaseRun(source, pos, blobLength);
+        return count;
+    }
+
+    private static <S extends MessageSchema> int spill(Pipe<S> source, SpillingPipe<S> sp) {
+        int count = 0;
+        long tail;
+        long pos;
+        //each record is limited to what an empty ring can hold so it can always be replayed
+        while ((pos = walk(source, tail = Pipe.getWorkingTailPosition(source), sp.pipe.sizeOfSlabRing, sp.pipe.sizeOfBlobRing, sp))>tail) {
+            final int slabLength = (int)(pos-tail);
+            final int blobLength = sp.walkBlobLength;
+            final int blobTail = Pipe.getWorkingBlobRingTailPosition(source);
+
+            Segment s = writeSegment(sp, RECORD_HEADER_SIZE+(slabLength<<2)+blobLength);
+            MappedByteBuffer buffer = s.buffer;
+            int p = s.writePos;
+            buffer.putInt(p, slabLength);
+            buffer.putInt(p+4, blobLength);
+            buffer.putInt(p+8, sp.walkCount);
+            p += RECORD_HEADER_SIZE;
+
+            final int[] slab = Pipe.slab(source);
+            final int mask = Pipe.slabMask(source);
+            int i = 0;
+            while (i<slabLength) {
+                buffer.putInt(p, slab[mask&(int)(tail+i++)]);
+                p += 4;
+            }
+
+            final byte[] blob = Pipe.blob(source);
+            final int blobMask = Pipe.blobMask(source);
+            int remaining = blobLength;
+            int loc = blobTail;
+            while (remaining>0) {
+                int s1 = blobMask&loc;
+                int chunk = Math.min(remaining, blobMask+1-s1);
+                buffer.position(p);
+                buffer.put(blob, s1, chunk);
+                p += chunk;
+                loc += chunk;
+                remaining -= chunk;
+            }
+            s.writePos = p;
+
+            count += sp.walkCount;
+            sp.spilledFragments += sp.walkCount;
+            sp.totalSpilled += sp.walkCount;
+            Pipe.releaseRun(source, pos, blobLength);
+        }
+        return count;
+    }
+
+    private static <S extends MessageSchema> int replay(SpillingPipe<S> sp) {
+        final Pipe<S> target = sp.pipe;
+        int count = 0;
+        while (sp.spilledFragments>0) {
+            Segment s = sp.segments.peekFirst();
+            MappedByteBuffer buffer = s.buffer;
+            int p = s.readPos;
+            int slabLength = buffer.getInt(p);
+            if (END_OF_SEGMENT==slabLength) {
+                sp.segments.pollFirst();
+                reclaim(s);
+                continue;
+            }
+            int blobLength = buffer.getInt(p+4);
+            if (!Pipe.hasRoomForWrite(target, slabLength) || blobLength>blobRoom(target)) {
+                break;
+            }
+            int fragments = buffer.getInt(p+8);
+            p += RECORD_HEADER_SIZE;
+
+            final int[] slab = Pipe.slab(target);
+            final int mask = Pipe.slabMask(target);
+            final long head = Pipe.workingHeadPosition(target);
+            int i = 0;
+            while (i<slabLength) {
+                slab[mask&(int)(head+i++)] = buffer.getInt(p);
+                p += 4;
+            }
+
+            final byte[] blob = Pipe.blob(target);
+            final int blobMask = Pipe.blobMask(target);
+            int remaining = blobLength;
+            int loc = Pipe.getWorkingBlobHeadPosition(target);
+            while (remaining>0) {
+                int t = blobMask&loc;
+                int chunk = Math.min(remaining, blobMask+1-t);
+                buffer.position(p);
+                buffer.get(blob, t, chunk);
+                p += chunk;
+                loc += chunk;
+                remaining -= chunk;
+            }
+            s.readPos = p;
+
+            Pipe.publishRun(target, slabLength, blobLength);
+            count += fragments;
+            sp.spilledFragments -= fragments;
+        }
+        if (0==sp.spilledFragments && !sp.segments.isEmpty()) {
+            //everything has been replayed, keep only the current segment and start it over
+            while (sp.segments.size()>1) {
+                reclaim(sp.segments.pollFirst());
+            }
+            Segment s = sp.segments.peekFirst();
+            s.readPos = 0;
+            s.writePos = 0;
+        }
+        return count;
+    }
+
+    /**
+     * Walks the complete fragments starting at tail which fit in the given room.
+     * @return position after the last fragment which fits, the blob length and count are left in the walk fields
+     */
+    private static <S extends MessageSchema> long walk(Pipe<S> source, long tail, long slabRoom, int blobRoom, SpillingPipe<S> sp) {
+        final long head = Pipe.headPosition(source);
+        final int[] slab = Pipe.slab(source);
+        final int mask = Pipe.slabMask(source);
+        final int[] fragDataSize = sp.fragDataSize;
+
+        long pos = tail;
+        int blobLength = 0;
+        int count = 0;
+        while (pos<head) {
+            int idx = slab[mask&(int)pos];
+            int size = idx<0 ? Pipe.EOF_SIZE : fragDataSize[idx];
+            int bytes = slab[mask&(int)(pos+size-1)];
+            if ((pos+size-tail)>slabRoom || (blobLength+bytes)>blobRoom) {
+                break;
+            }
+            pos += size;
+            blobLength += bytes;
+            count++;
+        }
+        sp.walkBlobLength = blobLength;
+        sp.walkCount = count;
+        return pos;
+    }
+
+    private static <S extends MessageSchema> int blobRoom(Pipe<S> target) {
+        return target.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(target)-Pipe.getBlobTailPosition(target)));
+    }
+
+    /**
+     * Segment with room for a record of the given size, a new one is started when the current one is full.
+     */
+    private static <S extends MessageSchema> Segment writeSegment(SpillingPipe<S> sp, int recordSize) {
+        Segment s = sp.segments.peekLast();
+        if (null!=s) {
+            //always leave room for the end marker
+            if (s.writePos+recordSize+4 <= sp.segmentSize) {
+                return s;
+            }
+            s.buffer.putInt(s.writePos, END_OF_SEGMENT);
+        }
+        try {
+            File file = File.createTempFile("spill", ".seg", sp.directory);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(sp.segmentSize);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, sp.segmentSize);
+            buffer.order(ByteOrder.nativeOrder());
+            s = new Segment(file, raf, buffer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        sp.segments.addLast(s);
+        return s;
+    }
+
+    private static void reclaim(Segment s) {
+        try {
+            s.raf.close();
+        } catch (IOException e) {
+            log.warn("unable to close {}", s.file, e);
+        }
+        if (!s.file.delete()) {
+            log.warn("unable to delete {}", s.file);
+        }
+    }
+
+    public String toString() {
+        return "SpillingPipe "+pipe+" spilled "+spilledFragments+" segments "+segments.size()+" in "+directory;
+    }
+
+}
@@ -35,10 +35,13 @@ public class EventConsumer {
 
 		if (PipeWriter.tryWriteFragment(consumer.output, msgIdx)) {
 			
-			T result = (T) Proxy.newProxyInstance(
+			T result = PipeProxyGenerator.buildWriter(clazz, consumer.output, msgIdx);
+			if (null==result) {
+				result = (T) Proxy.newProxyInstance(
 								clazz.getClassLoader(),
 								new Class[] { clazz },
 								new OutputPipeInvocationHandler(consumer.output, msgIdx, clazz));	
+			}
 			
 			consumer.cached = result; //TODO: needs smarter pool but this is fine for now.
 			consumer.cachedMsgId = msgIdx;
@@ -36,10 +36,13 @@ public class EventProducer {
 
 		if (PipeReader.tryReadFragment(consumer.input)) {
 			
-			T result = (T) Proxy.newProxyInstance(
+			T result = PipeProxyGenerator.buildReader(clazz, consumer.input, PipeReader.getMsgIdx(consumer.input));
+			if (null==result) {
+				result = (T) Proxy.newProxyInstance(
 								clazz.getClassLoader(),
 								new Class[] { clazz },
 								new InputPipeInvocationHandler(consumer.input, PipeReader.getMsgIdx(consumer.input), clazz));	
+			}
 			
 			consumer.cached = result; //TODO: needs smarter pool but this is fine for now.
 			consumer.cachedMsgId = PipeReader.getMsgIdx(consumer.input);
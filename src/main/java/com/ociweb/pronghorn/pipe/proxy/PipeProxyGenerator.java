@@ -0,0 +1,448 @@
+package com.ociweb.pronghorn.pipe.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.PipeWriter;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.util.build.SimpleSourceFileObject;
+
+/**
+ * Builds a concrete class for each {@link ProngTemplateMessage} interface where every annotated method is a direct
+ * call to PipeReader or PipeWriter with a constant LOC.  This is the code the anonymous classes in
+ * InputPipeReaderMethod and OutputPipeWriterMethod stand in for, without the boxing, the method key lookup
+ * or the argument arrays of the reflection proxy.
+ *
+ * The source is compiled once per interface, schema and message with the system java compiler.  When there is no
+ * compiler (JRE only) or the interface can not be implemented from another class loader null is returned and
+ * the caller must fall back to the reflection proxy.
+ */
+public class PipeProxyGenerator {
+
+	private static final Logger log = LoggerFactory.getLogger(PipeProxyGenerator.class);
+
+	static final String PACKAGE = "com.ociweb.pronghorn.pipe.proxy.generated";
+
+	//held by each interface class so nothing is kept once it is unloaded, keyed by the schema GUID instead of the FROM
+	//so no FROM is kept either.  Reads are not locked, only the thread generating a missing class holds the map.
+	private static final ClassValue<ConcurrentMap<Key, Object>> generated = new ClassValue<ConcurrentMap<Key, Object>>() {
+		@Override
+		protected ConcurrentMap<Key, Object> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<Key, Object>();
+		}
+	};
+	private static final Object FAILED = new Object();
+	private static final AtomicInteger generatedCount = new AtomicInteger();
+
+	public static <T> T buildReader(Class<T> clazz, Pipe pipe, int msgIdx) {
+		return build(clazz, pipe, msgIdx, true);
+	}
+
+	public static <T> T buildWriter(Class<T> clazz, Pipe pipe, int msgIdx) {
+		return build(clazz, pipe, msgIdx, false);
+	}
+
+	private static <T> T build(Class<T> clazz, Pipe pipe, int msgIdx, boolean isReader) {
+		Constructor<?> constructor = lookup(clazz, Pipe.from(pipe), msgIdx, isReader);
+		if (null==constructor) {
+			return null;
+		}
+		try {
+			return clazz.cast(constructor.newInstance(pipe));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Constructor<?> lookup(Class<?> clazz, FieldReferenceOffsetManager from, int msgIdx, boolean isReader) {
+		ConcurrentMap<Key, Object> cache = generated.get(clazz);
+		Key key = new Key(from.cloneGUID(), msgIdx, isReader);
+		Object result = cache.get(key);
+		if (null==result) {
+			synchronized (cache) {
+				result = cache.get(key);
+				if (null==result) {
+					result = generate(clazz, from, msgIdx, isReader);
+					cache.put(key, result); //failures are also kept so they are not tried again
+				}
+			}
+		}
+		return FAILED==result ? null : (Constructor<?>)result;
+	}
+
+	private static Object generate(Class<?> clazz, FieldReferenceOffsetManager from, int msgIdx, boolean isReader) {
+		if (Modifier.isPublic(clazz.getModifiers()) && null!=ToolProvider.getSystemJavaCompiler()) {
+			String className = clazz.getSimpleName()+(isReader ? "Reader" : "Writer")+generatedCount.incrementAndGet();
+			try {
+				CharSequence source = isReader ? readerSource(clazz, from, msgIdx, className) : writerSource(clazz, from, msgIdx, className);
+				Class<?> compiled = compile(clazz.getClassLoader(), className, source);
+				if (null!=compiled) {
+					return compiled.getConstructor(Pipe.class);
+				}
+			} catch (Exception e) {
+				log.debug("unable to generate {}", className, e);
+			}
+		}
+		log.warn("Unable to generate a class for {}, using a reflection proxy", clazz.getName());
+		return FAILED;
+	}
+
+	//the same GUID means the same layout so the generated class with its constant LOCs can be shared
+	private static final class Key {
+		private final int[] guid;
+		private final int msgIdx;
+		private final boolean isReader;
+
+		Key(int[] guid, int msgIdx, boolean isReader) {
+			this.guid = guid;
+			this.msgIdx = msgIdx;
+			this.isReader = isReader;
+		}
+
+		@Override
+		public int hashCode() {
+			return (Arrays.hashCode(guid)*31+msgIdx)*2+(isReader ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key that = (Key)obj;
+			return msgIdx==that.msgIdx && isReader==that.isReader && Arrays.equals(guid, that.guid);
+		}
+	}
+
+	static CharSequence readerSource(Class<?> clazz, FieldReferenceOffsetManager from, int msgIdx, String className) {
+		StringBuilder target = header(clazz, className, PipeReader.class);
+		for (Method method : clazz.getMethods()) {
+			if (!Modifier.isAbstract(method.getModifiers())) {
+				continue;
+			}
+			Class<?> returnType = method.getReturnType();
+			Class<?>[] params = method.getParameterTypes();
+			methodOpen(target, method);
+			ProngTemplateField field = method.getAnnotation(ProngTemplateField.class);
+			if (null==field) {
+				unsupported(target, method);
+				continue;
+			}
+			int loc = FieldReferenceOffsetManager.lookupFieldLocator(field.fieldId(), msgIdx, from);
+			String locText = "0x"+Integer.toHexString(loc);
+			boolean nullable = !returnType.isPrimitive();
+			switch (extractType(loc)) {
+				case 0:
+				case 2:
+					returnValue(target, returnType, int.class, "PipeReader.readInt(pipe, "+locText+")");
+					break;
+				case 1:
+				case 3:
+					target.append("\t\tint value = PipeReader.readInt(pipe, ").append(locText).append(");\n");
+					absentCheck(target, nullable, "value=="+FieldReferenceOffsetManager.getAbsent32Value(from));
+					returnValue(target, returnType, int.class, "value");
+					break;
+				case 4:
+				case 6:
+					returnValue(target, returnType, long.class, "PipeReader.readLong(pipe, "+locText+")");
+					break;
+				case 5:
+				case 7:
+					target.append("\t\tlong value = PipeReader.readLong(pipe, ").append(locText).append(");\n");
+					absentCheck(target, nullable, "value=="+FieldReferenceOffsetManager.getAbsent64Value(from)+"L");
+					returnValue(target, returnType, long.class, "value");
+					break;
+				case 9:
+					absentCheck(target, nullable, "PipeReader.readDataLength(pipe, "+locText+")<0");
+					//continues with the required read
+				case 8:
+					returnValue(target, returnType, Object.class, "PipeReader.readASCII(pipe, "+locText+arguments(params)+")");
+					break;
+				case 11:
+					absentCheck(target, nullable, "PipeReader.readDataLength(pipe, "+locText+")<0");
+					//continues with the required read
+				case 10:
+					returnValue(target, returnType, Object.class, "PipeReader.readUTF8(pipe, "+locText+arguments(params)+")");
+					break;
+				case 13:
+					absentCheck(target, nullable, "PipeReader.readDecimalExponent(pipe, "+locText+")=="+FieldReferenceOffsetManager.getAbsent32Value(from));
+					//continues with the required read
+				case 12:
+					returnValue(target, returnType, double.class, "PipeReader.readDouble(pipe, "+locText+")");
+					break;
+				case 15:
+					absentCheck(target, nullable, "PipeReader.readDataLength(pipe, "+locText+")<=0");
+					//continues with the required read
+				case 14:
+					returnValue(target, returnType, Object.class, "PipeReader.readBytes(pipe, "+locText+arguments(params)+")");
+					break;
+				default:
+					throw new UnsupportedOperationException("No support yet for "+method);
+			}
+			target.append("\t}\n\n");
+		}
+		return target.append("}\n");
+	}
+
+	static CharSequence writerSource(Class<?> clazz, FieldReferenceOffsetManager from, int msgIdx, String className) {
+		StringBuilder target = header(clazz, className, PipeWriter.class);
+		for (Method method : clazz.getMethods()) {
+			if (!Modifier.isAbstract(method.getModifiers())) {
+				continue;
+			}
+			Class<?>[] params = method.getParameterTypes();
+			methodOpen(target, method);
+			ProngTemplateField field = method.getAnnotation(ProngTemplateField.class);
+			if (null==field || 0==params.length) {
+				unsupported(target, method);
+				continue;
+			}
+			int loc = FieldReferenceOffsetManager.lookupFieldLocator(field.fieldId(), msgIdx, from);
+			String locText = "0x"+Integer.toHexString(loc);
+			boolean nullable = !params[0].isPrimitive();
+			int type = extractType(loc);
+			if (nullable && 1==(1&type)) {
+				//optional, write the absent value for null
+				target.append("\t\tif (null==arg0) {\n\t\t\t");
+				switch (type) {
+					case 1:
+					case 3:
+						target.append("PipeWriter.writeInt(pipe, ").append(locText).append(", ").append(Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from))).append(");\n");
+						break;
+					case 5:
+					case 7:
+						target.append("PipeWriter.writeLong(pipe, ").append(locText).append(", ").append(Long.toString(FieldReferenceOffsetManager.getAbsent64Value(from))).append("L);\n");
+						break;
+					case 9:
+					case 11:
+					case 15:
+						target.append("PipeWriter.writeNull(pipe, ").append(locText).append(");\n");
+						break;
+					case 13:
+						target.append("PipeWriter.writeDecimal(pipe, ").append(locText).append(", ").append(Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from)))
+						      .append(", ").append(Long.toString(FieldReferenceOffsetManager.getAbsent64Value(from))).append("L);\n");
+						break;
+				}
+				target.append("\t\t} else {\n\t");
+			}
+			target.append("\t\t");
+			switch (type) {
+				case 0:
+				case 1:
+				case 2:
+				case 3:
+					target.append("PipeWriter.writeInt(pipe, ").append(locText).append(", ").append(number(params[0], "arg0", int.class)).append(");\n");
+					break;
+				case 4:
+				case 5:
+				case 6:
+				case 7:
+					target.append("PipeWriter.writeLong(pipe, ").append(locText).append(", ").append(number(params[0], "arg0", long.class)).append(");\n");
+					break;
+				case 8:
+				case 9:
+					target.append("PipeWriter.writeASCII(pipe, ").append(locText).append(", ").append(text(params[0])).append(");\n");
+					break;
+				case 10:
+				case 11:
+					target.append("PipeWriter.writeUTF8(pipe, ").append(locText).append(", ").append(text(params[0])).append(");\n");
+					break;
+				case 12:
+				case 13:
+					target.append("PipeWriter.writeDouble(pipe, ").append(locText).append(", ").append(number(params[0], "arg0", double.class))
+					      .append(", ").append(Integer.toString(field.decimalPlaces())).append(");\n");
+					break;
+				case 14:
+				case 15:
+					if (ByteBuffer.class.isAssignableFrom(params[0])) {
+						target.append("PipeWriter.writeBytes(pipe, ").append(locText).append(", arg0, ")
+						      .append(params.length>1 ? number(params[1], "arg1", int.class) : "arg0.remaining()").append(");\n");
+					} else {
+						target.append("PipeWriter.writeBytes(pipe, ").append(locText).append(", arg0);\n");
+					}
+					break;
+				default:
+					throw new UnsupportedOperationException("No support yet for "+method);
+			}
+			if (nullable && 1==(1&type)) {
+				target.append("\t\t}\n");
+			}
+			if (void.class!=method.getReturnType()) {
+				target.append("\t\treturn null;\n");
+			}
+			target.append("\t}\n\n");
+		}
+		return target.append("}\n");
+	}
+
+	private static int extractType(int loc) {
+		return (loc >> FieldReferenceOffsetManager.RW_FIELD_OFF_BITS) & TokenBuilder.MASK_TYPE;
+	}
+
+	private static StringBuilder header(Class<?> clazz, String className, Class<?> api) {
+		StringBuilder target = new StringBuilder();
+		target.append("package ").append(PACKAGE).append(";\n\n");
+		target.append("import ").append(Pipe.class.getCanonicalName()).append(";\n");
+		target.append("import ").append(api.getCanonicalName()).append(";\n\n");
+		target.append("@SuppressWarnings(\"unchecked\")\n");
+		target.append("public final class ").append(className).append(" implements ").append(clazz.getCanonicalName()).append(" {\n\n");
+		target.append("\tprivate final Pipe pipe;\n\n");
+		target.append("\tpublic ").append(className).append("(Pipe pipe) {\n");
+		target.append("\t\tthis.pipe = pipe;\n");
+		target.append("\t}\n\n");
+		return target;
+	}
+
+	private static void methodOpen(StringBuilder target, Method method) {
+		target.append("\tpublic ").append(method.getReturnType().getCanonicalName()).append(' ').append(method.getName()).append('(');
+		Class<?>[] params = method.getParameterTypes();
+		for (int i = 0; i<params.length; i++) {
+			if (i>0) {
+				target.append(", ");
+			}
+			target.append(params[i].getCanonicalName()).append(" arg").append(i);
+		}
+		target.append(") {\n");
+	}
+
+	private static void unsupported(StringBuilder target, Method method) {
+		target.append("\t\tthrow new UnsupportedOperationException(\"").append(method.getName()).append(" has no ProngTemplateField annotation\");\n");
+		target.append("\t}\n\n");
+	}
+
+	private static void absentCheck(StringBuilder target, boolean nullable, String condition) {
+		if (nullable) {
+			target.append("\t\tif (").append(condition).append(") {\n");
+			target.append("\t\t\treturn null;\n");
+			target.append("\t\t}\n");
+		}
+	}
+
+	/**
+	 * Converts the value to the declared return type, primitives are cast, wrappers use valueOf and everything
+	 * else is a plain cast which the compiler will reject if the interface does not fit the field.
+	 */
+	private static void returnValue(StringBuilder target, Class<?> returnType, Class<?> valueType, String value) {
+		target.append("\t\t");
+		if (void.class==returnType) {
+			target.append(value).append(";\n");
+			return;
+		}
+		target.append("return ");
+		Class<?> unboxed = unbox(returnType);
+		if (returnType.isPrimitive()) {
+			target.append('(').append(returnType.getName()).append(')').append(value);
+		} else if (null!=unboxed && Object.class!=valueType) {
+			target.append(returnType.getSimpleName()).append(".valueOf((").append(unboxed.getName()).append(')').append(value).append(')');
+		} else {
+			target.append('(').append(returnType.getCanonicalName()).append(')').append(value);
+		}
+		target.append(";\n");
+	}
+
+	private static String number(Class<?> type, String arg, Class<?> primitive) {
+		return type.isPrimitive() ? "("+primitive.getName()+")"+arg : "((Number)"+arg+")."+primitive.getName()+"Value()";
+	}
+
+	private static String text(Class<?> type) {
+		return CharSequence.class.isAssignableFrom(type) || char[].class==type ? "arg0" : "arg0.toString()";
+	}
+
+	private static String arguments(Class<?>[] params) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i<params.length; i++) {
+			result.append(", ");
+			Class<?> unboxed = unbox(params[i]);
+			result.append(null==unboxed ? "arg"+i : number(params[i], "arg"+i, int.class));
+		}
+		return result.toString();
+	}
+
+	private static Class<?> unbox(Class<?> type) {
+		if (Integer.class==type) {
+			return int.class;
+		} else if (Short.class==type) {
+			return short.class;
+		} else if (Byte.class==type) {
+			return byte.class;
+		} else if (Long.class==type) {
+			return long.class;
+		} else if (Double.class==type) {
+			return double.class;
+		} else if (Float.class==type) {
+			return float.class;
+		}
+		return null;
+	}
+
+	private static Class<?> compile(ClassLoader parent, String className, CharSequence source) throws ClassNotFoundException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+
+		JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(compiler.getStandardFileManager(diagnostics, null, null)) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, final String name, Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("mem:///"+name.replace('.', '/')+kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream output = new ByteArrayOutputStream();
+						classes.put(name, output);
+						return output;
+					}
+				};
+			}
+		};
+
+		List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-proc:none", "-nowarn");
+		List<JavaFileObject> sources = Collections.<JavaFileObject>singletonList(new SimpleSourceFileObject(className, source));
+		if (!compiler.getTask(null, fileManager, diagnostics, options, null, sources).call()) {
+			log.debug("unable to compile {} {}\n{}", className, diagnostics.getDiagnostics(), source);
+			return null;
+		}
+
+		ClassLoader loader = new ClassLoader(parent) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				ByteArrayOutputStream output = classes.get(name);
+				if (null==output) {
+					return super.findClass(name);
+				}
+				byte[] bytes = output.toByteArray();
+				return defineClass(name, bytes, 0, bytes.length);
+			}
+		};
+		return loader.loadClass(PACKAGE+"."+className);
+	}
+
+}
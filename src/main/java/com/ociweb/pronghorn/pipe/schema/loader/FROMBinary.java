@@ -0,0 +1,250 @@
+package com.ociweb.pronghorn.pipe.schema.loader;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.util.RLESparseArray;
+
+/**
+ * Compact binary form of a fully built {@link FieldReferenceOffsetManager} so schemas can be loaded without
+ * the SAX parse of the template XML.
+ *
+ * Everything passed to the FROM constructor is written along with the GUID. Names are kept once in a string
+ * table and referenced by index. On load the FROM is rebuilt from these arrays and its GUID must match the one
+ * stored, so a file written by an older layout or a damaged file is never used silently.
+ *
+ * The main method compiles template XML files into this form, see the compile-templates profile in the pom.
+ */
+public class FROMBinary {
+
+	private static final Logger log = LoggerFactory.getLogger(FROMBinary.class);
+
+	public static final String EXTENSION = ".from";
+
+	private static final int MAGIC = 0x46524F4D; //FROM
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void write(FieldReferenceOffsetManager from, OutputStream target) throws IOException {
+		DataOutputStream out = new DataOutputStream(target);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		int count = from.tokens.length;
+		Map<String, Integer> stringIds = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		int[] nameRefs = new int[count];
+		int[] dictionaryRefs = new int[count];
+		for (int i = 0; i<count; i++) {
+			nameRefs[i] = stringRef(from.fieldNameScript[i], stringIds, strings);
+			dictionaryRefs[i] = stringRef(from.dictionaryNameScript[i], stringIds, strings);
+		}
+		int nameRef = stringRef(from.name, stringIds, strings);
+
+		out.writeInt(strings.size());
+		for (String value : strings) {
+			byte[] bytes = value.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		out.writeShort(from.preableBytes);
+		out.writeInt(nameRef);
+		out.writeInt(count);
+		for (int i = 0; i<count; i++) {
+			out.writeInt(from.tokens[i]);
+		}
+		for (int i = 0; i<count; i++) {
+			out.writeLong(from.fieldIdScript[i]);
+		}
+		for (int i = 0; i<count; i++) {
+			out.writeInt(nameRefs[i]);
+		}
+		for (int i = 0; i<count; i++) {
+			out.writeInt(dictionaryRefs[i]);
+		}
+
+		long[] longDefaults = RLESparseArray.rlEncodeSparseArray(from.newLongDefaultsDictionary());
+		out.writeInt(longDefaults.length);
+		for (long value : longDefaults) {
+			out.writeLong(value);
+		}
+		int[] intDefaults = RLESparseArray.rlEncodeSparseArray(from.newIntDefaultsDictionary());
+		out.writeInt(intDefaults.length);
+		for (int value : intDefaults) {
+			out.writeInt(value);
+		}
+
+		for (int value : from.cloneGUID()) {
+			out.writeInt(value);
+		}
+		out.flush();
+	}
+
+	private static int stringRef(String value, Map<String, Integer> stringIds, List<String> strings) {
+		if (null==value) {
+			return -1;
+		}
+		Integer id = stringIds.get(value);
+		if (null==id) {
+			id = strings.size();
+			stringIds.put(value, id);
+			strings.add(value);
+		}
+		return id;
+	}
+
+	public static void write(FieldReferenceOffsetManager from, File target) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+		try {
+			write(from, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static FieldReferenceOffsetManager read(ByteBuffer source) throws IOException {
+		if (source.remaining()<8 || MAGIC!=source.getInt() || VERSION!=source.getInt()) {
+			throw new IOException("Not a compiled template or written by another version");
+		}
+
+		String[] strings = new String[source.getInt()];
+		byte[] scratch = new byte[64];
+		for (int i = 0; i<strings.length; i++) {
+			int len = source.getInt();
+			if (len>scratch.length) {
+				scratch = new byte[len];
+			}
+			source.get(scratch, 0, len);
+			strings[i] = new String(scratch, 0, len, UTF8);
+		}
+
+		short preambleBytes = source.getShort();
+		String name = string(strings, source.getInt());
+		int count = source.getInt();
+		int[] tokens = new int[count];
+		source.asIntBuffer().get(tokens);
+		source.position(source.position()+(count<<2));
+		long[] ids = new long[count];
+		source.asLongBuffer().get(ids);
+		source.position(source.position()+(count<<3));
+		String[] names = new String[count];
+		for (int i = 0; i<count; i++) {
+			names[i] = string(strings, source.getInt());
+		}
+		String[] dictionaryNames = new String[count];
+		for (int i = 0; i<count; i++) {
+			dictionaryNames[i] = string(strings, source.getInt());
+		}
+
+		long[] longDefaults = new long[source.getInt()];
+		source.asLongBuffer().get(longDefaults);
+		source.position(source.position()+(longDefaults.length<<3));
+		int[] intDefaults = new int[source.getInt()];
+		source.asIntBuffer().get(intDefaults);
+		source.position(source.position()+(intDefaults.length<<2));
+
+		int[] guid = new int[8];
+		source.asIntBuffer().get(guid);
+		source.position(source.position()+(guid.length<<2));
+
+		FieldReferenceOffsetManager from = new FieldReferenceOffsetManager(tokens, preambleBytes, names, ids, dictionaryNames, name, longDefaults, intDefaults);
+		from.validateGUID(guid);
+		return from;
+	}
+
+	private static String string(String[] strings, int ref) {
+		return ref<0 ? null : strings[ref];
+	}
+
+	/**
+	 * Memory maps the file, nothing is parsed beyond the arrays needed by the FROM constructor.
+	 */
+	public static FieldReferenceOffsetManager read(File source) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(source, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Looks for a classpath resource first and then a file, just like TemplateHandler.loadFrom.
+	 */
+	public static FieldReferenceOffsetManager loadFrom(String source) throws IOException {
+		InputStream resource = FROMBinary.class.getResourceAsStream(source);
+		if (null==resource) {
+			return read(new File(source));
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int len;
+			while ((len = resource.read(buffer))>=0) {
+				bytes.write(buffer, 0, len);
+			}
+			return read(ByteBuffer.wrap(bytes.toByteArray()));
+		} finally {
+			resource.close();
+		}
+	}
+
+	/**
+	 * Compiles template XML into the binary form.
+	 * First argument is the output folder, the rest are template files or folders of template files.
+	 * Each template is written to the output folder with its .xml extension replaced by .from
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length<2) {
+			System.err.println("usage: FROMBinary <outputFolder> <template.xml or folder>...");
+			System.exit(1);
+		}
+		File output = new File(args[0]);
+		if (!output.isDirectory() && !output.mkdirs()) {
+			throw new IOException("Unable to create "+output);
+		}
+		for (int i = 1; i<args.length; i++) {
+			File source = new File(args[i]);
+			if (source.isDirectory()) {
+				File[] files = source.listFiles();
+				if (null!=files) {
+					for (File file : files) {
+						if (file.isFile() && file.getName().endsWith(".xml")) {
+							compile(file, output);
+						}
+					}
+				}
+			} else {
+				compile(source, output);
+			}
+		}
+	}
+
+	private static void compile(File source, File output) throws Exception {
+		String name = source.getName();
+		File target = new File(output, (name.endsWith(".xml") ? name.substring(0, name.length()-4) : name)+EXTENSION);
+		write(TemplateHandler.loadFrom(source.getPath()), target);
+		log.info("compiled {} into {}", source, target);
+	}
+
+}
@@ -1003,6 +1003,15 @@ public class TemplateHandler extends DefaultHandler {
 
 	public static FieldReferenceOffsetManager loadFrom(String source, short preamble) throws ParserConfigurationException, SAXException, IOException {
 
+		if (source.endsWith(FROMBinary.EXTENSION)) {
+			//already compiled, no XML to parse
+			FieldReferenceOffsetManager from = FROMBinary.loadFrom(source);
+			if (from.preableBytes != preamble) {
+				throw new UnsupportedOperationException(source+" was compiled with a preamble of "+from.preableBytes+" bytes not "+preamble);
+			}
+			return from;
+		}
+
 		InputStream sourceInputStream = TemplateHandler.class.getResourceAsStream(source);
 
 		File folder = null;
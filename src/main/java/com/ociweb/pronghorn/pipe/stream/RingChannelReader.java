@@ -0,0 +1,92 @@
+package com.ociweb.pronghorn.pipe.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * Fills a {@link RawDataSchema} pipe from a {@link ScatteringByteChannel} such as a FileChannel, SocketChannel or
+ * the source of a java.nio.channels.Pipe.
+ *
+ * All the free space of the blob is offered to the channel with a single scattering read of at most two buffers
+ * wrapping the blob array, one for each side of the ring wrap, so the bytes land in place without any copy.  The bytes
+ * read are then split into fragments of at most maxVarLen and the head is published once per call for all of them.
+ */
+public class RingChannelReader {
+
+    private final Pipe<RawDataSchema> pipe;
+    private final int size = RawDataSchema.FROM.fragDataSize[RawDataSchema.MSG_CHUNKEDSTREAM_1];
+    private final ByteBuffer[] buffers;
+
+    /**
+     * @param pipe must be initialized
+     */
+    public RingChannelReader(Pipe<RawDataSchema> pipe) {
+        if (Pipe.from(pipe) != RawDataSchema.FROM) {
+            throw new UnsupportedOperationException("This class can only be used with the very simple RAW_BYTES catalog of messages.");
+        }
+        this.pipe = pipe;
+        byte[] blob = Pipe.blob(pipe);
+        this.buffers = new ByteBuffer[]{ByteBuffer.wrap(blob), ByteBuffer.wrap(blob)};
+    }
+
+    /**
+     * Reads as much as the pipe has room for.  Must only be called by the one thread producing into the pipe.
+     *
+     * @return count of bytes read, 0 if the pipe is full or -1 once the channel has ended and the EOF fragment is published
+     */
+    public long read(ScatteringByteChannel channel) throws IOException {
+        final long fragments = (pipe.sizeOfSlabRing - (Pipe.workingHeadPosition(pipe)-Pipe.tailPosition(pipe)))/size;
+        if (fragments<=0) {
+            return 0;
+        }
+        int blobHead = Pipe.getWorkingBlobHeadPosition(pipe);
+        final int blobRoom = pipe.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(blobHead-Pipe.getBlobTailPosition(pipe)));
+        final int length = (int)Math.min(blobRoom, fragments*pipe.maxVarLen);
+        if (length<=0) {
+            return 0;
+        }
+
+        wrap(blobHead, length);
+        final long count = channel.read(buffers);
+        if (count<0) {
+            //a fragment fits so the smaller EOF also fits
+            Pipe.publishEOF(pipe);
+            return -1;
+        }
+
+        int remaining = (int)count;
+        while (remaining>0) {
+            int len = Math.min(remaining, pipe.maxVarLen);
+            Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addBytePosAndLen(pipe, blobHead, len);
+            blobHead = Pipe.addAndGetBytesWorkingHeadPosition(pipe, len);
+            Pipe.confirmLowLevelWrite(pipe, size);
+            Pipe.writeTrailingCountOfBytesConsumed(pipe, Pipe.addAndGetWorkingHead(pipe, 1)-1);
+            remaining -= len;
+        }
+        if (count>0) {
+            Pipe.publishHeadPositions(pipe);
+        }
+        return count;
+    }
+
+    private void wrap(int position, int length) {
+        int blobMask = Pipe.blobMask(pipe);
+        int start = blobMask&position;
+        int end = start+length;
+
+        ByteBuffer a = buffers[0];
+        a.clear();
+        a.position(start);
+        a.limit(Math.min(end, blobMask+1));
+
+        ByteBuffer b = buffers[1];
+        b.clear();
+        b.limit(Math.max(0, end-(blobMask+1)));
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.ociweb.pronghorn.pipe.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * Drains a {@link RawDataSchema} pipe into a {@link GatheringByteChannel} such as a FileChannel, SocketChannel or
+ * the sink of a java.nio.channels.Pipe.
+ *
+ * The blobs of consecutive fragments are contiguous in the ring so every fragment ready at the time of the call is
+ * written with a single gathering write of at most two buffers wrapping the blob array, one for each side of the
+ * ring wrap.  The tail is published once per call for all the fragments written.
+ *
+ * Non blocking channels may accept only part of the bytes.  A fragment is only released once all its bytes have
+ * been accepted, the remainder of a partially written fragment is sent first on the next call.
+ */
+public class RingChannelWriter {
+
+    private final Pipe<RawDataSchema> pipe;
+    private final int size = RawDataSchema.FROM.fragDataSize[RawDataSchema.MSG_CHUNKEDSTREAM_1];
+    private final ByteBuffer[] buffers;
+
+    //bytes of the oldest unreleased fragment already accepted by the channel
+    private int partial;
+
+    /**
+     * @param pipe must be initialized
+     */
+    public RingChannelWriter(Pipe<RawDataSchema> pipe) {
+        if (Pipe.from(pipe) != RawDataSchema.FROM) {
+            throw new UnsupportedOperationException("This class can only be used with the very simple RAW_BYTES catalog of messages.");
+        }
+        this.pipe = pipe;
+        byte[] blob = Pipe.blob(pipe);
+        this.buffers = new ByteBuffer[]{ByteBuffer.wrap(blob), ByteBuffer.wrap(blob)};
+    }
+
+    /**
+     * Writes the bytes of every fragment published on the pipe.  Must only be called by the one thread consuming the pipe.
+     *
+     * @return count of bytes written, 0 if nothing is ready or -1 once the EOF fragment has been consumed
+     */
+    public long write(GatheringByteChannel channel) throws IOException {
+        final long tail = Pipe.getWorkingTailPosition(pipe);
+        final long head = Pipe.headPosition(pipe);
+        final int[] slab = Pipe.slab(pipe);
+        final int mask = Pipe.slabMask(pipe);
+
+        long pos = tail;
+        long bytes = 0;
+        while (pos<head && slab[mask&(int)pos]>=0) {
+            bytes += slab[mask&(int)(pos+size-1)];
+            pos += size;
+        }
+        final int blobTail = Pipe.getWorkingBlobRingTailPosition(pipe);
+        if (pos==tail) {
+            if (pos<head) {
+                //only the EOF remains
+                Pipe.releaseRun(pipe, pos+Pipe.EOF_SIZE, 0);
+                return -1;
+            }
+            return 0;
+        }
+
+        long written = 0;
+        int length = (int)bytes - partial;
+        if (length>0) {
+            wrap(blobTail+partial, length);
+            written = channel.write(buffers);
+        }
+
+        //release each fragment which has been completely written
+        long accepted = partial + written;
+        long releasePos = tail;
+        int released = 0;
+        while (releasePos<pos) {
+            int fragmentBytes = slab[mask&(int)(releasePos+size-1)];
+            if (released+fragmentBytes > accepted) {
+                break;
+            }
+            released += fragmentBytes;
+            releasePos += size;
+        }
+        partial = (int)(accepted - released);
+        if (releasePos>tail) {
+            Pipe.releaseRun(pipe, releasePos, released);
+        }
+        return written;
+    }
+
+    private void wrap(int position, int length) {
+        int blobMask = Pipe.blobMask(pipe);
+        int start = blobMask&position;
+        int end = start+length;
+
+        ByteBuffer a = buffers[0];
+        a.clear();
+        a.position(start);
+        a.limit(Math.min(end, blobMask+1));
+
+        ByteBuffer b = buffers[1];
+        b.clear();
+        b.limit(Math.max(0, end-(blobMask+1)));
+    }
+
+}
@@ -0,0 +1,300 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Merges N input pipes into one output in the order of a key field such as a timestamp or sequence number, the
+ * counterpart of {@link PipePartitioner} for bringing partitioned results back together.
+ *
+ * The key is the int or long field of the given name or id, each input must write it in ascending order.  Messages
+ * without that field keep the key of the message before them on the same input.  The inputs with content are kept on
+ * a primitive min-heap by the key of their next message and runs of messages from the top input are moved with
+ * {@link Pipe#moveMessages(Pipe, Pipe, int)}, nothing is allocated after construction.
+ *
+ * An empty input holds the output back while its next key could still be smaller than the one waiting to go.  So
+ * that one quiet input can not stall the rest it may declare a watermark with {@link #watermark(PipeMerger, int, long)},
+ * a promise that no key below it will follow, and once an input has been empty longer than the idle timeout it is
+ * passed over.  Messages arriving on a passed over input with a key already behind the output are sent when seen
+ * and counted by {@link #late(PipeMerger)}.
+ *
+ * The output gets an EOF once every input has sent one.
+ */
+public class PipeMerger<T extends MessageSchema> {
+
+    private final FieldReferenceOffsetManager from;
+    private final int[] keyOffset; //slab offset of the key in each message, by msgIdx, zero when absent
+    private final boolean[] keyIsLong;
+    private final Pipe<T>[] inputs;
+    private final Pipe<T> output;
+    private final long idleTimeoutNS;
+
+    private final int[] heap;
+    private int heapSize;
+    private final long[] nextKey;
+    private final long[] watermark;
+    private final long[] idleSince;
+    private final boolean[] queued;
+    private final boolean[] finished;
+    private int finishedCount;
+    private boolean eofSent;
+    private long emitted = Long.MIN_VALUE;
+    private long late;
+
+    /**
+     * @param idleTimeoutNS nanoseconds an empty input may hold back the output, Long.MAX_VALUE to wait for watermarks only
+     */
+    public PipeMerger(T schema, String fieldName, Pipe<T>[] inputs, Pipe<T> output, long idleTimeoutNS) {
+        this(schema, fieldName, 0, inputs, output, idleTimeoutNS);
+    }
+
+    public PipeMerger(T schema, long fieldId, Pipe<T>[] inputs, Pipe<T> output, long idleTimeoutNS) {
+        this(schema, null, fieldId, inputs, output, idleTimeoutNS);
+    }
+
+    private PipeMerger(T schema, String fieldName, long fieldId, Pipe<T>[] inputs, Pipe<T> output, long idleTimeoutNS) {
+        this.from = MessageSchema.from(schema);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Merging");
+        if (inputs.length<1) {
+            throw new UnsupportedOperationException("At least one input is required");
+        }
+        this.keyOffset = new int[from.fragDataSize.length];
+        this.keyIsLong = new boolean[from.fragDataSize.length];
+        boolean found = false;
+        for (int msgIdx : from.messageStarts) {
+            int loc;
+            try {
+                loc = null==fieldName ? FieldReferenceOffsetManager.lookupFieldLocator(fieldId, msgIdx, from)
+                                      : FieldReferenceOffsetManager.lookupFieldLocator(fieldName, msgIdx, from);
+            } catch (UnsupportedOperationException e) {
+                continue; //this message has no key
+            }
+            int type = FieldReferenceOffsetManager.extractTypeFromLoc(loc);
+            if (type>=TypeMask.TextASCII) {
+                throw new UnsupportedOperationException("Key must be an int or long field but found "+TypeMask.toString(type));
+            }
+            keyOffset[msgIdx] = PipeReader.OFF_MASK&loc;
+            keyIsLong[msgIdx] = type>=TypeMask.LongUnsigned;
+            found = true;
+        }
+        if (!found) {
+            throw new UnsupportedOperationException("No message has the key field "+(null==fieldName ? fieldId : fieldName));
+        }
+        for (Pipe<T> input : inputs) {
+            assert(Pipe.from(input) == from) : "Schemas must match";
+        }
+        assert(Pipe.from(output) == from) : "Schemas must match";
+
+        this.inputs = inputs;
+        this.output = output;
+        this.idleTimeoutNS = idleTimeoutNS;
+        this.heap = new int[inputs.length];
+        this.nextKey = new long[inputs.length];
+        this.watermark = new long[inputs.length];
+        this.idleSince = new long[inputs.length];
+        this.queued = new boolean[inputs.length];
+        this.finished = new boolean[inputs.length];
+        Arrays.fill(watermark, Long.MIN_VALUE);
+    }
+
+    /**
+     * Promise that the input will not send any key below this one, lets the output move on while the input is quiet.
+     * Must be called by the merging thread.
+     */
+    public static <S extends MessageSchema> void watermark(PipeMerger<S> merger, int input, long key) {
+        merger.watermark[input] = Math.max(merger.watermark[input], key);
+    }
+
+    /**
+     * @return count of messages sent with a key behind one already sent because their input had been passed over
+     */
+    public static <S extends MessageSchema> long late(PipeMerger<S> merger) {
+        return merger.late;
+    }
+
+    /**
+     * Moves every message which can be sent in key order to the output.
+     * Must only be called by the one thread consuming all the inputs which is also the one producing the output.
+     *
+     * @return count of messages moved
+     */
+    public static <S extends MessageSchema> int merge(PipeMerger<S> merger) {
+        final Pipe<S>[] inputs = merger.inputs;
+        long now = 0;
+        int moved = 0;
+        int i = inputs.length;
+        while (--i>=0) {
+            load(merger, i);
+        }
+
+        while (merger.heapSize>0) {
+            final int top = merger.heap[0];
+            final long key = merger.nextKey[top];
+
+            //the run from the top input may go up to the next key on the heap or the watermark of a quiet input
+            long limit = Long.MAX_VALUE;
+            if (merger.heapSize>1) {
+                limit = merger.nextKey[merger.heap[1]];
+                if (merger.heapSize>2) {
+                    limit = Math.min(limit, merger.nextKey[merger.heap[2]]);
+                }
+            }
+            boolean changed = false;
+            i = inputs.length;
+            while (--i>=0) {
+                if (merger.queued[i] || merger.finished[i]) {
+                    continue;
+                }
+                if (load(merger, i)) {
+                    changed = true; //the heap has changed, look again
+                    break;
+                }
+                if (merger.watermark[i]<key) {
+                    if (0==now) {
+                        now = System.nanoTime();
+                    }
+                    if (0==merger.idleSince[i]) {
+                        merger.idleSince[i] = now;
+                    }
+                    if (now-merger.idleSince[i] <= merger.idleTimeoutNS) {
+                        return finish(merger, moved);
+                    }
+                } else {
+                    limit = Math.min(limit, merger.watermark[i]);
+                }
+            }
+            if (changed) {
+                continue;
+            }
+
+            final Pipe<S> input = inputs[top];
+            final int run = countRun(merger, input, top, limit);
+            if (0==run) {
+                return finish(merger, moved); //output is full
+            }
+            moved += Pipe.moveMessages(input, merger.output, run);
+
+            //take the next key of the top input or drop it from the heap
+            removeTop(merger);
+            load(merger, top);
+        }
+        return finish(merger, moved);
+    }
+
+    private static <S extends MessageSchema> int finish(PipeMerger<S> merger, int moved) {
+        if (merger.finishedCount==merger.inputs.length && !merger.eofSent && Pipe.hasRoomForWrite(merger.output, Pipe.EOF_SIZE)) {
+            Pipe.publishEOF(merger.output);
+            merger.eofSent = true;
+        }
+        return moved;
+    }
+
+    //counts the messages from the tail which are not past the limit and fit in the output, the first is counted if it fits
+    private static <S extends MessageSchema> int countRun(PipeMerger<S> merger, Pipe<S> input, int i, long limit) {
+        final Pipe<S> output = merger.output;
+        final long slabRoom = output.sizeOfSlabRing - (Pipe.workingHeadPosition(output)-Pipe.tailPosition(output));
+        final int blobRoom = output.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(output)-Pipe.getBlobTailPosition(output)));
+        final int[] slab = Pipe.slab(input);
+        final int mask = Pipe.slabMask(input);
+        final int[] fragDataSize = merger.from.fragDataSize;
+        final long head = Pipe.headPosition(input);
+        final long tail = Pipe.getWorkingTailPosition(input);
+        long pos = tail;
+        int blobLength = 0;
+        int run = 0;
+        do {
+            long key = keyAt(merger, slab, mask, pos, merger.watermark[i]);
+            int size = fragDataSize[slab[mask&(int)pos]];
+            blobLength += slab[mask&(int)(pos+size-1)];
+            if ((run>0 && key>limit) || (pos+size-tail)>slabRoom || blobLength>blobRoom) {
+                break;
+            }
+            if (key<merger.emitted) {
+                merger.late++;
+            } else {
+                merger.emitted = key;
+            }
+            merger.watermark[i] = Math.max(merger.watermark[i], key);
+            pos += size;
+            run++;
+        } while (pos<head && slab[mask&(int)pos]>=0);
+        return run;
+    }
+
+    //puts the input on the heap if it has a message, consumes its EOF if it has ended
+    private static <S extends MessageSchema> boolean load(PipeMerger<S> merger, int i) {
+        final Pipe<S> input = merger.inputs[i];
+        if (merger.queued[i] || merger.finished[i] || !Pipe.hasContentToRead(input)) {
+            return false;
+        }
+        final int[] slab = Pipe.slab(input);
+        final int mask = Pipe.slabMask(input);
+        final long pos = Pipe.getWorkingTailPosition(input);
+        if (slab[mask&(int)pos]<0) {
+            Pipe.takeMsgIdx(input);
+            Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+            Pipe.releaseReadLock(input);
+            merger.finished[i] = true;
+            merger.finishedCount++;
+            return false;
+        }
+        merger.nextKey[i] = keyAt(merger, slab, mask, pos, merger.watermark[i]);
+        merger.idleSince[i] = 0;
+        merger.queued[i] = true;
+        siftUp(merger, merger.heapSize++, i);
+        return true;
+    }
+
+    private static <S extends MessageSchema> long keyAt(PipeMerger<S> merger, int[] slab, int mask, long pos, long previous) {
+        final int msgIdx = slab[mask&(int)pos];
+        final int offset = merger.keyOffset[msgIdx];
+        if (0==offset) {
+            return previous;
+        }
+        return merger.keyIsLong[msgIdx] ? Pipe.readLong(slab, mask, pos+offset) : Pipe.readInt(slab, mask, pos+offset);
+    }
+
+    private static <S extends MessageSchema> void siftUp(PipeMerger<S> merger, int slot, int input) {
+        final int[] heap = merger.heap;
+        final long key = merger.nextKey[input];
+        while (slot>0) {
+            int parent = (slot-1)>>1;
+            if (merger.nextKey[heap[parent]]<=key) {
+                break;
+            }
+            heap[slot] = heap[parent];
+            slot = parent;
+        }
+        heap[slot] = input;
+    }
+
+    private static <S extends MessageSchema> void removeTop(PipeMerger<S> merger) {
+        final int[] heap = merger.heap;
+        merger.queued[heap[0]] = false;
+        final int size = --merger.heapSize;
+        if (0==size) {
+            return;
+        }
+        final int input = heap[size];
+        final long key = merger.nextKey[input];
+        int slot = 0;
+        int child;
+        while ((child = (slot<<1)+1) < size) {
+            if (child+1<size && merger.nextKey[heap[child+1]]<merger.nextKey[heap[child]]) {
+                child++;
+            }
+            if (key<=merger.nextKey[heap[child]]) {
+                break;
+            }
+            heap[slot] = heap[child];
+            slot = child;
+        }
+        heap[slot] = input;
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+import com.ociweb.pronghorn.pipe.util.hash.MurmurHash;
+
+/**
+ * Routes each message of an input pipe to one of N output pipes by the hash of a key field so keyed work can be
+ * spread across stages while every message of the same key stays in order on the same output.
+ *
+ * The key is the field of the given name or id in each message, it may be an int, long or var-length text/bytes
+ * field.  Messages without that field are all sent to the first output.  Runs of messages bound for the same output
+ * are moved together with {@link Pipe#moveMessages(Pipe, Pipe, int)} so nothing is decoded beyond the key.  When an
+ * output is full routing stops there, messages are never reordered to get around it.
+ *
+ * Outputs are chosen with jump consistent hashing so when {@link #rebalance(PipePartitioner, Pipe[])} changes
+ * N to N+1 only one key in N+1 moves to another output.  Messages of a moved key already on the old output are not
+ * recalled, if order across the change matters the old outputs must be drained before rebalancing.
+ */
+public class PipePartitioner<T extends MessageSchema> {
+
+    private static final int SEED = 0x3C6EF372;
+
+    private final FieldReferenceOffsetManager from;
+    private final int[] keyOffset; //slab offset of the key in each message, by msgIdx, zero when absent
+    private final int[] keyType;
+    private Pipe<T>[] outputs;
+
+    public PipePartitioner(T schema, String fieldName, Pipe<T>[] outputs) {
+        this(schema, fieldName, 0, outputs);
+    }
+
+    public PipePartitioner(T schema, long fieldId, Pipe<T>[] outputs) {
+        this(schema, null, fieldId, outputs);
+    }
+
+    private PipePartitioner(T schema, String fieldName, long fieldId, Pipe<T>[] outputs) {
+        this.from = MessageSchema.from(schema);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Partitioning");
+        this.keyOffset = new int[from.fragDataSize.length];
+        this.keyType = new int[from.fragDataSize.length];
+        boolean found = false;
+        for (int msgIdx : from.messageStarts) {
+            int loc;
+            try {
+                loc = null==fieldName ? FieldReferenceOffsetManager.lookupFieldLocator(fieldId, msgIdx, from)
+                                      : FieldReferenceOffsetManager.lookupFieldLocator(fieldName, msgIdx, from);
+            } catch (UnsupportedOperationException e) {
+                continue; //this message has no key
+            }
+            int type = FieldReferenceOffsetManager.extractTypeFromLoc(loc);
+            if (type>=TypeMask.Decimal && type!=TypeMask.ByteVector && type!=TypeMask.ByteVectorOptional) {
+                throw new UnsupportedOperationException("Key must be an int, long, text or byte vector field but found "+TypeMask.toString(type));
+            }
+            keyOffset[msgIdx] = PipeReader.OFF_MASK&loc;
+            keyType[msgIdx] = type;
+            found = true;
+        }
+        if (!found) {
+            throw new UnsupportedOperationException("No message has the key field "+(null==fieldName ? fieldId : fieldName));
+        }
+        rebalance(this, outputs);
+    }
+
+    /**
+     * Changes the outputs, keys keep their output where N allows.  Must be called by the routing thread.
+     */
+    public static <S extends MessageSchema> void rebalance(PipePartitioner<S> partitioner, Pipe<S>[] outputs) {
+        if (outputs.length<1) {
+            throw new UnsupportedOperationException("At least one output is required");
+        }
+        for (Pipe<S> output : outputs) {
+            assert(Pipe.from(output) == partitioner.from) : "Schemas must match";
+        }
+        partitioner.outputs = outputs;
+    }
+
+    /**
+     * Moves every complete message it can from the input to its output.
+     * Must only be called by the one thread consuming the input which is also the one producing all the outputs.
+     *
+     * @return count of messages moved
+     */
+    public static <S extends MessageSchema> int route(Pipe<S> input, PipePartitioner<S> partitioner) {
+        assert(Pipe.from(input) == partitioner.from) : "Schemas must match";
+        final Pipe<S>[] outputs = partitioner.outputs;
+        final int[] slab = Pipe.slab(input);
+        final int mask = Pipe.slabMask(input);
+        final int[] fragDataSize = partitioner.from.fragDataSize;
+
+        int moved = 0;
+        while (true) {
+            long pos = Pipe.getWorkingTailPosition(input);
+            final long head = Pipe.headPosition(input);
+            if (pos>=head) {
+                return moved;
+            }
+            if (slab[mask&(int)pos]<0) {
+                return moved + (routeEOF(input, outputs) ? 1 : 0);
+            }
+
+            //find the run of messages bound for the same output
+            int blobBase = Pipe.getWorkingBlobRingTailPosition(input);
+            final int output = bucket(keyHash(input, partitioner, pos, blobBase), outputs.length);
+            int run = 0;
+            do {
+                int size = fragDataSize[slab[mask&(int)pos]];
+                blobBase += slab[mask&(int)(pos+size-1)];
+                pos += size;
+                run++;
+            } while (pos<head && slab[mask&(int)pos]>=0 && output==bucket(keyHash(input, partitioner, pos, blobBase), outputs.length));
+
+            int count = Pipe.moveMessages(input, outputs[output], run);
+            moved += count;
+            if (count<run) {
+                return moved;
+            }
+        }
+    }
+
+    //every output gets its own EOF once they all have room for it
+    private static <S extends MessageSchema> boolean routeEOF(Pipe<S> input, Pipe<S>[] outputs) {
+        int i = outputs.length;
+        while (--i>=0) {
+            if (!Pipe.hasRoomForWrite(outputs[i], Pipe.EOF_SIZE)) {
+                return false;
+            }
+        }
+        i = outputs.length;
+        while (--i>0) {
+            Pipe.publishEOF(outputs[i]);
+        }
+        return 1==Pipe.moveMessages(input, outputs[0], 1);
+    }
+
+    private static <S extends MessageSchema> int keyHash(Pipe<S> input, PipePartitioner<S> partitioner, long pos, int blobBase) {
+        final int[] slab = Pipe.slab(input);
+        final int mask = Pipe.slabMask(input);
+        final int msgIdx = slab[mask&(int)pos];
+        final int offset = partitioner.keyOffset[msgIdx];
+        if (0==offset) {
+            return 0;
+        }
+        final int type = partitioner.keyType[msgIdx];
+        if (type<TypeMask.LongUnsigned) {
+            return MurmurHash.hash32finalizer(slab[mask&(int)(pos+offset)]);
+        } else if (type<TypeMask.TextASCII) {
+            return MurmurHash.hash32(slab[mask&(int)(pos+offset)], slab[mask&(int)(pos+offset+1)], SEED);
+        } else {
+            final int meta = slab[mask&(int)(pos+offset)];
+            final int len = slab[mask&(int)(pos+offset+1)];
+            if (len<=0) {
+                return 0;
+            }
+            final byte[] backing = Pipe.byteBackingArray(meta, input);
+            if (meta<0) {
+                return MurmurHash.hash32(backing, PipeReader.POS_CONST_MASK&meta, len, SEED);
+            }
+            final int blobPos = Pipe.isBlobReference(meta) ? Pipe.REFERENCE_POS_MASK&meta : blobBase+meta;
+            return MurmurHash.hash32(backing, blobPos, len, backing.length-1, SEED);
+        }
+    }
+
+    /**
+     * Jump consistent hash, maps the hash to one of the buckets and when the buckets grow from N to N+1 only one hash
+     * in N+1 changes bucket.  Nothing is allocated.
+     */
+    public static int bucket(int hash, int buckets) {
+        long key = hash;
+        long b = -1;
+        long j = 0;
+        while (j<buckets) {
+            b = j;
+            key = key*2862933555777941757L + 1;
+            j = (long)((b+1) * ((double)(1L<<31) / (double)((key>>>33)+1)));
+        }
+        return (int)b;
+    }
+
+}
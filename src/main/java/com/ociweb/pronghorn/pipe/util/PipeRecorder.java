@@ -0,0 +1,149 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Records the fragments passing through a pipe along with their inter-arrival times so real traffic can be fed
+ * back into a graph by {@link PipeReplayer} when comparing releases.
+ *
+ * The recorder is a tap, {@link #record(Pipe, PipeRecorder, Pipe)} moves every complete fragment which fits from
+ * the source to the target and writes each one to the file on the way.  To record a pipe without moving its
+ * consumer use one of the views from {@link Pipe#broadcast(Pipe, int)} as the source with no target.
+ *
+ * The file starts with the FROM GUID of the schema so it can only be replayed into the same schema.  Each fragment
+ * is written as the nanoseconds since the previous fragment followed by its slab ints, all as packed variable length
+ * values, then its blob bytes.  The blob length is not written as it is always the trailing int of the slab.
+ */
+public class PipeRecorder<T extends MessageSchema> {
+
+    static final int MAGIC = 0x50524543; //PREC
+    static final int VERSION = 1;
+
+    private final FieldReferenceOffsetManager from;
+    private final DataOutputStream out;
+    private long lastArrival;
+    private long fragments;
+
+    public PipeRecorder(File file, T schema) throws IOException {
+        this.from = MessageSchema.from(schema);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(from, "Recording");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (int g : from.cloneGUID()) {
+            out.writeInt(g);
+        }
+    }
+
+    /**
+     * Records every complete fragment published on the source pipe which fits in the target and moves it there.
+     * Must only be called by the one thread consuming the source pipe.
+     *
+     * @param target optional pipe to forward to, may be null
+     * @return count of fragments recorded
+     */
+    public static <S extends MessageSchema> int record(Pipe<S> source, PipeRecorder<S> recorder, Pipe<S> target) throws IOException {
+        assert(Pipe.from(source) == recorder.from) : "Schemas must match";
+
+        final long tail = Pipe.getWorkingTailPosition(source);
+        final long head = Pipe.headPosition(source);
+        if (head<=tail) {
+            return 0;
+        }
+        long slabRoom = Long.MAX_VALUE;
+        int blobRoom = Integer.MAX_VALUE;
+        if (null!=target) {
+            slabRoom = target.sizeOfSlabRing - (Pipe.workingHeadPosition(target)-Pipe.tailPosition(target));
+            blobRoom = target.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(target)-Pipe.getBlobTailPosition(target)));
+        }
+
+        final int[] slab = Pipe.slab(source);
+        final int mask = Pipe.slabMask(source);
+        final byte[] blob = Pipe.blob(source);
+        final int blobMask = Pipe.blobMask(source);
+        final int[] fragDataSize = recorder.from.fragDataSize;
+        final int blobTail = Pipe.getWorkingBlobRingTailPosition(source);
+        final DataOutputStream out = recorder.out;
+
+        //every fragment seen by this call arrived at the same time
+        final long now = System.nanoTime();
+        long delta = 0==recorder.fragments ? 0 : now-recorder.lastArrival;
+
+        long pos = tail;
+        int blobLength = 0;
+        int count = 0;
+        while (pos<head) {
+            int idx = slab[mask&(int)pos];
+            int size = idx<0 ? Pipe.EOF_SIZE : fragDataSize[idx];
+            int bytes = slab[mask&(int)(pos+size-1)];
+            if ((pos+size-tail)>slabRoom || (blobLength+bytes)>blobRoom) {
+                break;
+            }
+
+            writePackedLong(out, delta);
+            delta = 0;
+            int i = 0;
+            while (i<size) {
+                writePackedInt(out, slab[mask&(int)(pos+i++)]);
+            }
+            int s = blobMask&(blobTail+blobLength);
+            int chunk = Math.min(bytes, blobMask+1-s);
+            out.write(blob, s, chunk);
+            if (chunk<bytes) {
+                out.write(blob, 0, bytes-chunk);
+            }
+
+            pos += size;
+            blobLength += bytes;
+            count++;
+        }
+        if (0==count) {
+            return 0;
+        }
+        recorder.fragments += count;
+        recorder.lastArrival = now;
+
+        final int slabLength = (int)(pos-tail);
+        if (null!=target) {
+            Pipe.copyIntsFromToRing(slab, (int)tail, mask, Pipe.slab(target), (int)Pipe.workingHeadPosition(target), Pipe.slabMask(target), slabLength);
+            Pipe.copyBytesFromToRing(blob, blobTail, blobMask, Pipe.blob(target), Pipe.getWorkingBlobHeadPosition(target), Pipe.blobMask(target), blobLength);
+            Pipe.publishRun(target, slabLength, blobLength);
+        }
+        Pipe.releaseRun(source, pos, blobLength);
+
+        return count;
+    }
+
+    /**
+     * Total fragments recorded.
+     */
+    public static <S extends MessageSchema> long fragments(PipeRecorder<S> recorder) {
+        return recorder.fragments;
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    //zig zag so small negative values stay small
+    static void writePackedInt(DataOutputStream out, int value) throws IOException {
+        writePackedLong(out, 0xFFFFFFFFL & ((value << 1) ^ (value >> 31)));
+    }
+
+    static void writePackedLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int)(0x80 | (value & 0x7F)));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+
+}
@@ -0,0 +1,257 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.HdrHistogram.Histogram;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Feeds a file written by {@link PipeRecorder} into a pipe so a graph can be measured against real traffic.
+ *
+ * The speed is a multiple of the recorded timing, 1 replays with the original inter-arrival times, N replays N times
+ * faster and {@link #AS_FAST_AS_POSSIBLE} ignores the timing and writes whenever there is room.
+ *
+ * Each call to {@link #replay(PipeReplayer, Pipe)} writes every fragment which is due and fits, it never blocks.
+ * When replaying on a schedule the time each fragment is written after it was due is recorded in
+ * {@link #scheduleLag(PipeReplayer)}, when the graph keeps up this stays near zero and when it applies back pressure
+ * it grows.  When the target was built with {@link com.ociweb.pronghorn.pipe.PipeConfig#traceLatency()} the time each
+ * replayed fragment waits there until the graph releases it is in {@link #latency(PipeReplayer)}, in every mode.
+ * Enable tracing on the other pipes of the graph to see where else fragments wait.  Throughput is available once the
+ * replay is done.
+ */
+public class PipeReplayer<T extends MessageSchema> {
+
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    private final FieldReferenceOffsetManager from;
+    private final DataInputStream in;
+    private final double speed;
+    private final Histogram scheduleLag = new Histogram(3);
+    private Pipe<T> target;
+
+    //the next fragment, held until it is due and there is room
+    private final int[] slab;
+    private byte[] blob = new byte[256];
+    private int slabLength;
+    private int blobLength;
+    private boolean pending;
+    private boolean done;
+
+    private long recordedOffset;
+    private long startTime;
+    private long endTime;
+    private long fragments;
+    private long bytes;
+
+    /**
+     * @param speed multiple of the recorded timing or {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public PipeReplayer(File file, T schema, double speed) throws IOException {
+        this.from = MessageSchema.from(schema);
+        this.speed = speed;
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16));
+        if (PipeRecorder.MAGIC!=in.readInt() || PipeRecorder.VERSION!=in.readInt()) {
+            in.close();
+            throw new IOException("File "+file+" is not a pipe recording");
+        }
+        int[] guid = new int[from.cloneGUID().length];
+        int i = 0;
+        while (i<guid.length) {
+            guid[i++] = in.readInt();
+        }
+        try {
+            from.validateGUID(guid);
+        } catch (UnsupportedOperationException uoe) {
+            in.close();
+            throw uoe;
+        }
+        int max = Pipe.EOF_SIZE;
+        for (int size : from.fragDataSize) {
+            max = Math.max(max, size);
+        }
+        this.slab = new int[max];
+    }
+
+    /**
+     * Writes every recorded fragment which is due and fits in the target.
+     * Must only be called by the one thread producing into the target pipe.
+     *
+     * @return count of fragments written or -1 once the whole recording has been replayed
+     */
+    public static <S extends MessageSchema> int replay(PipeReplayer<S> replayer, Pipe<S> target) throws IOException {
+        assert(Pipe.from(target) == replayer.from) : "Schemas must match";
+        if (replayer.done) {
+            return -1;
+        }
+        final long now = System.nanoTime();
+        if (0==replayer.startTime) {
+            replayer.startTime = now;
+            replayer.target = target;
+        }
+
+        final int[] targetSlab = Pipe.slab(target);
+        final int mask = Pipe.slabMask(target);
+        final byte[] targetBlob = Pipe.blob(target);
+        final int blobMask = Pipe.blobMask(target);
+        long slabRoom = target.sizeOfSlabRing - (Pipe.workingHeadPosition(target)-Pipe.tailPosition(target));
+        int blobRoom = target.sizeOfBlobRing - (Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(target)-Pipe.getBlobTailPosition(target)));
+        long head = Pipe.workingHeadPosition(target);
+        int blobHead = Pipe.getWorkingBlobHeadPosition(target);
+
+        final boolean scheduled = AS_FAST_AS_POSSIBLE!=replayer.speed;
+        int count = 0;
+        while (replayer.pending || readNext(replayer)) {
+            long due = replayer.startTime + (scheduled ? (long)(replayer.recordedOffset/replayer.speed) : 0);
+            if (due>now || replayer.slabLength>slabRoom || replayer.blobLength>blobRoom) {
+                break;
+            }
+            int i = 0;
+            while (i<replayer.slabLength) {
+                targetSlab[mask&(int)(head+i)] = replayer.slab[i++];
+            }
+            int t = blobMask&blobHead;
+            int chunk = Math.min(replayer.blobLength, blobMask+1-t);
+            System.arraycopy(replayer.blob, 0, targetBlob, t, chunk);
+            System.arraycopy(replayer.blob, chunk, targetBlob, 0, replayer.blobLength-chunk);
+
+            head += replayer.slabLength;
+            blobHead = Pipe.BYTES_WRAP_MASK&(blobHead+replayer.blobLength);
+            slabRoom -= replayer.slabLength;
+            blobRoom -= replayer.blobLength;
+            replayer.bytes += replayer.blobLength;
+            replayer.pending = false;
+            if (scheduled) {
+                replayer.scheduleLag.recordValue(now-due);
+            }
+            count++;
+        }
+
+        if (count>0) {
+            //one publish for everything written
+            int blobLength = Pipe.BYTES_WRAP_MASK&(blobHead-Pipe.getWorkingBlobHeadPosition(target));
+            int slabLength = (int)(head-Pipe.workingHeadPosition(target));
+            Pipe.publishRun(target, slabLength, blobLength);
+            replayer.fragments += count;
+        }
+        if (replayer.done) {
+            replayer.endTime = System.nanoTime();
+            replayer.in.close();
+        }
+        return count;
+    }
+
+    private static <S extends MessageSchema> boolean readNext(PipeReplayer<S> replayer) throws IOException {
+        final DataInputStream in = replayer.in;
+        long delta;
+        try {
+            delta = readPackedLong(in);
+        } catch (EOFException eof) {
+            replayer.done = true;
+            return false;
+        }
+        replayer.recordedOffset += delta;
+
+        int idx = readPackedInt(in);
+        int size = idx<0 ? Pipe.EOF_SIZE : replayer.from.fragDataSize[idx];
+        replayer.slab[0] = idx;
+        int i = 1;
+        while (i<size) {
+            replayer.slab[i++] = readPackedInt(in);
+        }
+        int length = replayer.slab[size-1];
+        if (length>replayer.blob.length) {
+            replayer.blob = new byte[Math.max(length, replayer.blob.length*2)];
+        }
+        in.readFully(replayer.blob, 0, length);
+        replayer.slabLength = size;
+        replayer.blobLength = length;
+        replayer.pending = true;
+        return true;
+    }
+
+    /**
+     * Nanoseconds each fragment was written after it was due, empty when replaying {@link #AS_FAST_AS_POSSIBLE}.
+     */
+    public static <S extends MessageSchema> Histogram scheduleLag(PipeReplayer<S> replayer) {
+        return replayer.scheduleLag;
+    }
+
+    /**
+     * Nanoseconds each replayed fragment waited in the target before it was released, or null when the target was
+     * not built with {@link com.ociweb.pronghorn.pipe.PipeConfig#traceLatency()} or nothing has been replayed yet.
+     * Written by the consuming thread, read it once the replay is done.
+     */
+    public static <S extends MessageSchema> Histogram latency(PipeReplayer<S> replayer) {
+        return null==replayer.target ? null : Pipe.latencyHistogram(replayer.target);
+    }
+
+    public static <S extends MessageSchema> long fragments(PipeReplayer<S> replayer) {
+        return replayer.fragments;
+    }
+
+    public static <S extends MessageSchema> long bytes(PipeReplayer<S> replayer) {
+        return replayer.bytes;
+    }
+
+    /**
+     * Nanoseconds from the first call until the whole recording was replayed, or until now while still running.
+     */
+    public static <S extends MessageSchema> long elapsedNS(PipeReplayer<S> replayer) {
+        return (replayer.done ? replayer.endTime : System.nanoTime()) - replayer.startTime;
+    }
+
+    /**
+     * Nanoseconds between the first and the last fragment as recorded.
+     */
+    public static <S extends MessageSchema> long recordedNS(PipeReplayer<S> replayer) {
+        return replayer.recordedOffset;
+    }
+
+    public static <S extends MessageSchema> long fragmentsPerSecond(PipeReplayer<S> replayer) {
+        long elapsed = elapsedNS(replayer);
+        return elapsed<=0 ? 0 : (1_000_000_000L*replayer.fragments)/elapsed;
+    }
+
+    public static <S extends MessageSchema> long bytesPerSecond(PipeReplayer<S> replayer) {
+        long elapsed = elapsedNS(replayer);
+        return elapsed<=0 ? 0 : (1_000_000_000L*replayer.bytes)/elapsed;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    static int readPackedInt(DataInputStream in) throws IOException {
+        int zigZag = (int)readPackedLong(in);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    static long readPackedLong(DataInputStream in) throws IOException {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            result |= ((long)(b & 0x7F)) << shift;
+            shift += 7;
+        } while (0!=(b & 0x80));
+        return result;
+    }
+
+    public String toString() {
+        Histogram latency = latency(this);
+        return "PipeReplayer fragments:"+fragments+" bytes:"+bytes+" elapsed:"+elapsedNS(this)/1_000_000+"ms"+
+               " rate:"+fragmentsPerSecond(this)+"msg/s "+bytesPerSecond(this)+"B/s"+
+               " lag max:"+scheduleLag.getMaxValue()/1000+"us"+
+               (null==latency ? "" : " latency p50:"+latency.getValueAtPercentile(50)/1000+"us p99:"+latency.getValueAtPercentile(99)/1000+"us");
+    }
+
+}
@@ -0,0 +1,293 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Runs many {@link PipeStage}s on a fixed set of threads.  A stage is only run when one of its inputs has content and
+ * all of its outputs have room, checked with the low-level {@link Pipe#hasContentToRead(Pipe)} and
+ * {@link Pipe#hasRoomForWrite(Pipe)}, so stages should use the low-level API.  When an input has a consumer regulator
+ * or an output has a producer regulator the stage is held back for the delay those regulators ask for.
+ *
+ * Each stage belongs to one thread which walks its own stages in turn.  A thread with nothing to do steals a single
+ * run of a ready stage from the other threads, the stage still belongs to its thread afterwards.  In pinned mode
+ * nothing is stolen and each stage is placed on the thread of a stage it shares a pipe with while that thread has
+ * less than its share, so producer and consumer pairs keep their rings hot in the same cache.
+ *
+ * A stage which throws is logged and terminated.  The scheduler ends once every stage is terminated or on
+ * {@link #shutdown(PipeScheduler)}, then {@link PipeStage#shutdown()} is called on each stage.
+ */
+public class PipeScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipeScheduler.class);
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final long MAX_PARK_NS = 100_000;
+
+    private final int threadCount;
+    private final boolean pinned;
+    private final List<PipeStage> stages = new ArrayList<PipeStage>();
+    private final AtomicInteger live = new AtomicInteger();
+    private PipeStage[][] owned;
+    private Thread[] threads;
+    private volatile boolean shutdown;
+
+    /**
+     * @param threads fixed count of threads to run the stages on
+     * @param pinned true to place connected stages on the same thread and never move them
+     */
+    public PipeScheduler(int threads, boolean pinned) {
+        if (threads<1) {
+            throw new UnsupportedOperationException("At least one thread is required");
+        }
+        this.threadCount = threads;
+        this.pinned = pinned;
+    }
+
+    public static void add(PipeScheduler scheduler, PipeStage stage) {
+        if (null!=scheduler.threads) {
+            throw new UnsupportedOperationException("Stages must be added before the scheduler is started");
+        }
+        scheduler.stages.add(stage);
+    }
+
+    public static void start(PipeScheduler scheduler) {
+        if (null!=scheduler.threads) {
+            throw new UnsupportedOperationException("Scheduler is already started");
+        }
+        scheduler.owned = place(scheduler);
+        scheduler.live.set(scheduler.stages.size());
+        scheduler.threads = new Thread[scheduler.threadCount];
+        int i = scheduler.threadCount;
+        while (--i>=0) {
+            final int worker = i;
+            final PipeScheduler s = scheduler;
+            scheduler.threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work(s, worker);
+                }
+            }, "PipeScheduler-"+i);
+            scheduler.threads[i].start();
+        }
+    }
+
+    /**
+     * Stops the threads once the stages running now return.
+     */
+    public static void shutdown(PipeScheduler scheduler) {
+        scheduler.shutdown = true;
+    }
+
+    /**
+     * Waits for every thread to end, either because all the stages were terminated or the scheduler was shut down.
+     *
+     * @return true if all the threads ended in time
+     */
+    public static boolean awaitTermination(PipeScheduler scheduler, long timeout, TimeUnit unit) throws InterruptedException {
+        final long end = System.nanoTime()+unit.toNanos(timeout);
+        for (Thread thread : scheduler.threads) {
+            long remaining = end-System.nanoTime();
+            if (remaining>0) {
+                TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+            }
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the thread this stage belongs to, only known once started
+     */
+    public static int threadOf(PipeScheduler scheduler, PipeStage stage) {
+        int t = scheduler.owned.length;
+        while (--t>=0) {
+            for (PipeStage s : scheduler.owned[t]) {
+                if (s==stage) {
+                    return t;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static PipeStage[][] place(PipeScheduler scheduler) {
+        final int count = scheduler.stages.size();
+        final int share = (count+scheduler.threadCount-1)/scheduler.threadCount;
+        final int[] threadOfStage = new int[count];
+        final int[] load = new int[scheduler.threadCount];
+        int i = 0;
+        while (i<count) {
+            int thread = -1;
+            if (scheduler.pinned) {
+                int j = i;
+                while (--j>=0 && thread<0) {
+                    if (load[threadOfStage[j]]<share && connected(scheduler.stages.get(i), scheduler.stages.get(j))) {
+                        thread = threadOfStage[j];
+                    }
+                }
+            }
+            if (thread<0) {
+                thread = 0;
+                int t = scheduler.threadCount;
+                while (--t>0) {
+                    if (load[t]<load[thread]) {
+                        thread = t;
+                    }
+                }
+            }
+            threadOfStage[i] = thread;
+            load[thread]++;
+            i++;
+        }
+
+        PipeStage[][] owned = new PipeStage[scheduler.threadCount][];
+        int t = scheduler.threadCount;
+        while (--t>=0) {
+            owned[t] = new PipeStage[load[t]];
+        }
+        i = count;
+        while (--i>=0) {
+            owned[threadOfStage[i]][--load[threadOfStage[i]]] = scheduler.stages.get(i);
+        }
+        return owned;
+    }
+
+    private static boolean connected(PipeStage a, PipeStage b) {
+        return shares(a.inputs, b.outputs) || shares(a.outputs, b.inputs);
+    }
+
+    private static boolean shares(Pipe<?>[] a, Pipe<?>[] b) {
+        for (Pipe<?> x : a) {
+            for (Pipe<?> y : b) {
+                if (x==y) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void work(PipeScheduler scheduler, int worker) {
+        final PipeStage[] mine = scheduler.owned[worker];
+        int idle = 0;
+        while (!scheduler.shutdown && scheduler.live.get()>0) {
+            boolean worked = false;
+            for (PipeStage stage : mine) {
+                worked |= tryRun(scheduler, stage);
+            }
+            if (!worked && !scheduler.pinned) {
+                worked = steal(scheduler, worker);
+            }
+            if (worked) {
+                idle = 0;
+            } else if (++idle<SPINS_BEFORE_PARK) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(MAX_PARK_NS, 1L<<Math.min(20, idle-SPINS_BEFORE_PARK)));
+            }
+        }
+        for (PipeStage stage : mine) {
+            //wait for a thread which stole this stage to finish with it, it is never released
+            while (!stage.running.compareAndSet(false, true)) {
+                Thread.yield();
+            }
+            try {
+                stage.shutdown();
+            } catch (Throwable t) {
+                logger.warn("Stage {} failed to shut down", stage, t);
+            }
+        }
+    }
+
+    private static boolean steal(PipeScheduler scheduler, int worker) {
+        int t = scheduler.threadCount;
+        while (--t>0) {
+            for (PipeStage stage : scheduler.owned[(worker+t)%scheduler.threadCount]) {
+                if (tryRun(scheduler, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean tryRun(PipeScheduler scheduler, PipeStage stage) {
+        if (stage.terminated || !stage.running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            //another thread may have run this stage to its end between the check above and taking it
+            if (stage.terminated || !isReady(stage)) {
+                return false;
+            }
+            try {
+                stage.run();
+            } catch (Throwable t) {
+                logger.error("Stage {} failed and will not be run again", stage, t);
+                stage.terminated = true;
+            }
+            //only the thread holding the stage sees it change to terminated so this happens once
+            if (stage.terminated) {
+                scheduler.live.decrementAndGet();
+            }
+            return true;
+        } finally {
+            stage.running.set(false);
+        }
+    }
+
+    //only called by the thread holding the stage
+    private static boolean isReady(PipeStage stage) {
+        if (0!=stage.nextRunTime && stage.nextRunTime-System.nanoTime()>0) {
+            return false;
+        }
+        boolean content = 0==stage.inputs.length;
+        for (Pipe<?> input : stage.inputs) {
+            if (Pipe.hasContentToRead(input)) {
+                content = true;
+                break;
+            }
+        }
+        if (!content) {
+            return false;
+        }
+        for (Pipe<?> output : stage.outputs) {
+            if (!Pipe.hasRoomForWrite(output)) {
+                return false;
+            }
+        }
+        long delay = rateLimitDelay(stage);
+        if (delay>0) {
+            stage.nextRunTime = System.nanoTime()+delay;
+            return false;
+        }
+        stage.nextRunTime = 0;
+        return true;
+    }
+
+    private static long rateLimitDelay(PipeStage stage) {
+        long delay = 0;
+        for (Pipe<?> input : stage.inputs) {
+            if (Pipe.isRateLimitedConsumer(input)) {
+                delay = Math.max(delay, Pipe.computeRateLimitConsumerDelay(input));
+            }
+        }
+        for (Pipe<?> output : stage.outputs) {
+            if (Pipe.isRateLimitedProducer(output)) {
+                delay = Math.max(delay, Pipe.computeRateLimitProducerDelay(output));
+            }
+        }
+        return delay;
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Unit of work run by {@link PipeScheduler}.  Each call to {@link #run()} should do the work which is ready and
+ * return instead of blocking, the scheduler only calls it again once an input has content and every output has room.
+ *
+ * A stage is never run by two threads at once but it may be run by a different thread each time, so it must not
+ * depend on thread locals.  Stages with no inputs are sources and run whenever their outputs have room, stages with
+ * no outputs are sinks.
+ */
+public abstract class PipeStage {
+
+    final Pipe<?>[] inputs;
+    final Pipe<?>[] outputs;
+
+    final AtomicBoolean running = new AtomicBoolean();
+    volatile boolean terminated;
+    long nextRunTime; //only used by the thread holding running
+
+    protected PipeStage(Pipe<?>[] inputs, Pipe<?>[] outputs) {
+        this.inputs = inputs;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Moves the messages which are ready and returns.
+     */
+    public abstract void run();
+
+    /**
+     * Called once when the scheduler stops, after the last call to {@link #run()}.
+     */
+    public void shutdown() {
+    }
+
+    /**
+     * Stops this stage from being run again, must be called from {@link #run()}, typically once every input has sent
+     * its EOF.  The scheduler ends once all of its stages are terminated.
+     */
+    public static void terminate(PipeStage stage) {
+        stage.terminated = true;
+    }
+
+}
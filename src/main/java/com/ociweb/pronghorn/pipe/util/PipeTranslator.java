@@ -0,0 +1,310 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.token.OperatorMask;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Translates messages written with one version of a schema into the layout of another version so a newer producer
+ * can feed an older consumer, or the reverse, during a rolling upgrade.
+ *
+ * Messages are matched by template id and fields by field id, so field ids must be unique within each message.
+ * Fields only found in the input are dropped, fields only found in the output get the default from the int and
+ * long dictionaries of the output schema, or absent when optional with no default.  Messages the output schema does
+ * not define are dropped and counted by {@link #dropped(PipeTranslator)}.  A field may change between required and
+ * optional but not change type, absent values are copied as is.
+ *
+ * The plan is compiled once into flat arrays per message.  Neighboring fixed fields which keep their order become
+ * one copy so a message whose layout did not change is moved with one slab copy and one blob copy per text field.
+ *
+ * Plans cover a whole message in one fragment, sequences and groups are not translated.
+ */
+public class PipeTranslator<S extends MessageSchema, T extends MessageSchema> {
+
+    private final FieldReferenceOffsetManager inFrom;
+    private final FieldReferenceOffsetManager outFrom;
+
+    //all by input msgIdx
+    private final int[] target;        //output msgIdx, -1 when dropped
+    private final int[][] copies;      //triples of input slab offset, output slab offset and length
+    private final int[][] fills;       //pairs of output slab offset and value
+    private final int[][] vars;        //triples of input slab offset (-1 when missing), output slab offset and length when missing
+
+    private long dropped;
+    private boolean eofSent;
+
+    public PipeTranslator(S inputSchema, T outputSchema) {
+        this.inFrom = MessageSchema.from(inputSchema);
+        this.outFrom = MessageSchema.from(outputSchema);
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(inFrom, "Translation");
+        FieldReferenceOffsetManager.requireSimpleMessagesOnly(outFrom, "Translation");
+        int length = inFrom.fragDataSize.length;
+        this.target = new int[length];
+        this.copies = new int[length][];
+        this.fills = new int[length][];
+        this.vars = new int[length][];
+        Arrays.fill(target, -1);
+
+        for (int inIdx : inFrom.messageStarts) {
+            int outIdx;
+            try {
+                outIdx = FieldReferenceOffsetManager.lookupTemplateLocator(inFrom.fieldIdScript[inIdx], outFrom);
+            } catch (UnsupportedOperationException e) {
+                continue; //older schema has no such message
+            }
+            target[inIdx] = outIdx;
+            plan(inIdx, outIdx);
+        }
+    }
+
+    private void plan(int inIdx, int outIdx) {
+        int[] copy = new int[outFrom.fragScriptSize[outIdx]*3];
+        int copyCount = 0;
+        int[] fill = new int[outFrom.fragScriptSize[outIdx]*6];
+        int fillCount = 0;
+        int[] var = new int[outFrom.fragScriptSize[outIdx]*3];
+        int varCount = 0;
+
+        long[] longDefaults = outFrom.newLongDefaultsDictionary();
+        int[] intDefaults = outFrom.newIntDefaultsDictionary();
+        int absent32 = FieldReferenceOffsetManager.getAbsent32Value(outFrom);
+        long absent64 = FieldReferenceOffsetManager.getAbsent64Value(outFrom);
+
+        int end = outIdx+outFrom.fragScriptSize[outIdx];
+        for (int x = outIdx+1; x<end; x++) {
+            int token = outFrom.tokens[x];
+            int type = TokenBuilder.extractType(token);
+            if (TypeMask.Group==type || TypeMask.GroupLength==type || TypeMask.Dictionary==type) {
+                continue;
+            }
+            int outOffset = outFrom.fragDataSize[x];
+            long id = outFrom.fieldIdScript[x];
+
+            int inLoc = 0;
+            try {
+                inLoc = FieldReferenceOffsetManager.lookupFieldLocator(id, inIdx, inFrom);
+            } catch (UnsupportedOperationException e) {
+                //newer field, the default is used
+            }
+            if (0!=inLoc) {
+                int inType = FieldReferenceOffsetManager.extractTypeFromLoc(inLoc);
+                if ((inType|1)!=(type|1)) {
+                    throw new UnsupportedOperationException("Field "+id+" of "+outFrom.fieldNameScript[outIdx]+" changed from "+TypeMask.toString(inType)+" to "+TypeMask.toString(type));
+                }
+                int inOffset = PipeReader.OFF_MASK&inLoc;
+                if (1==TypeMask.ringBufferFieldVarLen[type]) {
+                    var[varCount++] = inOffset;
+                    var[varCount++] = outOffset;
+                    var[varCount++] = 0;
+                } else {
+                    int size = fieldSize(type);
+                    if (copyCount>0 && copy[copyCount-3]+copy[copyCount-1]==inOffset && copy[copyCount-2]+copy[copyCount-1]==outOffset) {
+                        copy[copyCount-1] += size; //continues the last copy
+                    } else {
+                        copy[copyCount++] = inOffset;
+                        copy[copyCount++] = outOffset;
+                        copy[copyCount++] = size;
+                    }
+                }
+            } else {
+                boolean optional = 0!=(1&type);
+                boolean hasDefault = TokenBuilder.isOpperator(token, OperatorMask.Field_Default);
+                int instance = TokenBuilder.MAX_INSTANCE&token;
+                if (1==TypeMask.ringBufferFieldVarLen[type]) {
+                    var[varCount++] = -1;
+                    var[varCount++] = outOffset;
+                    var[varCount++] = optional ? -1 : 0;
+                } else if (type<TypeMask.LongUnsigned) {
+                    fill[fillCount++] = outOffset;
+                    fill[fillCount++] = intDefault(instance<intDefaults.length ? intDefaults[instance] : 0, optional, hasDefault, absent32);
+                } else if (type<TypeMask.TextASCII) {
+                    long value = longDefault(instance<longDefaults.length ? longDefaults[instance] : 0, optional, hasDefault, absent64);
+                    fill[fillCount++] = outOffset;
+                    fill[fillCount++] = (int)(value>>>32);
+                    fill[fillCount++] = outOffset+1;
+                    fill[fillCount++] = (int)value;
+                } else {
+                    //decimal, the exponent carries the optional flag and the mantissa follows as its own long token
+                    int exponent = intDefault(instance<intDefaults.length ? intDefaults[instance] : 0, optional, hasDefault, absent32);
+                    int mantissaToken = outFrom.tokens[x+1];
+                    int mantissaInstance = TokenBuilder.MAX_INSTANCE&mantissaToken;
+                    long mantissa = longDefault(mantissaInstance<longDefaults.length ? longDefaults[mantissaInstance] : 0,
+                                                optional, TokenBuilder.isOpperator(mantissaToken, OperatorMask.Field_Default), absent64);
+                    fill[fillCount++] = outOffset;
+                    fill[fillCount++] = exponent;
+                    fill[fillCount++] = outOffset+1;
+                    fill[fillCount++] = (int)(mantissa>>>32);
+                    fill[fillCount++] = outOffset+2;
+                    fill[fillCount++] = (int)mantissa;
+                }
+            }
+            if (TypeMask.Decimal==(type&~1)) {
+                x++; //the mantissa was handled with its exponent
+            }
+        }
+        copies[inIdx] = Arrays.copyOf(copy, copyCount);
+        fills[inIdx] = Arrays.copyOf(fill, fillCount);
+        vars[inIdx] = Arrays.copyOf(var, varCount);
+    }
+
+    private static int fieldSize(int type) {
+        return TypeMask.Decimal==(type&~1) ? 3 : TypeMask.ringBufferFieldSize[type];
+    }
+
+    //optional defaults are stored one larger so zero can mean absent
+    private static int intDefault(int value, boolean optional, boolean hasDefault, int absent) {
+        if (optional) {
+            if (0==value) {
+                return absent;
+            }
+            if (hasDefault && value>0) {
+                return value-1;
+            }
+        }
+        return value;
+    }
+
+    private static long longDefault(long value, boolean optional, boolean hasDefault, long absent) {
+        if (optional) {
+            if (0==value) {
+                return absent;
+            }
+            if (hasDefault && value>0) {
+                return value-1;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Count of messages dropped because the output schema does not define them.
+     */
+    public static <S extends MessageSchema, T extends MessageSchema> long dropped(PipeTranslator<S, T> translator) {
+        return translator.dropped;
+    }
+
+    /**
+     * Translates every complete message it can from the input to the output, stops when the output is full.
+     * The input must be consumed with the low-level API.  Must only be called by the one thread consuming the input
+     * which is also the one producing the output.
+     *
+     * @return count of input messages consumed, including dropped ones
+     */
+    public static <S extends MessageSchema, T extends MessageSchema> int translate(Pipe<S> input, PipeTranslator<S, T> translator, Pipe<T> output) {
+        assert(Pipe.from(input) == translator.inFrom) : "Input schema does not match";
+        assert(Pipe.from(output) == translator.outFrom) : "Output schema does not match";
+        final int[] inSlab = Pipe.slab(input);
+        final int inMask = Pipe.slabMask(input);
+        final int[] outSlab = Pipe.slab(output);
+        final int outMask = Pipe.slabMask(output);
+        final byte[] outBlob = Pipe.blob(output);
+        final int outBlobMask = Pipe.blobMask(output);
+
+        int count = 0;
+        while (Pipe.hasContentToRead(input)) {
+            final long pos = Pipe.getWorkingTailPosition(input);
+            final int inIdx = Pipe.peekInt(input);
+            if (inIdx<0) {
+                if (!Pipe.hasRoomForWrite(output, Pipe.EOF_SIZE)) {
+                    return count;
+                }
+                Pipe.takeMsgIdx(input);
+                Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+                Pipe.releaseReadLock(input);
+                Pipe.publishEOF(output);
+                translator.eofSent = true;
+                return count+1;
+            }
+            final int inSize = translator.inFrom.fragDataSize[inIdx];
+            final int outIdx = translator.target[inIdx];
+            if (outIdx>=0) {
+                final int[] var = translator.vars[inIdx];
+                final int blobBase = Pipe.getWorkingBlobRingTailPosition(input);
+                final int outSize = translator.outFrom.fragDataSize[outIdx];
+                if (!Pipe.hasRoomForWrite(output, outSize) || !hasBlobRoom(output, bytesNeeded(inSlab, inMask, pos, var))) {
+                    return count;
+                }
+                Pipe.addMsgIdx(output, outIdx);
+                final long head = Pipe.workingHeadPosition(output)-1;
+
+                final int[] copy = translator.copies[inIdx];
+                for (int i = 0; i<copy.length; i += 3) {
+                    Pipe.copyIntsFromToRing(inSlab, (int)(pos+copy[i]), inMask, outSlab, (int)(head+copy[i+1]), outMask, copy[i+2]);
+                }
+                final int[] fill = translator.fills[inIdx];
+                for (int i = 0; i<fill.length; i += 2) {
+                    outSlab[outMask&(int)(head+fill[i])] = fill[i+1];
+                }
+                for (int i = 0; i<var.length; i += 3) {
+                    int len = var[i+2];
+                    int blobPos = Pipe.getWorkingBlobHeadPosition(output);
+                    if (var[i]>=0) {
+                        int meta = inSlab[inMask&(int)(pos+var[i])];
+                        len = inSlab[inMask&(int)(pos+var[i]+1)];
+                        if (len>0) {
+                            Pipe.validateVarLength(output, len);
+                            byte[] backing = Pipe.byteBackingArray(meta, input);
+                            if (meta<0) {
+                                Pipe.copyBytesFromToRing(backing, PipeReader.POS_CONST_MASK&meta, Integer.MAX_VALUE, outBlob, blobPos, outBlobMask, len);
+                            } else {
+                                int srcPos = Pipe.isBlobReference(meta) ? Pipe.REFERENCE_POS_MASK&meta : blobBase+meta;
+                                Pipe.copyBytesFromToRing(backing, srcPos, backing.length-1, outBlob, blobPos, outBlobMask, len);
+                            }
+                            Pipe.addAndGetBytesWorkingHeadPosition(output, len);
+                        }
+                    }
+                    Pipe.setBytePosAndLen(outSlab, outMask, head+var[i+1], blobPos, len, Pipe.bytesWriteBase(output));
+                }
+
+                Pipe.confirmLowLevelWrite(output, outSize);
+                Pipe.addAndGetWorkingHead(output, outSize-2);
+                Pipe.publishWrites(output);
+            } else {
+                translator.dropped++;
+            }
+            Pipe.takeMsgIdx(input);
+            Pipe.confirmLowLevelRead(input, inSize);
+            Pipe.addAndGetWorkingTail(input, inSize-2);
+            Pipe.releaseReadLock(input);
+            count++;
+        }
+        return count;
+    }
+
+    private static int bytesNeeded(int[] slab, int mask, long pos, int[] var) {
+        int total = 0;
+        for (int i = 0; i<var.length; i += 3) {
+            if (var[i]>=0) {
+                total += Math.max(0, slab[mask&(int)(pos+var[i]+1)]);
+            }
+        }
+        return total;
+    }
+
+    private static <T extends MessageSchema> boolean hasBlobRoom(Pipe<T> output, int bytes) {
+        int used = Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(output)-Pipe.getBlobTailPosition(output));
+        return bytes <= (Pipe.blobMask(output)+1)-used;
+    }
+
+    /**
+     * Wraps the translator as a stage for {@link PipeScheduler}, it terminates once the EOF has been passed on.
+     */
+    public static <S extends MessageSchema, T extends MessageSchema> PipeStage stage(final Pipe<S> input, final PipeTranslator<S, T> translator, final Pipe<T> output) {
+        return new PipeStage(new Pipe<?>[]{input}, new Pipe<?>[]{output}) {
+            @Override
+            public void run() {
+                translate(input, translator, output);
+                if (translator.eofSent) {
+                    terminate(this);
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.ociweb.pronghorn.pipe.util.build;
+
+import java.io.IOException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Writes the source of one flyweight class per message.  Every field offset is resolved here from the FROM so the
+ * generated getters and setters are a single masked access into Pipe.slab/Pipe.blob with a constant offset, the same
+ * code that would be written by hand against the low level API.
+ *
+ * Only the first fragment of each message is covered.  When a message holds a sequence its count is exposed and the
+ * nested fragments which follow must be read and written with the low level API as before.
+ */
+public class FlyweightGenerator {
+
+    private static final String tab = "    ";
+
+    public static String className(FieldReferenceOffsetManager from, int msgIdx) {
+        return javaName(from.fieldNameScript[msgIdx], true)+"Flyweight";
+    }
+
+    public static void generate(FieldReferenceOffsetManager from, int msgIdx, String packageName, String templateName, Appendable target) throws IOException {
+
+        if (!FieldReferenceOffsetManager.isTemplateStart(from, msgIdx)) {
+            throw new UnsupportedOperationException("Flyweights can only be generated for the start of a message, not "+msgIdx);
+        }
+        final String className = className(from, msgIdx);
+
+        target.append("package ").append(packageName).append(";\n\n");
+        target.append("import ").append(Pipe.class.getCanonicalName()).append(";\n\n");
+
+        target.append("/**\n");
+        target.append(" * Flyweight over the ").append(from.fieldNameScript[msgIdx]).append(" message of ").append(templateName).append(", generated do not edit.\n");
+        target.append(" *\n");
+        target.append(" * Read: after Pipe.takeMsgIdx returns MSG_IDX call wrapRead, use the getters then Pipe.releaseReadLock.\n");
+        target.append(" * Write: call tryWrite, set every field then Pipe.publishWrites.\n");
+        target.append(" */\n");
+        target.append("public final class ").append(className).append(" {\n\n");
+
+        target.append(tab).append("public static final int MSG_IDX = ").append(Integer.toString(msgIdx)).append(";\n");
+        target.append(tab).append("public static final int SIZE = ").append(Integer.toString(from.fragDataSize[msgIdx])).append(";\n\n");
+
+        final int limit = msgIdx+from.fragScriptSize[msgIdx];
+        for (int cursor = msgIdx+1; cursor<limit; cursor++) {
+            int type = TokenBuilder.extractType(from.tokens[cursor]);
+            if (TypeMask.Group!=type && TypeMask.Dictionary!=type) {
+                target.append(tab).append("private static final int ").append(offsetName(from, cursor)).append(" = ").append(Integer.toString(from.fragDataSize[cursor])).append(";\n");
+            }
+            if (TypeMask.Decimal==type || TypeMask.DecimalOptional==type) {
+                cursor++; //decimal takes up 2 slots in the script
+            }
+        }
+        target.append('\n');
+
+        target.append(tab).append("private Pipe<?> pipe;\n");
+        target.append(tab).append("private int[] slab;\n");
+        target.append(tab).append("private int slabMask;\n");
+        target.append(tab).append("private long base;\n\n");
+
+        appendWrapMethods(className, templateName, target);
+
+        for (int cursor = msgIdx+1; cursor<limit; cursor++) {
+            int type = TokenBuilder.extractType(from.tokens[cursor]);
+            switch (type) {
+                case TypeMask.IntegerUnsigned:
+                case TypeMask.IntegerUnsignedOptional:
+                case TypeMask.IntegerSigned:
+                case TypeMask.IntegerSignedOptional:
+                    appendInt(javaName(from.fieldNameScript[cursor], true), offsetName(from, cursor), target);
+                    break;
+                case TypeMask.LongUnsigned:
+                case TypeMask.LongUnsignedOptional:
+                case TypeMask.LongSigned:
+                case TypeMask.LongSignedOptional:
+                    appendLong(javaName(from.fieldNameScript[cursor], true), offsetName(from, cursor), target);
+                    break;
+                case TypeMask.Decimal:
+                case TypeMask.DecimalOptional:
+                    appendDecimal(javaName(from.fieldNameScript[cursor], true), offsetName(from, cursor), target);
+                    cursor++;
+                    break;
+                case TypeMask.TextASCII:
+                case TypeMask.TextASCIIOptional:
+                    appendText(javaName(from.fieldNameScript[cursor], true), offsetName(from, cursor), "ASCII", 0!=(1&type), target);
+                    break;
+                case TypeMask.TextUTF8:
+                case TypeMask.TextUTF8Optional:
+                    appendText(javaName(from.fieldNameScript[cursor], true), offsetName(from, cursor), "UTF8", 0!=(1&type), target);
+                    break;
+                case TypeMask.ByteVector:
+                case TypeMask.ByteVectorOptional:
+                    appendBytes(javaName(from.fieldNameScript[cursor], true), offsetName(from, cursor), 0!=(1&type), target);
+                    break;
+                case TypeMask.GroupLength:
+                    appendInt(javaName(from.fieldNameScript[cursor+1], true)+"Count", offsetName(from, cursor), target);
+                    break;
+                default:
+                    //groups and dictionaries hold no data in this fragment
+            }
+        }
+
+        target.append("}\n");
+    }
+
+    private static void appendWrapMethods(String className, String templateName, Appendable target) throws IOException {
+        String schemaCheck = "assert(Pipe.from(pipe).fragDataSize[MSG_IDX]==SIZE) : \"Pipe schema does not match "+templateName+"\";\n";
+
+        target.append(tab).append("/**\n");
+        target.append(tab).append(" * Must be called directly after Pipe.takeMsgIdx returned MSG_IDX, the getters are valid until Pipe.releaseReadLock.\n");
+        target.append(tab).append(" */\n");
+        target.append(tab).append("public static void wrapRead(").append(className).append(" flyweight, Pipe<?> pipe) {\n");
+        target.append(tab).append(tab).append(schemaCheck);
+        target.append(tab).append(tab).append("flyweight.pipe = pipe;\n");
+        target.append(tab).append(tab).append("flyweight.slab = Pipe.slab(pipe);\n");
+        target.append(tab).append(tab).append("flyweight.slabMask = Pipe.slabMask(pipe);\n");
+        target.append(tab).append(tab).append("flyweight.base = Pipe.getWorkingTailPosition(pipe)-1;\n");
+        target.append(tab).append(tab).append("assert(MSG_IDX==flyweight.slab[flyweight.slabMask&(int)flyweight.base]) : \"Pipe.takeMsgIdx must be called first\";\n");
+        target.append(tab).append(tab).append("Pipe.addAndGetWorkingTail(pipe, SIZE-2);\n");
+        target.append(tab).append(tab).append("Pipe.confirmLowLevelRead(pipe, SIZE);\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("/**\n");
+        target.append(tab).append(" * @return false if there is no room, otherwise every field must be set before Pipe.publishWrites\n");
+        target.append(tab).append(" */\n");
+        target.append(tab).append("public static boolean tryWrite(").append(className).append(" flyweight, Pipe<?> pipe) {\n");
+        target.append(tab).append(tab).append(schemaCheck);
+        target.append(tab).append(tab).append("if (!Pipe.hasRoomForWrite(pipe, SIZE)) {\n");
+        target.append(tab).append(tab).append(tab).append("return false;\n");
+        target.append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("flyweight.pipe = pipe;\n");
+        target.append(tab).append(tab).append("flyweight.slab = Pipe.slab(pipe);\n");
+        target.append(tab).append(tab).append("flyweight.slabMask = Pipe.slabMask(pipe);\n");
+        target.append(tab).append(tab).append("flyweight.base = Pipe.workingHeadPosition(pipe);\n");
+        target.append(tab).append(tab).append("Pipe.addMsgIdx(pipe, MSG_IDX);\n");
+        target.append(tab).append(tab).append("Pipe.addAndGetWorkingHead(pipe, SIZE-2);\n");
+        target.append(tab).append(tab).append("Pipe.confirmLowLevelWrite(pipe, SIZE);\n");
+        target.append(tab).append(tab).append("return true;\n");
+        target.append(tab).append("}\n\n");
+    }
+
+    private static void appendInt(String name, String offset, Appendable target) throws IOException {
+        target.append(tab).append("public int get").append(name).append("() {\n");
+        target.append(tab).append(tab).append("return slab[slabMask&(int)(base+").append(offset).append(")];\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("public void set").append(name).append("(int value) {\n");
+        target.append(tab).append(tab).append("slab[slabMask&(int)(base+").append(offset).append(")] = value;\n");
+        target.append(tab).append("}\n\n");
+    }
+
+    private static void appendLong(String name, String offset, Appendable target) throws IOException {
+        target.append(tab).append("public long get").append(name).append("() {\n");
+        target.append(tab).append(tab).append("return Pipe.readLong(slab, slabMask, base+").append(offset).append(");\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("public void set").append(name).append("(long value) {\n");
+        target.append(tab).append(tab).append("slab[slabMask&(int)(base+").append(offset).append(")] = (int)(value>>>32);\n");
+        target.append(tab).append(tab).append("slab[slabMask&(int)(base+").append(offset).append("+1)] = (int)value;\n");
+        target.append(tab).append("}\n\n");
+    }
+
+    private static void appendDecimal(String name, String offset, Appendable target) throws IOException {
+        target.append(tab).append("public int get").append(name).append("Exponent() {\n");
+        target.append(tab).append(tab).append("return slab[slabMask&(int)(base+").append(offset).append(")];\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("public long get").append(name).append("Mantissa() {\n");
+        target.append(tab).append(tab).append("return Pipe.readLong(slab, slabMask, base+").append(offset).append("+1);\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("public void set").append(name).append("(int exponent, long mantissa) {\n");
+        target.append(tab).append(tab).append("slab[slabMask&(int)(base+").append(offset).append(")] = exponent;\n");
+        target.append(tab).append(tab).append("slab[slabMask&(int)(base+").append(offset).append("+1)] = (int)(mantissa>>>32);\n");
+        target.append(tab).append(tab).append("slab[slabMask&(int)(base+").append(offset).append("+2)] = (int)mantissa;\n");
+        target.append(tab).append("}\n\n");
+    }
+
+    private static void appendLength(String name, String offset, Appendable target) throws IOException {
+        target.append(tab).append("public int get").append(name).append("Length() {\n");
+        target.append(tab).append(tab).append("return slab[slabMask&(int)(base+").append(offset).append("+1)];\n");
+        target.append(tab).append("}\n\n");
+    }
+
+    private static void appendNullSetter(String offset, boolean optional, String value, Appendable target) throws IOException {
+        if (optional) {
+            target.append(tab).append(tab).append("if (null==").append(value).append(") {\n");
+            target.append(tab).append(tab).append(tab).append("Pipe.setBytePosAndLen(slab, slabMask, base+").append(offset).append(", Pipe.getWorkingBlobHeadPosition(pipe), -1, Pipe.bytesWriteBase(pipe));\n");
+            target.append(tab).append(tab).append(tab).append("return;\n");
+            target.append(tab).append(tab).append("}\n");
+        }
+    }
+
+    private static void appendText(String name, String offset, String encoding, boolean optional, Appendable target) throws IOException {
+        appendLength(name, offset, target);
+
+        target.append(tab).append("public <A extends Appendable> A get").append(name).append("(A target) {\n");
+        target.append(tab).append(tab).append("int len = slab[slabMask&(int)(base+").append(offset).append("+1)];\n");
+        if (optional) {
+            target.append(tab).append(tab).append("if (len<0) {\n");
+            target.append(tab).append(tab).append(tab).append("return null;\n");
+            target.append(tab).append(tab).append("}\n");
+        }
+        target.append(tab).append(tab).append("return Pipe.read").append(encoding).append("(pipe, target, slab[slabMask&(int)(base+").append(offset).append(")], len);\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("public void set").append(name).append("(CharSequence value) {\n");
+        appendNullSetter(offset, optional, "value", target);
+        target.append(tab).append(tab).append("int pos = Pipe.getWorkingBlobHeadPosition(pipe);\n");
+        if ("ASCII".equals(encoding)) {
+            target.append(tab).append(tab).append("int len = value.length();\n");
+            target.append(tab).append(tab).append("Pipe.validateVarLength(pipe, len);\n");
+            target.append(tab).append(tab).append("Pipe.copyASCIIToBytes(value, 0, len, pipe);\n");
+        } else {
+            target.append(tab).append(tab).append("int len = Pipe.copyUTF8ToByte(value, 0, value.length(), pipe);\n");
+            target.append(tab).append(tab).append("Pipe.validateVarLength(pipe, len);\n");
+        }
+        target.append(tab).append(tab).append("Pipe.setBytePosAndLen(slab, slabMask, base+").append(offset).append(", pos, len, Pipe.bytesWriteBase(pipe));\n");
+        target.append(tab).append("}\n\n");
+    }
+
+    private static void appendBytes(String name, String offset, boolean optional, Appendable target) throws IOException {
+        appendLength(name, offset, target);
+
+        target.append(tab).append("/**\n");
+        target.append(tab).append(" * @return length copied into target, -1 if absent\n");
+        target.append(tab).append(" */\n");
+        target.append(tab).append("public int get").append(name).append("(byte[] target, int targetOffset, int targetMask) {\n");
+        target.append(tab).append(tab).append("int len = slab[slabMask&(int)(base+").append(offset).append("+1)];\n");
+        target.append(tab).append(tab).append("if (len>0) {\n");
+        target.append(tab).append(tab).append(tab).append("Pipe.readBytes(pipe, target, targetOffset, targetMask, slab[slabMask&(int)(base+").append(offset).append(")], len);\n");
+        target.append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("return len;\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("public void set").append(name).append("(byte[] source, int sourceOffset, int length) {\n");
+        appendNullSetter(offset, optional, "source", target);
+        target.append(tab).append(tab).append("Pipe.validateVarLength(pipe, length);\n");
+        target.append(tab).append(tab).append("int pos = Pipe.getWorkingBlobHeadPosition(pipe);\n");
+        target.append(tab).append(tab).append("Pipe.copyBytesFromToRing(source, sourceOffset, Integer.MAX_VALUE, Pipe.blob(pipe), pos, Pipe.blobMask(pipe), length);\n");
+        target.append(tab).append(tab).append("Pipe.addAndGetBytesWorkingHeadPosition(pipe, length);\n");
+        target.append(tab).append(tab).append("Pipe.setBytePosAndLen(slab, slabMask, base+").append(offset).append(", pos, length, Pipe.bytesWriteBase(pipe));\n");
+        target.append(tab).append("}\n\n");
+    }
+
+    private static String offsetName(FieldReferenceOffsetManager from, int cursor) {
+        String name = TypeMask.GroupLength==TokenBuilder.extractType(from.tokens[cursor]) ? from.fieldNameScript[cursor+1]+"Count" : from.fieldNameScript[cursor];
+        return "OFF_"+javaName(name, false).toUpperCase();
+    }
+
+    /**
+     * Template names may hold spaces and punctuation, these are dropped and the following letter is capitalized.
+     */
+    static String javaName(String name, boolean capitalize) {
+        StringBuilder result = new StringBuilder(name.length());
+        boolean upper = capitalize;
+        for (int i = 0; i<name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isJavaIdentifierPart(c) && '$'!=c) {
+                if (0==result.length() && !Character.isJavaIdentifierStart(c)) {
+                    result.append('_');
+                }
+                result.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else {
+                upper = true;
+            }
+        }
+        return result.toString();
+    }
+
+}
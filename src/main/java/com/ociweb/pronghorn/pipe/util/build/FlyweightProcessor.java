@@ -0,0 +1,95 @@
+package com.ociweb.pronghorn.pipe.util.build;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+/**
+ * Annotation processor for {@link GenerateFlyweights}, registered in META-INF/services so adding this jar to the
+ * compile classpath is enough.  Template errors are reported against the annotated element and fail the build.
+ */
+@SupportedAnnotationTypes("com.ociweb.pronghorn.pipe.util.build.GenerateFlyweights")
+public class FlyweightProcessor extends AbstractProcessor {
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateFlyweights.class)) {
+            GenerateFlyweights request = element.getAnnotation(GenerateFlyweights.class);
+            String packageName = request.packageName().isEmpty() ?
+                                 processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString() :
+                                 request.packageName();
+
+            for (String template : request.value()) {
+                try {
+                    FieldReferenceOffsetManager from = load(template);
+                    String templateName = TemplateHandler.simpleName(template);
+                    for (int msgIdx : from.messageStarts()) {
+                        JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName+"."+FlyweightGenerator.className(from, msgIdx), element);
+                        Writer writer = file.openWriter();
+                        try {
+                            FlyweightGenerator.generate(from, msgIdx, packageName, templateName, writer);
+                        } finally {
+                            writer.close();
+                        }
+                    }
+                } catch (Exception e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to generate flyweights for "+template+" "+e, element);
+                }
+            }
+        }
+        return true;
+    }
+
+    private FieldReferenceOffsetManager load(String template) throws Exception {
+        try {
+            return TemplateHandler.loadFrom(template);
+        } catch (FileNotFoundException e) {
+            //not visible to this processor, ask the compiler which also knows the source path
+            String relative = template.startsWith("/") ? template.substring(1) : template;
+            for (StandardLocation location : new StandardLocation[]{StandardLocation.CLASS_PATH, StandardLocation.SOURCE_PATH}) {
+                InputStream input = open(location, relative);
+                if (null!=input) {
+                    try {
+                        return TemplateHandler.loadFrom(input);
+                    } finally {
+                        input.close();
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    private InputStream open(StandardLocation location, String relative) {
+        try {
+            FileObject resource = processingEnv.getFiler().getResource(location, "", relative);
+            return resource.openInputStream();
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null; //location not supported by this compiler
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.ociweb.pronghorn.pipe.util.build;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * At compile time {@link FlyweightProcessor} generates one flyweight class per message of each template.
+ * Templates are found the same way as TemplateHandler.loadFrom, as a classpath resource or a file.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({ElementType.TYPE, ElementType.PACKAGE})
+public @interface GenerateFlyweights {
+
+	String[] value(); //template xml files
+
+	String packageName() default ""; //defaults to the package of the annotated element
+
+}
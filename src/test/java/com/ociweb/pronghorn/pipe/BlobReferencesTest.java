@@ -0,0 +1,261 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BlobReferencesTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)14, null, RawDataSchema.instance);
+    private static final int messages = 2000;
+
+    @Test
+    public void chainTest() {
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> middle = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        middle.initBuffers();
+        target.initBuffers();
+        BlobReferences<RawDataSchema> refs = new BlobReferences<RawDataSchema>(source);
+        BlobReferences.share(refs, middle);
+        BlobReferences.share(refs, target);
+
+        int written = 0;
+        int read = 0;
+        byte[] payload = new byte[1<<10];
+        while (read<messages) {
+            while (written<messages && Pipe.hasRoomForWrite(source, size)) {
+                writeValue(source, written++);
+            }
+            relay(source, refs, middle);
+            forward(middle, target);
+
+            //nothing can be released from the source until the last stage is done
+            assertEquals(0, BlobReferences.releaseUnreferenced(refs));
+            assertTrue(BlobReferences.held(refs)>0);
+
+            while (Pipe.hasContentToRead(target)) {
+                assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(target));
+                int meta = Pipe.takeRingByteMetaData(target);
+                int len = Pipe.takeRingByteLen(target);
+                assertTrue(Pipe.isBlobReference(meta));
+                Pipe.readBytes(target, payload, 0, payload.length-1, meta, len);
+                checkValue(read++, payload, len);
+                BlobReferences.release(refs, meta);
+                Pipe.confirmLowLevelRead(target, size);
+                Pipe.releaseReadLock(target);
+            }
+            BlobReferences.releaseUnreferenced(refs);
+            assertEquals(0, BlobReferences.held(refs));
+        }
+        //the payloads were only ever written into the source
+        assertEquals(0, Pipe.getBlobHeadPosition(middle));
+        assertEquals(0, Pipe.getBlobHeadPosition(target));
+        assertEquals(Pipe.headPosition(source), Pipe.tailPosition(source));
+    }
+
+    @Test
+    public void releaseFromOtherThreadTest() throws InterruptedException {
+        final Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        final Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        target.initBuffers();
+        final BlobReferences<RawDataSchema> refs = new BlobReferences<RawDataSchema>(source);
+        BlobReferences.share(refs, target);
+
+        final AtomicInteger read = new AtomicInteger();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] payload = new byte[1<<10];
+                while (read.get()<messages) {
+                    if (Pipe.hasContentToRead(target)) {
+                        Pipe.takeMsgIdx(target);
+                        int meta = Pipe.takeRingByteMetaData(target);
+                        int len = Pipe.takeRingByteLen(target);
+                        byte[] backing = Pipe.byteBackingArray(meta, target);
+                        int pos = Pipe.bytePosition(meta, target, len);
+                        int i = 0;
+                        while (i<len) {
+                            payload[i] = backing[Pipe.blobMask(target) & (pos+i)];
+                            i++;
+                        }
+                        checkValue(read.get(), payload, len);
+                        BlobReferences.release(refs, meta);
+                        Pipe.confirmLowLevelRead(target, size);
+                        Pipe.releaseReadLock(target);
+                        read.incrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+
+        int written = 0;
+        long timeout = System.currentTimeMillis()+20_000;
+        while (read.get()<messages) {
+            if (written<messages && Pipe.hasRoomForWrite(source, size)) {
+                writeValue(source, written++);
+            }
+            relay(source, refs, target);
+            BlobReferences.releaseUnreferenced(refs);
+            if (System.currentTimeMillis()>timeout) {
+                fail("Only "+read.get()+" of "+messages+" read");
+            }
+        }
+        consumer.join();
+        BlobReferences.releaseUnreferenced(refs);
+        assertEquals(0, BlobReferences.held(refs));
+        assertEquals(Pipe.headPosition(source), Pipe.tailPosition(source));
+    }
+
+    @Test
+    public void highLevelReaderTest() {
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        target.initBuffers();
+        BlobReferences<RawDataSchema> refs = new BlobReferences<RawDataSchema>(source);
+        BlobReferences.share(refs, target);
+        final int loc = RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2;
+
+        int written = 0;
+        int read = 0;
+        char[] chars = new char[1<<10];
+        byte[] bytes = new byte[1<<10];
+        byte[] ring = new byte[1<<10];
+        StringBuilder builder = new StringBuilder();
+        while (read<messages) {
+            while (written<messages && Pipe.hasRoomForWrite(source, size)) {
+                writeText(source, written++);
+            }
+            relay(source, refs, target);
+
+            while (PipeReader.tryReadFragment(target)) {
+                String expected = text(read);
+                assertEquals(expected.length(), PipeReader.readBytesLength(target, loc));
+
+                assertEquals(expected.length(), PipeReader.readASCII(target, loc, chars, 0));
+                assertEquals(expected, new String(chars, 0, expected.length()));
+                assertEquals(expected.length(), PipeReader.readUTF8(target, loc, chars, 0));
+                assertEquals(expected, new String(chars, 0, expected.length()));
+                builder.setLength(0);
+                assertEquals(expected, PipeReader.readASCII(target, loc, builder).toString());
+                builder.setLength(0);
+                assertEquals(expected, PipeReader.readUTF8(target, loc, builder).toString());
+                assertTrue(PipeReader.eqASCII(target, loc, expected));
+                assertTrue(PipeReader.eqUTF8(target, loc, expected));
+                assertTrue(!PipeReader.eqASCII(target, loc, expected.toUpperCase()));
+
+                assertEquals(expected.length(), PipeReader.readBytes(target, loc, bytes, 0));
+                assertEquals(expected, new String(bytes, 0, expected.length()));
+                assertEquals(expected.length(), PipeReader.readBytes(target, loc, ring, 1000, ring.length-1));
+                int i = expected.length();
+                while (--i>=0) {
+                    assertEquals(expected.charAt(i), (char)ring[(ring.length-1)&(1000+i)]);
+                }
+
+                //position and backing array together address the bytes held by the source
+                byte[] backing = PipeReader.readBytesBackingArray(target, loc);
+                int pos = PipeReader.readBytesPosition(target, loc);
+                assertTrue(Pipe.blob(source)==backing);
+                i = expected.length();
+                while (--i>=0) {
+                    assertEquals(expected.charAt(i), (char)backing[PipeReader.readBytesMask(target, loc)&(pos+i)]);
+                }
+                ByteBuffer[] buffers = PipeReader.wrappedUnstructuredLayoutBuffer(target, loc);
+                assertEquals(expected.length(), buffers[0].remaining()+buffers[1].remaining());
+                assertEquals(expected.charAt(0), (char)(buffers[0].hasRemaining() ? buffers[0].get(buffers[0].position()) : buffers[1].get(0)));
+
+                BlobReferences.release(refs, Pipe.REFERENCE_POS_FLAG | pos);
+                PipeReader.releaseReadLock(target);
+                read++;
+            }
+            BlobReferences.releaseUnreferenced(refs);
+            assertEquals(0, BlobReferences.held(refs));
+        }
+        //nothing was ever written into the local blob of the target
+        assertEquals(0, Pipe.getBlobHeadPosition(target));
+    }
+
+    //reads from the source and writes references to the payloads
+    private static void relay(Pipe<RawDataSchema> input, BlobReferences<RawDataSchema> refs, Pipe<RawDataSchema> output) {
+        while (Pipe.hasContentToRead(input) && Pipe.hasRoomForWrite(output, size)) {
+            int msgIdx = Pipe.takeMsgIdx(input);
+            int meta = Pipe.takeRingByteMetaData(input);
+            int len = Pipe.takeRingByteLen(input);
+            Pipe.addMsgIdx(output, msgIdx);
+            BlobReferences.addReference(output, refs, meta, len);
+            Pipe.confirmLowLevelWrite(output, size);
+            Pipe.confirmLowLevelRead(input, size);
+            BlobReferences.hold(refs);
+            Pipe.publishWrites(output);
+        }
+    }
+
+    //passes the references along to the next pipe
+    private static void forward(Pipe<RawDataSchema> input, Pipe<RawDataSchema> output) {
+        while (Pipe.hasContentToRead(input) && Pipe.hasRoomForWrite(output, size)) {
+            int msgIdx = Pipe.takeMsgIdx(input);
+            int meta = Pipe.takeRingByteMetaData(input);
+            int len = Pipe.takeRingByteLen(input);
+            Pipe.addMsgIdx(output, msgIdx);
+            BlobReferences.forwardReference(output, meta, len);
+            Pipe.confirmLowLevelWrite(output, size);
+            Pipe.publishWrites(output);
+            Pipe.confirmLowLevelRead(input, size);
+            Pipe.releaseReadLock(input);
+        }
+    }
+
+    private static String text(int value) {
+        StringBuilder builder = new StringBuilder("value-").append(value);
+        int i = (value*13)%90;
+        while (--i>=0) {
+            builder.append((char)('a'+((value+i)%26)));
+        }
+        return builder.toString();
+    }
+
+    private static void writeText(Pipe<RawDataSchema> pipe, int value) {
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addASCII(text(value), pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int length(int value) {
+        return 200+((value*37)%800);
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[length(value)];
+        int i = data.length;
+        while (--i>=0) {
+            data[i] = (byte)(value+i);
+        }
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static void checkValue(int value, byte[] payload, int len) {
+        assertEquals(length(value), len);
+        int i = len;
+        while (--i>=0) {
+            assertEquals((byte)(value+i), payload[i]);
+        }
+    }
+
+}
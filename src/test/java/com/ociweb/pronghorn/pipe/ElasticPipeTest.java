@@ -0,0 +1,155 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ElasticPipeTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)5, (byte)8, null, RawDataSchema.instance);
+
+    @Test
+    public void growTest() throws InterruptedException {
+        ElasticPipe<RawDataSchema> ep = new ElasticPipe<RawDataSchema>(config, 1, 1_000_000, Long.MAX_VALUE).initBuffers();
+
+        int written = 0;
+        Pipe<RawDataSchema> pipe;
+        while (null != (pipe = ElasticPipe.roomForWrite(ep, size))) {
+            writeValue(pipe, written++);
+        }
+        assertEquals(8, written);
+
+        //still blocked after the grow period so a larger pipe is built
+        Thread.sleep(2);
+        pipe = ElasticPipe.roomForWrite(ep, size);
+        assertNotNull(pipe);
+        assertEquals(1, ElasticPipe.growth(ep));
+        assertEquals(config.slabBits()+1, pipe.config().slabBits());
+        do {
+            writeValue(pipe, written++);
+        } while (null != (pipe = ElasticPipe.roomForWrite(ep, size)));
+        assertEquals(8+16, written);
+
+        //the ceiling has been reached so it stays blocked
+        Thread.sleep(2);
+        assertNull(ElasticPipe.roomForWrite(ep, size));
+        assertEquals(1, ElasticPipe.growth(ep));
+
+        //everything arrives in order across the switch
+        int i = 0;
+        while (null != (pipe = ElasticPipe.contentToRead(ep))) {
+            assertEquals(i++, readValue(pipe));
+        }
+        assertEquals(written, i);
+    }
+
+    @Test
+    public void shrinkTest() throws InterruptedException {
+        ElasticPipe<RawDataSchema> ep = new ElasticPipe<RawDataSchema>(config, 2, 0, 1_000_000).initBuffers();
+
+        //grow twice while nothing is consumed
+        int written = 0;
+        Pipe<RawDataSchema> pipe = null;
+        while (ElasticPipe.growth(ep)<2) {
+            pipe = ElasticPipe.roomForWrite(ep, size);
+            if (null!=pipe) {
+                writeValue(pipe, written++);
+            }
+        }
+        assertEquals(2, ElasticPipe.growth(ep));
+
+        //light load, each fragment is consumed as soon as it is written
+        int read = 0;
+        long limit = System.currentTimeMillis()+5000;
+        while (ElasticPipe.growth(ep)>0 && System.currentTimeMillis()<limit) {
+            while (null!=(pipe = ElasticPipe.contentToRead(ep))) {
+                assertEquals(read++, readValue(pipe));
+            }
+            pipe = ElasticPipe.roomForWrite(ep, size);
+            assertNotNull(pipe);
+            writeValue(pipe, written++);
+        }
+        assertEquals(0, ElasticPipe.growth(ep));
+        assertEquals(config.slabBits(), pipe.config().slabBits());
+
+        while (null!=(pipe = ElasticPipe.contentToRead(ep))) {
+            assertEquals(read++, readValue(pipe));
+        }
+        assertEquals(written, read);
+    }
+
+    @Test
+    public void burstBetweenSamplesTest() throws InterruptedException {
+        ElasticPipe<RawDataSchema> ep = new ElasticPipe<RawDataSchema>(config, 1, 0, 50_000_000).initBuffers();
+
+        int written = 0;
+        Pipe<RawDataSchema> pipe;
+        while (ElasticPipe.growth(ep)<1) {
+            pipe = ElasticPipe.roomForWrite(ep, size);
+            if (null!=pipe) {
+                writeValue(pipe, written++);
+            }
+        }
+        int read = 0;
+        while (null!=(pipe = ElasticPipe.contentToRead(ep))) {
+            assertEquals(read++, readValue(pipe));
+        }
+        //close the period which saw the grow
+        Thread.sleep(60);
+        read = steady(ep, written, read);
+        written = read;
+        assertEquals(1, ElasticPipe.growth(ep));
+
+        //a burst half filling the pipe which the producer never samples, the consumer still sees it
+        int i = 8;
+        while (--i>=0) {
+            writeValue(ElasticPipe.roomForWrite(ep, size), written++);
+        }
+        while (null!=(pipe = ElasticPipe.contentToRead(ep))) {
+            assertEquals(read++, readValue(pipe));
+        }
+        Thread.sleep(60);
+        read = steady(ep, written, read);
+        written = read;
+        assertEquals(1, ElasticPipe.growth(ep));
+
+        //a quiet period does shrink
+        Thread.sleep(60);
+        read = steady(ep, written, read);
+        assertEquals(0, ElasticPipe.growth(ep));
+    }
+
+    //light load for exactly one producer sample, each fragment is consumed as soon as it is written
+    private static int steady(ElasticPipe<RawDataSchema> ep, int written, int read) {
+        int i = 1024;
+        while (--i>=0) {
+            writeValue(ElasticPipe.roomForWrite(ep, size), written++);
+            Pipe<RawDataSchema> pipe;
+            while (null!=(pipe = ElasticPipe.contentToRead(ep))) {
+                assertEquals(read++, readValue(pipe));
+            }
+        }
+        return read;
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        byte[] target = new byte[4];
+        Pipe.readBytes(pipe, target, 0, 3, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        return ((0xFF&target[0])<<24) | ((0xFF&target[1])<<16) | ((0xFF&target[2])<<8) | (0xFF&target[3]);
+    }
+
+}
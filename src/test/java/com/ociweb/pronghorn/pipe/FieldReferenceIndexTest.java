@@ -0,0 +1,94 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class FieldReferenceIndexTest {
+
+    private static final String[] TEMPLATES = new String[] {"/template/smallExample.xml",
+                                                            "/template/partitionExample.xml",
+                                                            "/template/flyweightExample.xml",
+                                                            "/performance/example.xml",
+                                                            "/performance/example2.xml"};
+
+    @Test
+    public void fieldLookupsMatchScanTest() throws Exception {
+        for (String template : TEMPLATES) {
+            FieldReferenceOffsetManager from = TemplateHandler.loadFrom(template);
+            //every cursor is checked, not only fragment starts, so the unindexed path is covered too
+            for (int start = 0; start < from.fieldNameScript.length; start++) {
+                for (int x = 0; x < from.fieldNameScript.length; x++) {
+                    String name = from.fieldNameScript[x];
+                    if (null != name) {
+                        String upper = name.toUpperCase();
+                        assertEquals(template+" "+name+" from "+start, FieldReferenceOffsetManager.scanForName(upper, start, from), fragmentByName(upper, start, from));
+                    }
+                    long id = from.fieldIdScript[x];
+                    assertEquals(template+" "+id+" from "+start, FieldReferenceOffsetManager.scanForId(id, start, from), fragmentById(id, start, from));
+                }
+                assertEquals(-1, fragmentByName("noSuchField", start, from));
+                assertEquals(-1, fragmentById(Long.MIN_VALUE, start, from));
+            }
+        }
+    }
+
+    @Test
+    public void templateLookupsMatchScanTest() throws Exception {
+        for (String template : TEMPLATES) {
+            FieldReferenceOffsetManager from = TemplateHandler.loadFrom(template);
+            for (int start : from.messageStarts()) {
+                String name = from.fieldNameScript[start];
+                long id = from.fieldIdScript[start];
+                int expectedByName = -1;
+                int expectedById = -1;
+                for (int other : from.messageStarts()) {
+                    if (name.equals(from.fieldNameScript[other])) {
+                        expectedByName = other;
+                    }
+                    if (id == from.fieldIdScript[other]) {
+                        expectedById = other;
+                    }
+                }
+                assertEquals(expectedByName, FieldReferenceOffsetManager.lookupTemplateLocator(name, from));
+                assertEquals(expectedById, FieldReferenceOffsetManager.lookupTemplateLocator(id, from));
+
+                try {
+                    //unknown names must throw, they are never matched by hash alone
+                    FieldReferenceOffsetManager.lookupTemplateLocator(name+"#", from);
+                    fail("should not find "+name+"#");
+                } catch (UnsupportedOperationException e) {
+                    //expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getLocTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/flyweightExample.xml");
+        int msgIdx = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+        assertEquals(from.getLoc("Trade", "Quantity"), from.getLoc(1, 12));
+        assertEquals(from.getLoc("Trade", "quantity"), FieldReferenceOffsetManager.lookupFieldLocator(12, msgIdx, from));
+    }
+
+    private static int fragmentByName(String name, int start, FieldReferenceOffsetManager from) {
+        try {
+            return FieldReferenceOffsetManager.lookupFragmentLocator(name, start, from);
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private static int fragmentById(long id, int start, FieldReferenceOffsetManager from) {
+        try {
+            return FieldReferenceOffsetManager.lookupFragmentLocator(id, start, from);
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+}
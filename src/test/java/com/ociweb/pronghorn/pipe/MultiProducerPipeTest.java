@@ -0,0 +1,191 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MultiProducerPipeTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+
+    @Test
+    public void claimOrderTest() {
+
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)5, (byte)8, null, RawDataSchema.instance));
+        pipe.initBuffers();
+        MultiProducerPipe<RawDataSchema> mpp = new MultiProducerPipe<RawDataSchema>(pipe);
+        MultiProducerWriter<RawDataSchema> first = mpp.newWriter();
+        MultiProducerWriter<RawDataSchema> second = mpp.newWriter();
+
+        assertTrue(first.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, 4));
+        assertTrue(second.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, 4));
+
+        //second finishes first but can not be seen until the first is published
+        writeValue(second, 2);
+        assertFalse(Pipe.hasContentToRead(pipe));
+        writeValue(first, 1);
+        assertTrue(Pipe.hasContentToRead(pipe));
+
+        assertEquals(1, readValue(pipe));
+        assertEquals(2, readValue(pipe));
+        assertFalse(Pipe.hasContentToRead(pipe));
+
+        //fill the ring then confirm the claim fails until the consumer releases
+        int written = 0;
+        while (first.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, 4)) {
+            writeValue(first, written++);
+        }
+        assertEquals(pipe.sizeOfSlabRing/size, written);
+        assertEquals(0, readValue(pipe));
+        assertTrue(second.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, 4));
+        writeValue(second, written++);
+
+        int i = 1;
+        while (Pipe.hasContentToRead(pipe)) {
+            assertEquals(i++, readValue(pipe));
+        }
+        assertEquals(written, i);
+    }
+
+    @Test
+    public void concurrentProducersTest() throws InterruptedException {
+
+        final int producers = 4;
+        final int messages = 10000;
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)8, (byte)12, null, RawDataSchema.instance));
+        pipe.initBuffers();
+        final MultiProducerPipe<RawDataSchema> mpp = new MultiProducerPipe<RawDataSchema>(pipe);
+
+        Thread[] threads = new Thread[producers];
+        int p = producers;
+        while (--p>=0) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    MultiProducerWriter<RawDataSchema> writer = mpp.newWriter();
+                    int i = 0;
+                    while (i<messages) {
+                        if (writer.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, 4)) {
+                            writeValue(writer, (producer<<24) | i++);
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        //each producer must arrive in its own order
+        int[] next = new int[producers];
+        int total = producers*messages;
+        while (total>0) {
+            if (Pipe.hasContentToRead(pipe)) {
+                int value = readValue(pipe);
+                int producer = value>>>24;
+                assertEquals(next[producer]++, value&0xFFFFFF);
+                total--;
+            } else {
+                Thread.yield();
+            }
+        }
+        p = producers;
+        while (--p>=0) {
+            threads[p].join();
+            assertEquals(messages, next[p]);
+        }
+    }
+
+    @Test
+    public void metricsTest() throws InterruptedException {
+
+        final int producers = 4;
+        final int messages = 10000;
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)8, (byte)12, null, RawDataSchema.instance).metrics());
+        pipe.initBuffers();
+        final MultiProducerPipe<RawDataSchema> mpp = new MultiProducerPipe<RawDataSchema>(pipe);
+
+        Thread[] threads = new Thread[producers];
+        int p = producers;
+        while (--p>=0) {
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    MultiProducerWriter<RawDataSchema> writer = mpp.newWriter();
+                    int i = 0;
+                    while (i<messages) {
+                        if (writer.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, 4)) {
+                            writeValue(writer, i++);
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        int total = producers*messages;
+        int read = 0;
+        while (read<total) {
+            if (Pipe.hasContentToRead(pipe)) {
+                readValue(pipe);
+                read++;
+            } else {
+                Thread.yield();
+            }
+        }
+        p = producers;
+        while (--p>=0) {
+            threads[p].join();
+        }
+        PipeMetrics metrics = PipeMetrics.get(pipe.id);
+        assertEquals(total, metrics.fragmentsWritten());
+        assertEquals(total*4, metrics.bytesWritten());
+        assertEquals(total, metrics.fragmentsRead());
+        assertTrue(metrics.slabHighWater()<=pipe.sizeOfSlabRing);
+        Pipe.releaseBuffers(pipe);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void producerRegulationTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)5, (byte)8, null, RawDataSchema.instance));
+        Pipe.setProducerRegulation(pipe, 10, 4);
+        pipe.initBuffers();
+        new MultiProducerPipe<RawDataSchema>(pipe);
+    }
+
+    @Test
+    public void endOfFileTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)5, (byte)8, null, RawDataSchema.instance));
+        pipe.initBuffers();
+        MultiProducerWriter<RawDataSchema> writer = new MultiProducerPipe<RawDataSchema>(pipe).newWriter();
+        assertTrue(writer.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, 4));
+        writeValue(writer, 42);
+        assertTrue(writer.tryWriteEOF());
+
+        assertEquals(42, readValue(pipe));
+        assertTrue(Pipe.hasContentToRead(pipe));
+        assertEquals(-1, Pipe.takeMsgIdx(pipe));
+    }
+
+    private static void writeValue(MultiProducerWriter<RawDataSchema> writer, int value) {
+        byte[] data = new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+        writer.addByteArray(data, 0, data.length);
+        writer.publishWrites();
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        assertEquals(4, len);
+        byte[] target = new byte[4];
+        Pipe.readBytes(pipe, target, 0, 3, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        return ((0xFF&target[0])<<24) | ((0xFF&target[1])<<16) | ((0xFF&target[2])<<8) | (0xFF&target[3]);
+    }
+
+}
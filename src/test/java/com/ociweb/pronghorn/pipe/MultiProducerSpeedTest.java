@@ -0,0 +1,84 @@
+package com.ociweb.pronghorn.pipe;
+
+/**
+ * This class is not a test and does not run with the coverage tests.
+ *
+ * This is here to capture the throughput of a single pipe written by many producers through the
+ * MultiProducerPipe as the CAS contention grows with 2, 4, 8 and 16 producer threads.
+ *
+ */
+public class MultiProducerSpeedTest {
+
+    private static final byte slabBits = 16;
+    private static final byte blobBits = 22;
+    private static final int messages = 20_000_000;
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final byte[] payload = new byte[64];
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int i = 3;
+        while (--i>=0) {
+            runTest(2);
+            runTest(4);
+            runTest(8);
+            runTest(16);
+        }
+
+    }
+
+    private static void runTest(int producers) throws InterruptedException {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>(slabBits, blobBits, null, RawDataSchema.instance));
+        pipe.initBuffers();
+        final MultiProducerPipe<RawDataSchema> mpp = new MultiProducerPipe<RawDataSchema>(pipe);
+        final int perProducer = messages/producers;
+
+        long start = System.nanoTime();
+        Thread[] threads = new Thread[producers];
+        int p = producers;
+        while (--p>=0) {
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    MultiProducerWriter<RawDataSchema> writer = mpp.newWriter();
+                    int w = perProducer;
+                    while (w>0) {
+                        if (writer.tryWriteFragment(RawDataSchema.MSG_CHUNKEDSTREAM_1, payload.length)) {
+                            writer.addByteArray(payload, 0, payload.length);
+                            writer.publishWrites();
+                            w--;
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        long checkSum = 0;
+        int r = perProducer*producers;
+        while (r>0) {
+            if (Pipe.hasContentToRead(pipe)) {
+                checkSum += Pipe.takeMsgIdx(pipe);
+                int meta = Pipe.takeRingByteMetaData(pipe);
+                int len = Pipe.takeRingByteLen(pipe);
+                checkSum += Pipe.byteBackingArray(meta, pipe)[Pipe.blobMask(pipe)&Pipe.bytePosition(meta, pipe, len)];
+                Pipe.confirmLowLevelRead(pipe, size);
+                Pipe.releaseReadLock(pipe);
+                r--;
+            } else {
+                Thread.yield();
+            }
+        }
+        long duration = System.nanoTime()-start;
+
+        p = producers;
+        while (--p>=0) {
+            threads[p].join();
+        }
+        System.out.println(producers+" producers "+(((perProducer*(long)producers)*1_000L)/duration)+"K msg/ms "+checkSum);
+    }
+
+}
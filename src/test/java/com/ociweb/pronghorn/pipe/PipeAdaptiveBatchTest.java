@@ -0,0 +1,293 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PipeAdaptiveBatchTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)10, (byte)16, null, RawDataSchema.instance).metrics();
+
+    @Test
+    public void lightTrafficPublishesEachFragmentTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptivePublishBatch(pipe, 1_000_000);
+
+        int i = 0;
+        while (i<1000) {
+            writeValue(pipe, i);
+            //consumer keeps up so it can always see what was just written
+            assertTrue(Pipe.hasContentToRead(pipe));
+            assertEquals(i++, readValue(pipe));
+        }
+        assertEquals(1, Pipe.getPublishBatchSize(pipe));
+        assertEquals(1, PipeMetrics.get(pipe.id).publishBatchSize());
+    }
+
+    @Test
+    public void busyConsumerWidensPublishTest() throws InterruptedException {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptivePublishBatch(pipe, 1_000_000_000L);
+
+        //consumer reads nothing so the pipe keeps filling
+        int written = 0;
+        while (Pipe.hasRoomForWrite(pipe, size)) {
+            writeValue(pipe, written++);
+        }
+        assertTrue(Pipe.getPublishBatchSize(pipe)>1);
+        assertTrue(PipeMetrics.get(pipe.id).publishBatchSize()>1);
+        //finding the pipe full published everything held back
+        assertEquals(written*size, Pipe.headPosition(pipe)-Pipe.tailPosition(pipe));
+
+        //once drained the next batch collapses to a single fragment
+        int read = 0;
+        while (Pipe.hasContentToRead(pipe)) {
+            assertEquals(read++, readValue(pipe));
+        }
+        assertEquals(written, read);
+        writeValue(pipe, written);
+        assertTrue(Pipe.hasContentToRead(pipe));
+        assertEquals(written, readValue(pipe));
+        assertEquals(1, Pipe.getPublishBatchSize(pipe));
+    }
+
+    @Test
+    public void latencyBudgetTest() throws InterruptedException {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptivePublishBatch(pipe, 2_000_000);
+
+        //build up a wide batch while the consumer is busy
+        int written = 0;
+        while (Pipe.getPublishBatchSize(pipe)<8) {
+            writeValue(pipe, written++);
+        }
+        long published = Pipe.headPosition(pipe);
+        writeValue(pipe, written++);
+        assertEquals(published, Pipe.headPosition(pipe));
+
+        //held fragments are published by the next write once they are past the budget
+        Thread.sleep(5);
+        writeValue(pipe, written++);
+        assertEquals(Pipe.workingHeadPosition(pipe), Pipe.headPosition(pipe));
+    }
+
+    @Test
+    public void quietProducerTest() throws InterruptedException {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptivePublishBatch(pipe, 2_000_000);
+
+        int written = 0;
+        while (Pipe.getPublishBatchSize(pipe)<8) {
+            writeValue(pipe, written++);
+        }
+        long published = Pipe.headPosition(pipe);
+        writeValue(pipe, written++);
+        assertTrue(Pipe.hasRoomForWrite(pipe, size));
+        assertEquals(published, Pipe.headPosition(pipe));
+
+        //producer writes nothing more, polling for room is enough to publish once past the budget
+        Thread.sleep(5);
+        assertTrue(Pipe.hasRoomForWrite(pipe, size));
+        assertEquals(Pipe.workingHeadPosition(pipe), Pipe.headPosition(pipe));
+    }
+
+    @Test
+    public void quietConsumerTest() throws InterruptedException {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptiveReleaseBatch(pipe, 2_000_000);
+
+        int written = 0;
+        int read = 0;
+        while (Pipe.getReleaseBatchSize(pipe)<4) {
+            int i = 20;
+            while (--i>=0) {
+                writeValue(pipe, written++);
+            }
+            while (Pipe.hasContentToRead(pipe)) {
+                assertEquals(read++, readValue(pipe));
+            }
+        }
+        int i = 20;
+        while (--i>=0) {
+            writeValue(pipe, written++);
+        }
+        long released = Pipe.tailPosition(pipe);
+        assertEquals(read++, readValue(pipe));
+        assertEquals(released, Pipe.tailPosition(pipe));
+
+        //consumer stops reading with content left, polling for content is enough to release once past the budget
+        Thread.sleep(5);
+        assertTrue(Pipe.hasContentToRead(pipe));
+        assertEquals(released+size, Pipe.tailPosition(pipe));
+    }
+
+    @Test
+    public void releaseBatchTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptiveReleaseBatch(pipe, 1_000_000_000L);
+
+        int written = 0;
+        int read = 0;
+        int round = 0;
+        while (round++<10) {
+            //producer only writes a little so there is plenty of room and releases widen
+            int i = 20;
+            while (--i>=0) {
+                writeValue(pipe, written++);
+            }
+            while (Pipe.hasContentToRead(pipe)) {
+                assertEquals(read++, readValue(pipe));
+            }
+            //empty pipe released everything held
+            assertEquals(Pipe.headPosition(pipe), Pipe.tailPosition(pipe));
+        }
+        assertTrue(Pipe.getReleaseBatchSize(pipe)>1);
+        assertEquals(Pipe.getReleaseBatchSize(pipe), PipeMetrics.get(pipe.id).releaseBatchSize());
+
+        //producer filling the pipe collapses the releases
+        while (Pipe.hasRoomForWrite(pipe, size)) {
+            writeValue(pipe, written++);
+        }
+        assertEquals(read++, readValue(pipe));
+        assertEquals(read++, readValue(pipe));
+        assertEquals(1, Pipe.getReleaseBatchSize(pipe));
+        assertFalse(Pipe.hasRoomForWrite(pipe, size*3));
+        assertTrue(Pipe.hasRoomForWrite(pipe, size*2));
+    }
+
+    @Test
+    public void highLevelBusyConsumerWidensPublishTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptivePublishBatch(pipe, 1_000_000_000L);
+
+        int written = 0;
+        while (tryWriteHighLevel(pipe, written)) {
+            written++;
+        }
+        assertTrue(Pipe.getPublishBatchSize(pipe)>1);
+        assertTrue(PipeMetrics.get(pipe.id).publishBatchSize()>1);
+        //finding the pipe full published everything held back
+        assertEquals(written*size, Pipe.headPosition(pipe)-Pipe.tailPosition(pipe));
+
+        int read = 0;
+        while (PipeReader.tryReadFragment(pipe)) {
+            assertEquals(read++, readHighLevel(pipe));
+        }
+        assertEquals(written, read);
+        assertTrue(tryWriteHighLevel(pipe, written));
+        assertTrue(PipeReader.tryReadFragment(pipe));
+        assertEquals(written, readHighLevel(pipe));
+        assertEquals(1, Pipe.getPublishBatchSize(pipe));
+    }
+
+    @Test
+    public void highLevelQuietProducerTest() throws InterruptedException {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptivePublishBatch(pipe, 2_000_000);
+
+        int written = 0;
+        while (Pipe.getPublishBatchSize(pipe)<8) {
+            assertTrue(tryWriteHighLevel(pipe, written++));
+        }
+        long published = Pipe.headPosition(pipe);
+        assertTrue(tryWriteHighLevel(pipe, written++));
+        assertTrue(PipeWriter.hasRoomForWrite(pipe));
+        assertEquals(published, Pipe.headPosition(pipe));
+
+        //polling for room is enough to publish once past the budget
+        Thread.sleep(5);
+        assertTrue(PipeWriter.hasRoomForWrite(pipe));
+        assertEquals(Pipe.workingHeadPosition(pipe), Pipe.headPosition(pipe));
+    }
+
+    @Test
+    public void highLevelQuietConsumerTest() throws InterruptedException {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        Pipe.setAdaptiveReleaseBatch(pipe, 2_000_000);
+
+        int written = 0;
+        int read = 0;
+        while (Pipe.getReleaseBatchSize(pipe)<4) {
+            int i = 20;
+            while (--i>=0) {
+                assertTrue(tryWriteHighLevel(pipe, written++));
+            }
+            while (PipeReader.tryReadFragment(pipe)) {
+                assertEquals(read++, readHighLevel(pipe));
+            }
+            //empty pipe released everything held
+            assertEquals(Pipe.headPosition(pipe), Pipe.tailPosition(pipe));
+        }
+        int i = 20;
+        while (--i>=0) {
+            assertTrue(tryWriteHighLevel(pipe, written++));
+        }
+        long released = Pipe.tailPosition(pipe);
+        assertTrue(PipeReader.tryReadFragment(pipe));
+        assertEquals(read++, readHighLevel(pipe));
+        assertEquals(released, Pipe.tailPosition(pipe));
+
+        //polling for content is enough to release once past the budget
+        Thread.sleep(5);
+        assertTrue(PipeReader.hasContentToRead(pipe));
+        assertEquals(released+size, Pipe.tailPosition(pipe));
+    }
+
+    private static boolean tryWriteHighLevel(Pipe<RawDataSchema> pipe, int value) {
+        if (PipeWriter.tryWriteFragment(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1)) {
+            PipeWriter.writeBytes(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, bytes(value));
+            PipeWriter.publishWrites(pipe);
+            return true;
+        }
+        return false;
+    }
+
+    private static int readHighLevel(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, PipeReader.getMsgIdx(pipe));
+        byte[] target = new byte[4];
+        assertEquals(4, PipeReader.readBytes(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, target, 0));
+        PipeReader.releaseReadLock(pipe);
+        return toInt(target);
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = bytes(value);
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        byte[] target = new byte[4];
+        Pipe.readBytes(pipe, target, 0, 3, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        return toInt(target);
+    }
+
+    //each value is one chunk holding its four bytes high byte first, for both the low and high level API
+    private static byte[] bytes(int value) {
+        return new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+    }
+
+    private static int toInt(byte[] data) {
+        return ((0xFF&data[0])<<24) | ((0xFF&data[1])<<16) | ((0xFF&data[2])<<8) | (0xFF&data[3]);
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class PipeBroadcastTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+
+    @Test
+    public void slowestConsumerTest() {
+
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance));
+        Pipe<RawDataSchema>[] consumers = Pipe.broadcast(source, 2);
+        assertTrue(Pipe.isBroadcastConsumer(consumers[0]));
+        assertFalse(Pipe.isBroadcastConsumer(source));
+        consumers[0].initBuffers();
+        consumers[1].initBuffers();
+        assertTrue(Pipe.isInit(source));
+        assertSame(Pipe.slab(source), Pipe.slab(consumers[1]));
+
+        int written = 0;
+        while (Pipe.hasRoomForWrite(source, size)) {
+            writeValue(source, written++);
+        }
+        assertTrue(written>0);
+
+        //first consumer reads everything, the producer is still held back by the second
+        int i = 0;
+        while (Pipe.hasContentToRead(consumers[0])) {
+            assertEquals(i++, readValue(consumers[0]));
+        }
+        assertEquals(written, i);
+        assertFalse(Pipe.hasRoomForWrite(source, size));
+
+        //second consumer releases one message so the producer can write one more
+        assertEquals(0, readValue(consumers[1]));
+        assertTrue(Pipe.hasRoomForWrite(source, size));
+        writeValue(source, written++);
+
+        i = 1;
+        while (Pipe.hasContentToRead(consumers[1])) {
+            assertEquals(i++, readValue(consumers[1]));
+        }
+        assertEquals(written, i);
+        assertEquals(written-1, readValue(consumers[0]));
+        assertEquals(Pipe.headPosition(source), Pipe.tailPosition(source));
+
+    }
+
+    @Test
+    public void threadedConsumersTest() throws InterruptedException {
+
+        final int messages = 20000;
+        final Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)8, (byte)12, null, RawDataSchema.instance));
+        final Pipe<RawDataSchema>[] consumers = Pipe.broadcast(source, 3);
+        final AtomicLong[] sums = new AtomicLong[consumers.length];
+
+        Thread[] readers = new Thread[consumers.length];
+        int c = consumers.length;
+        while (--c>=0) {
+            final Pipe<RawDataSchema> consumer = consumers[c];
+            final AtomicLong sum = sums[c] = new AtomicLong();
+            final boolean highLevel = 0==c;
+            consumer.initBuffers();
+            readers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long total = 0;
+                    int count = 0;
+                    byte[] target = new byte[4];
+                    while (count<messages) {
+                        if (highLevel) {
+                            if (PipeReader.tryReadFragment(consumer)) {
+                                PipeReader.readBytes(consumer, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, target, 0);
+                                total += toInt(target);
+                                PipeReader.releaseReadLock(consumer);
+                                count++;
+                            } else {
+                                Thread.yield();
+                            }
+                        } else {
+                            if (Pipe.hasContentToRead(consumer)) {
+                                total += readValue(consumer);
+                                count++;
+                            } else {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                    sum.set(total);
+                }
+            });
+            readers[c].start();
+        }
+
+        int written = 0;
+        while (written<messages) {
+            if (Pipe.hasRoomForWrite(source, size)) {
+                writeValue(source, written++);
+            } else {
+                Thread.yield();
+            }
+        }
+
+        long expected = ((long)messages*(messages-1))/2;
+        c = consumers.length;
+        while (--c>=0) {
+            readers[c].join();
+            assertEquals(expected, sums[c].get());
+        }
+        assertEquals(Pipe.headPosition(source), Pipe.tailPosition(source));
+    }
+
+    @Test
+    public void blobLimitedConsumersTest() throws InterruptedException {
+        //the blob ring fills long before the slab ring so the producer depends on the source blob tail moving forward
+        final int messages = 50000;
+        final Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)6, null, RawDataSchema.instance));
+        final Pipe<RawDataSchema>[] consumers = Pipe.broadcast(source, 4);
+        Thread[] readers = new Thread[consumers.length];
+        int c = consumers.length;
+        while (--c>=0) {
+            final Pipe<RawDataSchema> consumer = consumers[c];
+            consumer.initBuffers();
+            readers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int count = 0;
+                    while (count<messages) {
+                        if (Pipe.hasContentToRead(consumer)) {
+                            assertEquals(count++, readValue(consumer));
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            readers[c].start();
+        }
+
+        int written = 0;
+        long limit = System.nanoTime()+20_000_000_000L;
+        while (written<messages) {
+            if (Pipe.hasRoomForWrite(source, size) && blobFill(source)+4<source.sizeOfBlobRing) { //never completely full, the read base assert can not tell full from empty
+                writeValue(source, written++);
+            } else {
+                assertTrue("producer stalled at "+written, System.nanoTime()<limit);
+                Thread.yield();
+            }
+        }
+        c = consumers.length;
+        while (--c>=0) {
+            readers[c].join();
+        }
+        assertEquals(Pipe.headPosition(source), Pipe.tailPosition(source));
+        assertEquals(Pipe.getBlobRingHeadPosition(source), Pipe.getBlobTailPosition(source));
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        assertEquals(4, len);
+        byte[] target = new byte[4];
+        Pipe.readBytes(pipe, target, 0, 3, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        return toInt(target);
+    }
+
+    private static int blobFill(Pipe<RawDataSchema> pipe) {
+        return Pipe.BYTES_WRAP_MASK&(Pipe.getWorkingBlobHeadPosition(pipe)-Pipe.getBlobTailPosition(pipe));
+    }
+
+    private static int toInt(byte[] data) {
+        return ((0xFF&data[0])<<24) | ((0xFF&data[1])<<16) | ((0xFF&data[2])<<8) | (0xFF&data[3]);
+    }
+
+}
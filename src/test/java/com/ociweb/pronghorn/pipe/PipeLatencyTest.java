@@ -0,0 +1,111 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class PipeLatencyTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final byte[] payload = new byte[]{1,2,3,4};
+
+    @Test
+    public void disabledTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance));
+        pipe.initBuffers();
+        assertNull(Pipe.latencyHistogram(pipe));
+    }
+
+    @Test
+    public void chainTest() throws InterruptedException {
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance).traceLatency();
+        assertTrue(config.isTracingLatency());
+        Pipe<RawDataSchema> first = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> second = new Pipe<RawDataSchema>(config);
+        first.initBuffers();
+        second.initBuffers();
+
+        int messages = 10;
+        int i = messages;
+        while (--i>=0) {
+            Pipe.addMsgIdx(first, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(payload, 0, payload.length, first);
+            Pipe.confirmLowLevelWrite(first, size);
+            Pipe.publishWrites(first);
+        }
+
+        //fragments wait at least this long in the first hop
+        Thread.sleep(20);
+
+        //move each fragment to the second hop with the low level API
+        byte[] target = new byte[payload.length];
+        while (Pipe.hasContentToRead(first)) {
+            Pipe.takeMsgIdx(first);
+            int meta = Pipe.takeRingByteMetaData(first);
+            int len = Pipe.takeRingByteLen(first);
+            Pipe.readBytes(first, target, 0, Integer.MAX_VALUE, meta, len);
+            Pipe.confirmLowLevelRead(first, size);
+            Pipe.releaseReadLock(first);
+
+            Pipe.addMsgIdx(second, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(target, 0, len, second);
+            Pipe.confirmLowLevelWrite(second, size);
+            Pipe.publishWrites(second);
+        }
+
+        //read the second hop with the high level API
+        int count = 0;
+        while (PipeReader.tryReadFragment(second)) {
+            PipeReader.releaseReadLock(second);
+            count++;
+        }
+        assertEquals(messages, count);
+
+        Histogram firstHop = Pipe.latencyHistogram(first);
+        Histogram secondHop = Pipe.latencyHistogram(second);
+        assertEquals(messages, firstHop.getTotalCount());
+        assertEquals(messages, secondHop.getTotalCount());
+        assertTrue(firstHop.getMaxValue() >= 20_000_000L);
+        assertTrue(secondHop.getMaxValue() < firstHop.getMaxValue());
+    }
+
+    @Test
+    public void moveMessagesTest() throws InterruptedException {
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance).traceLatency();
+        Pipe<RawDataSchema> first = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> second = new Pipe<RawDataSchema>(config);
+        first.initBuffers();
+        second.initBuffers();
+
+        int messages = 10;
+        int i = messages;
+        while (--i>=0) {
+            Pipe.addMsgIdx(first, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(payload, 0, payload.length, first);
+            Pipe.confirmLowLevelWrite(first, size);
+            Pipe.publishWrites(first);
+        }
+        Thread.sleep(20);
+
+        //the bulk move releases every fragment of the first hop and stamps each one published on the second
+        assertEquals(messages, Pipe.moveMessages(first, second));
+        Histogram firstHop = Pipe.latencyHistogram(first);
+        assertEquals(messages, firstHop.getTotalCount());
+        assertTrue(firstHop.getMaxValue() >= 20_000_000L);
+
+        //fragments held for a later release are recorded when read
+        while (Pipe.hasContentToRead(second)) {
+            Pipe.takeMsgIdx(second);
+            Pipe.takeRingByteMetaData(second);
+            Pipe.takeRingByteLen(second);
+            Pipe.confirmLowLevelRead(second, size);
+            Pipe.readNextWithoutReleasingReadLock(second);
+        }
+        Pipe.releaseAllPendingReadLock(second);
+        Histogram secondHop = Pipe.latencyHistogram(second);
+        assertEquals(messages, secondHop.getTotalCount());
+        assertTrue(secondHop.getMaxValue() < firstHop.getMaxValue());
+    }
+
+}
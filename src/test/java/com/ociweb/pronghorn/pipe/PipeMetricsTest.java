@@ -0,0 +1,126 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PipeMetricsTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final byte[] payload = new byte[]{1,2,3,4,5,6,7,8};
+
+    @Test
+    public void disabledTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance));
+        pipe.initBuffers();
+        assertNull(PipeMetrics.get(pipe.id));
+        assertFalse(pipe.config().isCollectingMetrics());
+    }
+
+    @Test
+    public void countersTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance).metrics());
+        pipe.initBuffers();
+        PipeMetrics metrics = PipeMetrics.get(pipe.id);
+        assertNotNull(metrics);
+        assertSame(metrics, PipeMetrics.registered()[pipe.id]);
+        assertTrue(pipe.config().isCollectingMetrics());
+
+        int written = 0;
+        while (Pipe.hasRoomForWrite(pipe, size)) {
+            Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(payload, 0, payload.length, pipe);
+            Pipe.confirmLowLevelWrite(pipe, size);
+            Pipe.publishWrites(pipe);
+            written++;
+        }
+        //checking again while still full is the same stall
+        assertFalse(Pipe.hasRoomForWrite(pipe, size));
+
+        assertEquals(written, metrics.fragmentsWritten());
+        assertEquals(written*payload.length, metrics.bytesWritten());
+        assertEquals(1, metrics.fullOnWrite());
+        assertEquals(written*size, metrics.slabHighWater());
+        assertEquals(100, metrics.slabHighWaterPct());
+        assertEquals(written*payload.length, metrics.blobHighWater());
+
+        int read = 0;
+        while (Pipe.hasContentToRead(pipe)) {
+            Pipe.takeMsgIdx(pipe);
+            Pipe.takeRingByteMetaData(pipe);
+            Pipe.takeRingByteLen(pipe);
+            Pipe.confirmLowLevelRead(pipe, size);
+            Pipe.releaseReadLock(pipe);
+            read++;
+        }
+        assertFalse(Pipe.hasContentToRead(pipe));
+        assertEquals(written, read);
+        assertEquals(read, metrics.fragmentsRead());
+        assertEquals(read*payload.length, metrics.bytesRead());
+        assertEquals(1, metrics.emptyOnRead());
+
+        //a new stall is counted once room has been found and used
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(payload, 0, payload.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+        assertTrue(Pipe.hasContentToRead(pipe));
+        Pipe.takeMsgIdx(pipe);
+        Pipe.takeRingByteMetaData(pipe);
+        Pipe.takeRingByteLen(pipe);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        assertFalse(Pipe.hasContentToRead(pipe));
+        assertEquals(2, metrics.emptyOnRead());
+
+        Pipe.releaseBuffers(pipe);
+        assertNull(PipeMetrics.get(pipe.id));
+    }
+
+    @Test
+    public void highLevelCountersTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance).metrics());
+        pipe.initBuffers();
+        PipeMetrics metrics = PipeMetrics.get(pipe.id);
+
+        int written = 0;
+        while (PipeWriter.tryWriteFragment(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1)) {
+            PipeWriter.writeBytes(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, payload);
+            PipeWriter.publishWrites(pipe);
+            written++;
+        }
+        assertFalse(PipeWriter.tryWriteFragment(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+
+        assertEquals(written, metrics.fragmentsWritten());
+        assertEquals(written*payload.length, metrics.bytesWritten());
+        assertEquals(1, metrics.fullOnWrite());
+        assertEquals(written*size, metrics.slabHighWater());
+        assertEquals(written*payload.length, metrics.blobHighWater());
+
+        int read = 0;
+        while (PipeReader.tryReadFragment(pipe)) {
+            assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, PipeReader.getMsgIdx(pipe));
+            PipeReader.releaseReadLock(pipe);
+            read++;
+        }
+        assertFalse(PipeReader.tryReadFragment(pipe));
+        assertEquals(written, read);
+        assertEquals(read, metrics.fragmentsRead());
+        assertEquals(read*payload.length, metrics.bytesRead());
+        assertEquals(1, metrics.emptyOnRead());
+
+        //room found again so the next stall is a new one
+        assertTrue(PipeWriter.tryWriteFragment(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+        PipeWriter.writeBytes(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, payload);
+        PipeWriter.publishWrites(pipe);
+        assertTrue(PipeReader.tryReadFragment(pipe));
+        PipeReader.releaseReadLock(pipe);
+        assertFalse(PipeReader.tryReadFragment(pipe));
+        assertEquals(written+1, metrics.fragmentsWritten());
+        assertEquals(read+1, metrics.fragmentsRead());
+        assertEquals(2, metrics.emptyOnRead());
+
+        Pipe.releaseBuffers(pipe);
+    }
+
+}
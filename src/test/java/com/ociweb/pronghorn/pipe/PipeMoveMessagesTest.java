@@ -0,0 +1,150 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PipeMoveMessagesTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+
+    @Test
+    public void moveUntilFullTest() {
+        //target is smaller than the source so each move is limited by the room there
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)7, (byte)12, null, RawDataSchema.instance));
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)5, (byte)8, null, RawDataSchema.instance));
+        source.initBuffers();
+        target.initBuffers();
+
+        final int messages = 10_000;
+        int written = 0;
+        int read = 0;
+        int moves = 0;
+        boolean eof = false;
+        while (!eof) {
+            while (written<messages && Pipe.hasRoomForWrite(source, size)) {
+                writeValue(source, written++);
+            }
+            if (written==messages && Pipe.hasRoomForWrite(source, Pipe.EOF_SIZE)) {
+                Pipe.publishEOF(source);
+                written++;
+            }
+            Pipe.moveMessages(source, target);
+            moves++;
+            //read only part of the target so it is rarely empty when the next move happens
+            int batch = 3;
+            while (batch-->0 && Pipe.hasContentToRead(target)) {
+                if (Pipe.peekInt(target)<0) {
+                    Pipe.takeMsgIdx(target);
+                    Pipe.confirmLowLevelRead(target, Pipe.EOF_SIZE);
+                    Pipe.releaseReadLock(target);
+                    eof = true;
+                } else {
+                    assertEquals(read++, readValue(target));
+                }
+            }
+        }
+        assertEquals(messages, read);
+        assertTrue(moves<messages);
+        assertEquals(0, Pipe.moveMessages(source, target));
+        assertEquals(Pipe.headPosition(source), Pipe.tailPosition(source));
+    }
+
+    @Test
+    public void moveAllTest() {
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)12, null, RawDataSchema.instance);
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        target.initBuffers();
+
+        int value = 0;
+        int read = 0;
+        int round = 0;
+        while (round++<50) {
+            //everything fits so one call moves all of it
+            int count = 0;
+            while (Pipe.hasRoomForWrite(source, size)) {
+                writeValue(source, value++);
+                count++;
+            }
+            assertEquals(count, Pipe.moveMessages(source, target));
+            while (Pipe.hasContentToRead(target)) {
+                assertEquals(read++, readValue(target));
+            }
+        }
+        assertEquals(value, read);
+    }
+
+    @Test
+    public void metricsAndBatchTest() {
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)12, null, RawDataSchema.instance).metrics();
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        target.initBuffers();
+        Pipe.setPublishBatchSize(target, 2);
+
+        int count = 0;
+        int bytes = 0;
+        while (count<5) {
+            writeValue(source, count);
+            bytes += 4+(count%13);
+            count++;
+        }
+        assertEquals(count, Pipe.moveMessages(source, target));
+        assertEquals(count, PipeMetrics.get(source.id).fragmentsRead());
+        assertEquals(bytes, PipeMetrics.get(source.id).bytesRead());
+        assertEquals(count, PipeMetrics.get(target.id).fragmentsWritten());
+        assertEquals(bytes, PipeMetrics.get(target.id).bytesWritten());
+
+        //the first run only counts towards the publish batch of the target
+        assertTrue(!Pipe.hasContentToRead(target));
+        writeValue(source, count++);
+        assertEquals(1, Pipe.moveMessages(source, target));
+        int read = 0;
+        while (Pipe.hasContentToRead(target)) {
+            assertEquals(read++, readValue(target));
+        }
+        assertEquals(count, read);
+
+        Pipe.releaseBuffers(source);
+        Pipe.releaseBuffers(target);
+    }
+
+    //each value is written with a different length so the blob wraps at many offsets
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[4+(value%13)];
+        data[0] = (byte)(value>>>24);
+        data[1] = (byte)(value>>>16);
+        data[2] = (byte)(value>>>8);
+        data[3] = (byte)value;
+        int i = data.length;
+        while (--i>=4) {
+            data[i] = (byte)value;
+        }
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        byte[] target = new byte[32];
+        Pipe.readBytes(pipe, target, 0, 31, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        int value = ((0xFF&target[0])<<24) | ((0xFF&target[1])<<16) | ((0xFF&target[2])<<8) | (0xFF&target[3]);
+        assertEquals(4+(value%13), len);
+        int i = len;
+        while (--i>=4) {
+            assertEquals((byte)value, target[i]);
+        }
+        return value;
+    }
+
+}
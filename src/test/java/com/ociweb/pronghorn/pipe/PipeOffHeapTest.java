@@ -0,0 +1,188 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeOffHeapTest {
+
+    private static final MessageSchemaDynamic SCHEMA = new MessageSchemaDynamic(buildFROM());
+    private static final FieldReferenceOffsetManager FROM = MessageSchemaDynamic.from(SCHEMA);
+    private static final int ORDER = FieldReferenceOffsetManager.lookupTemplateLocator("Order", FROM);
+    private static final int FILL = FieldReferenceOffsetManager.lookupTemplateLocator("Fill", FROM);
+    private static final int HEARTBEAT = FieldReferenceOffsetManager.lookupTemplateLocator("Heartbeat", FROM);
+    private static final int messages = 20000;
+
+    private static FieldReferenceOffsetManager buildFROM() {
+        try {
+            return TemplateHandler.loadFrom("/template/partitionExample.xml");
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void singleThreadTest() {
+        //small rings so both wrap many times and the symbols land across the end of the blob
+        Pipe<MessageSchemaDynamic> pipe = pipe(6, 9);
+        byte[] target = new byte[16];
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+
+        int written = 0;
+        int read = 0;
+        while (read<messages) {
+            while (written<messages && Pipe.hasRoomForWrite(pipe)) {
+                write(pipe, written++);
+            }
+            while (Pipe.hasContentToRead(pipe)) {
+                //alternate between reading into a wrapping array and into a ByteBuffer
+                verify(pipe, read, target, 0==(read&1) ? null : buffer);
+                read++;
+            }
+        }
+        Pipe.publishEOF(pipe);
+        assertTrue(Pipe.hasContentToRead(pipe));
+        assertEquals(-1, Pipe.takeMsgIdx(pipe));
+    }
+
+    @Test
+    public void crossThreadTest() throws InterruptedException {
+        final Pipe<MessageSchemaDynamic> pipe = pipe(8, 12);
+        Pipe.setPublishBatchSize(pipe, 4);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int written = 0;
+                while (written<messages) {
+                    if (Pipe.hasRoomForWrite(pipe)) {
+                        write(pipe, written++);
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                Pipe.publishAllBatchedWrites(pipe);
+            }
+        });
+        producer.start();
+
+        byte[] target = new byte[16];
+        int read = 0;
+        while (read<messages) {
+            if (Pipe.hasContentToRead(pipe)) {
+                verify(pipe, read++, target, null);
+            } else {
+                Thread.yield();
+            }
+        }
+        producer.join();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void highLevelAPITest() {
+        new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>((byte)6, (byte)9, null, SCHEMA).offHeap());
+    }
+
+    @Test
+    public void releaseBuffersTest() {
+        Pipe<MessageSchemaDynamic> pipe = pipe(6, 9);
+        assertTrue(Pipe.isInit(pipe));
+        Pipe.releaseBuffers(pipe);
+        assertFalse(Pipe.isInit(pipe));
+    }
+
+    private static Pipe<MessageSchemaDynamic> pipe(int slabBits, int blobBits) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>((byte)slabBits, (byte)blobBits, null, SCHEMA).offHeap(), false);
+        pipe.initBuffers();
+        return pipe;
+    }
+
+    //the symbol length changes with each value so the blob wraps at many offsets
+    private static byte[] symbol(int value) {
+        byte[] symbol = new byte[1+value%13];
+        int i = symbol.length;
+        while (--i>=0) {
+            symbol[i] = (byte)(value+i);
+        }
+        return symbol;
+    }
+
+    private static void write(Pipe<MessageSchemaDynamic> pipe, int value) {
+        switch (value%3) {
+            case 0:
+                byte[] symbol = symbol(value);
+                Pipe.addMsgIdx(pipe, ORDER);
+                Pipe.addLongValue(value*7919L, pipe);
+                Pipe.addByteArray(symbol, 0, symbol.length, pipe);
+                Pipe.addIntValue(value, pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, ORDER));
+                break;
+            case 1:
+                Pipe.addMsgIdx(pipe, FILL);
+                Pipe.addIntValue(value, pipe);
+                Pipe.addLongValue(-value, pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, FILL));
+                break;
+            default:
+                Pipe.addMsgIdx(pipe, HEARTBEAT);
+                Pipe.addIntValue(value, pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, HEARTBEAT));
+        }
+        Pipe.publishWrites(pipe);
+    }
+
+    private static void verify(Pipe<MessageSchemaDynamic> pipe, int value, byte[] target, ByteBuffer buffer) {
+        int msgIdx = Pipe.takeMsgIdx(pipe);
+        switch (value%3) {
+            case 0:
+                assertEquals(ORDER, msgIdx);
+                assertEquals(value*7919L, Pipe.takeLong(pipe));
+                int meta = Pipe.takeRingByteMetaData(pipe);
+                int len = Pipe.takeRingByteLen(pipe);
+                byte[] expected = symbol(value);
+                assertEquals(expected.length, len);
+                if (null==buffer) {
+                    //start near the end of the target so the copy also wraps there
+                    Pipe.readBytes(pipe, target, 11, 15, meta, len);
+                    for (int i = 0; i<len; i++) {
+                        assertEquals(expected[i], target[(11+i)&15]);
+                    }
+                } else {
+                    buffer.clear();
+                    Pipe.readBytes(pipe, buffer, meta, len);
+                    assertEquals(len, buffer.position());
+                    for (int i = 0; i<len; i++) {
+                        assertEquals(expected[i], buffer.get(i));
+                    }
+                }
+                assertEquals(value, Pipe.takeInt(pipe));
+                break;
+            case 1:
+                assertEquals(FILL, msgIdx);
+                assertEquals(value, Pipe.peekInt(pipe));
+                assertEquals(value, Pipe.takeInt(pipe));
+                assertEquals(-value, Pipe.takeLong(pipe));
+                break;
+            default:
+                assertEquals(HEARTBEAT, msgIdx);
+                assertEquals(value, Pipe.takeInt(pipe));
+        }
+        Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+        Pipe.releaseReadLock(pipe);
+    }
+
+}
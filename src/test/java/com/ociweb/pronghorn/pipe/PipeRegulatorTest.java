@@ -0,0 +1,126 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeRegulatorTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)10, (byte)16, null, RawDataSchema.instance);
+
+    @Test
+    public void bucketTest() {
+        //1000 per second is 1ms for each, 10 may be taken at once
+        TokenBucket bucket = new TokenBucket(1000, 10);
+        long now = 5_000_000_000L;
+        assertEquals(0, TokenBucket.charge(bucket, 10, now));
+        assertEquals(1_000_000, TokenBucket.charge(bucket, 1, now));
+        assertEquals(3_000_000, TokenBucket.charge(bucket, 2, now));
+        //waiting pays it back exactly
+        assertEquals(0, TokenBucket.charge(bucket, 0, now+3_000_000));
+        //idle time only fills up to the burst
+        assertEquals(0, TokenBucket.charge(bucket, 10, now+1_000_000_000L));
+        assertEquals(5_000_000, TokenBucket.charge(bucket, 5, now+1_000_000_000L));
+    }
+
+    @Test
+    public void fractionalRateTest() {
+        //3 per second can not be expressed in whole ns for each unit, nothing may be lost
+        TokenBucket bucket = new TokenBucket(3, 0);
+        long now = 0;
+        long wait = 0;
+        int i = 3000;
+        while (--i>=0) {
+            wait = TokenBucket.charge(bucket, 1, now);
+        }
+        assertEquals(1000_000_000_000L, wait);
+    }
+
+    @Test
+    public void sharedParentTest() {
+        //each pipe of the tenant may send 100 per second but together only 150
+        TokenBucket tenant = new TokenBucket(150, 0, null, true);
+        assertTrue(TokenBucket.isShared(tenant));
+        TokenBucket a = new TokenBucket(100, 0, tenant);
+        TokenBucket b = new TokenBucket(100, 0, tenant);
+        long now = 0;
+        assertEquals(10_000_000, TokenBucket.charge(a, 1, now));
+        assertEquals(13_333_333, TokenBucket.charge(b, 1, now));
+        //a alone is still limited by the tenant
+        assertEquals(20_000_000, TokenBucket.charge(a, 1, now));
+        assertEquals(20_000_000, TokenBucket.charge(a, 0, now));
+    }
+
+    @Test
+    public void producerRegulationTest() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        //100 messages per second with a burst of 10, 1000 bytes per second with a burst of 100
+        Pipe.setProducerRegulation(pipe, new PipeRegulator(new TokenBucket(100, 10), new TokenBucket(1000, 100)));
+        pipe.initBuffers();
+        assertTrue(Pipe.isRateLimitedProducer(pipe));
+
+        long start = System.nanoTime();
+        int i = 10;
+        while (--i>=0) {
+            write(pipe, 4);
+        }
+        //burst of 10 messages and 40 bytes is free
+        assertEquals(0, Pipe.computeRateLimitProducerDelay(pipe));
+        write(pipe, 4);
+        long wait = Pipe.computeRateLimitProducerDelay(pipe);
+        long elapsed = System.nanoTime()-start;
+        assertTrue(wait<=10_000_000 && wait>=10_000_000-elapsed);
+
+        //a large message is limited by the bytes instead
+        write(pipe, 200);
+        wait = Pipe.computeRateLimitProducerDelay(pipe);
+        elapsed = System.nanoTime()-start;
+        assertTrue(""+wait, wait<=144_000_000 && wait>=144_000_000-elapsed);
+    }
+
+    @Test
+    public void mixedFragmentSizeTest() throws ParserConfigurationException, SAXException, IOException {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/partitionExample.xml");
+        MessageSchemaDynamic schema = new MessageSchemaDynamic(from);
+        int order = FieldReferenceOffsetManager.lookupTemplateLocator("Order", from);
+        Pipe<MessageSchemaDynamic> source = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>((byte)10, (byte)16, null, schema));
+        Pipe<MessageSchemaDynamic> target = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>((byte)10, (byte)16, null, schema));
+        //orders are much larger than the smallest fragment but each must be charged once
+        Pipe.setProducerRegulation(source, new PipeRegulator(new TokenBucket(100, 10), null));
+        Pipe.setConsumerRegulation(source, new PipeRegulator(new TokenBucket(100, 10), null));
+        source.initBuffers();
+        target.initBuffers();
+
+        int i = 10;
+        while (--i>=0) {
+            Pipe.addMsgIdx(source, order);
+            Pipe.addLongValue(i, source);
+            Pipe.addASCII("SYM", source);
+            Pipe.addIntValue(i, source);
+            Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, order));
+            Pipe.publishWrites(source);
+        }
+        assertEquals(0, Pipe.computeRateLimitProducerDelay(source));
+
+        //fragments released in bulk are counted too
+        assertEquals(10, Pipe.moveMessages(source, target));
+        assertEquals(0, Pipe.computeRateLimitConsumerDelay(source));
+    }
+
+    private static void write(Pipe<RawDataSchema> pipe, int length) {
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(new byte[length], 0, length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * This class is not a test and does not run with the coverage tests.
+ *
+ * This is here to capture the latency and the CPU cost of each WaitStrategy.  The producer sends one
+ * timestamped message every interval and the consumer waits for each with spinBlockForContent.
+ * Latency is from publish to the consumer seeing the message, CPU is the consumer thread time as a
+ * percentage of the wall clock time.
+ *
+ */
+public class WaitStrategySpeedTest {
+
+    private static final int messages = 20_000;
+    private static final long intervalNS = 50_000;
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+
+    public static void main(String[] args) throws InterruptedException {
+
+        WaitStrategy[] strategies = new WaitStrategy[] {
+                WaitStrategy.BUSY_SPIN,
+                WaitStrategy.YIELD,
+                WaitStrategy.backoff(100, 100, 1_000_000),
+                WaitStrategy.timedPark(20_000),
+                WaitStrategy.BLOCKING
+        };
+
+        int i = 3;
+        while (--i>=0) {
+            for(WaitStrategy strategy: strategies) {
+                runTest(strategy);
+            }
+        }
+    }
+
+    private static void runTest(WaitStrategy strategy) throws InterruptedException {
+        final Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)10, (byte)16, null, RawDataSchema.instance).waitStrategy(strategy));
+        pipe.initBuffers();
+
+        final long[] result = new long[3];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                long cpuStart = bean.getCurrentThreadCpuTime();
+                long wallStart = System.nanoTime();
+                long totalLatency = 0;
+                long maxLatency = 0;
+                int r = messages;
+                while (--r>=0) {
+                    Pipe.spinBlockForContent(pipe);
+                    long now = System.nanoTime();
+                    Pipe.takeMsgIdx(pipe);
+                    long latency = now - Pipe.takeLong(pipe);
+                    Pipe.confirmLowLevelRead(pipe, size);
+                    Pipe.releaseReadLock(pipe);
+                    totalLatency += latency;
+                    maxLatency = Math.max(maxLatency, latency);
+                }
+                result[0] = totalLatency/messages;
+                result[1] = maxLatency;
+                result[2] = (100*(bean.getCurrentThreadCpuTime()-cpuStart))/(System.nanoTime()-wallStart);
+            }
+        });
+        consumer.start();
+
+        long next = System.nanoTime();
+        int w = messages;
+        while (--w>=0) {
+            next += intervalNS;
+            while (System.nanoTime()<next) {
+                Thread.yield();
+            }
+            Pipe.spinBlockForRoom(pipe, size);
+            Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            //the payload is not read, the first two ints of the field hold the timestamp
+            Pipe.addLongValue(System.nanoTime(), pipe);
+            Pipe.confirmLowLevelWrite(pipe, size);
+            Pipe.publishWrites(pipe);
+        }
+        consumer.join();
+
+        System.out.println(strategy+" avg latency "+result[0]+"ns max latency "+result[1]+"ns consumer cpu "+result[2]+"%");
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class WaitStrategyTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+
+    @Test
+    public void configTest() {
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>(RawDataSchema.instance);
+        assertSame(WaitStrategy.YIELD, config.waitStrategy());
+        PipeConfig<RawDataSchema> blocking = config.waitStrategy(WaitStrategy.BLOCKING);
+        assertSame(WaitStrategy.BLOCKING, blocking.waitStrategy());
+        assertSame(WaitStrategy.BLOCKING, blocking.grow2x().waitStrategy());
+        assertSame(WaitStrategy.BLOCKING, new Pipe<RawDataSchema>(blocking).config().waitStrategy());
+    }
+
+    @Test
+    public void yieldTest() throws InterruptedException {
+        transfer(WaitStrategy.YIELD);
+    }
+
+    @Test
+    public void backoffTest() throws InterruptedException {
+        transfer(WaitStrategy.backoff(10, 10, 100_000));
+    }
+
+    @Test
+    public void timedParkTest() throws InterruptedException {
+        transfer(WaitStrategy.timedPark(10_000));
+    }
+
+    @Test
+    public void blockingTest() throws InterruptedException {
+        transfer(WaitStrategy.BLOCKING);
+    }
+
+    @Test
+    public void blockingWakeTest() throws InterruptedException {
+        final Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance).waitStrategy(WaitStrategy.BLOCKING));
+        pipe.initBuffers();
+
+        final long[] wokeAt = new long[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Pipe.spinBlockForContent(pipe);
+                wokeAt[0] = System.nanoTime();
+            }
+        });
+        consumer.start();
+
+        //wait until the consumer has registered and parked
+        while (null==pipe.waitingReader.get()) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        long publishedAt = System.nanoTime();
+        writeValue(pipe, 1);
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertTrue(wokeAt[0]>=publishedAt);
+        assertNull(pipe.waitingReader.get());
+    }
+
+    private static void transfer(WaitStrategy strategy) throws InterruptedException {
+        final int messages = 5000;
+        final Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance).waitStrategy(strategy));
+        pipe.initBuffers();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                while (i<messages) {
+                    Pipe.spinBlockForRoom(pipe, size);
+                    writeValue(pipe, i++);
+                }
+            }
+        });
+        producer.start();
+
+        int i = 0;
+        while (i<messages) {
+            Pipe.spinBlockForContent(pipe);
+            assertEquals(i++, readValue(pipe));
+        }
+        producer.join();
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        byte[] target = new byte[4];
+        Pipe.readBytes(pipe, target, 0, 3, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        return ((0xFF&target[0])<<24) | ((0xFF&target[1])<<16) | ((0xFF&target[2])<<8) | (0xFF&target[3]);
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.PipeMultiTemplateTest;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class MappedPipeTest {
+
+    private static final int testMessages = 20000;
+    
+    @Test
+    public void producerConsumerTest() throws IOException, InterruptedException {
+        
+        File file = File.createTempFile("mappedPipe", ".dat");
+        file.deleteOnExit();
+        
+        //small rings so we wrap the shared file many times
+        final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance);
+        final MappedPipe<RawDataSchema> producerSide = MappedPipe.create(file, config, RawDataSchema.instance);
+        final MappedPipe<RawDataSchema> consumerSide = MappedPipe.open(file, RawDataSchema.instance);
+        assertEquals(1<<6, MappedPipe.slabSize(consumerSide));
+        assertEquals(1<<10, MappedPipe.blobSize(consumerSide));
+        
+        final Pipe<RawDataSchema> local = new Pipe<RawDataSchema>(config);
+        local.initBuffers();
+        
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = new byte[40];
+                int size = Pipe.sizeOf(local, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+                int i = 0;
+                while (i<testMessages) {
+                    if (Pipe.hasRoomForWrite(local, size)) {
+                        int len = i%data.length;
+                        int j = len;
+                        while (--j>=0) {
+                            data[j] = (byte)(i+j);
+                        }
+                        Pipe.addMsgIdx(local, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+                        Pipe.addByteArray(data, 0, len, local);
+                        Pipe.confirmLowLevelWrite(local, size);
+                        Pipe.publishWrites(local);
+                        i++;
+                    }
+                    if (0==MappedPipe.publish(local, producerSide)) {
+                        Thread.yield();
+                    }
+                }
+                while (Pipe.contentRemaining(local)>0) {
+                    if (0==MappedPipe.publish(local, producerSide)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        
+        Pipe<RawDataSchema> received = new Pipe<RawDataSchema>(config);
+        received.initBuffers();
+        int size = Pipe.sizeOf(received, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        byte[] data = new byte[40];
+        int i = 0;
+        long timeout = System.currentTimeMillis()+20_000;
+        while (i<testMessages) {
+            if (0==MappedPipe.consume(consumerSide, received)) {
+                Thread.yield();
+            }
+            while (Pipe.hasContentToRead(received)) {
+                assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(received));
+                int meta = Pipe.takeRingByteMetaData(received);
+                int len = Pipe.takeRingByteLen(received);
+                assertEquals(i%data.length, len);
+                Pipe.readBytes(received, data, 0, 0xFFFF, meta, len);
+                int j = len;
+                while (--j>=0) {
+                    assertEquals((byte)(i+j), data[j]);
+                }
+                Pipe.confirmLowLevelRead(received, size);
+                Pipe.releaseReadLock(received);
+                i++;
+            }
+            if (System.currentTimeMillis()>timeout) {
+                fail("timeout after "+i+" messages "+consumerSide);
+            }
+        }
+        producer.join();
+        assertEquals(0, MappedPipe.contentRemaining(consumerSide));
+        
+        producerSide.close();
+        consumerSide.close();
+    }
+    
+    @Test
+    public void inPlaceTest() throws IOException, InterruptedException {
+        File file = File.createTempFile("mappedPipe", ".dat");
+        file.deleteOnExit();
+
+        final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance);
+        final MappedPipe<RawDataSchema> producerSide = MappedPipe.create(file, config, RawDataSchema.instance);
+        final MappedPipe<RawDataSchema> consumerSide = MappedPipe.open(file, RawDataSchema.instance);
+        final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+
+        //written straight into the shared file with no local pipe
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = new byte[40];
+                int i = 0;
+                while (i<testMessages) {
+                    int len = i%data.length;
+                    if (MappedPipe.hasRoomForWrite(producerSide, size, len)) {
+                        int j = len;
+                        while (--j>=0) {
+                            data[j] = (byte)(i+j);
+                        }
+                        MappedPipe.addMsgIdx(producerSide, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+                        MappedPipe.addByteArray(data, 0, len, producerSide);
+                        MappedPipe.publishWrites(producerSide);
+                        i++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        //first half read in place, the rest through a local pipe which must see the same layout
+        byte[] data = new byte[40];
+        int i = 0;
+        long timeout = System.currentTimeMillis()+20_000;
+        while (i<testMessages/2) {
+            if (MappedPipe.hasContentToRead(consumerSide)) {
+                assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, MappedPipe.takeMsgIdx(consumerSide));
+                int len = MappedPipe.readBytes(consumerSide, data, 0);
+                assertEquals(i%data.length, len);
+                int j = len;
+                while (--j>=0) {
+                    assertEquals((byte)(i+j), data[j]);
+                }
+                MappedPipe.releaseReadLock(consumerSide);
+                i++;
+            } else {
+                Thread.yield();
+            }
+            if (System.currentTimeMillis()>timeout) {
+                fail("timeout after "+i+" messages "+consumerSide);
+            }
+        }
+        Pipe<RawDataSchema> received = new Pipe<RawDataSchema>(config);
+        received.initBuffers();
+        while (i<testMessages) {
+            if (0==MappedPipe.consume(consumerSide, received)) {
+                Thread.yield();
+            }
+            while (Pipe.hasContentToRead(received)) {
+                assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(received));
+                int meta = Pipe.takeRingByteMetaData(received);
+                int len = Pipe.takeRingByteLen(received);
+                assertEquals(i%data.length, len);
+                Pipe.readBytes(received, data, 0, 0xFFFF, meta, len);
+                int j = len;
+                while (--j>=0) {
+                    assertEquals((byte)(i+j), data[j]);
+                }
+                Pipe.confirmLowLevelRead(received, size);
+                Pipe.releaseReadLock(received);
+                i++;
+            }
+            if (System.currentTimeMillis()>timeout) {
+                fail("timeout after "+i+" messages "+consumerSide);
+            }
+        }
+        producer.join();
+        assertEquals(0, MappedPipe.contentRemaining(consumerSide));
+
+        producerSide.close();
+        consumerSide.close();
+    }
+
+    @Test
+    public void schemaMismatchTest() throws IOException {
+        File file = File.createTempFile("mappedPipe", ".dat");
+        file.deleteOnExit();
+        
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance);
+        MappedPipe<RawDataSchema> producerSide = MappedPipe.create(file, config, RawDataSchema.instance);
+        try {
+            MappedPipe.open(file, new MessageSchemaDynamic(PipeMultiTemplateTest.buildFROM()));
+            fail("schema should not have matched");
+        } catch (UnsupportedOperationException uoe) {
+            assertTrue(uoe.getMessage().contains("GUID"));
+        }
+        producerSide.close();
+    }
+    
+}
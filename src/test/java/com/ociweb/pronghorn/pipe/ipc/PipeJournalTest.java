@@ -0,0 +1,184 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class PipeJournalTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance);
+
+    @Test
+    public void journalAndReplayTest() throws IOException, InterruptedException {
+        File dir = tempDir();
+
+        //small files so the journal rolls over many of them
+        PipeJournal<RawDataSchema> journal = new PipeJournal<RawDataSchema>(dir, RawDataSchema.instance, 4096, 512, 1_000_000);
+        journal(journal, 0, 3000);
+        journal.close();
+        assertTrue(PipeJournal.logFiles(dir).length>1);
+
+        Thread.sleep(5);
+        long restartTime = System.currentTimeMillis();
+        Thread.sleep(5);
+
+        //reopened the journal continues where it stopped
+        journal = new PipeJournal<RawDataSchema>(dir, RawDataSchema.instance, 4096, 512, 1_000_000);
+        assertEquals(3000L*size, PipeJournal.position(journal));
+        journal(journal, 3000, 4000);
+        journal.close();
+
+        PipeJournalReader<RawDataSchema> reader = new PipeJournalReader<RawDataSchema>(dir, RawDataSchema.instance);
+        assertEquals(0, replay(reader, 4000));
+
+        assertEquals(2500L*size, PipeJournalReader.seekPosition(reader, 2500L*size));
+        assertEquals(2500, replay(reader, 4000));
+
+        //a position inside a fragment moves to the next one
+        assertEquals(1001L*size, PipeJournalReader.seekPosition(reader, 1000L*size+1));
+        assertEquals(1001, replay(reader, 4000));
+
+        assertEquals(3000L*size, PipeJournalReader.seekTime(reader, restartTime));
+        assertEquals(3000, replay(reader, 4000));
+        reader.close();
+
+        deleteDir(dir);
+    }
+
+    @Test
+    public void tornRecordTest() throws IOException {
+        File dir = tempDir();
+
+        //one record for each fragment
+        PipeJournal<RawDataSchema> journal = new PipeJournal<RawDataSchema>(dir, RawDataSchema.instance, 1<<16, 512, 0);
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        int i = 0;
+        while (i<100) {
+            writeValue(source, i++);
+            assertEquals(1, PipeJournal.append(source, journal, null));
+        }
+        journal.close();
+
+        //damage the content of the last record as if the crash happened before it reached the disk
+        File[] logs = PipeJournal.logFiles(dir);
+        RandomAccessFile raf = new RandomAccessFile(logs[logs.length-1], "rw");
+        raf.seek(findEnd(raf)-1);
+        raf.write(0xFF);
+        raf.close();
+
+        journal = new PipeJournal<RawDataSchema>(dir, RawDataSchema.instance, 1<<16, 512, 0);
+        assertEquals(99L*size, PipeJournal.position(journal));
+        journal(journal, 99, 200);
+        journal.close();
+
+        PipeJournalReader<RawDataSchema> reader = new PipeJournalReader<RawDataSchema>(dir, RawDataSchema.instance);
+        assertEquals(0, replay(reader, 200));
+        reader.close();
+
+        deleteDir(dir);
+    }
+
+    /**
+     * Journals the values from first to last, forwarding them to a pipe which is checked.
+     */
+    private static void journal(PipeJournal<RawDataSchema> journal, int first, int last) {
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        target.initBuffers();
+        int i = first;
+        int expected = first;
+        while (expected<last) {
+            if (i<last && Pipe.hasRoomForWrite(source, size)) {
+                writeValue(source, i++);
+            }
+            PipeJournal.append(source, journal, target);
+            //consume slowly so the target is often full
+            if (0==(i&3) || i==last) {
+                while (Pipe.hasContentToRead(target)) {
+                    assertEquals(expected++, readValue(target));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first value replayed, all following values must be in order up to the end
+     */
+    private static int replay(PipeJournalReader<RawDataSchema> reader, int end) {
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        target.initBuffers();
+        int first = -1;
+        int expected = -1;
+        while (PipeJournalReader.replay(reader, target)>0) {
+            while (Pipe.hasContentToRead(target)) {
+                int value = readValue(target);
+                if (first<0) {
+                    first = expected = value;
+                }
+                assertEquals(expected++, value);
+            }
+        }
+        assertEquals(end, expected);
+        return first;
+    }
+
+    //walks the records to find the end of the last one
+    private static long findEnd(RandomAccessFile raf) throws IOException {
+        ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()).order(ByteOrder.nativeOrder());
+        int offset = 0;
+        int slabLength;
+        while ((slabLength = buffer.getInt(offset))>0) {
+            offset += PipeJournal.RECORD_HEADER_SIZE+(slabLength<<2)+buffer.getInt(offset+4);
+        }
+        return offset;
+    }
+
+    private static File tempDir() throws IOException {
+        File dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        byte[] target = new byte[4];
+        Pipe.readBytes(pipe, target, 0, 3, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        return ((0xFF&target[0])<<24) | ((0xFF&target[1])<<16) | ((0xFF&target[2])<<8) | (0xFF&target[3]);
+    }
+
+}
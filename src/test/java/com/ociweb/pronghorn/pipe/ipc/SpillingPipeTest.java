@@ -0,0 +1,95 @@
+package com.ociweb.pronghorn.pipe.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class SpillingPipeTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+
+    @Test
+    public void offlineConsumerTest() throws IOException {
+
+        File dir = File.createTempFile("spill", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance);
+        Pipe<RawDataSchema> local = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> ring = new Pipe<RawDataSchema>(config);
+        local.initBuffers();
+        ring.initBuffers();
+
+        //small segments so the spill rolls over many files
+        SpillingPipe<RawDataSchema> sp = new SpillingPipe<RawDataSchema>(ring, dir, 0);
+
+        //the consumer is offline, the producer never blocks
+        int messages = 2000;
+        int i = 0;
+        while (i<messages) {
+            writeValue(local, i++);
+            SpillingPipe.publish(local, sp);
+        }
+        assertTrue(SpillingPipe.spilled(sp)>0);
+        assertEquals(messages - Pipe.contentRemaining(ring)/size, SpillingPipe.spilled(sp));
+        assertTrue(SpillingPipe.segments(sp)>1);
+        assertEquals(SpillingPipe.segments(sp), dir.list().length);
+
+        //the consumer comes back while new fragments are still arriving
+        int read = 0;
+        while (read<messages*2) {
+            if (i<messages*2) {
+                writeValue(local, i++);
+            }
+            SpillingPipe.publish(local, sp);
+            while (PipeReader.tryReadFragment(ring)) {
+                assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, PipeReader.getMsgIdx(ring));
+                byte[] data = new byte[4];
+                PipeReader.readBytes(ring, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, data, 0);
+                assertEquals(read++, toInt(data));
+                PipeReader.releaseReadLock(ring);
+            }
+        }
+        assertEquals(0, SpillingPipe.spilled(sp));
+        assertEquals(messages*2, read);
+
+        //consumed segments are reclaimed, only one is kept for reuse
+        assertEquals(1, SpillingPipe.segments(sp));
+        assertEquals(1, dir.list().length);
+
+        //once caught up fragments go straight to the ring again
+        long spilled = SpillingPipe.totalSpilled(sp);
+        writeValue(local, read);
+        SpillingPipe.publish(local, sp);
+        assertEquals(spilled, SpillingPipe.totalSpilled(sp));
+        assertEquals(size, Pipe.contentRemaining(ring));
+
+        sp.close();
+        assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int toInt(byte[] data) {
+        return ((0xFF&data[0])<<24) | ((0xFF&data[1])<<16) | ((0xFF&data[2])<<8) | (0xFF&data[3]);
+    }
+
+}
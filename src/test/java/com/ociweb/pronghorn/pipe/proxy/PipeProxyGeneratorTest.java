@@ -0,0 +1,136 @@
+package com.ociweb.pronghorn.pipe.proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeProxyGeneratorTest {
+
+    @ProngTemplateMessage(templateId=1)
+    public interface TradeWriter {
+        @ProngTemplateField(fieldId=10) void id(long value);
+        @ProngTemplateField(fieldId=11) void symbol(CharSequence value);
+        @ProngTemplateField(fieldId=12) void quantity(int value);
+        @ProngTemplateField(fieldId=13, decimalPlaces=2) void price(double value);
+        @ProngTemplateField(fieldId=14) void note(CharSequence value);
+        @ProngTemplateField(fieldId=15) void payload(byte[] value);
+    }
+
+    @ProngTemplateMessage(templateId=1)
+    public interface TradeReader {
+        @ProngTemplateField(fieldId=10) long id();
+        @ProngTemplateField(fieldId=11) <A extends Appendable> A symbol(A target);
+        @ProngTemplateField(fieldId=12) Integer quantity();
+        @ProngTemplateField(fieldId=13) double price();
+        @ProngTemplateField(fieldId=14) Appendable note(Appendable target);
+        @ProngTemplateField(fieldId=15) int payload(byte[] target, int offset);
+    }
+
+    //not public so it can only be implemented by the reflection proxy
+    @ProngTemplateMessage(templateId=1)
+    interface TradeView {
+        @ProngTemplateField(fieldId=10) long id();
+        @ProngTemplateField(fieldId=12) int quantity();
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        Pipe<MessageSchemaDynamic> pipe = pipe();
+        EventConsumer consumer = new EventConsumer(pipe);
+        EventProducer producer = new EventProducer(pipe);
+
+        TradeWriter writer = EventConsumer.create(consumer, TradeWriter.class);
+        assertFalse(Proxy.isProxyClass(writer.getClass()));
+        writer.id(1L<<33);
+        writer.symbol("IBM");
+        writer.quantity(-40);
+        writer.price(12.34);
+        writer.note("grün");
+        writer.payload(new byte[]{1, 2, 3});
+        EventConsumer.publish(consumer, writer);
+
+        writer = EventConsumer.create(consumer, TradeWriter.class);
+        writer.id(2);
+        writer.symbol("GE");
+        writer.quantity(7);
+        writer.price(0.5);
+        writer.note(null);
+        writer.payload(new byte[0]);
+        EventConsumer.publish(consumer, writer);
+
+        TradeReader reader = EventProducer.take(producer, TradeReader.class);
+        assertFalse(Proxy.isProxyClass(reader.getClass()));
+        assertEquals(1L<<33, reader.id());
+        assertEquals("IBM", reader.symbol(new StringBuilder()).toString());
+        assertEquals(Integer.valueOf(-40), reader.quantity());
+        assertEquals(12.34, reader.price(), .00001);
+        assertEquals("grün", reader.note(new StringBuilder()).toString());
+        byte[] target = new byte[3];
+        assertEquals(3, reader.payload(target, 0));
+        assertArrayEquals(new byte[]{1, 2, 3}, target);
+        EventProducer.dispose(producer, reader);
+
+        reader = EventProducer.take(producer, TradeReader.class);
+        assertEquals(2, reader.id());
+        assertEquals("GE", reader.symbol(new StringBuilder()).toString());
+        assertEquals(.5, reader.price(), .00001);
+        assertNull(reader.note(new StringBuilder()));
+        EventProducer.dispose(producer, reader);
+
+        assertNull(EventProducer.take(producer, TradeReader.class));
+    }
+
+    @Test
+    public void generatedClassIsSharedTest() {
+        Object first = EventConsumer.create(new EventConsumer(pipe()), TradeWriter.class);
+        Object second = EventConsumer.create(new EventConsumer(pipe()), TradeWriter.class);
+        assertSame(first.getClass(), second.getClass());
+    }
+
+    @Test
+    public void reflectionFallbackTest() {
+        Pipe<MessageSchemaDynamic> pipe = pipe();
+        EventConsumer consumer = new EventConsumer(pipe);
+        EventProducer producer = new EventProducer(pipe);
+
+        TradeWriter writer = EventConsumer.create(consumer, TradeWriter.class);
+        writer.id(42);
+        writer.symbol("IBM");
+        writer.quantity(100);
+        writer.price(1);
+        writer.note(null);
+        writer.payload(new byte[0]);
+        EventConsumer.publish(consumer, writer);
+
+        TradeView reader = EventProducer.take(producer, TradeView.class);
+        assertTrue(Proxy.isProxyClass(reader.getClass()));
+        assertEquals(42, reader.id());
+        assertEquals(100, reader.quantity());
+        EventProducer.dispose(producer, reader);
+    }
+
+    private static Pipe<MessageSchemaDynamic> pipe() {
+        try {
+            FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/flyweightExample.xml");
+            Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>((byte)6, (byte)15, null, new MessageSchemaDynamic(from)));
+            pipe.initBuffers();
+            return pipe;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.ociweb.pronghorn.pipe.schema.loader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class FROMBinaryTest {
+
+    private static final String[] TEMPLATES = new String[] {"/template/smallExample.xml",
+                                                            "/template/flyweightExample.xml",
+                                                            "/performance/example.xml"};
+
+    @Test
+    public void roundTripTest() throws Exception {
+        for (String template : TEMPLATES) {
+            FieldReferenceOffsetManager expected = TemplateHandler.loadFrom(template);
+            FieldReferenceOffsetManager actual = FROMBinary.read(ByteBuffer.wrap(bytes(expected)));
+
+            assertEquals(template, expected, actual);
+            assertArrayEquals(template, expected.cloneGUID(), actual.cloneGUID());
+            assertEquals(expected.name, actual.name);
+            assertArrayEquals(expected.fieldNameScript, actual.fieldNameScript);
+            assertArrayEquals(expected.dictionaryNameScript, actual.dictionaryNameScript);
+            assertArrayEquals(expected.newLongDefaultsDictionary(), actual.newLongDefaultsDictionary());
+            assertArrayEquals(expected.newIntDefaultsDictionary(), actual.newIntDefaultsDictionary());
+            assertArrayEquals(expected.fragDataSize, actual.fragDataSize);
+        }
+    }
+
+    @Test
+    public void generatedSchemaTest() throws Exception {
+        FieldReferenceOffsetManager expected = RawDataSchema.FROM;
+        FieldReferenceOffsetManager actual = FROMBinary.read(ByteBuffer.wrap(bytes(expected)));
+        assertArrayEquals(expected.cloneGUID(), actual.cloneGUID());
+    }
+
+    @Test
+    public void compileAndMapTest() throws Exception {
+        File folder = File.createTempFile("templates", "");
+        assertTrue(folder.delete());
+        try {
+            FROMBinary.main(new String[] {folder.getPath(), "src/test/resources/template/flyweightExample.xml"});
+
+            File compiled = new File(folder, "flyweightExample"+FROMBinary.EXTENSION);
+            assertTrue(compiled.isFile());
+
+            FieldReferenceOffsetManager expected = TemplateHandler.loadFrom("/template/flyweightExample.xml");
+            FieldReferenceOffsetManager actual = TemplateHandler.loadFrom(compiled.getPath());
+            assertArrayEquals(expected.cloneGUID(), actual.cloneGUID());
+            assertEquals(expected.getLoc("Trade", "Price"), actual.getLoc("Trade", "Price"));
+
+            try {
+                TemplateHandler.loadFrom(compiled.getPath(), (short)8);
+                fail("preamble does not match");
+            } catch (UnsupportedOperationException e) {
+                //expected
+            }
+        } finally {
+            File[] files = folder.listFiles();
+            if (null != files) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void damagedTest() throws Exception {
+        byte[] bytes = bytes(TemplateHandler.loadFrom("/template/smallExample.xml"));
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] = 0;
+        try {
+            FROMBinary.read(ByteBuffer.wrap(badMagic));
+            fail("magic is wrong");
+        } catch (IOException e) {
+            //expected
+        }
+
+        //last byte belongs to the stored GUID
+        byte[] badGUID = bytes.clone();
+        badGUID[badGUID.length-1]++;
+        try {
+            FROMBinary.read(ByteBuffer.wrap(badGUID));
+            fail("GUID is wrong");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    private static byte[] bytes(FieldReferenceOffsetManager from) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FROMBinary.write(from, out);
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.ociweb.pronghorn.pipe.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class RingChannelsTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)5, (byte)10, null, RawDataSchema.instance);
+
+    @Test
+    public void fileChannelTest() throws IOException {
+        byte[] data = testData(100_000);
+
+        File file = File.createTempFile("ringChannel", ".dat");
+        file.deleteOnExit();
+
+        Pipe<RawDataSchema> input = new Pipe<RawDataSchema>(config);
+        input.initBuffers();
+        RingChannelWriter writer = new RingChannelWriter(input);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        int offset = 0;
+        boolean eofSent = false;
+        while (true) {
+            if (offset<data.length) {
+                offset = writeChunk(input, data, offset);
+            } else if (!eofSent && Pipe.hasRoomForWrite(input, size)) {
+                Pipe.publishEOF(input);
+                eofSent = true;
+            }
+            if (writer.write(channel)<0) {
+                break;
+            }
+        }
+        assertEquals(data.length, channel.size());
+
+        channel.position(0);
+        Pipe<RawDataSchema> output = new Pipe<RawDataSchema>(config);
+        output.initBuffers();
+        RingChannelReader reader = new RingChannelReader(output);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        while (!drain(output, result)) {
+            reader.read(channel);
+        }
+        raf.close();
+        assertArrayEquals(data, result.toByteArray());
+    }
+
+    @Test
+    public void nonBlockingPipeTest() throws IOException {
+        byte[] data = testData(200_000);
+
+        java.nio.channels.Pipe nioPipe = java.nio.channels.Pipe.open();
+        nioPipe.sink().configureBlocking(false);
+        nioPipe.source().configureBlocking(false);
+
+        Pipe<RawDataSchema> input = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> output = new Pipe<RawDataSchema>(config);
+        input.initBuffers();
+        output.initBuffers();
+        RingChannelWriter writer = new RingChannelWriter(input);
+        RingChannelReader reader = new RingChannelReader(output);
+
+        //only read once the sink stops accepting so its buffer fills and partial writes happen
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int offset = 0;
+        while (result.size()<data.length) {
+            if (offset<data.length) {
+                offset = writeChunk(input, data, offset);
+            }
+            if (0==writer.write(nioPipe.sink())) {
+                reader.read(nioPipe.source());
+                drain(output, result);
+            }
+        }
+        nioPipe.sink().close();
+        nioPipe.source().close();
+        assertArrayEquals(data, result.toByteArray());
+    }
+
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static int writeChunk(Pipe<RawDataSchema> pipe, byte[] data, int offset) {
+        //odd lengths so the blobs wrap at many different positions
+        int len = Math.min(data.length-offset, 1+(offset%97));
+        if (Pipe.hasRoomForWrite(pipe, size)) {
+            Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(data, offset, len, pipe);
+            Pipe.confirmLowLevelWrite(pipe, size);
+            Pipe.publishWrites(pipe);
+            return offset+len;
+        }
+        return offset;
+    }
+
+    /**
+     * @return true once the EOF has been read
+     */
+    private static boolean drain(Pipe<RawDataSchema> pipe, ByteArrayOutputStream result) {
+        while (Pipe.hasContentToRead(pipe)) {
+            int msgIdx = Pipe.takeMsgIdx(pipe);
+            if (msgIdx<0) {
+                Pipe.confirmLowLevelRead(pipe, Pipe.EOF_SIZE);
+                Pipe.releaseReadLock(pipe);
+                return true;
+            }
+            int meta = Pipe.takeRingByteMetaData(pipe);
+            int len = Pipe.takeRingByteLen(pipe);
+            byte[] target = new byte[len];
+            Pipe.readBytes(pipe, target, 0, Integer.MAX_VALUE, meta, len);
+            result.write(target, 0, len);
+            Pipe.confirmLowLevelRead(pipe, size);
+            Pipe.releaseReadLock(pipe);
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeMergerTest {
+
+    private static final MessageSchemaDynamic SCHEMA = new MessageSchemaDynamic(buildFROM());
+    private static final FieldReferenceOffsetManager FROM = MessageSchemaDynamic.from(SCHEMA);
+    private static final int MSG_FILL = FieldReferenceOffsetManager.lookupTemplateLocator("Fill", FROM);
+    private static final int MSG_HEARTBEAT = FieldReferenceOffsetManager.lookupTemplateLocator("Heartbeat", FROM);
+    private static final int size = Pipe.sizeOf(SCHEMA, MSG_FILL);
+    private static final int messages = 5000;
+
+    private static FieldReferenceOffsetManager buildFROM() {
+        try {
+            return TemplateHandler.loadFrom("/template/partitionExample.xml");
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void orderTest() {
+        Pipe<MessageSchemaDynamic>[] inputs = pipes(4, (byte)6);
+        Pipe<MessageSchemaDynamic> output = pipe((byte)8);
+        PipeMerger<MessageSchemaDynamic> merger = new PipeMerger<MessageSchemaDynamic>(SCHEMA, "Sequence", inputs, output, Long.MAX_VALUE);
+
+        Random random = new Random(42);
+        int written = 0;
+        int read = 0;
+        boolean[] ended = new boolean[inputs.length];
+        boolean eof = false;
+        while (!eof) {
+            //each sequence goes to one random input so every input is in order but they are not in step
+            int input = random.nextInt(inputs.length);
+            if (written<messages && Pipe.hasRoomForWrite(inputs[input], 2*size)) {
+                write(inputs[input], written++);
+            } else if (written==messages && !ended[input] && Pipe.hasRoomForWrite(inputs[input], Pipe.EOF_SIZE)) {
+                Pipe.publishEOF(inputs[input]);
+                ended[input] = true;
+            }
+            PipeMerger.merge(merger);
+            while (Pipe.hasContentToRead(output)) {
+                int msgIdx = Pipe.takeMsgIdx(output);
+                if (msgIdx<0) {
+                    Pipe.confirmLowLevelRead(output, Pipe.EOF_SIZE);
+                    Pipe.releaseReadLock(output);
+                    eof = true;
+                } else {
+                    assertEquals(read++, read(output, msgIdx));
+                }
+            }
+        }
+        assertEquals(messages, read);
+        assertEquals(0, PipeMerger.late(merger));
+    }
+
+    @Test
+    public void watermarkTest() {
+        Pipe<MessageSchemaDynamic>[] inputs = pipes(2, (byte)8);
+        Pipe<MessageSchemaDynamic> output = pipe((byte)8);
+        PipeMerger<MessageSchemaDynamic> merger = new PipeMerger<MessageSchemaDynamic>(SCHEMA, 12, inputs, output, Long.MAX_VALUE);
+        int i = 0;
+        while (i<20) {
+            write(inputs[0], i++);
+        }
+        //the quiet input could still send anything
+        assertEquals(0, PipeMerger.merge(merger));
+        PipeMerger.watermark(merger, 1, 9);
+        //sequences 0 through 9 and the heartbeats after 0 and 8
+        assertEquals(12, PipeMerger.merge(merger));
+        write(inputs[1], 20);
+        assertEquals(11, PipeMerger.merge(merger));
+        assertEquals(0, PipeMerger.late(merger));
+    }
+
+    @Test
+    public void idleTimeoutTest() throws InterruptedException {
+        Pipe<MessageSchemaDynamic>[] inputs = pipes(2, (byte)8);
+        Pipe<MessageSchemaDynamic> output = pipe((byte)8);
+        PipeMerger<MessageSchemaDynamic> merger = new PipeMerger<MessageSchemaDynamic>(SCHEMA, "Sequence", inputs, output, 5_000_000);
+        int i = 10;
+        while (i<20) {
+            write(inputs[0], i++);
+        }
+        assertEquals(0, PipeMerger.merge(merger));
+        Thread.sleep(10);
+        assertEquals(11, PipeMerger.merge(merger));
+
+        //the passed over input wakes up behind the output
+        write(inputs[1], 5);
+        assertEquals(1, PipeMerger.merge(merger));
+        assertEquals(1, PipeMerger.late(merger));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Pipe<MessageSchemaDynamic>[] pipes(int count, byte bits) {
+        Pipe<MessageSchemaDynamic>[] pipes = new Pipe[count];
+        while (--count>=0) {
+            pipes[count] = pipe(bits);
+        }
+        return pipes;
+    }
+
+    private static Pipe<MessageSchemaDynamic> pipe(byte bits) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(bits, (byte)(bits+4), null, SCHEMA));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+    //heartbeats have no sequence and keep the one before them
+    private static void write(Pipe<MessageSchemaDynamic> pipe, int sequence) {
+        Pipe.addMsgIdx(pipe, MSG_FILL);
+        Pipe.addIntValue(sequence, pipe);
+        Pipe.addLongValue(sequence, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+        if (0==(sequence&7)) {
+            Pipe.addMsgIdx(pipe, MSG_HEARTBEAT);
+            Pipe.addIntValue(sequence, pipe);
+            Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, MSG_HEARTBEAT));
+            Pipe.publishWrites(pipe);
+        }
+    }
+
+    private static int read(Pipe<MessageSchemaDynamic> pipe, int msgIdx) {
+        assertEquals(MSG_FILL, msgIdx);
+        int sequence = Pipe.takeInt(pipe);
+        assertEquals(sequence, Pipe.takeLong(pipe));
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        if (0==(sequence&7)) {
+            assertTrue(Pipe.hasContentToRead(pipe));
+            assertEquals(MSG_HEARTBEAT, Pipe.takeMsgIdx(pipe));
+            assertEquals(sequence, Pipe.takeInt(pipe));
+            Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, MSG_HEARTBEAT));
+            Pipe.releaseReadLock(pipe);
+        }
+        return sequence;
+    }
+
+}
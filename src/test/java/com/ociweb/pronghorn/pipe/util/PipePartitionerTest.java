@@ -0,0 +1,275 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+import com.ociweb.pronghorn.pipe.util.hash.MurmurHash;
+
+public class PipePartitionerTest {
+
+    private static final MessageSchemaDynamic SCHEMA = new MessageSchemaDynamic(buildFROM());
+    private static final FieldReferenceOffsetManager FROM = MessageSchemaDynamic.from(SCHEMA);
+    private static final int MSG_ORDER = FieldReferenceOffsetManager.lookupTemplateLocator("Order", FROM);
+    private static final int MSG_FILL = FieldReferenceOffsetManager.lookupTemplateLocator("Fill", FROM);
+    private static final int MSG_HEARTBEAT = FieldReferenceOffsetManager.lookupTemplateLocator("Heartbeat", FROM);
+    private static final int messages = 5000;
+
+    private static FieldReferenceOffsetManager buildFROM() {
+        try {
+            return TemplateHandler.loadFrom("/template/partitionExample.xml");
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void longKeyTest() {
+        Pipe<MessageSchemaDynamic>[] outputs = outputs(4, (byte)8);
+        Pipe<MessageSchemaDynamic> input = pipe((byte)10);
+        PipePartitioner<MessageSchemaDynamic> partitioner = new PipePartitioner<MessageSchemaDynamic>(SCHEMA, "Account", outputs);
+        Map<String, Integer> outputOfKey = new HashMap<String, Integer>();
+        Map<String, Integer> lastSequence = new HashMap<String, Integer>();
+        int[] heartbeats = new int[1];
+
+        int written = 0;
+        int read = 0;
+        while (read<messages) {
+            while (written<messages && Pipe.hasRoomForWrite(input, FieldReferenceOffsetManager.maxFragmentSize(FROM))) {
+                write(input, written++);
+            }
+            PipePartitioner.route(input, partitioner);
+            int i = outputs.length;
+            while (--i>=0) {
+                read += drain(outputs[i], i, true, outputOfKey, lastSequence, heartbeats);
+            }
+        }
+        //every account kept its order and all the outputs were used
+        assertEquals(messages/5, heartbeats[0]);
+        assertEquals(4, new HashSet<Integer>(outputOfKey.values()).size());
+
+        Pipe.publishEOF(input);
+        assertEquals(1, PipePartitioner.route(input, partitioner));
+        for (Pipe<MessageSchemaDynamic> output : outputs) {
+            assertEquals(-1, Pipe.takeMsgIdx(output));
+        }
+    }
+
+    @Test
+    public void bytesKeyTest() {
+        Pipe<MessageSchemaDynamic>[] outputs = outputs(3, (byte)8);
+        Pipe<MessageSchemaDynamic> input = pipe((byte)10);
+        PipePartitioner<MessageSchemaDynamic> partitioner = new PipePartitioner<MessageSchemaDynamic>(SCHEMA, 11, outputs);
+        Map<String, Integer> outputOfKey = new HashMap<String, Integer>();
+        Map<String, Integer> lastSequence = new HashMap<String, Integer>();
+        int[] heartbeats = new int[1];
+
+        int written = 0;
+        int read = 0;
+        while (read<messages) {
+            while (written<messages && Pipe.hasRoomForWrite(input, FieldReferenceOffsetManager.maxFragmentSize(FROM))) {
+                write(input, written++);
+            }
+            PipePartitioner.route(input, partitioner);
+            int i = outputs.length;
+            while (--i>=0) {
+                read += drain(outputs[i], i, false, outputOfKey, lastSequence, heartbeats);
+            }
+        }
+        assertEquals(3, new HashSet<Integer>(outputOfKey.values()).size());
+    }
+
+    @Test
+    public void intKeyTest() {
+        Pipe<MessageSchemaDynamic>[] outputs = outputs(4, (byte)10);
+        Pipe<MessageSchemaDynamic> input = pipe((byte)10);
+        PipePartitioner<MessageSchemaDynamic> partitioner = new PipePartitioner<MessageSchemaDynamic>(SCHEMA, "Sequence", outputs);
+        int written = 0;
+        while (written<100) {
+            write(input, written++);
+        }
+        assertEquals(written, PipePartitioner.route(input, partitioner));
+        //every sequence is its own key so the orders and fills are spread while the heartbeats stay on the first
+        for (Pipe<MessageSchemaDynamic> output : outputs) {
+            assertTrue(Pipe.contentRemaining(output)>0);
+        }
+    }
+
+    @Test
+    public void fullOutputTest() {
+        //one tiny output holds everything back, nothing may pass it
+        Pipe<MessageSchemaDynamic>[] outputs = outputs(2, (byte)4);
+        Pipe<MessageSchemaDynamic> input = pipe((byte)10);
+        PipePartitioner<MessageSchemaDynamic> partitioner = new PipePartitioner<MessageSchemaDynamic>(SCHEMA, "Account", outputs);
+        int written = 0;
+        while (Pipe.hasRoomForWrite(input, FieldReferenceOffsetManager.maxFragmentSize(FROM))) {
+            write(input, written++);
+        }
+        int moved = PipePartitioner.route(input, partitioner);
+        assertTrue(moved>0 && moved<written);
+        assertEquals(0, PipePartitioner.route(input, partitioner));
+
+        Map<String, Integer> outputOfKey = new HashMap<String, Integer>();
+        Map<String, Integer> lastSequence = new HashMap<String, Integer>();
+        int[] heartbeats = new int[1];
+        int read = 0;
+        while (read<written) {
+            PipePartitioner.route(input, partitioner);
+            read += drain(outputs[0], 0, true, outputOfKey, lastSequence, heartbeats);
+            read += drain(outputs[1], 1, true, outputOfKey, lastSequence, heartbeats);
+        }
+        assertEquals(written, read);
+    }
+
+    @Test
+    public void rebalanceTest() {
+        int keys = 100_000;
+        int n = 1;
+        while (++n<=16) {
+            int moved = 0;
+            int[] counts = new int[n];
+            int i = keys;
+            while (--i>=0) {
+                int hash = MurmurHash.hash32finalizer(i);
+                int before = PipePartitioner.bucket(hash, n-1);
+                int after = PipePartitioner.bucket(hash, n);
+                counts[after]++;
+                if (before!=after) {
+                    //keys only ever move to the new output
+                    assertEquals(n-1, after);
+                    moved++;
+                }
+            }
+            //about one key in n moves
+            assertTrue(n+" "+moved, Math.abs(moved-keys/n) < keys/(n*10));
+            for (int c : counts) {
+                assertTrue(n+" "+c, Math.abs(c-keys/n) < keys/(n*10));
+            }
+        }
+    }
+
+    @Test
+    public void missingKeyTest() {
+        try {
+            new PipePartitioner<MessageSchemaDynamic>(SCHEMA, "Nothing", outputs(2, (byte)6));
+            fail("no message has this field");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Pipe<MessageSchemaDynamic>[] outputs(int count, byte bits) {
+        Pipe<MessageSchemaDynamic>[] outputs = new Pipe[count];
+        while (--count>=0) {
+            outputs[count] = pipe(bits);
+        }
+        return outputs;
+    }
+
+    private static Pipe<MessageSchemaDynamic> pipe(byte bits) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(bits, (byte)(bits+4), null, SCHEMA));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+    private static long account(int value) {
+        return (value*7919L)%50;
+    }
+
+    private static String symbol(int value) {
+        return "SYM"+((value*31)%13);
+    }
+
+    //orders, fills and heartbeats in turn, the sequence is the order written
+    private static void write(Pipe<MessageSchemaDynamic> pipe, int value) {
+        switch (value%5) {
+            case 0:
+                Pipe.addMsgIdx(pipe, MSG_HEARTBEAT);
+                Pipe.addIntValue(value, pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, MSG_HEARTBEAT));
+                break;
+            case 1:
+            case 3:
+                Pipe.addMsgIdx(pipe, MSG_FILL);
+                Pipe.addIntValue(value, pipe);
+                Pipe.addLongValue(account(value), pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, MSG_FILL));
+                break;
+            default:
+                Pipe.addMsgIdx(pipe, MSG_ORDER);
+                Pipe.addLongValue(account(value), pipe);
+                Pipe.addASCII(symbol(value), pipe);
+                Pipe.addIntValue(value, pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, MSG_ORDER));
+        }
+        Pipe.publishWrites(pipe);
+    }
+
+    //checks each key is only seen on one output and always in order
+    private static int drain(Pipe<MessageSchemaDynamic> pipe, int output, boolean byAccount,
+                             Map<String, Integer> outputOfKey, Map<String, Integer> lastSequence, int[] heartbeats) {
+        int count = 0;
+        while (Pipe.hasContentToRead(pipe)) {
+            int msgIdx = Pipe.takeMsgIdx(pipe);
+            String key;
+            int sequence;
+            if (MSG_HEARTBEAT==msgIdx) {
+                sequence = Pipe.takeInt(pipe);
+                key = "heartbeat";
+                heartbeats[0]++;
+            } else if (MSG_FILL==msgIdx) {
+                sequence = Pipe.takeInt(pipe);
+                long account = Pipe.takeLong(pipe);
+                assertEquals(account(sequence), account);
+                key = byAccount ? Long.toString(account) : "fill";
+            } else {
+                long account = Pipe.takeLong(pipe);
+                int meta = Pipe.takeRingByteMetaData(pipe);
+                int len = Pipe.takeRingByteLen(pipe);
+                String symbol = Pipe.readASCII(pipe, new StringBuilder(), meta, len).toString();
+                sequence = Pipe.takeInt(pipe);
+                assertEquals(account(sequence), account);
+                assertEquals(symbol(sequence), symbol);
+                key = byAccount ? Long.toString(account) : symbol;
+            }
+            Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+            Pipe.releaseReadLock(pipe);
+
+            Integer expected = outputOfKey.put(key, output);
+            if (null!=expected) {
+                assertEquals(key, expected.intValue(), output);
+            }
+            //messages without a key all go to the first output
+            if ("heartbeat".equals(key) || "fill".equals(key)) {
+                assertEquals(0, output);
+            }
+            Integer last = lastSequence.put(key, sequence);
+            if (null!=last) {
+                assertTrue(key, sequence>last);
+            }
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.PipeMultiTemplateTest;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class PipeRecorderTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)10, null, RawDataSchema.instance);
+    private static final int messages = 200;
+
+    @Test
+    public void recordAndReplayTest() throws IOException, InterruptedException {
+        File file = File.createTempFile("recording", ".dat");
+        file.deleteOnExit();
+
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        target.initBuffers();
+
+        //traffic arrives in bursts a few ms apart
+        PipeRecorder<RawDataSchema> recorder = new PipeRecorder<RawDataSchema>(file, RawDataSchema.instance);
+        int i = 0;
+        int read = 0;
+        while (i<messages) {
+            writeValue(source, i++);
+            if (0==(i%20)) {
+                Thread.sleep(2);
+            }
+            PipeRecorder.record(source, recorder, target);
+            while (Pipe.hasContentToRead(target)) {
+                assertEquals(read++, readValue(target));
+            }
+        }
+        Pipe.publishEOF(source);
+        PipeRecorder.record(source, recorder, null);
+        recorder.close();
+        assertEquals(messages, read);
+        assertEquals(messages+1, PipeRecorder.fragments(recorder));
+
+        PipeReplayer<RawDataSchema> fast = new PipeReplayer<RawDataSchema>(file, RawDataSchema.instance, PipeReplayer.AS_FAST_AS_POSSIBLE);
+        assertEquals(messages, replay(fast));
+        assertTrue(PipeReplayer.recordedNS(fast) >= 18_000_000L);
+        assertTrue(PipeReplayer.elapsedNS(fast) < PipeReplayer.recordedNS(fast));
+        assertEquals(messages+1, PipeReplayer.fragments(fast));
+        assertEquals(messages*4, PipeReplayer.bytes(fast));
+        //there is no schedule to lag behind
+        assertEquals(0, PipeReplayer.scheduleLag(fast).getTotalCount());
+        //target was not built to trace latency
+        assertNull(PipeReplayer.latency(fast));
+
+        //original timing takes at least as long as the recording did
+        PipeReplayer<RawDataSchema> original = new PipeReplayer<RawDataSchema>(file, RawDataSchema.instance, 1);
+        assertEquals(messages, replay(original));
+        assertTrue(PipeReplayer.elapsedNS(original) >= PipeReplayer.recordedNS(original));
+        assertEquals(messages+1, PipeReplayer.scheduleLag(original).getTotalCount());
+
+        PipeReplayer<RawDataSchema> doubled = new PipeReplayer<RawDataSchema>(file, RawDataSchema.instance, 2);
+        assertEquals(messages, replay(doubled));
+        assertTrue(PipeReplayer.elapsedNS(doubled) >= PipeReplayer.recordedNS(doubled)/2);
+    }
+
+    @Test
+    public void replayLatencyTest() throws IOException {
+        File file = File.createTempFile("recording", ".dat");
+        file.deleteOnExit();
+
+        Pipe<RawDataSchema> source = new Pipe<RawDataSchema>(config);
+        source.initBuffers();
+        PipeRecorder<RawDataSchema> recorder = new PipeRecorder<RawDataSchema>(file, RawDataSchema.instance);
+        int i = 0;
+        while (i<messages) {
+            writeValue(source, i++);
+            PipeRecorder.record(source, recorder, null);
+        }
+        Pipe.publishEOF(source);
+        PipeRecorder.record(source, recorder, null);
+        recorder.close();
+
+        //latency is reported even when replaying as fast as possible
+        PipeReplayer<RawDataSchema> fast = new PipeReplayer<RawDataSchema>(file, RawDataSchema.instance, PipeReplayer.AS_FAST_AS_POSSIBLE);
+        assertNull(PipeReplayer.latency(fast));
+        assertEquals(messages, replay(fast, config.traceLatency()));
+        assertTrue(PipeReplayer.latency(fast).getTotalCount() >= messages);
+        assertTrue(PipeReplayer.latency(fast).getMaxValue() > 0);
+        assertTrue(fast.toString().contains("latency"));
+    }
+
+    @Test
+    public void schemaMismatchTest() throws IOException {
+        File file = File.createTempFile("recording", ".dat");
+        file.deleteOnExit();
+        new PipeRecorder<RawDataSchema>(file, RawDataSchema.instance).close();
+        try {
+            new PipeReplayer<MessageSchemaDynamic>(file, new MessageSchemaDynamic(PipeMultiTemplateTest.buildFROM()), 1);
+            fail("schema should not have matched");
+        } catch (UnsupportedOperationException uoe) {
+            assertTrue(uoe.getMessage().contains("GUID"));
+        }
+    }
+
+    /**
+     * @return count of values read in order before the EOF
+     */
+    private static int replay(PipeReplayer<RawDataSchema> replayer) throws IOException {
+        return replay(replayer, config);
+    }
+
+    private static int replay(PipeReplayer<RawDataSchema> replayer, PipeConfig<RawDataSchema> config) throws IOException {
+        Pipe<RawDataSchema> target = new Pipe<RawDataSchema>(config);
+        target.initBuffers();
+        int read = 0;
+        boolean eof = false;
+        while (PipeReplayer.replay(replayer, target)>=0 || Pipe.hasContentToRead(target)) {
+            while (Pipe.hasContentToRead(target)) {
+                if (Pipe.peekInt(target)<0) {
+                    Pipe.takeMsgIdx(target);
+                    Pipe.confirmLowLevelRead(target, Pipe.EOF_SIZE);
+                    Pipe.releaseReadLock(target);
+                    eof = true;
+                } else {
+                    assertEquals(read++, readValue(target));
+                }
+            }
+        }
+        assertTrue(eof);
+        return read;
+    }
+
+    private static void writeValue(Pipe<RawDataSchema> pipe, int value) {
+        byte[] data = new byte[]{(byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value};
+        Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(data, 0, data.length, pipe);
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    private static int readValue(Pipe<RawDataSchema> pipe) {
+        assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(pipe));
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        byte[] target = new byte[4];
+        Pipe.readBytes(pipe, target, 0, 3, meta, len);
+        Pipe.confirmLowLevelRead(pipe, size);
+        Pipe.releaseReadLock(pipe);
+        return ((0xFF&target[0])<<24) | ((0xFF&target[1])<<16) | ((0xFF&target[2])<<8) | (0xFF&target[3]);
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.PipeRegulator;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.TokenBucket;
+
+public class PipeSchedulerTest {
+
+    private static final int size = Pipe.sizeOf(RawDataSchema.instance, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+    private static final PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>((byte)6, (byte)12, null, RawDataSchema.instance);
+
+    @Test
+    public void stealingTest() throws InterruptedException {
+        runChain(3, false, 20_000);
+    }
+
+    @Test
+    public void pinnedTest() throws InterruptedException {
+        runChain(2, true, 20_000);
+    }
+
+    @Test
+    public void rateLimitTest() throws InterruptedException {
+        //100 messages per second after a burst of 10 so 30 messages take at least 200ms
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        Pipe.setProducerRegulation(pipe, new PipeRegulator(new TokenBucket(100, 10), null));
+        pipe.initBuffers();
+        PipeScheduler scheduler = new PipeScheduler(1, false);
+        PipeScheduler.add(scheduler, new Source(pipe, 30));
+        Sink sink = new Sink(pipe);
+        PipeScheduler.add(scheduler, sink);
+
+        long start = System.nanoTime();
+        PipeScheduler.start(scheduler);
+        assertTrue(PipeScheduler.awaitTermination(scheduler, 10, TimeUnit.SECONDS));
+        long duration = System.nanoTime()-start;
+        assertEquals(30, sink.count.get());
+        assertTrue(""+duration, duration>=190_000_000);
+    }
+
+    @Test
+    public void failingStageTest() throws InterruptedException {
+        final AtomicInteger shutdowns = new AtomicInteger();
+        PipeScheduler scheduler = new PipeScheduler(2, false);
+        PipeScheduler.add(scheduler, new PipeStage(new Pipe[0], new Pipe[0]) {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected by test");
+            }
+            @Override
+            public void shutdown() {
+                shutdowns.incrementAndGet();
+            }
+        });
+        PipeScheduler.start(scheduler);
+        assertTrue(PipeScheduler.awaitTermination(scheduler, 10, TimeUnit.SECONDS));
+        assertEquals(1, shutdowns.get());
+    }
+
+    @Test
+    public void terminatedOnceTest() throws InterruptedException {
+        //many stealing threads racing over stages which end on their first run, each may only be counted once
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicInteger longRuns = new AtomicInteger();
+        PipeScheduler scheduler = new PipeScheduler(4, false);
+        int i = 200;
+        while (--i>=0) {
+            PipeScheduler.add(scheduler, new PipeStage(new Pipe[0], new Pipe[0]) {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                    terminate(this);
+                }
+            });
+        }
+        PipeScheduler.add(scheduler, new PipeStage(new Pipe[0], new Pipe[0]) {
+            @Override
+            public void run() {
+                if (longRuns.incrementAndGet()>=10_000) {
+                    terminate(this);
+                }
+            }
+        });
+        PipeScheduler.start(scheduler);
+        assertTrue(PipeScheduler.awaitTermination(scheduler, 30, TimeUnit.SECONDS));
+        assertEquals(200, runs.get());
+        //the scheduler did not end early while this stage was still live
+        assertEquals(10_000, longRuns.get());
+    }
+
+    private static void runChain(int threads, boolean pinned, int messages) throws InterruptedException {
+        Pipe<RawDataSchema> a = pipe();
+        Pipe<RawDataSchema> b = pipe();
+        Pipe<RawDataSchema> c = pipe();
+        Pipe<RawDataSchema> d = pipe();
+        Pipe<RawDataSchema> e = pipe();
+        Source source = new Source(a, messages);
+        Relay first = new Relay(a, b);
+        Relay second = new Relay(b, c);
+        Sink sink = new Sink(c);
+        //a second chain with no connection to the first
+        Source otherSource = new Source(d, messages);
+        Sink otherSink = new Sink(e);
+
+        PipeScheduler scheduler = new PipeScheduler(threads, pinned);
+        PipeScheduler.add(scheduler, source);
+        PipeScheduler.add(scheduler, otherSource);
+        PipeScheduler.add(scheduler, first);
+        PipeScheduler.add(scheduler, second);
+        PipeScheduler.add(scheduler, new Relay(d, e));
+        PipeScheduler.add(scheduler, sink);
+        PipeScheduler.add(scheduler, otherSink);
+        PipeScheduler.start(scheduler);
+        assertTrue(PipeScheduler.awaitTermination(scheduler, 30, TimeUnit.SECONDS));
+        assertEquals(messages, sink.count.get());
+        assertEquals(messages, otherSink.count.get());
+
+        if (pinned) {
+            assertEquals(PipeScheduler.threadOf(scheduler, source), PipeScheduler.threadOf(scheduler, first));
+            assertEquals(PipeScheduler.threadOf(scheduler, otherSource), PipeScheduler.threadOf(scheduler, otherSink));
+        }
+    }
+
+    private static Pipe<RawDataSchema> pipe() {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        return pipe;
+    }
+
+    private static class Source extends PipeStage {
+        private final Pipe<RawDataSchema> output;
+        private final int messages;
+        private final byte[] data = new byte[4];
+        private int written;
+
+        Source(Pipe<RawDataSchema> output, int messages) {
+            super(new Pipe[0], new Pipe[]{output});
+            this.output = output;
+            this.messages = messages;
+        }
+
+        @Override
+        public void run() {
+            while (written<messages && Pipe.hasRoomForWrite(output, size)) {
+                data[0] = (byte)(written>>>24);
+                data[1] = (byte)(written>>>16);
+                data[2] = (byte)(written>>>8);
+                data[3] = (byte)written;
+                Pipe.addMsgIdx(output, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+                Pipe.addByteArray(data, 0, data.length, output);
+                Pipe.confirmLowLevelWrite(output, size);
+                Pipe.publishWrites(output);
+                written++;
+                if (Pipe.isRateLimitedProducer(output)) {
+                    break; //let the scheduler apply the delay
+                }
+            }
+            if (written==messages && Pipe.hasRoomForWrite(output, Pipe.EOF_SIZE)) {
+                Pipe.publishEOF(output);
+                terminate(this);
+            }
+        }
+    }
+
+    private static class Relay extends PipeStage {
+        private final Pipe<RawDataSchema> input;
+        private final Pipe<RawDataSchema> output;
+
+        Relay(Pipe<RawDataSchema> input, Pipe<RawDataSchema> output) {
+            super(new Pipe[]{input}, new Pipe[]{output});
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            while (Pipe.hasContentToRead(input)) {
+                if (Pipe.peekInt(input)<0) {
+                    if (Pipe.hasRoomForWrite(output, Pipe.EOF_SIZE)) {
+                        Pipe.takeMsgIdx(input);
+                        Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+                        Pipe.releaseReadLock(input);
+                        Pipe.publishEOF(output);
+                        terminate(this);
+                    }
+                    return;
+                }
+                if (0==Pipe.moveMessages(input, output, 1)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class Sink extends PipeStage {
+        private final Pipe<RawDataSchema> input;
+        private final byte[] data = new byte[4];
+        final AtomicInteger count = new AtomicInteger();
+
+        Sink(Pipe<RawDataSchema> input) {
+            super(new Pipe[]{input}, new Pipe[0]);
+            this.input = input;
+        }
+
+        @Override
+        public void run() {
+            while (Pipe.hasContentToRead(input)) {
+                int msgIdx = Pipe.takeMsgIdx(input);
+                if (msgIdx<0) {
+                    Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+                    Pipe.releaseReadLock(input);
+                    terminate(this);
+                    return;
+                }
+                int meta = Pipe.takeRingByteMetaData(input);
+                int len = Pipe.takeRingByteLen(input);
+                Pipe.readBytes(input, data, 0, 3, meta, len);
+                Pipe.confirmLowLevelRead(input, size);
+                Pipe.releaseReadLock(input);
+                int value = ((0xFF&data[0])<<24) | ((0xFF&data[1])<<16) | ((0xFF&data[2])<<8) | (0xFF&data[3]);
+                assertEquals(count.getAndIncrement(), value);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.ociweb.pronghorn.pipe.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeTranslatorTest {
+
+    private static final MessageSchemaDynamic V1 = new MessageSchemaDynamic(buildFROM("/template/partitionExample.xml"));
+    private static final MessageSchemaDynamic V2 = new MessageSchemaDynamic(buildFROM("/template/partitionExampleV2.xml"));
+    private static final FieldReferenceOffsetManager FROM1 = MessageSchemaDynamic.from(V1);
+    private static final FieldReferenceOffsetManager FROM2 = MessageSchemaDynamic.from(V2);
+    private static final int V1_ORDER = FieldReferenceOffsetManager.lookupTemplateLocator("Order", FROM1);
+    private static final int V1_FILL = FieldReferenceOffsetManager.lookupTemplateLocator("Fill", FROM1);
+    private static final int V1_HEARTBEAT = FieldReferenceOffsetManager.lookupTemplateLocator("Heartbeat", FROM1);
+    private static final int V2_ORDER = FieldReferenceOffsetManager.lookupTemplateLocator("Order", FROM2);
+    private static final int V2_FILL = FieldReferenceOffsetManager.lookupTemplateLocator("Fill", FROM2);
+    private static final int V2_CANCEL = FieldReferenceOffsetManager.lookupTemplateLocator("Cancel", FROM2);
+    private static final int messages = 5000;
+
+    private static FieldReferenceOffsetManager buildFROM(String source) {
+        try {
+            return TemplateHandler.loadFrom(source);
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void newerSchemaTest() {
+        //small pipes so both rings wrap many times
+        Pipe<MessageSchemaDynamic> input = pipe(V1, (byte)8);
+        Pipe<MessageSchemaDynamic> output = pipe(V2, (byte)7);
+        PipeTranslator<MessageSchemaDynamic, MessageSchemaDynamic> translator = new PipeTranslator<MessageSchemaDynamic, MessageSchemaDynamic>(V1, V2);
+
+        int written = 0;
+        int read = 0;
+        int expected = messages-messages/5; //heartbeats are not in the newer schema
+        while (read<expected) {
+            while (written<messages && Pipe.hasRoomForWrite(input, FieldReferenceOffsetManager.maxFragmentSize(FROM1))) {
+                writeV1(input, written++);
+            }
+            PipeTranslator.translate(input, translator, output);
+            while (Pipe.hasContentToRead(output)) {
+                int msgIdx = Pipe.takeMsgIdx(output);
+                if (V2_ORDER==msgIdx) {
+                    int sequence = Pipe.takeInt(output);
+                    assertEquals(account(sequence), Pipe.takeLong(output));
+                    assertEquals(symbol(sequence), readASCII(output));
+                    assertEquals(100, Pipe.takeInt(output));
+                    assertEquals(FieldReferenceOffsetManager.getAbsent32Value(FROM2), Pipe.takeInt(output));
+                    assertEquals(FieldReferenceOffsetManager.getAbsent64Value(FROM2), Pipe.takeLong(output));
+                    Pipe.takeRingByteMetaData(output);
+                    assertEquals(-1, Pipe.takeRingByteLen(output));
+                    assertTrue(1!=sequence%5 && 3!=sequence%5 && 0!=sequence%5);
+                } else {
+                    assertEquals(V2_FILL, msgIdx);
+                    int sequence = Pipe.takeInt(output);
+                    assertEquals(7, Pipe.takeLong(output));
+                    assertTrue(1==sequence%5 || 3==sequence%5);
+                }
+                Pipe.confirmLowLevelRead(output, Pipe.sizeOf(output, msgIdx));
+                Pipe.releaseReadLock(output);
+                read++;
+            }
+        }
+        assertEquals(messages/5, PipeTranslator.dropped(translator));
+
+        Pipe.publishEOF(input);
+        assertEquals(1, PipeTranslator.translate(input, translator, output));
+        assertEquals(-1, Pipe.takeMsgIdx(output));
+    }
+
+    @Test
+    public void olderSchemaTest() {
+        Pipe<MessageSchemaDynamic> input = pipe(V2, (byte)8);
+        Pipe<MessageSchemaDynamic> output = pipe(V1, (byte)7);
+        PipeTranslator<MessageSchemaDynamic, MessageSchemaDynamic> translator = new PipeTranslator<MessageSchemaDynamic, MessageSchemaDynamic>(V2, V1);
+
+        int written = 0;
+        int read = 0;
+        while (read<messages) {
+            while (written<messages && Pipe.hasRoomForWrite(input, FieldReferenceOffsetManager.maxFragmentSize(FROM2))) {
+                writeV2(input, written++);
+            }
+            PipeTranslator.translate(input, translator, output);
+            while (Pipe.hasContentToRead(output)) {
+                assertEquals(V1_ORDER, Pipe.takeMsgIdx(output));
+                long account = Pipe.takeLong(output);
+                String symbol = readASCII(output);
+                int sequence = Pipe.takeInt(output);
+                assertEquals(read, sequence);
+                assertEquals(account(sequence), account);
+                assertEquals(symbol(sequence), symbol);
+                Pipe.confirmLowLevelRead(output, Pipe.sizeOf(output, V1_ORDER));
+                Pipe.releaseReadLock(output);
+                read++;
+            }
+        }
+        //every order was followed by a cancel the older schema does not have
+        assertEquals(messages, PipeTranslator.dropped(translator));
+    }
+
+    @Test
+    public void stageTest() throws InterruptedException {
+        Pipe<MessageSchemaDynamic> input = pipe(V1, (byte)12);
+        Pipe<MessageSchemaDynamic> output = pipe(V1, (byte)12);
+        int written = 0;
+        while (written<500) {
+            writeV1(input, written++);
+        }
+        Pipe.publishEOF(input);
+
+        //same schema on both sides is a straight copy
+        PipeScheduler scheduler = new PipeScheduler(1, false);
+        PipeScheduler.add(scheduler, PipeTranslator.stage(input, new PipeTranslator<MessageSchemaDynamic, MessageSchemaDynamic>(V1, V1), output));
+        PipeScheduler.start(scheduler);
+        assertTrue(PipeScheduler.awaitTermination(scheduler, 10, TimeUnit.SECONDS));
+
+        int read = 0;
+        int msgIdx;
+        while ((msgIdx = Pipe.takeMsgIdx(output))>=0) {
+            if (V1_ORDER==msgIdx) {
+                assertEquals(account(read), Pipe.takeLong(output));
+                assertEquals(symbol(read), readASCII(output));
+                assertEquals(read, Pipe.takeInt(output));
+            } else if (V1_FILL==msgIdx) {
+                assertEquals(read, Pipe.takeInt(output));
+                assertEquals(account(read), Pipe.takeLong(output));
+            } else {
+                assertEquals(V1_HEARTBEAT, msgIdx);
+                assertEquals(read, Pipe.takeInt(output));
+            }
+            Pipe.confirmLowLevelRead(output, Pipe.sizeOf(output, msgIdx));
+            Pipe.releaseReadLock(output);
+            read++;
+        }
+        assertEquals(written, read);
+    }
+
+    private static Pipe<MessageSchemaDynamic> pipe(MessageSchemaDynamic schema, byte bits) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(bits, (byte)(bits+4), null, schema));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+    private static long account(int value) {
+        return (value*7919L)%50;
+    }
+
+    private static String symbol(int value) {
+        return "SYM"+((value*31)%13);
+    }
+
+    private static String readASCII(Pipe<MessageSchemaDynamic> pipe) {
+        int meta = Pipe.takeRingByteMetaData(pipe);
+        int len = Pipe.takeRingByteLen(pipe);
+        return Pipe.readASCII(pipe, new StringBuilder(), meta, len).toString();
+    }
+
+    //orders, fills and heartbeats in turn, the sequence is the order written
+    private static void writeV1(Pipe<MessageSchemaDynamic> pipe, int value) {
+        switch (value%5) {
+            case 0:
+                Pipe.addMsgIdx(pipe, V1_HEARTBEAT);
+                Pipe.addIntValue(value, pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, V1_HEARTBEAT));
+                break;
+            case 1:
+            case 3:
+                Pipe.addMsgIdx(pipe, V1_FILL);
+                Pipe.addIntValue(value, pipe);
+                Pipe.addLongValue(account(value), pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, V1_FILL));
+                break;
+            default:
+                Pipe.addMsgIdx(pipe, V1_ORDER);
+                Pipe.addLongValue(account(value), pipe);
+                Pipe.addASCII(symbol(value), pipe);
+                Pipe.addIntValue(value, pipe);
+                Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, V1_ORDER));
+        }
+        Pipe.publishWrites(pipe);
+    }
+
+    //each order carries a note and is followed by a cancel
+    private static void writeV2(Pipe<MessageSchemaDynamic> pipe, int value) {
+        Pipe.addMsgIdx(pipe, V2_ORDER);
+        Pipe.addIntValue(value, pipe);
+        Pipe.addLongValue(account(value), pipe);
+        Pipe.addASCII(symbol(value), pipe);
+        Pipe.addIntValue(value, pipe);
+        Pipe.addIntValue(2, pipe);
+        Pipe.addLongValue(value, pipe);
+        Pipe.addASCII("note "+value, pipe);
+        Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, V2_ORDER));
+        Pipe.publishWrites(pipe);
+
+        Pipe.addMsgIdx(pipe, V2_CANCEL);
+        Pipe.addIntValue(value, pipe);
+        Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, V2_CANCEL));
+        Pipe.publishWrites(pipe);
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.ociweb.pronghorn.pipe.util.build;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class FlyweightProcessorTest {
+
+    /**
+     * Implemented by the compiled driver so the test can call the generated flyweights without reflection.
+     */
+    public interface Exchange {
+        boolean writeTrade(Pipe<?> pipe, long id, CharSequence symbol, int quantity, int exponent, long mantissa, CharSequence note, byte[] payload);
+        boolean writeHeartbeat(Pipe<?> pipe, int time);
+        String read(Pipe<?> pipe);
+    }
+
+    private static final String DRIVER =
+            "package flyweight.test;\n"+
+            "import com.ociweb.pronghorn.pipe.Pipe;\n"+
+            "import com.ociweb.pronghorn.pipe.util.build.GenerateFlyweights;\n"+
+            "import com.ociweb.pronghorn.pipe.util.build.FlyweightProcessorTest;\n"+
+            "@GenerateFlyweights(\"/template/flyweightExample.xml\")\n"+
+            "public class Driver implements FlyweightProcessorTest.Exchange {\n"+
+            "    private final TradeFlyweight trade = new TradeFlyweight();\n"+
+            "    private final HeartbeatFlyweight heartbeat = new HeartbeatFlyweight();\n"+
+            "    private final byte[] payload = new byte[64];\n"+
+            "    public boolean writeTrade(Pipe<?> pipe, long id, CharSequence symbol, int quantity, int exponent, long mantissa, CharSequence note, byte[] bytes) {\n"+
+            "        if (!TradeFlyweight.tryWrite(trade, pipe)) {\n"+
+            "            return false;\n"+
+            "        }\n"+
+            "        trade.setPayload(bytes, 0, bytes.length);\n"+ //not in template order on purpose
+            "        trade.setQuantity(quantity);\n"+
+            "        trade.setNote(note);\n"+
+            "        trade.setId(id);\n"+
+            "        trade.setPrice(exponent, mantissa);\n"+
+            "        trade.setSymbol(symbol);\n"+
+            "        Pipe.publishWrites(pipe);\n"+
+            "        return true;\n"+
+            "    }\n"+
+            "    public boolean writeHeartbeat(Pipe<?> pipe, int time) {\n"+
+            "        if (!HeartbeatFlyweight.tryWrite(heartbeat, pipe)) {\n"+
+            "            return false;\n"+
+            "        }\n"+
+            "        heartbeat.setTime(time);\n"+
+            "        Pipe.publishWrites(pipe);\n"+
+            "        return true;\n"+
+            "    }\n"+
+            "    public String read(Pipe<?> pipe) {\n"+
+            "        if (!Pipe.hasContentToRead(pipe)) {\n"+
+            "            return null;\n"+
+            "        }\n"+
+            "        StringBuilder result = new StringBuilder();\n"+
+            "        int msgIdx = Pipe.takeMsgIdx(pipe);\n"+
+            "        if (TradeFlyweight.MSG_IDX==msgIdx) {\n"+
+            "            TradeFlyweight.wrapRead(trade, pipe);\n"+
+            "            result.append(trade.getId()).append(' ');\n"+
+            "            trade.getSymbol(result).append(' ');\n"+
+            "            result.append(trade.getQuantity()).append(' ').append(trade.getPriceMantissa()).append('e').append(trade.getPriceExponent()).append(' ');\n"+
+            "            if (null==trade.getNote(result)) {\n"+
+            "                result.append(\"null\");\n"+
+            "            }\n"+
+            "            int len = trade.getPayload(payload, 0, 63);\n"+
+            "            result.append(' ').append(java.util.Arrays.toString(java.util.Arrays.copyOf(payload, len)));\n"+
+            "        } else {\n"+
+            "            HeartbeatFlyweight.wrapRead(heartbeat, pipe);\n"+
+            "            result.append(\"Heartbeat \").append(heartbeat.getTime());\n"+
+            "        }\n"+
+            "        Pipe.releaseReadLock(pipe);\n"+
+            "        return result.toString();\n"+
+            "    }\n"+
+            "}\n";
+
+    //sequences, constants and defaults must also produce code which compiles
+    private static final String SMALL =
+            "package flyweight.test;\n"+
+            "@com.ociweb.pronghorn.pipe.util.build.GenerateFlyweights(value=\"/template/smallExample.xml\", packageName=\"flyweight.small\")\n"+
+            "public class Small {\n"+
+            "}\n";
+
+    private static final byte[] PAYLOAD = new byte[]{1, 2, 3, -4};
+
+    private static FieldReferenceOffsetManager from;
+    private static Exchange exchange;
+
+    //the driver is compiled once and shared by all the tests
+    private static synchronized Exchange exchange() throws Exception {
+        if (null==exchange) {
+            from = TemplateHandler.loadFrom("/template/flyweightExample.xml");
+
+            File folder = workingFolder();
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            assertTrue(diagnostics.getDiagnostics().toString(),
+                       compile(folder, diagnostics, new SimpleSourceFileObject("Driver", DRIVER), new SimpleSourceFileObject("Small", SMALL)));
+            assertTrue(new File(folder, "flyweight/small/SampleFlyweight.class").exists());
+
+            URLClassLoader loader = new URLClassLoader(new URL[]{folder.toURI().toURL()}, FlyweightProcessorTest.class.getClassLoader());
+            exchange = (Exchange)loader.loadClass("flyweight.test.Driver").newInstance();
+        }
+        return exchange;
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        Exchange exchange = exchange();
+        Pipe<MessageSchemaDynamic> pipe = pipe();
+
+        assertTrue(exchange.writeTrade(pipe, 1L<<40, "IBM", -12, -2, 12345, "café", PAYLOAD));
+        assertTrue(exchange.writeHeartbeat(pipe, 77));
+        assertTrue(exchange.writeTrade(pipe, 2, "T", 5, 0, -1, null, new byte[0]));
+
+        assertEquals("1099511627776 IBM -12 12345e-2 café [1, 2, 3, -4]", exchange.read(pipe));
+        assertEquals("Heartbeat 77", exchange.read(pipe));
+        assertEquals("2 T 5 -1e0 null []", exchange.read(pipe));
+        assertNull(exchange.read(pipe));
+    }
+
+    @Test
+    public void fullPipeTest() throws Exception {
+        Exchange exchange = exchange();
+        Pipe<MessageSchemaDynamic> pipe = pipe();
+        int written = 0;
+        while (exchange.writeHeartbeat(pipe, written)) {
+            written++;
+        }
+        assertEquals(pipe.sizeOfSlabRing/Pipe.sizeOf(pipe, FieldReferenceOffsetManager.lookupTemplateLocator("Heartbeat", from)), written);
+        for (int i = 0; i<written; i++) {
+            assertEquals("Heartbeat "+i, exchange.read(pipe));
+        }
+        assertTrue(exchange.writeHeartbeat(pipe, 1));
+    }
+
+    @Test
+    public void flyweightToLowLevelTest() throws Exception {
+        Exchange exchange = exchange();
+        Pipe<MessageSchemaDynamic> pipe = pipe();
+        int msgIdx = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+
+        for (int i = 0; i<100; i++) { //wrap the blob several times
+            assertTrue(exchange.writeTrade(pipe, i, "MSFT", i*2, 3, -i, "über", PAYLOAD));
+
+            assertEquals(msgIdx, Pipe.takeMsgIdx(pipe));
+            assertEquals(i, Pipe.takeLong(pipe));
+            int meta = Pipe.takeRingByteMetaData(pipe);
+            int len = Pipe.takeRingByteLen(pipe);
+            assertEquals("MSFT", Pipe.readASCII(pipe, new StringBuilder(), meta, len).toString());
+            assertEquals(i*2, Pipe.takeInt(pipe));
+            assertEquals(3, Pipe.takeInt(pipe));
+            assertEquals(-i, Pipe.takeLong(pipe));
+            meta = Pipe.takeRingByteMetaData(pipe);
+            len = Pipe.takeRingByteLen(pipe);
+            assertEquals("über", Pipe.readUTF8(pipe, new StringBuilder(), meta, len).toString());
+            meta = Pipe.takeRingByteMetaData(pipe);
+            len = Pipe.takeRingByteLen(pipe);
+            byte[] target = new byte[4];
+            Pipe.readBytes(pipe, target, 0, 3, meta, len);
+            assertArrayEquals(PAYLOAD, target);
+            Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+            Pipe.releaseReadLock(pipe);
+        }
+    }
+
+    @Test
+    public void lowLevelToFlyweightTest() throws Exception {
+        Exchange exchange = exchange();
+        Pipe<MessageSchemaDynamic> pipe = pipe();
+        int msgIdx = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+
+        for (int i = 0; i<100; i++) {
+            assertTrue(Pipe.hasRoomForWrite(pipe, Pipe.sizeOf(pipe, msgIdx)));
+            Pipe.addMsgIdx(pipe, msgIdx);
+            Pipe.addLongValue(i, pipe);
+            Pipe.addASCII("GE", pipe);
+            Pipe.addIntValue(-i, pipe);
+            Pipe.addIntValue(1, pipe);
+            Pipe.addLongValue(i*10, pipe);
+            if (0==(i&1)) {
+                Pipe.addNullByteArray(pipe);
+            } else {
+                Pipe.addUTF8("n", pipe);
+            }
+            Pipe.addByteArray(PAYLOAD, 0, 2, pipe);
+            Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, msgIdx));
+            Pipe.publishWrites(pipe);
+
+            assertEquals(i+" GE "+(-i)+" "+(i*10)+"e1 "+(0==(i&1) ? "null" : "n")+" [1, 2]", exchange.read(pipe));
+        }
+    }
+
+    @Test
+    public void missingTemplateTest() {
+        String source = "package flyweight.test;\n"+
+                        "@com.ociweb.pronghorn.pipe.util.build.GenerateFlyweights(\"/template/noSuchTemplate.xml\")\n"+
+                        "public class Missing {\n"+
+                        "}\n";
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        assertFalse(compile(workingFolder(), diagnostics, new SimpleSourceFileObject("Missing", source)));
+        boolean reported = false;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            reported |= Diagnostic.Kind.ERROR==diagnostic.getKind() && diagnostic.getMessage(null).contains("noSuchTemplate.xml");
+        }
+        assertTrue(diagnostics.getDiagnostics().toString(), reported);
+    }
+
+    private static Pipe<MessageSchemaDynamic> pipe() {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>((byte)6, (byte)15, null, new MessageSchemaDynamic(from)));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+    private static File workingFolder() {
+        File folder = new File(new File(System.getProperty("java.io.tmpdir")), "flyweights"+System.nanoTime());
+        folder.mkdirs();
+        return folder;
+    }
+
+    private static boolean compile(File folder, DiagnosticCollector<JavaFileObject> diagnostics, JavaFileObject ... sources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> options = new ArrayList<String>();
+        options.addAll(Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                                     "-d", folder.toString(),
+                                     "-s", folder.toString()));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, Arrays.asList(sources));
+        task.setProcessors(Arrays.asList(new FlyweightProcessor()));
+        return task.call();
+    }
+
+}